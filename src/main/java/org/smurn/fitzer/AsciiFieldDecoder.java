@@ -0,0 +1,369 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Decodes the fields of an ASCII table column. <p>Each {@code TFORMn} is
+ * compiled into a decoder specialized for its format code, see
+ * {@link #compile(char, int, int, String)}. Decoders read the digits
+ * straight from the buffer, without creating a {@code String}. Real numbers
+ * are parsed with the {@link DecimalParser} that also parses numeric header
+ * values.</p> <p>A field is undefined if it contains only spaces or if it
+ * is equal to {@code TNULLn}, ignoring leading and trailing spaces.</p>
+ * <p>Decoders are immutable and can be shared between threads.</p>
+ */
+abstract class AsciiFieldDecoder {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private final int width;
+    private final byte[] nullValue;
+
+    /**
+     * Creates an instance.
+     * @param width Width of the field in characters.
+     * @param nullValue Value of {@code TNULLn} or {@code null} if not given.
+     */
+    AsciiFieldDecoder(int width, String nullValue) {
+        this.width = width;
+        this.nullValue = nullValue == null ? null
+                : trim(nullValue).getBytes(ASCII);
+    }
+
+    /**
+     * Creates the decoder for a format.
+     * @param type Format code, one of {@code A I F E D}.
+     * @param width Width of the field in characters.
+     * @param decimals Number of digits after the implied decimal point,
+     * ignored for {@code A} and {@code I}.
+     * @param nullValue Value of {@code TNULLn} or {@code null} if not given.
+     * @return Decoder specialized for the format.
+     * @throws IllegalArgumentException if {@code type} is unknown or if
+     * {@code width} is not positive.
+     */
+    static AsciiFieldDecoder compile(char type, int width, int decimals,
+            String nullValue) {
+        if (width <= 0) {
+            throw new IllegalArgumentException("width must be positive.");
+        }
+        switch (type) {
+            case 'A':
+                return new CharacterDecoder(width, nullValue);
+            case 'I':
+                return new IntegerDecoder(width, nullValue);
+            case 'F':
+            case 'E':
+            case 'D':
+                return new RealDecoder(width, decimals, nullValue);
+            default:
+                throw new IllegalArgumentException("Unknown type: " + type);
+        }
+    }
+
+    /**
+     * Gets the width of the field.
+     * @return Number of characters.
+     */
+    final int getWidth() {
+        return width;
+    }
+
+    /**
+     * Checks if a field is undefined.
+     * @param buffer Buffer containing the field.
+     * @param position Index of the first character of the field.
+     * @return {@code true} if the field is blank or equal to {@code TNULLn}.
+     */
+    final boolean isNull(ByteBuffer buffer, int position) {
+        int start = position;
+        int end = position + width;
+        while (start < end && buffer.get(start) == ' ') {
+            start++;
+        }
+        if (start == end) {
+            return true;
+        }
+        if (nullValue == null) {
+            return false;
+        }
+        while (buffer.get(end - 1) == ' ') {
+            end--;
+        }
+        if (end - start != nullValue.length) {
+            return false;
+        }
+        for (int i = 0; i < nullValue.length; i++) {
+            if (buffer.get(start + i) != nullValue[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decodes a field as integer.
+     * @param buffer Buffer containing the field.
+     * @param position Index of the first character of the field.
+     * @param parser Parser to use for real numbers, owned by the caller.
+     * @return Value of the field. Only valid if the field is not
+     * {@link #isNull(ByteBuffer, int) undefined}.
+     * @throws NumberFormatException if the field is malformed or not an
+     * integer within the range of {@code long}.
+     */
+    abstract long decodeLong(ByteBuffer buffer, int position,
+            DecimalParser parser);
+
+    /**
+     * Decodes a field as floating point number.
+     * @param buffer Buffer containing the field.
+     * @param position Index of the first character of the field.
+     * @param parser Parser to use for real numbers, owned by the caller.
+     * @return Value of the field. Only valid if the field is not
+     * {@link #isNull(ByteBuffer, int) undefined}.
+     * @throws NumberFormatException if the field is malformed.
+     */
+    abstract double decodeDouble(ByteBuffer buffer, int position,
+            DecimalParser parser);
+
+    /**
+     * Decodes a field as text.
+     * @param buffer Buffer containing the field.
+     * @param position Index of the first character of the field.
+     * @return Characters of the field without trailing spaces.
+     */
+    final String decodeString(ByteBuffer buffer, int position) {
+        int end = position + width;
+        while (end > position && buffer.get(end - 1) == ' ') {
+            end--;
+        }
+        char[] chars = new char[end - position];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) (buffer.get(position + i) & 0xFF);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Finds the first non-space character of a field.
+     * @param buffer Buffer containing the field.
+     * @param position Index of the first character of the field.
+     * @return Index of the first non-space character.
+     */
+    final int skipSpaces(ByteBuffer buffer, int position) {
+        int end = position + width;
+        while (position < end && buffer.get(position) == ' ') {
+            position++;
+        }
+        return position;
+    }
+
+    /**
+     * Checks that only spaces follow a number.
+     * @param buffer Buffer containing the field.
+     * @param position Index after the number.
+     * @param end Index after the field.
+     * @throws NumberFormatException if there is another character.
+     */
+    static void checkTrailing(ByteBuffer buffer, int position, int end) {
+        for (int i = position; i < end; i++) {
+            if (buffer.get(i) != ' ') {
+                throw new NumberFormatException("Unexpected character "
+                        + (buffer.get(i) & 0xFF) + ".");
+            }
+        }
+    }
+
+    /**
+     * Removes leading and trailing spaces.
+     * @param s String to trim.
+     * @return String without leading and trailing spaces.
+     */
+    private static String trim(String s) {
+        int start = 0;
+        int end = s.length();
+        while (start < end && s.charAt(start) == ' ') {
+            start++;
+        }
+        while (end > start && s.charAt(end - 1) == ' ') {
+            end--;
+        }
+        return s.substring(start, end);
+    }
+
+    /**
+     * Decoder for character fields ({@code Aw}).
+     */
+    private static final class CharacterDecoder extends AsciiFieldDecoder {
+
+        /**
+         * Creates an instance.
+         * @param width Width of the field.
+         * @param nullValue Value of {@code TNULLn}.
+         */
+        CharacterDecoder(int width, String nullValue) {
+            super(width, nullValue);
+        }
+
+        @Override
+        long decodeLong(ByteBuffer buffer, int position,
+                DecimalParser parser) {
+            throw new NumberFormatException("Character field.");
+        }
+
+        @Override
+        double decodeDouble(ByteBuffer buffer, int position,
+                DecimalParser parser) {
+            throw new NumberFormatException("Character field.");
+        }
+    }
+
+    /**
+     * Decoder for integer fields ({@code Iw}). Accumulates the digits
+     * directly into a {@code long}.
+     */
+    private static final class IntegerDecoder extends AsciiFieldDecoder {
+
+        /**
+         * Creates an instance.
+         * @param width Width of the field.
+         * @param nullValue Value of {@code TNULLn}.
+         */
+        IntegerDecoder(int width, String nullValue) {
+            super(width, nullValue);
+        }
+
+        @Override
+        long decodeLong(ByteBuffer buffer, int position,
+                DecimalParser parser) {
+            int end = position + getWidth();
+            int pos = skipSpaces(buffer, position);
+            boolean negative = false;
+            if (pos < end && (buffer.get(pos) == '+'
+                    || buffer.get(pos) == '-')) {
+                negative = buffer.get(pos) == '-';
+                pos++;
+            }
+            int start = pos;
+            long value = 0;
+            while (pos < end) {
+                int digit = buffer.get(pos) - '0';
+                if (digit < 0 || digit > 9) {
+                    break;
+                }
+                if (value < (Long.MIN_VALUE + digit) / 10) {
+                    throw new NumberFormatException("Integer overflow.");
+                }
+                value = value * 10 - digit;
+                pos++;
+            }
+            if (pos == start) {
+                throw new NumberFormatException("Missing digits.");
+            }
+            checkTrailing(buffer, pos, end);
+            if (!negative) {
+                if (value == Long.MIN_VALUE) {
+                    throw new NumberFormatException("Integer overflow.");
+                }
+                value = -value;
+            }
+            return value;
+        }
+
+        @Override
+        double decodeDouble(ByteBuffer buffer, int position,
+                DecimalParser parser) {
+            return decodeLong(buffer, position, parser);
+        }
+    }
+
+    /**
+     * Decoder for real fields ({@code Fw.d}, {@code Ew.d} and
+     * {@code Dw.d}). If the field has no decimal point, the last {@code d}
+     * digits before the exponent are the fraction, as in Fortran.
+     */
+    private static final class RealDecoder extends AsciiFieldDecoder {
+
+        private final int decimals;
+
+        /**
+         * Creates an instance.
+         * @param width Width of the field.
+         * @param decimals Number of digits after the implied decimal point.
+         * @param nullValue Value of {@code TNULLn}.
+         */
+        RealDecoder(int width, int decimals, String nullValue) {
+            super(width, nullValue);
+            this.decimals = decimals;
+        }
+
+        @Override
+        long decodeLong(ByteBuffer buffer, int position,
+                DecimalParser parser) {
+            parse(buffer, position, parser);
+            try {
+                if (parser.isCompact()) {
+                    return DecimalParser.toLongExact(parser.getUnscaled(),
+                            scale(parser));
+                }
+                return parser.toBigDecimal(buffer).movePointLeft(
+                        parser.hasPoint() ? 0 : decimals).longValueExact();
+            } catch (ArithmeticException e) {
+                throw new NumberFormatException("Not an integer.");
+            }
+        }
+
+        @Override
+        double decodeDouble(ByteBuffer buffer, int position,
+                DecimalParser parser) {
+            parse(buffer, position, parser);
+            if (parser.isCompact()) {
+                return DecimalParser.toDouble(parser.getUnscaled(),
+                        scale(parser));
+            }
+            return parser.toBigDecimal(buffer).movePointLeft(
+                    parser.hasPoint() ? 0 : decimals).doubleValue();
+        }
+
+        /**
+         * Parses the number of a field.
+         * @param buffer Buffer containing the field.
+         * @param position Index of the first character of the field.
+         * @param parser Parser to use.
+         * @throws NumberFormatException if the field is malformed.
+         */
+        private void parse(ByteBuffer buffer, int position,
+                DecimalParser parser) {
+            int end = position + getWidth();
+            if (!parser.parse(buffer, skipSpaces(buffer, position), end)) {
+                throw new NumberFormatException("Malformed number.");
+            }
+            checkTrailing(buffer, parser.getEnd(), end);
+        }
+
+        /**
+         * Gets the scale of a parsed number, including the implied decimal
+         * point.
+         * @param parser Parser holding the number.
+         * @return Scale of the value of the field.
+         */
+        private int scale(DecimalParser parser) {
+            return parser.hasPoint() ? parser.getScale()
+                    : parser.getScale() + decimals;
+        }
+    }
+}
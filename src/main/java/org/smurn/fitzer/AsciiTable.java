@@ -0,0 +1,560 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * ASCII table extension, memory mapped directly from the file. <p>Values
+ * are stored as fixed width text. When the table is opened, the
+ * {@code TFORMn} of each column is compiled into a decoder for its format
+ * code ({@code Aw}, {@code Iw}, {@code Fw.d}, {@code Ew.d} or
+ * {@code Dw.d}) that parses the characters directly from the mapped bytes
+ * into a {@code long} or {@code double}. As for {@link BinaryTable}, only
+ * the requested columns are read.</p> <p>Fields that contain only spaces
+ * or that are equal to {@code TNULLn} are undefined. Malformed fields are
+ * reported to {@link ErrorHandler#error(FitsException)} and treated as
+ * undefined.</p> <p>Instances can be shared between threads.</p>
+ */
+public final class AsciiTable {
+
+    private final Header header;
+    private final long dataOffset;
+    private final MappedRegion region;
+    private final List<AsciiTableColumn> columns;
+    private final int rowLength;
+    private final long rowCount;
+    private final ErrorHandler errorHandler;
+
+    /**
+     * Reads the header of an ASCII table extension and maps its data unit.
+     * @param channel Channel of the FITS file.
+     * @param offset Position of the header of the HDU in the file.
+     * @param errorHandler Handler to which errors are reported.
+     * @throws NullPointerException if {@code channel} or
+     * {@code errorHandler} is {@code null}.
+     * @throws IllegalArgumentException if {@code offset} is negative.
+     * @throws IOException if reading or mapping fails or see
+     * {@link ErrorHandler}.
+     */
+    public AsciiTable(FileChannel channel, long offset,
+            ErrorHandler errorHandler) throws IOException {
+        this(channel, new PositionalChannel(channel, offset), offset,
+                errorHandler);
+    }
+
+    /**
+     * Reads the header of an ASCII table extension through a block cache and
+     * maps its data unit. <p>Opening HDUs of the same file again reads their
+     * headers from the cache.</p>
+     * @param cache Cache the header is read through.
+     * @param fileId Id of the file in the cache.
+     * @param channel Channel of the FITS file.
+     * @param offset Position of the header of the HDU in the file.
+     * @param errorHandler Handler to which errors are reported.
+     * @throws NullPointerException if {@code cache}, {@code channel} or
+     * {@code errorHandler} is {@code null}.
+     * @throws IllegalArgumentException if {@code offset} is negative.
+     * @throws IOException if reading or mapping fails or see
+     * {@link ErrorHandler}.
+     */
+    public AsciiTable(BlockCache cache, long fileId, FileChannel channel,
+            long offset, ErrorHandler errorHandler) throws IOException {
+        this(channel, new CachedChannel(cache, fileId, channel, offset),
+                offset, errorHandler);
+    }
+
+    /**
+     * Reads the header of an ASCII table extension and maps its data unit.
+     * @param channel Channel of the FITS file.
+     * @param source Channel positioned at the header.
+     * @param offset Position of the header of the HDU in the file.
+     * @param errorHandler Handler to which errors are reported.
+     * @throws IOException if reading or mapping fails or see
+     * {@link ErrorHandler}.
+     */
+    private AsciiTable(FileChannel channel, ReadableByteChannel source,
+            long offset, ErrorHandler errorHandler) throws IOException {
+        HeaderReader reader = new HeaderReader(source, offset, errorHandler);
+        this.header = reader.readHeader();
+        this.dataOffset = reader.getOffset();
+        DataUnitLayout layout = readLayout(header, dataOffset, errorHandler);
+        this.rowLength = (int) layout.getAxisLength(0);
+        this.rowCount = layout.getAxisLength(1);
+        this.columns = readColumns(header, rowLength, dataOffset,
+                errorHandler);
+        this.region = map(channel, dataOffset, layout, errorHandler,
+                MappedRegion.DEFAULT_SEGMENT_SHIFT);
+        this.errorHandler = errorHandler;
+    }
+
+    /**
+     * Maps the data unit of an ASCII table whose header was already read.
+     * @param channel Channel of the FITS file.
+     * @param header Header of the HDU.
+     * @param dataOffset Position of the data unit in the file.
+     * @param errorHandler Handler to which errors are reported.
+     * @param segmentShift Binary logarithm of the segment size.
+     * @throws NullPointerException if {@code channel}, {@code header} or
+     * {@code errorHandler} is {@code null}.
+     * @throws IOException if mapping fails or see {@link ErrorHandler}.
+     */
+    AsciiTable(FileChannel channel, Header header, long dataOffset,
+            ErrorHandler errorHandler, int segmentShift) throws IOException {
+        if (channel == null) {
+            throw new NullPointerException("channel must not be null.");
+        }
+        this.header = header;
+        this.dataOffset = dataOffset;
+        DataUnitLayout layout = readLayout(header, dataOffset, errorHandler);
+        this.rowLength = (int) layout.getAxisLength(0);
+        this.rowCount = layout.getAxisLength(1);
+        this.columns = readColumns(header, rowLength, dataOffset,
+                errorHandler);
+        this.region = map(channel, dataOffset, layout, errorHandler,
+                segmentShift);
+        this.errorHandler = errorHandler;
+    }
+
+    /**
+     * Gets the header of the HDU.
+     * @return Header, never {@code null}.
+     */
+    public Header getHeader() {
+        return header;
+    }
+
+    /**
+     * Gets the position of the data unit in the file.
+     * @return Offset in bytes.
+     */
+    public long getDataOffset() {
+        return dataOffset;
+    }
+
+    /**
+     * Gets the number of rows.
+     * @return Value of {@code NAXIS2}.
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Gets the size of a row.
+     * @return Value of {@code NAXIS1}.
+     */
+    public int getRowLength() {
+        return rowLength;
+    }
+
+    /**
+     * Gets all columns.
+     * @return Unmodifiable list of the columns in the order of
+     * {@code TFORMn}.
+     */
+    public List<AsciiTableColumn> getColumns() {
+        return columns;
+    }
+
+    /**
+     * Gets a column by its index.
+     * @param index Index of the column, starting at zero.
+     * @return Column, never {@code null}.
+     * @throws IndexOutOfBoundsException if {@code index} is out of range.
+     */
+    public AsciiTableColumn getColumn(int index) {
+        return columns.get(index);
+    }
+
+    /**
+     * Gets a column by its name. <p>Names are compared ignoring case, as
+     * recommended by the FITS standard.</p>
+     * @param name Value of {@code TTYPEn}.
+     * @return First column with this name or {@code null} if there is none.
+     * @throws NullPointerException if {@code name} is {@code null}.
+     */
+    public AsciiTableColumn getColumn(String name) {
+        if (name == null) {
+            throw new NullPointerException("name must not be null.");
+        }
+        for (AsciiTableColumn column : columns) {
+            if (name.equalsIgnoreCase(column.getName())) {
+                return column;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the values of a numeric column as integers.
+     * @param column Column of type {@code I}, {@code F}, {@code E} or
+     * {@code D}.
+     * @param firstRow Index of the first row to read.
+     * @param rows Number of rows to read.
+     * @param nullValue Value returned for undefined fields.
+     * @return One value per row.
+     * @throws NullPointerException if {@code column} is {@code null}.
+     * @throws IllegalStateException if the column is of another type.
+     * @throws IndexOutOfBoundsException if the rows are out of range.
+     * @throws IOException if mapping fails or see {@link ErrorHandler}.
+     * Values that are not integers are reported as malformed.
+     */
+    public long[] readLongs(AsciiTableColumn column, long firstRow, int rows,
+            long nullValue) throws IOException {
+        checkColumn(column, "IFED", firstRow, rows);
+        AsciiFieldDecoder decoder = column.getDecoder();
+        DecimalParser parser = new DecimalParser();
+        int width = column.getWidth();
+        long[] values = new long[rows];
+        long position = firstRow * rowLength + column.getOffset();
+        for (int row = 0; row < rows; row++) {
+            ByteBuffer buffer = region.getMappedSegment(position, width);
+            int index = region.getSegmentIndex(position);
+            if (buffer == null) {
+                buffer = region.slice(position, width);
+                index = 0;
+            }
+            if (decoder.isNull(buffer, index)) {
+                values[row] = nullValue;
+            } else {
+                try {
+                    values[row] = decoder.decodeLong(buffer, index, parser);
+                } catch (NumberFormatException e) {
+                    malformed(column, firstRow + row, position);
+                    values[row] = nullValue;
+                }
+            }
+            position += rowLength;
+        }
+        return values;
+    }
+
+    /**
+     * Reads the values of a numeric column.
+     * @param column Column of type {@code I}, {@code F}, {@code E} or
+     * {@code D}.
+     * @param firstRow Index of the first row to read.
+     * @param rows Number of rows to read.
+     * @return One value per row, NaN for undefined fields.
+     * @throws NullPointerException if {@code column} is {@code null}.
+     * @throws IllegalStateException if the column is of another type.
+     * @throws IndexOutOfBoundsException if the rows are out of range.
+     * @throws IOException if mapping fails or see {@link ErrorHandler}.
+     */
+    public double[] readDoubles(AsciiTableColumn column, long firstRow,
+            int rows) throws IOException {
+        checkColumn(column, "IFED", firstRow, rows);
+        AsciiFieldDecoder decoder = column.getDecoder();
+        DecimalParser parser = new DecimalParser();
+        int width = column.getWidth();
+        double[] values = new double[rows];
+        long position = firstRow * rowLength + column.getOffset();
+        for (int row = 0; row < rows; row++) {
+            ByteBuffer buffer = region.getMappedSegment(position, width);
+            int index = region.getSegmentIndex(position);
+            if (buffer == null) {
+                buffer = region.slice(position, width);
+                index = 0;
+            }
+            if (decoder.isNull(buffer, index)) {
+                values[row] = Double.NaN;
+            } else {
+                try {
+                    values[row] = decoder.decodeDouble(buffer, index,
+                            parser);
+                } catch (NumberFormatException e) {
+                    malformed(column, firstRow + row, position);
+                    values[row] = Double.NaN;
+                }
+            }
+            position += rowLength;
+        }
+        return values;
+    }
+
+    /**
+     * Reads the text of the fields of a column. <p>Works for all formats,
+     * the fields are returned as stored without trailing spaces.</p>
+     * @param column Column to read.
+     * @param firstRow Index of the first row to read.
+     * @param rows Number of rows to read.
+     * @return One string per row.
+     * @throws NullPointerException if {@code column} is {@code null}.
+     * @throws IndexOutOfBoundsException if the rows are out of range.
+     * @throws IOException if mapping fails.
+     */
+    public String[] readStrings(AsciiTableColumn column, long firstRow,
+            int rows) throws IOException {
+        checkColumn(column, "AIFED", firstRow, rows);
+        AsciiFieldDecoder decoder = column.getDecoder();
+        int width = column.getWidth();
+        String[] values = new String[rows];
+        long position = firstRow * rowLength + column.getOffset();
+        for (int row = 0; row < rows; row++) {
+            ByteBuffer buffer = region.getMappedSegment(position, width);
+            int index = region.getSegmentIndex(position);
+            if (buffer == null) {
+                buffer = region.slice(position, width);
+                index = 0;
+            }
+            values[row] = decoder.decodeString(buffer, index);
+            position += rowLength;
+        }
+        return values;
+    }
+
+    /**
+     * Reports a malformed field.
+     * @param column Column of the field.
+     * @param row Index of the row.
+     * @param position Position of the field within the data unit.
+     * @throws IOException see {@link ErrorHandler}.
+     */
+    private void malformed(AsciiTableColumn column, long row, long position)
+            throws IOException {
+        errorHandler.error(new FitsFormatException(
+                FitsException.stackTrace(errorHandler),
+                dataOffset + position, "AsciiTable_MalformedField",
+                column.getIndex() + 1, row));
+    }
+
+    /**
+     * Checks a column and a range of rows.
+     * @param column Column to check.
+     * @param types Allowed format codes.
+     * @param firstRow Index of the first row.
+     * @param rows Number of rows.
+     * @throws NullPointerException if {@code column} is {@code null}.
+     * @throws IllegalStateException if the type is not allowed.
+     * @throws IllegalArgumentException if the column belongs to another
+     * table.
+     * @throws IndexOutOfBoundsException if the rows are out of range.
+     */
+    private void checkColumn(AsciiTableColumn column, String types,
+            long firstRow, int rows) {
+        if (column == null) {
+            throw new NullPointerException("column must not be null.");
+        }
+        if (types.indexOf(column.getType()) < 0) {
+            throw new IllegalStateException("Column " + column.getIndex()
+                    + " is of type " + column.getType() + ", expected one of "
+                    + types + ".");
+        }
+        if (column.getIndex() >= columns.size()
+                || columns.get(column.getIndex()) != column) {
+            throw new IllegalArgumentException(
+                    "column does not belong to this table.");
+        }
+        if (firstRow < 0 || rows < 0 || firstRow > rowCount - rows) {
+            throw new IndexOutOfBoundsException("Rows out of range.");
+        }
+    }
+
+    /**
+     * Reads the layout of the data unit and checks that it is an ASCII
+     * table.
+     * @param header Header of the HDU.
+     * @param dataOffset Position of the data unit in the file.
+     * @param errorHandler Handler to which errors are reported.
+     * @return Layout of the data unit.
+     * @throws IOException see {@link ErrorHandler}.
+     */
+    private static DataUnitLayout readLayout(Header header, long dataOffset,
+            ErrorHandler errorHandler) throws IOException {
+        Property xtension = header.get("XTENSION");
+        DataUnitLayout layout = DataUnitLayout.fromHeader(header, dataOffset,
+                errorHandler);
+        if (xtension == null
+                || !"TABLE".equals(BinaryTable.trim(xtension.get()))
+                || layout.getBitpix() != 8 || layout.getAxisCount() != 2
+                || layout.getGcount() != 1
+                || layout.getAxisLength(0) > Integer.MAX_VALUE) {
+            FitsFormatException ex = new FitsFormatException(dataOffset,
+                    "AsciiTable_NotATable");
+            errorHandler.fatal(ex);
+            throw ex;
+        }
+        return layout;
+    }
+
+    /**
+     * Parses the column definitions.
+     * @param header Header of the HDU.
+     * @param rowLength Value of {@code NAXIS1}.
+     * @param dataOffset Position of the data unit, used for error reporting.
+     * @param errorHandler Handler to which errors are reported.
+     * @return Unmodifiable list of the columns.
+     * @throws IOException see {@link ErrorHandler}.
+     */
+    private static List<AsciiTableColumn> readColumns(Header header,
+            int rowLength, long dataOffset, ErrorHandler errorHandler)
+            throws IOException {
+        long count = readInteger(header, "TFIELDS");
+        if (count < 0 || count > 999) {
+            throw invalid(header, "TFIELDS", dataOffset, errorHandler);
+        }
+        List<AsciiTableColumn> result = new ArrayList<AsciiTableColumn>();
+        for (int i = 0; i < count; i++) {
+            String n = String.valueOf(i + 1);
+            long tbcol = readInteger(header, "TBCOL" + n);
+            if (tbcol < 1 || tbcol > rowLength) {
+                throw invalid(header, "TBCOL" + n, dataOffset, errorHandler);
+            }
+            Property tform = header.get("TFORM" + n);
+            Property ttype = header.get("TTYPE" + n);
+            Property tnull = header.get("TNULL" + n);
+            AsciiTableColumn column = parseFormat(i,
+                    ttype == null ? null : BinaryTable.trim(ttype.get()),
+                    tform == null ? null : BinaryTable.trim(tform.get()),
+                    (int) tbcol - 1,
+                    tnull == null ? null : BinaryTable.trim(tnull.get()));
+            if (column == null) {
+                throw invalid(header, "TFORM" + n, dataOffset, errorHandler);
+            }
+            if (column.getOffset() + (long) column.getWidth() > rowLength) {
+                throw invalid(header, "TBCOL" + n, dataOffset, errorHandler);
+            }
+            result.add(column);
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Parses the value of {@code TFORMn}.
+     * @param index Index of the column.
+     * @param name Value of {@code TTYPEn}, may be {@code null}.
+     * @param format Value of {@code TFORMn}, may be {@code null}.
+     * @param offset Position of the field within the row.
+     * @param nullValue Value of {@code TNULLn}, may be {@code null}.
+     * @return Column or {@code null} if the format is invalid.
+     */
+    static AsciiTableColumn parseFormat(int index, String name, String format,
+            int offset, String nullValue) {
+        if (format == null) {
+            return null;
+        }
+        int pos = 0;
+        while (pos < format.length() && format.charAt(pos) == ' ') {
+            pos++;
+        }
+        if (pos == format.length()) {
+            return null;
+        }
+        char type = format.charAt(pos++);
+        if ("AIFED".indexOf(type) < 0) {
+            return null;
+        }
+        int start = pos;
+        long width = 0;
+        while (pos < format.length() && format.charAt(pos) >= '0'
+                && format.charAt(pos) <= '9' && width <= Integer.MAX_VALUE) {
+            width = width * 10 + (format.charAt(pos++) - '0');
+        }
+        if (pos == start || width == 0 || width > Integer.MAX_VALUE) {
+            return null;
+        }
+        int decimals = 0;
+        if (type == 'F' || type == 'E' || type == 'D') {
+            if (pos == format.length() || format.charAt(pos) != '.') {
+                return null;
+            }
+            start = ++pos;
+            while (pos < format.length() && format.charAt(pos) >= '0'
+                    && format.charAt(pos) <= '9' && decimals <= width) {
+                decimals = decimals * 10 + (format.charAt(pos++) - '0');
+            }
+            if (pos == start || decimals > width) {
+                return null;
+            }
+        }
+        if (pos != format.length()) {
+            return null;
+        }
+        return new AsciiTableColumn(index, name, type, (int) width, decimals,
+                offset, nullValue);
+    }
+
+    /**
+     * Reads an integer keyword.
+     * @param header Header of the HDU.
+     * @param keyword Keyword to read.
+     * @return Value or {@code -1} if missing or not an integer.
+     */
+    private static long readInteger(Header header, String keyword) {
+        Property property = header.get(keyword);
+        if (property == null) {
+            return -1;
+        }
+        try {
+            return property.getLong();
+        } catch (IllegalStateException e) {
+            return -1;
+        } catch (ArithmeticException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Reports an invalid keyword as fatal error.
+     * @param header Header of the HDU.
+     * @param keyword Invalid keyword.
+     * @param dataOffset Position of the data unit, used for error reporting.
+     * @param errorHandler Handler to which the error is reported.
+     * @return Exception to throw.
+     * @throws IOException see {@link ErrorHandler}.
+     */
+    private static FitsFormatException invalid(Header header, String keyword,
+            long dataOffset, ErrorHandler errorHandler) throws IOException {
+        Property property = header.get(keyword);
+        FitsFormatException ex = new FitsFormatException(dataOffset,
+                "AsciiTable_InvalidKeyword", keyword,
+                property == null ? null : property.get());
+        errorHandler.fatal(ex);
+        return ex;
+    }
+
+    /**
+     * Maps the data unit.
+     * @param channel Channel of the FITS file.
+     * @param dataOffset Position of the data unit in the file.
+     * @param layout Layout of the data unit.
+     * @param errorHandler Handler to which errors are reported.
+     * @param segmentShift Binary logarithm of the segment size.
+     * @return Mapped region.
+     * @throws IOException if mapping fails or see {@link ErrorHandler}.
+     */
+    private static MappedRegion map(FileChannel channel, long dataOffset,
+            DataUnitLayout layout, ErrorHandler errorHandler,
+            int segmentShift) throws IOException {
+        long size = channel.size();
+        long end = dataOffset + layout.getDataLength();
+        if (end > size) {
+            FitsFormatException ex = new FitsFormatException(size,
+                    "AsciiTable_Truncated", end, size);
+            errorHandler.fatal(ex);
+            throw ex;
+        }
+        return new MappedRegion(channel, dataOffset, layout.getDataLength(),
+                segmentShift);
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * Column of an ASCII table. <p>Describes the field of a column within a row
+ * as given by {@code TBCOLn}, {@code TFORMn}, {@code TTYPEn} and
+ * {@code TNULLn}: the format code, the width of the field, the number of
+ * digits after an implied decimal point and the position of the field in
+ * the row.</p> <p>Instances of this type are immutable.</p>
+ */
+public final class AsciiTableColumn {
+
+    private final int index;
+    private final String name;
+    private final char type;
+    private final int width;
+    private final int decimals;
+    private final int offset;
+    private final String nullValue;
+    private final AsciiFieldDecoder decoder;
+
+    /**
+     * Creates an instance.
+     * @param index Index of the column, starting at zero.
+     * @param name Value of {@code TTYPEn} or {@code null} if not given.
+     * @param type Format code of {@code TFORMn}, one of {@code A I F E D}.
+     * @param width Width of the field in characters.
+     * @param decimals Number of digits after the decimal point, 0 for
+     * {@code A} and {@code I}.
+     * @param offset Position of the field within the row, {@code TBCOLn - 1}.
+     * @param nullValue Value of {@code TNULLn} or {@code null} if not given.
+     * @throws IllegalArgumentException if {@code type} is unknown, if
+     * {@code width} is not positive or if {@code decimals} or {@code offset}
+     * is negative.
+     */
+    AsciiTableColumn(int index, String name, char type, int width,
+            int decimals, int offset, String nullValue) {
+        if (decimals < 0 || offset < 0) {
+            throw new IllegalArgumentException(
+                    "decimals and offset must not be negative.");
+        }
+        this.decoder = AsciiFieldDecoder.compile(type, width, decimals,
+                nullValue);
+        this.index = index;
+        this.name = name;
+        this.type = type;
+        this.width = width;
+        this.decimals = decimals;
+        this.offset = offset;
+        this.nullValue = nullValue;
+    }
+
+    /**
+     * Gets the index of this column.
+     * @return Index starting at zero, {@code n - 1} for {@code TFORMn}.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Gets the name of this column.
+     * @return Value of {@code TTYPEn} or {@code null} if not given.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the format code of this column.
+     * @return One of {@code A I F E D}.
+     */
+    public char getType() {
+        return type;
+    }
+
+    /**
+     * Gets the width of the field.
+     * @return Number of characters.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Gets the number of digits after the decimal point.
+     * @return Value of {@code d} in {@code Fw.d}, {@code Ew.d} or
+     * {@code Dw.d}, 0 for other formats.
+     */
+    public int getDecimals() {
+        return decimals;
+    }
+
+    /**
+     * Gets the position of the field within the row.
+     * @return Offset in bytes from the start of the row.
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * Gets the value marking undefined fields.
+     * @return Value of {@code TNULLn} or {@code null} if not given.
+     */
+    public String getNullValue() {
+        return nullValue;
+    }
+
+    /**
+     * Gets the decoder compiled from the format of this column.
+     * @return Decoder, never {@code null}.
+     */
+    AsciiFieldDecoder getDecoder() {
+        return decoder;
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this).append(index).
+                append(name).
+                append(type + "" + width + "." + decimals).
+                append(offset).
+                build();
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Reads blocks of a FITS file asynchronously. <p>All reads are positional
+ * reads of an {@link AsynchronousFileChannel}, there is no position shared
+ * between requests. A read that returns fewer bytes than requested is
+ * continued until the buffer is full, so completion always means that the
+ * buffer was filled. {@link #readAll(ByteBuffer[], long[])} starts many
+ * reads at once, for example the blocks of all tiles of a cutout, and
+ * completes when all of them are done.</p> <p>Instances are thread-safe.
+ * Closing the channel is up to the caller.</p>
+ */
+public final class AsyncBlockReader {
+
+    private final AsynchronousFileChannel channel;
+
+    /**
+     * Creates an instance.
+     * @param channel Channel to read from.
+     * @throws NullPointerException if {@code channel} is {@code null}.
+     */
+    public AsyncBlockReader(AsynchronousFileChannel channel) {
+        if (channel == null) {
+            throw new NullPointerException("channel must not be null.");
+        }
+        this.channel = channel;
+    }
+
+    /**
+     * Fills a buffer, notifying a handler on completion.
+     * @param <A> Type of the attachment.
+     * @param dst Buffer to fill from position to limit. Flipped before it is
+     * passed to the handler.
+     * @param position Position in the file of the first byte to read.
+     * @param attachment Object passed to the handler.
+     * @param handler Handler notified on completion. Fails with an
+     * {@link EOFException} if the file ends before the buffer is full.
+     * @throws NullPointerException if {@code dst} or {@code handler} is
+     * {@code null}.
+     * @throws IllegalArgumentException if {@code position} is negative.
+     */
+    public <A> void read(ByteBuffer dst, long position, A attachment,
+            CompletionHandler<ByteBuffer, ? super A> handler) {
+        if (dst == null) {
+            throw new NullPointerException("dst must not be null.");
+        }
+        if (handler == null) {
+            throw new NullPointerException("handler must not be null.");
+        }
+        if (position < 0) {
+            throw new IllegalArgumentException(
+                    "position must not be negative.");
+        }
+        new FullRead<A>(dst, position - dst.position(), attachment,
+                handler).next();
+    }
+
+    /**
+     * Fills a buffer.
+     * @param dst Buffer to fill from position to limit.
+     * @param position Position in the file of the first byte to read.
+     * @return Future of the flipped buffer.
+     * @throws NullPointerException if {@code dst} is {@code null}.
+     * @throws IllegalArgumentException if {@code position} is negative.
+     */
+    public Future<ByteBuffer> read(ByteBuffer dst, long position) {
+        final Result<ByteBuffer> result = new Result<ByteBuffer>();
+        read(dst, position, null, new CompletionHandler<ByteBuffer, Void>() {
+
+            @Override
+            public void completed(ByteBuffer buffer, Void attachment) {
+                result.set(buffer, null);
+            }
+
+            @Override
+            public void failed(Throwable exc, Void attachment) {
+                result.set(null, exc);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Reads consecutive blocks.
+     * @param offset Position in the file of the first block.
+     * @param count Number of blocks.
+     * @return Future of a flipped heap buffer containing the blocks.
+     * @throws IllegalArgumentException if {@code offset} or {@code count}
+     * is negative or if the blocks do not fit into a buffer.
+     */
+    public Future<ByteBuffer> readBlocks(long offset, int count) {
+        if (count < 0 || count > Integer.MAX_VALUE / HeaderReader.BLOCK_SIZE) {
+            throw new IllegalArgumentException("Invalid number of blocks.");
+        }
+        return read(ByteBuffer.allocate(count * HeaderReader.BLOCK_SIZE),
+                offset);
+    }
+
+    /**
+     * Fills many buffers, starting all reads at once.
+     * @param dsts Buffers to fill from position to limit.
+     * @param positions Position in the file of the first byte of each
+     * buffer.
+     * @return Future of the flipped buffers. Fails with the first failure
+     * of any of the reads, after all reads have completed.
+     * @throws NullPointerException if an argument or element is
+     * {@code null}.
+     * @throws IllegalArgumentException if the arrays have different lengths
+     * or a position is negative.
+     */
+    public Future<ByteBuffer[]> readAll(final ByteBuffer[] dsts,
+            long[] positions) {
+        if (dsts == null || positions == null) {
+            throw new NullPointerException("Arguments must not be null.");
+        }
+        if (dsts.length != positions.length) {
+            throw new IllegalArgumentException(
+                    "dsts and positions must have the same length.");
+        }
+        for (int i = 0; i < dsts.length; i++) {
+            if (dsts[i] == null) {
+                throw new NullPointerException(
+                        "dsts must not contain null.");
+            }
+            if (positions[i] < 0) {
+                throw new IllegalArgumentException(
+                        "positions must not be negative.");
+            }
+        }
+        final Result<ByteBuffer[]> result = new Result<ByteBuffer[]>();
+        if (dsts.length == 0) {
+            result.set(dsts, null);
+            return result;
+        }
+        final AtomicInteger pending = new AtomicInteger(dsts.length);
+        final AtomicReference<Throwable> failure =
+                new AtomicReference<Throwable>();
+        CompletionHandler<ByteBuffer, Void> handler =
+                new CompletionHandler<ByteBuffer, Void>() {
+
+            @Override
+            public void completed(ByteBuffer buffer, Void attachment) {
+                done();
+            }
+
+            @Override
+            public void failed(Throwable exc, Void attachment) {
+                failure.compareAndSet(null, exc);
+                done();
+            }
+
+            private void done() {
+                if (pending.decrementAndGet() == 0) {
+                    Throwable exc = failure.get();
+                    result.set(exc == null ? dsts : null, exc);
+                }
+            }
+        };
+        for (int i = 0; i < dsts.length; i++) {
+            read(dsts[i], positions[i], null, handler);
+        }
+        return result;
+    }
+
+    /**
+     * Read that is continued until the buffer is full.
+     * @param <A> Type of the attachment.
+     */
+    private final class FullRead<A>
+            implements CompletionHandler<Integer, Void> {
+
+        private final ByteBuffer dst;
+        private final long base;
+        private final A attachment;
+        private final CompletionHandler<ByteBuffer, ? super A> handler;
+
+        /**
+         * Creates an instance.
+         * @param dst Buffer to fill.
+         * @param base Position in the file corresponding to index 0 of the
+         * buffer.
+         * @param attachment Object passed to the handler.
+         * @param handler Handler notified on completion.
+         */
+        FullRead(ByteBuffer dst, long base, A attachment,
+                CompletionHandler<ByteBuffer, ? super A> handler) {
+            this.dst = dst;
+            this.base = base;
+            this.attachment = attachment;
+            this.handler = handler;
+        }
+
+        /**
+         * Starts the next read or notifies the handler if the buffer is
+         * full.
+         */
+        void next() {
+            if (!dst.hasRemaining()) {
+                dst.flip();
+                handler.completed(dst, attachment);
+                return;
+            }
+            try {
+                channel.read(dst, base + dst.position(), null, this);
+            } catch (RuntimeException e) {
+                handler.failed(e, attachment);
+            }
+        }
+
+        @Override
+        public void completed(Integer result, Void ignored) {
+            if (result < 0) {
+                handler.failed(new EOFException("File ends at byte "
+                        + (base + dst.position()) + "."), attachment);
+            } else {
+                next();
+            }
+        }
+
+        @Override
+        public void failed(Throwable exc, Void ignored) {
+            handler.failed(exc, attachment);
+        }
+    }
+
+    /**
+     * Future completed by a completion handler.
+     * @param <V> Type of the result.
+     */
+    private static final class Result<V> implements Future<V> {
+
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile V value;
+        private volatile Throwable failure;
+
+        /**
+         * Completes the future.
+         * @param value Result, if successful.
+         * @param failure Cause of the failure or {@code null}.
+         */
+        void set(V value, Throwable failure) {
+            this.value = value;
+            this.failure = failure;
+            done.countDown();
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        @Override
+        public V get() throws InterruptedException, ExecutionException {
+            done.await();
+            return getNow();
+        }
+
+        @Override
+        public V get(long timeout, TimeUnit unit) throws InterruptedException,
+                ExecutionException, TimeoutException {
+            if (!done.await(timeout, unit)) {
+                throw new TimeoutException();
+            }
+            return getNow();
+        }
+
+        /**
+         * Gets the result of the completed future.
+         * @return Result.
+         * @throws ExecutionException if the reads failed.
+         */
+        private V getNow() throws ExecutionException {
+            if (failure != null) {
+                throw new ExecutionException(failure);
+            }
+            return value;
+        }
+    }
+}
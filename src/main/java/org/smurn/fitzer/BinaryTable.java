@@ -0,0 +1,1031 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Binary table extension, memory mapped directly from the file. <p>The
+ * table is read column by column. Only the columns that are requested are
+ * decoded: for each row the reader jumps straight to the field of the column
+ * within the mapped data unit, the other fields are never touched. The
+ * values of all requested rows are returned in a single primitive array,
+ * with the elements of a row stored consecutively if the column has a repeat
+ * count larger than one.</p> <p>Logical ({@code L}) and bit ({@code X})
+ * columns are returned as packed bitsets: element {@code i} is bit
+ * {@code i % 64} of word {@code i / 64}.</p> <p>Variable length arrays of
+ * descriptor columns ({@code P} and {@code Q}) are returned as buffers
+ * sharing the mapped memory of the heap, see for example
+ * {@link #getArray(BinaryTableColumn, long)}. Their elements are never
+ * copied onto the Java heap.</p> <p>Instances can be shared between
+ * threads.</p>
+ */
+public final class BinaryTable {
+
+    private final Header header;
+    private final DataUnitLayout layout;
+    private final long dataOffset;
+    private final MappedRegion region;
+    private final List<BinaryTableColumn> columns;
+    private final int rowLength;
+    private final long rowCount;
+    private final long heapOffset;
+    private final ErrorHandler errorHandler;
+
+    /**
+     * Reads the header of a binary table extension and maps its data unit.
+     * @param channel Channel of the FITS file.
+     * @param offset Position of the header of the HDU in the file.
+     * @param errorHandler Handler to which errors are reported.
+     * @throws NullPointerException if {@code channel} or
+     * {@code errorHandler} is {@code null}.
+     * @throws IllegalArgumentException if {@code offset} is negative.
+     * @throws IOException if reading or mapping fails or see
+     * {@link ErrorHandler}.
+     */
+    public BinaryTable(FileChannel channel, long offset,
+            ErrorHandler errorHandler) throws IOException {
+        this(channel, new PositionalChannel(channel, offset), offset,
+                errorHandler);
+    }
+
+    /**
+     * Reads the header of a binary table extension through a block cache and
+     * maps its data unit. <p>Opening HDUs of the same file again reads their
+     * headers from the cache.</p>
+     * @param cache Cache the header is read through.
+     * @param fileId Id of the file in the cache.
+     * @param channel Channel of the FITS file.
+     * @param offset Position of the header of the HDU in the file.
+     * @param errorHandler Handler to which errors are reported.
+     * @throws NullPointerException if {@code cache}, {@code channel} or
+     * {@code errorHandler} is {@code null}.
+     * @throws IllegalArgumentException if {@code offset} is negative.
+     * @throws IOException if reading or mapping fails or see
+     * {@link ErrorHandler}.
+     */
+    public BinaryTable(BlockCache cache, long fileId, FileChannel channel,
+            long offset, ErrorHandler errorHandler) throws IOException {
+        this(channel, new CachedChannel(cache, fileId, channel, offset),
+                offset, errorHandler);
+    }
+
+    /**
+     * Reads the header of a binary table extension and maps its data unit.
+     * @param channel Channel of the FITS file.
+     * @param source Channel positioned at the header.
+     * @param offset Position of the header of the HDU in the file.
+     * @param errorHandler Handler to which errors are reported.
+     * @throws IOException if reading or mapping fails or see
+     * {@link ErrorHandler}.
+     */
+    private BinaryTable(FileChannel channel, ReadableByteChannel source,
+            long offset, ErrorHandler errorHandler) throws IOException {
+        HeaderReader reader = new HeaderReader(source, offset, errorHandler);
+        this.header = reader.readHeader();
+        this.dataOffset = reader.getOffset();
+        this.layout = readLayout(header, dataOffset, errorHandler);
+        this.rowLength = (int) layout.getAxisLength(0);
+        this.rowCount = layout.getAxisLength(1);
+        this.columns = readColumns(header, rowLength, dataOffset,
+                errorHandler);
+        this.heapOffset = readHeapOffset(header, layout, dataOffset,
+                errorHandler);
+        this.errorHandler = errorHandler;
+        this.region = map(channel, dataOffset, layout, errorHandler,
+                MappedRegion.DEFAULT_SEGMENT_SHIFT);
+    }
+
+    /**
+     * Maps the data unit of a binary table whose header was already read.
+     * @param channel Channel of the FITS file.
+     * @param header Header of the HDU.
+     * @param dataOffset Position of the data unit in the file.
+     * @param errorHandler Handler to which errors are reported.
+     * @param segmentShift Binary logarithm of the segment size.
+     * @throws NullPointerException if {@code channel}, {@code header} or
+     * {@code errorHandler} is {@code null}.
+     * @throws IOException if mapping fails or see {@link ErrorHandler}.
+     */
+    BinaryTable(FileChannel channel, Header header, long dataOffset,
+            ErrorHandler errorHandler, int segmentShift) throws IOException {
+        if (channel == null) {
+            throw new NullPointerException("channel must not be null.");
+        }
+        this.header = header;
+        this.dataOffset = dataOffset;
+        this.layout = readLayout(header, dataOffset, errorHandler);
+        this.rowLength = (int) layout.getAxisLength(0);
+        this.rowCount = layout.getAxisLength(1);
+        this.columns = readColumns(header, rowLength, dataOffset,
+                errorHandler);
+        this.heapOffset = readHeapOffset(header, layout, dataOffset,
+                errorHandler);
+        this.errorHandler = errorHandler;
+        this.region = map(channel, dataOffset, layout, errorHandler,
+                segmentShift);
+    }
+
+    /**
+     * Gets the header of the HDU.
+     * @return Header, never {@code null}.
+     */
+    public Header getHeader() {
+        return header;
+    }
+
+    /**
+     * Gets the position of the data unit in the file.
+     * @return Offset in bytes.
+     */
+    public long getDataOffset() {
+        return dataOffset;
+    }
+
+    /**
+     * Gets the number of rows.
+     * @return Value of {@code NAXIS2}.
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Gets the size of a row.
+     * @return Value of {@code NAXIS1}.
+     */
+    public int getRowLength() {
+        return rowLength;
+    }
+
+    /**
+     * Gets all columns.
+     * @return Unmodifiable list of the columns in the order of the fields.
+     */
+    public List<BinaryTableColumn> getColumns() {
+        return columns;
+    }
+
+    /**
+     * Gets the position of the heap.
+     * @return Offset in bytes from the start of the data unit, value of
+     * {@code THEAP} or the size of the table if not given.
+     */
+    public long getHeapOffset() {
+        return heapOffset;
+    }
+
+    /**
+     * Gets the size of the heap.
+     * @return Number of bytes from the start of the heap to the end of the
+     * data unit.
+     */
+    public long getHeapLength() {
+        return layout.getDataLength() - heapOffset;
+    }
+
+    /**
+     * Gets a column by its index.
+     * @param index Index of the column, starting at zero.
+     * @return Column, never {@code null}.
+     * @throws IndexOutOfBoundsException if {@code index} is out of range.
+     */
+    public BinaryTableColumn getColumn(int index) {
+        return columns.get(index);
+    }
+
+    /**
+     * Gets a column by its name. <p>Names are compared ignoring case, as
+     * recommended by the FITS standard.</p>
+     * @param name Value of {@code TTYPEn}.
+     * @return First column with this name or {@code null} if there is none.
+     * @throws NullPointerException if {@code name} is {@code null}.
+     */
+    public BinaryTableColumn getColumn(String name) {
+        if (name == null) {
+            throw new NullPointerException("name must not be null.");
+        }
+        for (BinaryTableColumn column : columns) {
+            if (name.equalsIgnoreCase(column.getName())) {
+                return column;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the values of an integer column of type {@code B}, {@code I} or
+     * {@code J}. Bytes are unsigned.
+     * @param column Column to read.
+     * @param firstRow Index of the first row to read.
+     * @param rows Number of rows to read.
+     * @return Values, {@code repeat} elements per row.
+     * @throws NullPointerException if {@code column} is {@code null}.
+     * @throws IllegalStateException if the column is of another type.
+     * @throws IndexOutOfBoundsException if the rows are out of range.
+     * @throws IllegalArgumentException if the result would be too large for
+     * an array.
+     */
+    public int[] readInts(BinaryTableColumn column, long firstRow, int rows) {
+        checkType(column, "BIJ");
+        int repeat = column.getRepeat();
+        int[] values = new int[elementCount(column, firstRow, rows)];
+        long position = firstRow * rowLength + column.getOffset();
+        int k = 0;
+        for (int row = 0; row < rows; row++) {
+            switch (column.getType()) {
+                case 'B':
+                    for (int i = 0; i < repeat; i++) {
+                        values[k++] = region.getByte(position + i) & 0xFF;
+                    }
+                    break;
+                case 'I':
+                    for (int i = 0; i < repeat; i++) {
+                        values[k++] = region.getShort(position + 2 * i);
+                    }
+                    break;
+                default:
+                    for (int i = 0; i < repeat; i++) {
+                        values[k++] = region.getInt(position + 4 * i);
+                    }
+                    break;
+            }
+            position += rowLength;
+        }
+        return values;
+    }
+
+    /**
+     * Reads the values of an integer column of type {@code B}, {@code I},
+     * {@code J} or {@code K}. Bytes are unsigned.
+     * @param column Column to read.
+     * @param firstRow Index of the first row to read.
+     * @param rows Number of rows to read.
+     * @return Values, {@code repeat} elements per row.
+     * @throws NullPointerException if {@code column} is {@code null}.
+     * @throws IllegalStateException if the column is of another type.
+     * @throws IndexOutOfBoundsException if the rows are out of range.
+     * @throws IllegalArgumentException if the result would be too large for
+     * an array.
+     */
+    public long[] readLongs(BinaryTableColumn column, long firstRow,
+            int rows) {
+        checkType(column, "BIJK");
+        if (column.getType() != 'K') {
+            int[] ints = readInts(column, firstRow, rows);
+            long[] values = new long[ints.length];
+            for (int i = 0; i < ints.length; i++) {
+                values[i] = ints[i];
+            }
+            return values;
+        }
+        int repeat = column.getRepeat();
+        long[] values = new long[elementCount(column, firstRow, rows)];
+        long position = firstRow * rowLength + column.getOffset();
+        int k = 0;
+        for (int row = 0; row < rows; row++) {
+            for (int i = 0; i < repeat; i++) {
+                values[k++] = region.getLong(position + 8 * i);
+            }
+            position += rowLength;
+        }
+        return values;
+    }
+
+    /**
+     * Reads the values of a floating point column of type {@code E}.
+     * @param column Column to read.
+     * @param firstRow Index of the first row to read.
+     * @param rows Number of rows to read.
+     * @return Values, {@code repeat} elements per row.
+     * @throws NullPointerException if {@code column} is {@code null}.
+     * @throws IllegalStateException if the column is of another type.
+     * @throws IndexOutOfBoundsException if the rows are out of range.
+     * @throws IllegalArgumentException if the result would be too large for
+     * an array.
+     */
+    public float[] readFloats(BinaryTableColumn column, long firstRow,
+            int rows) {
+        checkType(column, "E");
+        int repeat = column.getRepeat();
+        float[] values = new float[elementCount(column, firstRow, rows)];
+        long position = firstRow * rowLength + column.getOffset();
+        int k = 0;
+        for (int row = 0; row < rows; row++) {
+            for (int i = 0; i < repeat; i++) {
+                values[k++] = region.getFloat(position + 4 * i);
+            }
+            position += rowLength;
+        }
+        return values;
+    }
+
+    /**
+     * Reads the values of a numeric column of type {@code B}, {@code I},
+     * {@code J}, {@code K}, {@code E} or {@code D}.
+     * @param column Column to read.
+     * @param firstRow Index of the first row to read.
+     * @param rows Number of rows to read.
+     * @return Values, {@code repeat} elements per row.
+     * @throws NullPointerException if {@code column} is {@code null}.
+     * @throws IllegalStateException if the column is of another type.
+     * @throws IndexOutOfBoundsException if the rows are out of range.
+     * @throws IllegalArgumentException if the result would be too large for
+     * an array.
+     */
+    public double[] readDoubles(BinaryTableColumn column, long firstRow,
+            int rows) {
+        checkType(column, "BIJKED");
+        int repeat = column.getRepeat();
+        double[] values = new double[elementCount(column, firstRow, rows)];
+        long position = firstRow * rowLength + column.getOffset();
+        int k = 0;
+        for (int row = 0; row < rows; row++) {
+            switch (column.getType()) {
+                case 'B':
+                    for (int i = 0; i < repeat; i++) {
+                        values[k++] = region.getByte(position + i) & 0xFF;
+                    }
+                    break;
+                case 'I':
+                    for (int i = 0; i < repeat; i++) {
+                        values[k++] = region.getShort(position + 2 * i);
+                    }
+                    break;
+                case 'J':
+                    for (int i = 0; i < repeat; i++) {
+                        values[k++] = region.getInt(position + 4 * i);
+                    }
+                    break;
+                case 'K':
+                    for (int i = 0; i < repeat; i++) {
+                        values[k++] = region.getLong(position + 8 * i);
+                    }
+                    break;
+                case 'E':
+                    for (int i = 0; i < repeat; i++) {
+                        values[k++] = region.getFloat(position + 4 * i);
+                    }
+                    break;
+                default:
+                    for (int i = 0; i < repeat; i++) {
+                        values[k++] = region.getDouble(position + 8 * i);
+                    }
+                    break;
+            }
+            position += rowLength;
+        }
+        return values;
+    }
+
+    /**
+     * Reads the values of a logical ({@code L}) or bit ({@code X}) column
+     * as packed bitset. <p>Element {@code i} is set if bit {@code i % 64} of
+     * word {@code i / 64} is set. Logical elements are set if they are
+     * {@code T}, undefined logical values are treated as false.</p>
+     * @param column Column to read.
+     * @param firstRow Index of the first row to read.
+     * @param rows Number of rows to read.
+     * @return Bitset with {@code repeat} elements per row.
+     * @throws NullPointerException if {@code column} is {@code null}.
+     * @throws IllegalStateException if the column is of another type.
+     * @throws IndexOutOfBoundsException if the rows are out of range.
+     * @throws IllegalArgumentException if the result would be too large for
+     * an array.
+     */
+    public long[] readBits(BinaryTableColumn column, long firstRow,
+            int rows) {
+        checkType(column, "LX");
+        int repeat = column.getRepeat();
+        int count = elementCount(column, firstRow, rows);
+        long[] words = new long[(count + 63) >>> 6];
+        long position = firstRow * rowLength + column.getOffset();
+        boolean logical = column.getType() == 'L';
+        int k = 0;
+        for (int row = 0; row < rows; row++) {
+            for (int i = 0; i < repeat; i++, k++) {
+                boolean set;
+                if (logical) {
+                    set = region.getByte(position + i) == 'T';
+                } else {
+                    int b = region.getByte(position + (i >>> 3));
+                    set = (b & (0x80 >>> (i & 7))) != 0;
+                }
+                if (set) {
+                    words[k >>> 6] |= 1L << k;
+                }
+            }
+            position += rowLength;
+        }
+        return words;
+    }
+
+    /**
+     * Reads the values of a character column of type {@code A}. <p>Each row
+     * is one string. Trailing spaces are removed, a NUL character terminates
+     * the string.</p>
+     * @param column Column to read.
+     * @param firstRow Index of the first row to read.
+     * @param rows Number of rows to read.
+     * @return One string per row.
+     * @throws NullPointerException if {@code column} is {@code null}.
+     * @throws IllegalStateException if the column is of another type.
+     * @throws IndexOutOfBoundsException if the rows are out of range.
+     */
+    public String[] readStrings(BinaryTableColumn column, long firstRow,
+            int rows) {
+        checkType(column, "A");
+        elementCount(column, firstRow, rows);
+        int repeat = column.getRepeat();
+        String[] values = new String[rows];
+        char[] chars = new char[repeat];
+        long position = firstRow * rowLength + column.getOffset();
+        for (int row = 0; row < rows; row++) {
+            int length = 0;
+            while (length < repeat) {
+                byte c = region.getByte(position + length);
+                if (c == 0) {
+                    break;
+                }
+                chars[length++] = (char) (c & 0xFF);
+            }
+            while (length > 0 && chars[length - 1] == ' ') {
+                length--;
+            }
+            values[row] = new String(chars, 0, length);
+            position += rowLength;
+        }
+        return values;
+    }
+
+    /**
+     * Gets the number of elements of a variable length array.
+     * @param column Descriptor column of type {@code P} or {@code Q}.
+     * @param row Index of the row.
+     * @return Element count of the descriptor, number of bits for arrays of
+     * type {@code X}.
+     * @throws NullPointerException if {@code column} is {@code null}.
+     * @throws IllegalStateException if the column is not a descriptor
+     * column.
+     * @throws IndexOutOfBoundsException if {@code row} is out of range.
+     */
+    public long getArrayLength(BinaryTableColumn column, long row) {
+        checkDescriptor(column, row);
+        long position = row * rowLength + column.getOffset();
+        if (column.getType() == 'P') {
+            return region.getInt(position);
+        }
+        return region.getLong(position);
+    }
+
+    /**
+     * Gets the bytes of a variable length array. <p>The buffer shares the
+     * mapped memory of the heap. An array that spans two mapped segments is
+     * mapped on its own, which requires the channel to be still open.</p>
+     * @param column Descriptor column of type {@code P} or {@code Q}.
+     * @param row Index of the row.
+     * @return Read-only big-endian buffer with position zero, limited to the
+     * bytes of the array.
+     * @throws NullPointerException if {@code column} is {@code null}.
+     * @throws IllegalStateException if the column is not a descriptor
+     * column.
+     * @throws IndexOutOfBoundsException if {@code row} is out of range.
+     * @throws IOException if mapping fails or see {@link ErrorHandler}.
+     */
+    public ByteBuffer getArray(BinaryTableColumn column, long row)
+            throws IOException {
+        checkDescriptor(column, row);
+        long position = row * rowLength + column.getOffset();
+        long count;
+        long offset;
+        if (column.getType() == 'P') {
+            count = region.getInt(position);
+            offset = region.getInt(position + 4) & 0xFFFFFFFFL;
+        } else {
+            count = region.getLong(position);
+            offset = region.getLong(position + 8);
+        }
+        long size = -1;
+        if (count >= 0) {
+            int elementSize = BinaryTableColumn.elementSize(
+                    column.getArrayType());
+            size = column.getArrayType() == 'X' ? (count + 7) >>> 3
+                    : count <= Long.MAX_VALUE / elementSize
+                    ? count * elementSize : -1;
+        }
+        if (size < 0 || offset < 0 || offset > getHeapLength() - size
+                || size > Integer.MAX_VALUE) {
+            FitsFormatException ex = new FitsFormatException(
+                    dataOffset + position, "BinaryTable_InvalidDescriptor",
+                    column.getIndex() + 1, row, count, offset);
+            errorHandler.fatal(ex);
+            throw ex;
+        }
+        return region.slice(heapOffset + offset, (int) size);
+    }
+
+    /**
+     * Gets a variable length array of type {@code I}.
+     * @param column Descriptor column with arrays of type {@code I}.
+     * @param row Index of the row.
+     * @return Read-only view of the array in the mapped heap.
+     * @throws NullPointerException if {@code column} is {@code null}.
+     * @throws IllegalStateException if the column is of another type.
+     * @throws IndexOutOfBoundsException if {@code row} is out of range.
+     * @throws IOException if mapping fails or see {@link ErrorHandler}.
+     */
+    public ShortBuffer getShortArray(BinaryTableColumn column, long row)
+            throws IOException {
+        checkArrayType(column, "I");
+        return getArray(column, row).asShortBuffer();
+    }
+
+    /**
+     * Gets a variable length array of type {@code J}.
+     * @param column Descriptor column with arrays of type {@code J}.
+     * @param row Index of the row.
+     * @return Read-only view of the array in the mapped heap.
+     * @throws NullPointerException if {@code column} is {@code null}.
+     * @throws IllegalStateException if the column is of another type.
+     * @throws IndexOutOfBoundsException if {@code row} is out of range.
+     * @throws IOException if mapping fails or see {@link ErrorHandler}.
+     */
+    public IntBuffer getIntArray(BinaryTableColumn column, long row)
+            throws IOException {
+        checkArrayType(column, "J");
+        return getArray(column, row).asIntBuffer();
+    }
+
+    /**
+     * Gets a variable length array of type {@code K}.
+     * @param column Descriptor column with arrays of type {@code K}.
+     * @param row Index of the row.
+     * @return Read-only view of the array in the mapped heap.
+     * @throws NullPointerException if {@code column} is {@code null}.
+     * @throws IllegalStateException if the column is of another type.
+     * @throws IndexOutOfBoundsException if {@code row} is out of range.
+     * @throws IOException if mapping fails or see {@link ErrorHandler}.
+     */
+    public LongBuffer getLongArray(BinaryTableColumn column, long row)
+            throws IOException {
+        checkArrayType(column, "K");
+        return getArray(column, row).asLongBuffer();
+    }
+
+    /**
+     * Gets a variable length array of type {@code E} or {@code C}. Complex
+     * numbers are stored as pairs of real and imaginary part.
+     * @param column Descriptor column with arrays of type {@code E} or
+     * {@code C}.
+     * @param row Index of the row.
+     * @return Read-only view of the array in the mapped heap.
+     * @throws NullPointerException if {@code column} is {@code null}.
+     * @throws IllegalStateException if the column is of another type.
+     * @throws IndexOutOfBoundsException if {@code row} is out of range.
+     * @throws IOException if mapping fails or see {@link ErrorHandler}.
+     */
+    public FloatBuffer getFloatArray(BinaryTableColumn column, long row)
+            throws IOException {
+        checkArrayType(column, "EC");
+        return getArray(column, row).asFloatBuffer();
+    }
+
+    /**
+     * Gets a variable length array of type {@code D} or {@code M}. Complex
+     * numbers are stored as pairs of real and imaginary part.
+     * @param column Descriptor column with arrays of type {@code D} or
+     * {@code M}.
+     * @param row Index of the row.
+     * @return Read-only view of the array in the mapped heap.
+     * @throws NullPointerException if {@code column} is {@code null}.
+     * @throws IllegalStateException if the column is of another type.
+     * @throws IndexOutOfBoundsException if {@code row} is out of range.
+     * @throws IOException if mapping fails or see {@link ErrorHandler}.
+     */
+    public DoubleBuffer getDoubleArray(BinaryTableColumn column, long row)
+            throws IOException {
+        checkArrayType(column, "DM");
+        return getArray(column, row).asDoubleBuffer();
+    }
+
+    /**
+     * Selects the rows matching all given predicates. <p>The predicates are
+     * evaluated one after the other, each one column at a time on the raw
+     * bytes of the mapped field. A predicate only looks at the rows that
+     * matched all previous ones, so the most selective predicate should be
+     * given first. No other field of a row is read.</p>
+     * @param firstRow Index of the first row to scan.
+     * @param rows Number of rows to scan.
+     * @param predicates Conditions a row has to fulfill. If none are given,
+     * all rows are selected.
+     * @return Selected rows.
+     * @throws NullPointerException if {@code predicates} or one of its
+     * elements is {@code null}.
+     * @throws IllegalArgumentException if a predicate refers to a column of
+     * another table.
+     * @throws IndexOutOfBoundsException if the rows are out of range.
+     */
+    public RowSelection scan(long firstRow, int rows,
+            RowPredicate... predicates) {
+        if (predicates == null) {
+            throw new NullPointerException("predicates must not be null.");
+        }
+        for (RowPredicate predicate : predicates) {
+            if (predicate == null) {
+                throw new NullPointerException(
+                        "predicates must not contain null.");
+            }
+            predicate.check(this);
+        }
+        checkRows(firstRow, rows);
+        RowSelection selection = RowSelection.all(firstRow, rows);
+        long[] words = selection.getWords();
+        for (RowPredicate predicate : predicates) {
+            predicate.evaluate(region, rowLength, firstRow, words);
+        }
+        return selection;
+    }
+
+    /**
+     * Gets the mapped data unit including the heap.
+     * @return Mapped region of the data unit.
+     */
+    MappedRegion getRegion() {
+        return region;
+    }
+
+    /**
+     * Gets the layout of the data unit.
+     * @return Layout, never {@code null}.
+     */
+    DataUnitLayout getLayout() {
+        return layout;
+    }
+
+    /**
+     * Checks the type of a column.
+     * @param column Column to check.
+     * @param types Allowed type codes.
+     * @throws IllegalStateException if the type is not allowed.
+     */
+    private static void checkType(BinaryTableColumn column, String types) {
+        if (column == null) {
+            throw new NullPointerException("column must not be null.");
+        }
+        if (types.indexOf(column.getType()) < 0) {
+            throw new IllegalStateException("Column " + column.getIndex()
+                    + " is of type " + column.getType() + ", expected one of "
+                    + types + ".");
+        }
+    }
+
+    /**
+     * Checks a range of rows and calculates the number of elements in it.
+     * @param column Column to read.
+     * @param firstRow Index of the first row.
+     * @param rows Number of rows.
+     * @return Number of elements.
+     * @throws IndexOutOfBoundsException if the rows are out of range.
+     * @throws IllegalArgumentException if there are too many elements for an
+     * array.
+     */
+    private int elementCount(BinaryTableColumn column, long firstRow,
+            int rows) {
+        checkColumn(column);
+        checkRows(firstRow, rows);
+        long count = (long) rows * column.getRepeat();
+        if (count > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(
+                    "Too many elements for an array.");
+        }
+        return (int) count;
+    }
+
+    /**
+     * Checks that a column is a descriptor column of this table and that a
+     * row is within range.
+     * @param column Column to check.
+     * @param row Index of the row.
+     */
+    private void checkDescriptor(BinaryTableColumn column, long row) {
+        checkType(column, "PQ");
+        checkColumn(column);
+        checkRows(row, 1);
+    }
+
+    /**
+     * Checks the element type of a descriptor column.
+     * @param column Column to check.
+     * @param types Allowed element type codes.
+     * @throws IllegalStateException if the type is not allowed.
+     */
+    private static void checkArrayType(BinaryTableColumn column,
+            String types) {
+        checkType(column, "PQ");
+        if (types.indexOf(column.getArrayType()) < 0) {
+            throw new IllegalStateException("Column " + column.getIndex()
+                    + " has arrays of type " + column.getArrayType()
+                    + ", expected one of " + types + ".");
+        }
+    }
+
+    /**
+     * Checks that a column belongs to this table.
+     * @param column Column to check.
+     * @throws IllegalArgumentException if the column is not one of
+     * {@link #getColumns()}.
+     */
+    void checkColumn(BinaryTableColumn column) {
+        if (column.getIndex() >= columns.size()
+                || columns.get(column.getIndex()) != column) {
+            throw new IllegalArgumentException(
+                    "column does not belong to this table.");
+        }
+    }
+
+    /**
+     * Checks a range of rows.
+     * @param firstRow Index of the first row.
+     * @param rows Number of rows.
+     * @throws IndexOutOfBoundsException if the rows are out of range.
+     */
+    private void checkRows(long firstRow, int rows) {
+        if (firstRow < 0 || rows < 0 || firstRow > rowCount - rows) {
+            throw new IndexOutOfBoundsException("Rows out of range.");
+        }
+    }
+
+    /**
+     * Reads the layout of the data unit and checks that it is a binary table.
+     * @param header Header of the HDU.
+     * @param dataOffset Position of the data unit in the file.
+     * @param errorHandler Handler to which errors are reported.
+     * @return Layout of the data unit.
+     * @throws IOException see {@link ErrorHandler}.
+     */
+    static DataUnitLayout readLayout(Header header, long dataOffset,
+            ErrorHandler errorHandler) throws IOException {
+        Property xtension = header.get("XTENSION");
+        DataUnitLayout layout = DataUnitLayout.fromHeader(header, dataOffset,
+                errorHandler);
+        if (xtension == null || !"BINTABLE".equals(trim(xtension.get()))
+                || layout.getBitpix() != 8 || layout.getAxisCount() != 2
+                || layout.getGcount() != 1
+                || layout.getAxisLength(0) > Integer.MAX_VALUE) {
+            FitsFormatException ex = new FitsFormatException(dataOffset,
+                    "BinaryTable_NotATable");
+            errorHandler.fatal(ex);
+            throw ex;
+        }
+        return layout;
+    }
+
+    /**
+     * Reads the position of the heap from {@code THEAP}.
+     * @param header Header of the HDU.
+     * @param layout Layout of the data unit.
+     * @param dataOffset Position of the data unit, used for error reporting.
+     * @param errorHandler Handler to which errors are reported.
+     * @return Offset of the heap from the start of the data unit.
+     * @throws IOException see {@link ErrorHandler}.
+     */
+    static long readHeapOffset(Header header, DataUnitLayout layout,
+            long dataOffset, ErrorHandler errorHandler) throws IOException {
+        long tableLength = layout.getAxisLength(0) * layout.getAxisLength(1);
+        Property theap = header.get("THEAP");
+        if (theap == null) {
+            return tableLength;
+        }
+        long heapOffset;
+        try {
+            heapOffset = theap.getLong();
+        } catch (IllegalStateException e) {
+            heapOffset = -1;
+        } catch (ArithmeticException e) {
+            heapOffset = -1;
+        }
+        if (heapOffset < tableLength
+                || heapOffset > layout.getDataLength()) {
+            FitsFormatException ex = new FitsFormatException(dataOffset,
+                    "BinaryTable_InvalidKeyword", "THEAP", theap.get());
+            errorHandler.fatal(ex);
+            throw ex;
+        }
+        return heapOffset;
+    }
+
+    /**
+     * Removes trailing spaces of a string value.
+     * @param value Value of a property.
+     * @return String without trailing spaces or {@code null} if the value
+     * is not a string.
+     */
+    static String trim(Object value) {
+        if (!(value instanceof String)) {
+            return null;
+        }
+        String s = (String) value;
+        int end = s.length();
+        while (end > 0 && s.charAt(end - 1) == ' ') {
+            end--;
+        }
+        return s.substring(0, end);
+    }
+
+    /**
+     * Parses the column definitions.
+     * @param header Header of the HDU.
+     * @param rowLength Value of {@code NAXIS1}.
+     * @param dataOffset Position of the data unit, used for error reporting.
+     * @param errorHandler Handler to which errors are reported.
+     * @return Unmodifiable list of the columns.
+     * @throws IOException see {@link ErrorHandler}.
+     */
+    private static List<BinaryTableColumn> readColumns(Header header,
+            int rowLength, long dataOffset, ErrorHandler errorHandler)
+            throws IOException {
+        Property tfields = header.get("TFIELDS");
+        long count;
+        try {
+            count = tfields == null ? -1 : tfields.getLong();
+        } catch (IllegalStateException e) {
+            count = -1;
+        } catch (ArithmeticException e) {
+            count = -1;
+        }
+        if (count < 0 || count > 999) {
+            FitsFormatException ex = new FitsFormatException(dataOffset,
+                    "BinaryTable_InvalidKeyword", "TFIELDS",
+                    tfields == null ? null : tfields.get());
+            errorHandler.fatal(ex);
+            throw ex;
+        }
+        List<BinaryTableColumn> result = new ArrayList<BinaryTableColumn>();
+        int offset = 0;
+        for (int i = 0; i < count; i++) {
+            String keyword = "TFORM" + (i + 1);
+            Property tform = header.get(keyword);
+            String format = tform == null ? null : trim(tform.get());
+            Property ttype = header.get("TTYPE" + (i + 1));
+            String name = ttype == null ? null : trim(ttype.get());
+            BinaryTableColumn column = parseFormat(i, name, format, offset);
+            if (column == null || offset + (long) column.getWidth()
+                    > rowLength) {
+                FitsFormatException ex = new FitsFormatException(dataOffset,
+                        "BinaryTable_InvalidKeyword", keyword, format);
+                errorHandler.fatal(ex);
+                throw ex;
+            }
+            Long nullValue = readNullValue(header, column, dataOffset,
+                    errorHandler);
+            if (nullValue != null) {
+                column = new BinaryTableColumn(i, name, column.getType(),
+                        column.getRepeat(), offset, nullValue, '\0');
+            }
+            offset += column.getWidth();
+            result.add(column);
+        }
+        if (offset != rowLength) {
+            errorHandler.error(new FitsFormatException(dataOffset,
+                    "BinaryTable_RowLength", offset, rowLength));
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Reads {@code TNULLn} of an integer column. <p>An invalid value is
+     * reported as error and ignored.</p>
+     * @param header Header of the HDU.
+     * @param column Column without null value.
+     * @param dataOffset Position of the data unit, used for error reporting.
+     * @param errorHandler Handler to which errors are reported.
+     * @return Value of {@code TNULLn} or {@code null} if the column has none.
+     * @throws IOException see {@link ErrorHandler}.
+     */
+    private static Long readNullValue(Header header, BinaryTableColumn column,
+            long dataOffset, ErrorHandler errorHandler) throws IOException {
+        String keyword = "TNULL" + (column.getIndex() + 1);
+        Property tnull = header.get(keyword);
+        if (tnull == null || "BIJK".indexOf(column.getType()) < 0) {
+            return null;
+        }
+        try {
+            return tnull.getLong();
+        } catch (IllegalStateException e) {
+            // reported below
+        } catch (ArithmeticException e) {
+            // reported below
+        }
+        errorHandler.error(new FitsFormatException(dataOffset,
+                "BinaryTable_InvalidKeyword", keyword, tnull.get()));
+        return null;
+    }
+
+    /**
+     * Parses the value of {@code TFORMn}.
+     * @param index Index of the column.
+     * @param name Value of {@code TTYPEn}, may be {@code null}.
+     * @param format Value of {@code TFORMn}, may be {@code null}. The
+     * maximal array length in parentheses following a descriptor is
+     * ignored.
+     * @param offset Position of the field within the row.
+     * @return Column or {@code null} if the format is invalid.
+     */
+    static BinaryTableColumn parseFormat(int index, String name,
+            String format, int offset) {
+        if (format == null) {
+            return null;
+        }
+        int pos = 0;
+        while (pos < format.length() && format.charAt(pos) == ' ') {
+            pos++;
+        }
+        long repeat = 0;
+        boolean digits = false;
+        while (pos < format.length() && format.charAt(pos) >= '0'
+                && format.charAt(pos) <= '9') {
+            repeat = repeat * 10 + (format.charAt(pos) - '0');
+            if (repeat > Integer.MAX_VALUE) {
+                return null;
+            }
+            digits = true;
+            pos++;
+        }
+        if (pos == format.length()) {
+            return null;
+        }
+        char type = format.charAt(pos);
+        if (BinaryTableColumn.elementSize(type) == 0) {
+            return null;
+        }
+        char arrayType = '\0';
+        if (BinaryTableColumn.isDescriptor(type)) {
+            if (pos + 1 == format.length()) {
+                return null;
+            }
+            arrayType = format.charAt(pos + 1);
+            if (BinaryTableColumn.elementSize(arrayType) == 0
+                    || BinaryTableColumn.isDescriptor(arrayType)) {
+                return null;
+            }
+        }
+        if (!digits) {
+            repeat = 1;
+        }
+        if (type != 'X' && repeat * BinaryTableColumn.elementSize(type)
+                > Integer.MAX_VALUE) {
+            return null;
+        }
+        return new BinaryTableColumn(index, name, type, (int) repeat, offset,
+                null, arrayType);
+    }
+
+    /**
+     * Maps the data unit.
+     * @param channel Channel of the FITS file.
+     * @param dataOffset Position of the data unit in the file.
+     * @param layout Layout of the data unit.
+     * @param errorHandler Handler to which errors are reported.
+     * @param segmentShift Binary logarithm of the segment size.
+     * @return Mapped region.
+     * @throws IOException if mapping fails or see {@link ErrorHandler}.
+     */
+    private static MappedRegion map(FileChannel channel, long dataOffset,
+            DataUnitLayout layout, ErrorHandler errorHandler,
+            int segmentShift) throws IOException {
+        long size = channel.size();
+        long end = dataOffset + layout.getDataLength();
+        if (end > size) {
+            FitsFormatException ex = new FitsFormatException(size,
+                    "BinaryTable_Truncated", end, size);
+            errorHandler.fatal(ex);
+            throw ex;
+        }
+        return new MappedRegion(channel, dataOffset, layout.getDataLength(),
+                segmentShift);
+    }
+}
@@ -0,0 +1,341 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Appends rows to the binary table extension at the end of a FITS file.
+ * <p>Rows passed to {@link #append(ByteBuffer)} are written directly after
+ * the existing rows, but they only become part of the table when
+ * {@link #commit()} updates {@code NAXIS2} in the header. The existing data
+ * unit is never rewritten, only the padding and the unused space after the
+ * data unit are overwritten.</p> <p>The file is changed in an order that
+ * keeps the header and the committed rows intact at every step, so a crash
+ * during an append leaves the table as it was after the last commit. The
+ * bytes written behind the data unit before the crash are removed when the
+ * file is opened with a new appender:</p> <ol> <li>If the new rows would
+ * overwrite the heap, the heap is first copied behind the end of the data
+ * unit, leaving a gap for further rows. Then {@code PCOUNT} is increased to
+ * cover the copy and, in a separate step, {@code THEAP} is changed to point
+ * to it. The old heap becomes unused space.</li> <li>The rows are written
+ * into the space behind the existing rows.</li> <li>On commit, the padding
+ * behind the new end of the data unit is zeroed and everything is forced to
+ * the storage device. If the heap is empty and {@code THEAP} is present, the
+ * new rows are first made part of the heap by increasing {@code PCOUNT}, and
+ * {@code THEAP} is moved behind them in a separate step. Finally
+ * {@code NAXIS2} and {@code PCOUNT} are updated in the first header block
+ * with a single write.</li> </ol> <p>{@code PCOUNT} and {@code NAXIS2} are
+ * always in the first header block, {@code THEAP} may be in a later one.
+ * Changing them in separate steps, each forced to the storage device, keeps
+ * every intermediate state a valid table. This relies on the write of a
+ * single block being atomic, and on {@code THEAP} fitting into the existing
+ * header blocks if it has to be changed. If {@code THEAP} is missing and
+ * the header is full, adding it moves the data unit in place, which is not
+ * crash-safe, see {@link HeaderEditor}.</p> <p>If the header contains
+ * {@code DATASUM} or {@code CHECKSUM}, they are updated by each commit
+ * together with {@code NAXIS2}. The checksum of the existing rows is
+ * computed once when the appender is created; a commit only reads the new
+ * rows, the heap and the padding. Until a commit completed, for example
+ * after the heap was moved or after a crash, the checksums may not match,
+ * which {@link Checksum#verify(Header, long, long, long, ErrorHandler)}
+ * reports as recoverable error.</p> <p>Instances are not thread-safe and the
+ * file must not be changed by others while an appender is in use. If the
+ * file is also read through a {@link BlockCache}, its pages have to be
+ * dropped with {@link BlockCache#invalidate(long)} after each
+ * {@link #commit()}.</p>
+ */
+public final class BinaryTableAppender {
+
+    private static final int COPY_BLOCKS = 256;
+    private final FileChannel channel;
+    private final long headerOffset;
+    private final HeaderEditor editor;
+    private final int rowLength;
+    private final long heapLength;
+    private final boolean checksums;
+    private long dataOffset;
+    private long rowCount;
+    private long pendingRows;
+    private long heapOffset;
+    private long dataLength;
+    /**
+     * Checksum of the committed rows, if {@link #checksums} is set.
+     */
+    private long rowSum;
+
+    /**
+     * Opens the last HDU of a file for appending. <p>Bytes behind the data
+     * unit of the last HDU, left over by appends that were not committed,
+     * are truncated.</p>
+     * @param channel Channel of the FITS file, opened for reading and
+     * writing.
+     * @param errorHandler Handler to which errors are reported.
+     * @throws NullPointerException if an argument is {@code null}.
+     * @throws IOException if reading fails or see {@link ErrorHandler}, for
+     * example if the last HDU is not a binary table.
+     */
+    public BinaryTableAppender(FileChannel channel, ErrorHandler errorHandler)
+            throws IOException {
+        if (channel == null) {
+            throw new NullPointerException("channel must not be null.");
+        }
+        if (errorHandler == null) {
+            throw new NullPointerException("errorHandler must not be null.");
+        }
+        HduIndex index = HduIndex.scan(null, 0, channel, errorHandler,
+                true);
+        int last = index.size() - 1;
+        this.channel = channel;
+        this.headerOffset = index.getHeaderOffset(last);
+        this.dataOffset = index.getDataOffset(last);
+        this.editor = new HeaderEditor(channel, headerOffset, errorHandler);
+        Header header = editor.getHeader();
+        DataUnitLayout layout = BinaryTable.readLayout(header, dataOffset,
+                errorHandler);
+        this.rowLength = (int) layout.getAxisLength(0);
+        this.rowCount = layout.getAxisLength(1);
+        this.dataLength = layout.getDataLength();
+        this.heapOffset = BinaryTable.readHeapOffset(header, layout,
+                dataOffset, errorHandler);
+        this.heapLength = dataLength - heapOffset;
+        this.pendingRows = 0;
+        this.checksums = header.contains("DATASUM")
+                || header.contains("CHECKSUM");
+        if (checksums) {
+            rowSum = Checksum.sum(channel, dataOffset, rowCount * rowLength);
+        }
+        long end = dataOffset + padded(dataLength);
+        if (channel.size() > end) {
+            channel.truncate(end);
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Gets the length of a row.
+     * @return Value of {@code NAXIS1}.
+     */
+    public int getRowLength() {
+        return rowLength;
+    }
+
+    /**
+     * Gets the number of rows in the table, excluding rows that are not yet
+     * committed.
+     * @return Value of {@code NAXIS2}.
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Gets the number of rows appended since the last commit.
+     * @return Number of rows.
+     */
+    public long getPendingRowCount() {
+        return pendingRows;
+    }
+
+    /**
+     * Writes rows behind the rows of the table. They become part of the
+     * table with the next {@link #commit()}.
+     * @param rows Rows from position to limit, {@code NAXIS1} bytes each.
+     * The position is advanced to the limit.
+     * @throws NullPointerException if {@code rows} is {@code null}.
+     * @throws IllegalArgumentException if the number of bytes is not a
+     * multiple of the row length.
+     * @throws IOException if reading or writing fails or see
+     * {@link ErrorHandler}.
+     */
+    public void append(ByteBuffer rows) throws IOException {
+        if (rows == null) {
+            throw new NullPointerException("rows must not be null.");
+        }
+        if (rowLength == 0 ? rows.hasRemaining()
+                : rows.remaining() % rowLength != 0) {
+            throw new IllegalArgumentException(
+                    "rows must contain a multiple of the row length.");
+        }
+        long start = (rowCount + pendingRows) * rowLength;
+        long end = start + rows.remaining();
+        if (heapLength > 0 && end > heapOffset) {
+            // The gap grows with the table so that a series of appends
+            // only moves the heap a logarithmic number of times.
+            moveHeap(Math.max(dataLength, padded(end + end / 2)));
+        }
+        write(rows, dataOffset + start);
+        pendingRows += (end - start) / Math.max(1, rowLength);
+    }
+
+    /**
+     * Makes the rows appended since the last commit part of the table.
+     * @throws IOException if writing fails or see {@link ErrorHandler}.
+     */
+    public void commit() throws IOException {
+        if (pendingRows == 0) {
+            return;
+        }
+        long newRowCount = rowCount + pendingRows;
+        long tableLength = newRowCount * rowLength;
+        long newDataLength = heapLength > 0 ? heapOffset + heapLength
+                : Math.max(dataLength, tableLength);
+        write(ByteBuffer.allocate((int) (padded(newDataLength)
+                - newDataLength)),
+                dataOffset + newDataLength);
+        channel.force(false);
+
+        if (heapLength == 0 && editor.getHeader().contains("THEAP")) {
+            setHeap(newDataLength, newDataLength);
+        }
+        long newRowSum = 0;
+        if (checksums) {
+            long committed = rowCount * rowLength;
+            newRowSum = Checksum.combine(rowSum, Checksum.sum(channel,
+                    dataOffset + committed, tableLength - committed),
+                    committed);
+            long dataSum = Checksum.combine(newRowSum, Checksum.sum(channel,
+                    dataOffset + tableLength,
+                    padded(newDataLength) - tableLength), tableLength);
+            setChecksums(newRowCount, newDataLength - tableLength, dataSum);
+        }
+        editor.set(new Property("NAXIS2", newRowCount));
+        editor.set(new Property("PCOUNT", newDataLength - tableLength));
+        editor.commit();
+        channel.force(false);
+        rowSum = newRowSum;
+        rowCount = newRowCount;
+        pendingRows = 0;
+        dataLength = newDataLength;
+        if (heapLength == 0) {
+            heapOffset = newDataLength;
+        }
+    }
+
+    /**
+     * Copies the heap behind the existing data unit, pads it, and changes
+     * the header to point to the copy.
+     * @param target New offset of the heap from the start of the data unit.
+     * Not smaller than the current length of the data unit.
+     * @throws IOException if reading or writing fails or see
+     * {@link ErrorHandler}.
+     */
+    private void moveHeap(long target) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(
+                COPY_BLOCKS * HeaderReader.BLOCK_SIZE);
+        for (long copied = 0; copied < heapLength;
+                copied += buffer.capacity()) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(),
+                    heapLength - copied));
+            long position = dataOffset + heapOffset + copied;
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new EOFException("File ends at byte "
+                            + (position + buffer.position()) + ".");
+                }
+            }
+            buffer.flip();
+            write(buffer, dataOffset + target + copied);
+        }
+        long newDataLength = target + heapLength;
+        write(ByteBuffer.allocate((int) (padded(newDataLength)
+                - newDataLength)), dataOffset + newDataLength);
+        channel.force(false);
+
+        setHeap(newDataLength, target);
+        heapOffset = target;
+        dataLength = newDataLength;
+    }
+
+    /**
+     * Grows the data unit and moves the heap in two committed steps.
+     * <p>First {@code PCOUNT} is increased, which keeps the old heap valid
+     * since it is still at the offset given by {@code THEAP}. Then
+     * {@code THEAP} is changed. Each step is forced to the storage device,
+     * so a crash leaves a valid table whichever header block was written
+     * last.</p>
+     * @param newDataLength New length of the data unit without padding,
+     * not smaller than the current one.
+     * @param theap New offset of the heap from the start of the data unit.
+     * @throws IOException if writing fails or see {@link ErrorHandler}.
+     */
+    private void setHeap(long newDataLength, long theap) throws IOException {
+        editor.set(new Property("PCOUNT",
+                newDataLength - rowCount * rowLength));
+        editor.commit();
+        channel.force(false);
+        editor.set(new Property("THEAP", theap));
+        editor.commit();
+        channel.force(false);
+        dataOffset = headerOffset
+                + (long) editor.getBlockCount() * HeaderReader.BLOCK_SIZE;
+    }
+
+    /**
+     * Updates the {@code DATASUM} and {@code CHECKSUM} keywords that are
+     * present in the header.
+     * @param newRowCount New value of {@code NAXIS2}.
+     * @param pcount New value of {@code PCOUNT}.
+     * @param dataSum Checksum of the data unit including its padding.
+     * @throws IOException see {@link ErrorHandler}.
+     */
+    private void setChecksums(long newRowCount, long pcount, long dataSum)
+            throws IOException {
+        Header header = editor.getHeader();
+        Property datasum = header.get("DATASUM");
+        if (datasum != null) {
+            editor.set(new Property("DATASUM", Long.toString(dataSum),
+                    datasum.getComment()));
+        }
+        Property checksum = header.get("CHECKSUM");
+        if (checksum != null) {
+            editor.set(new Property("NAXIS2", newRowCount));
+            editor.set(new Property("PCOUNT", pcount));
+            editor.set(new Property("CHECKSUM", Checksum.ZERO,
+                    checksum.getComment()));
+            long sum = Checksum.combine(editor.getChecksum(), dataSum, 0);
+            editor.set(new Property("CHECKSUM", Checksum.encode(sum),
+                    checksum.getComment()));
+        }
+    }
+
+    /**
+     * Rounds a length up to whole blocks.
+     * @param length Length in bytes.
+     * @return Length including the padding.
+     */
+    private static long padded(long length) {
+        return (length + HeaderReader.BLOCK_SIZE - 1)
+                / HeaderReader.BLOCK_SIZE * HeaderReader.BLOCK_SIZE;
+    }
+
+    /**
+     * Writes a buffer with positional writes.
+     * @param buffer Bytes from position to limit.
+     * @param position Position in the file.
+     * @throws IOException if writing fails.
+     */
+    private void write(ByteBuffer buffer, long position) throws IOException {
+        long start = position - buffer.position();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, start + buffer.position());
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * Column of a binary table. <p>Describes the field of a column within a row
+ * as given by {@code TFORMn} and {@code TTYPEn}: the data type, the number
+ * of elements per row and the position of the field in the row. Integer
+ * columns may have a value marking undefined elements, given by
+ * {@code TNULLn}. Descriptor columns ({@code P} and {@code Q}) point to a
+ * variable length array in the heap, the type of its elements follows the
+ * descriptor type in {@code TFORMn}.</p>
+ * <p>Instances of this type are immutable.</p>
+ */
+public final class BinaryTableColumn {
+
+    private final int index;
+    private final String name;
+    private final char type;
+    private final int repeat;
+    private final int offset;
+    private final int width;
+    private final Long nullValue;
+    private final char arrayType;
+
+    /**
+     * Creates an instance.
+     * @param index Index of the column, starting at zero.
+     * @param name Value of {@code TTYPEn} or {@code null} if not given.
+     * @param type Data type code of {@code TFORMn}, one of {@code L X B I J
+     * K A E D C M P Q}.
+     * @param repeat Number of elements per row.
+     * @param offset Position of the field within the row in bytes.
+     * @throws IllegalArgumentException if {@code type} is unknown or if
+     * {@code repeat} or {@code offset} is negative.
+     */
+    BinaryTableColumn(int index, String name, char type, int repeat,
+            int offset) {
+        this(index, name, type, repeat, offset, null, '\0');
+    }
+
+    /**
+     * Creates an instance with all properties.
+     * @param index Index of the column, starting at zero.
+     * @param name Value of {@code TTYPEn} or {@code null} if not given.
+     * @param type Data type code of {@code TFORMn}, one of {@code L X B I J
+     * K A E D C M P Q}.
+     * @param repeat Number of elements per row.
+     * @param offset Position of the field within the row in bytes.
+     * @param nullValue Value of {@code TNULLn} or {@code null} if not given.
+     * @param arrayType Element type of the arrays of a descriptor column,
+     * {@code '\0'} for other columns.
+     * @throws IllegalArgumentException if {@code type} is unknown, if
+     * {@code repeat} or {@code offset} is negative, if {@code nullValue} is
+     * given for a type other than {@code B I J K} or if {@code arrayType}
+     * does not match {@code type}.
+     */
+    BinaryTableColumn(int index, String name, char type, int repeat,
+            int offset, Long nullValue, char arrayType) {
+        if (elementSize(type) == 0) {
+            throw new IllegalArgumentException("Unknown type: " + type);
+        }
+        if (repeat < 0 || offset < 0) {
+            throw new IllegalArgumentException(
+                    "repeat and offset must not be negative.");
+        }
+        if (nullValue != null && "BIJK".indexOf(type) < 0) {
+            throw new IllegalArgumentException(
+                    "Only integer columns can have a null value.");
+        }
+        if (isDescriptor(type) ? elementSize(arrayType) == 0
+                || isDescriptor(arrayType) : arrayType != '\0') {
+            throw new IllegalArgumentException("Invalid array type: "
+                    + (int) arrayType);
+        }
+        this.index = index;
+        this.name = name;
+        this.type = type;
+        this.repeat = repeat;
+        this.offset = offset;
+        this.width = type == 'X' ? (repeat + 7) / 8
+                : repeat * elementSize(type);
+        this.nullValue = nullValue;
+        this.arrayType = arrayType;
+    }
+
+    /**
+     * Gets the index of this column.
+     * @return Index starting at zero, {@code n - 1} for {@code TFORMn}.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Gets the name of this column.
+     * @return Value of {@code TTYPEn} or {@code null} if not given.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the data type of this column.
+     * @return Data type code of {@code TFORMn}.
+     */
+    public char getType() {
+        return type;
+    }
+
+    /**
+     * Gets the number of elements per row.
+     * @return Repeat count of {@code TFORMn}, number of bits for type
+     * {@code X}.
+     */
+    public int getRepeat() {
+        return repeat;
+    }
+
+    /**
+     * Gets the position of the field within the row.
+     * @return Offset in bytes from the start of the row.
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * Gets the size of the field.
+     * @return Number of bytes per row.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Gets the value marking undefined elements.
+     * @return Value of {@code TNULLn} or {@code null} if not given.
+     */
+    public Long getNullValue() {
+        return nullValue;
+    }
+
+    /**
+     * Gets the element type of the variable length arrays.
+     * @return Data type code following {@code P} or {@code Q} in
+     * {@code TFORMn}, {@code '\0'} if this is not a descriptor column.
+     */
+    public char getArrayType() {
+        return arrayType;
+    }
+
+    /**
+     * Checks if a data type is an array descriptor.
+     * @param type Data type code of {@code TFORMn}.
+     * @return {@code true} for {@code P} and {@code Q}.
+     */
+    static boolean isDescriptor(char type) {
+        return type == 'P' || type == 'Q';
+    }
+
+    /**
+     * Gets the size of an element of a data type.
+     * @param type Data type code of {@code TFORMn}.
+     * @return Size in bytes, 1 for bits ({@code X}), 0 for unknown types.
+     */
+    static int elementSize(char type) {
+        switch (type) {
+            case 'L':
+            case 'X':
+            case 'B':
+            case 'A':
+                return 1;
+            case 'I':
+                return 2;
+            case 'J':
+            case 'E':
+                return 4;
+            case 'K':
+            case 'D':
+            case 'C':
+            case 'P':
+                return 8;
+            case 'M':
+            case 'Q':
+                return 16;
+            default:
+                return 0;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this).append(index).
+                append(name).
+                append(repeat + "" + type
+                + (arrayType != '\0' ? String.valueOf(arrayType) : "")).
+                append(offset).
+                build();
+    }
+}
@@ -0,0 +1,424 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of pages of FITS files in direct memory. <p>A page consists of one
+ * or more blocks of 2880 bytes and is identified by a file id and its page
+ * number. File ids are chosen by the caller, {@link #newFileId()} hands out
+ * unique ones. The pages are stored in slabs of direct memory allocated when
+ * the cache is created, so cached data neither burdens the garbage collector
+ * nor is ever reallocated.</p> <p>The cache is split into stripes, each with
+ * its own lock, slab and index, so threads reading different pages rarely
+ * wait for each other. Within a stripe, pages are evicted with the CLOCK
+ * algorithm: a page that was read since the hand last passed it gets a
+ * second chance. Pages are read from the file outside of the lock.</p>
+ * <p>Reads through the cache behave like
+ * {@link FileChannel#read(ByteBuffer, long)}. Readers that take a
+ * {@link java.nio.channels.ReadableByteChannel}, such as
+ * {@link HeaderReader}, can use the cache through a {@link CachedChannel}.
+ * {@link HduIndex#scan(BlockCache, long, FileChannel, ErrorHandler)} and
+ * the constructors of {@link BinaryTable}, {@link AsciiTable} and
+ * {@link MappedImage} that take a cache read the headers through it.</p>
+ * <p>The cache does not notice changes of the files. After a file was
+ * changed, for example with {@link HeaderEditor},
+ * {@link BinaryTableAppender} or {@link HduWriter}, its pages have to be
+ * dropped with {@link #invalidate(long)} before the file is read through
+ * the cache again.</p>
+ * <p>Instances are thread-safe.</p>
+ */
+public final class BlockCache {
+
+    /**
+     * Default size of the cache returned by {@link #getShared()} in bytes.
+     * Can be changed with the system property
+     * {@code org.smurn.fitzer.blockCacheSize}.
+     */
+    public static final long DEFAULT_SHARED_SIZE = 64L << 20;
+    private static final int MAX_STRIPES = 16;
+    private static final int MIN_STRIPE_PAGES = 16;
+    private static final AtomicLong FILE_IDS = new AtomicLong();
+    private final int pageSize;
+    private final Stripe[] stripes;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong evictions;
+
+    /**
+     * Creates a cache with pages of one block.
+     * @param capacity Maximal number of bytes of direct memory used for
+     * cached pages.
+     * @throws IllegalArgumentException if {@code capacity} is negative or too
+     * large.
+     */
+    public BlockCache(long capacity) {
+        this(capacity, 1);
+    }
+
+    /**
+     * Creates a cache.
+     * @param capacity Maximal number of bytes of direct memory used for
+     * cached pages. A capacity of less than one page disables the cache.
+     * @param pageBlocks Number of blocks per page.
+     * @throws IllegalArgumentException if {@code capacity} is negative or too
+     * large or if {@code pageBlocks} is not positive.
+     */
+    public BlockCache(long capacity, int pageBlocks) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException(
+                    "capacity must not be negative.");
+        }
+        if (pageBlocks <= 0
+                || pageBlocks > Integer.MAX_VALUE / HeaderReader.BLOCK_SIZE) {
+            throw new IllegalArgumentException(
+                    "pageBlocks must be positive.");
+        }
+        this.pageSize = pageBlocks * HeaderReader.BLOCK_SIZE;
+        long pages = capacity / pageSize;
+        int stripeCount = 1;
+        while (stripeCount < MAX_STRIPES
+                && 2 * stripeCount * MIN_STRIPE_PAGES <= pages) {
+            stripeCount *= 2;
+        }
+        long pagesPerStripe = pages / stripeCount;
+        if (pagesPerStripe * pageSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("capacity is too large.");
+        }
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe((int) pagesPerStripe, pageSize);
+        }
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.evictions = new AtomicLong();
+    }
+
+    /**
+     * Gets the cache shared by the whole process. <p>It is created on first
+     * use with a size taken from the system property
+     * {@code org.smurn.fitzer.blockCacheSize} or
+     * {@link #DEFAULT_SHARED_SIZE}.</p>
+     * @return Shared cache.
+     */
+    public static BlockCache getShared() {
+        return SharedHolder.INSTANCE;
+    }
+
+    /**
+     * Creates a file id that has not been handed out before.
+     * @return Unique file id.
+     */
+    public static long newFileId() {
+        return FILE_IDS.incrementAndGet();
+    }
+
+    /**
+     * Reads bytes of a file through the cache. <p>Behaves like
+     * {@link FileChannel#read(ByteBuffer, long)} but fills the buffer
+     * completely unless the end of the file is reached.</p>
+     * @param fileId Id of the file.
+     * @param channel Channel of the file, used to read missing pages.
+     * @param dst Buffer to fill from position to limit.
+     * @param position Position in the file of the first byte to read.
+     * @return Number of bytes read or -1 if {@code position} is at or
+     * behind the end of the file.
+     * @throws NullPointerException if {@code channel} or {@code dst} is
+     * {@code null}.
+     * @throws IllegalArgumentException if {@code position} is negative.
+     * @throws IOException if reading fails.
+     */
+    public int read(long fileId, FileChannel channel, ByteBuffer dst,
+            long position) throws IOException {
+        if (channel == null) {
+            throw new NullPointerException("channel must not be null.");
+        }
+        if (dst == null) {
+            throw new NullPointerException("dst must not be null.");
+        }
+        if (position < 0) {
+            throw new IllegalArgumentException(
+                    "position must not be negative.");
+        }
+        int total = 0;
+        long pos = position;
+        while (dst.hasRemaining()) {
+            long page = pos / pageSize;
+            int offset = (int) (pos % pageSize);
+            int n = readPage(fileId, channel, page, offset, dst);
+            if (n <= 0) {
+                break;
+            }
+            total += n;
+            pos += n;
+            if (offset + n < pageSize && dst.hasRemaining()) {
+                break;
+            }
+        }
+        return total == 0 && dst.hasRemaining() ? -1 : total;
+    }
+
+    /**
+     * Drops all cached pages of a file.
+     * @param fileId Id of the file.
+     */
+    public void invalidate(long fileId) {
+        for (Stripe stripe : stripes) {
+            stripe.invalidate(fileId);
+        }
+    }
+
+    /**
+     * Gets the size of a page.
+     * @return Size in bytes, a multiple of 2880.
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Gets the number of bytes of direct memory used for cached pages.
+     * @return Capacity in bytes.
+     */
+    public long getCapacity() {
+        long capacity = 0;
+        for (Stripe stripe : stripes) {
+            capacity += (long) stripe.keys.length * pageSize;
+        }
+        return capacity;
+    }
+
+    /**
+     * Gets the number of page reads served from the cache.
+     * @return Number of hits.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Gets the number of page reads that had to read from the file.
+     * @return Number of misses.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Gets the number of pages that were evicted to make room for others.
+     * @return Number of evictions.
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Copies bytes of one page into a buffer, reading the page if it is not
+     * cached.
+     * @return Number of bytes copied, 0 if the page ends before
+     * {@code offset}.
+     * @throws IOException if reading fails.
+     */
+    private int readPage(long fileId, FileChannel channel, long page,
+            int offset, ByteBuffer dst) throws IOException {
+        Key key = new Key(fileId, page);
+        Stripe stripe = stripes[(key.hashCode() & 0x7FFFFFFF)
+                % stripes.length];
+        int n = stripe.copy(key, offset, dst);
+        if (n >= 0) {
+            hits.incrementAndGet();
+            return n;
+        }
+        misses.incrementAndGet();
+        ByteBuffer buffer = ByteBuffer.allocate(pageSize);
+        long start = page * pageSize;
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, start + buffer.position()) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        if (stripe.put(key, buffer)) {
+            evictions.incrementAndGet();
+        }
+        if (offset >= buffer.limit()) {
+            return 0;
+        }
+        buffer.position(offset);
+        n = Math.min(buffer.remaining(), dst.remaining());
+        buffer.limit(offset + n);
+        dst.put(buffer);
+        return n;
+    }
+
+    /**
+     * Part of the cache with its own lock.
+     */
+    private static final class Stripe {
+
+        private final int pageSize;
+        private final ByteBuffer slab;
+        private final Map<Key, Integer> slots;
+        private final Key[] keys;
+        private final int[] lengths;
+        private final boolean[] referenced;
+        private int hand;
+        private int used;
+
+        /**
+         * Creates an empty stripe.
+         * @param pages Number of pages in the stripe.
+         * @param pageSize Size of a page.
+         */
+        Stripe(int pages, int pageSize) {
+            this.pageSize = pageSize;
+            this.slab = ByteBuffer.allocateDirect(pages * pageSize);
+            this.slots = new HashMap<Key, Integer>();
+            this.keys = new Key[pages];
+            this.lengths = new int[pages];
+            this.referenced = new boolean[pages];
+        }
+
+        /**
+         * Copies bytes of a cached page.
+         * @param key Key of the page.
+         * @param offset Index within the page of the first byte.
+         * @param dst Buffer receiving the bytes.
+         * @return Number of bytes copied or -1 if the page is not cached.
+         */
+        synchronized int copy(Key key, int offset, ByteBuffer dst) {
+            Integer slot = slots.get(key);
+            if (slot == null) {
+                return -1;
+            }
+            referenced[slot] = true;
+            int n = Math.max(0, Math.min(lengths[slot] - offset,
+                    dst.remaining()));
+            ByteBuffer src = slab.duplicate();
+            int start = slot * pageSize + offset;
+            src.limit(start + n).position(start);
+            dst.put(src);
+            return n;
+        }
+
+        /**
+         * Adds a page unless it is already cached.
+         * @param key Key of the page.
+         * @param page Bytes of the page from position to limit.
+         * @return {@code true} if another page was evicted.
+         */
+        synchronized boolean put(Key key, ByteBuffer page) {
+            if (keys.length == 0 || slots.containsKey(key)) {
+                return false;
+            }
+            boolean evicted = false;
+            int slot;
+            if (used < keys.length) {
+                slot = used++;
+            } else {
+                while (referenced[hand]) {
+                    referenced[hand] = false;
+                    hand = (hand + 1) % keys.length;
+                }
+                slot = hand;
+                hand = (hand + 1) % keys.length;
+                if (keys[slot] != null) {
+                    slots.remove(keys[slot]);
+                    evicted = true;
+                }
+            }
+            keys[slot] = key;
+            lengths[slot] = page.remaining();
+            referenced[slot] = false;
+            slots.put(key, slot);
+            ByteBuffer target = slab.duplicate();
+            target.position(slot * pageSize);
+            target.put(page.duplicate());
+            return evicted;
+        }
+
+        /**
+         * Drops all pages of a file.
+         * @param fileId Id of the file.
+         */
+        synchronized void invalidate(long fileId) {
+            Iterator<Map.Entry<Key, Integer>> it =
+                    slots.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Key, Integer> entry = it.next();
+                if (entry.getKey().fileId == fileId) {
+                    keys[entry.getValue()] = null;
+                    referenced[entry.getValue()] = false;
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Identifies a page.
+     */
+    private static final class Key {
+
+        private final long fileId;
+        private final long page;
+
+        /**
+         * Creates an instance.
+         * @param fileId Id of the file.
+         * @param page Number of the page within the file.
+         */
+        Key(long fileId, long page) {
+            this.fileId = fileId;
+            this.page = page;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key rhs = (Key) obj;
+            return fileId == rhs.fileId && page == rhs.page;
+        }
+
+        @Override
+        public int hashCode() {
+            long h = fileId * 0x9E3779B97F4A7C15L + page;
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            return (int) h;
+        }
+    }
+
+    /**
+     * Holds the shared instance, created when first accessed.
+     */
+    private static final class SharedHolder {
+
+        private static final BlockCache INSTANCE = new BlockCache(
+                Long.getLong("org.smurn.fitzer.blockCacheSize",
+                DEFAULT_SHARED_SIZE));
+    }
+}
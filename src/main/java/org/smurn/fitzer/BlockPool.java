@@ -0,0 +1,89 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of direct buffers of one FITS block each. <p>Allocating direct buffers
+ * is expensive and their memory is only released by the garbage collector,
+ * so buffers that are needed for a short time only are taken from a pool and
+ * returned after use. The pool keeps up to a given number of free buffers,
+ * buffers returned beyond that are left to the garbage collector.</p>
+ * <p>Instances are thread-safe.</p>
+ */
+final class BlockPool {
+
+    private final ConcurrentLinkedQueue<ByteBuffer> free;
+    private final AtomicInteger freeCount;
+    private final int capacity;
+
+    /**
+     * Creates an empty pool.
+     * @param capacity Maximal number of free buffers kept.
+     * @throws IllegalArgumentException if {@code capacity} is negative.
+     */
+    BlockPool(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException(
+                    "capacity must not be negative.");
+        }
+        this.free = new ConcurrentLinkedQueue<ByteBuffer>();
+        this.freeCount = new AtomicInteger();
+        this.capacity = capacity;
+    }
+
+    /**
+     * Takes a buffer from the pool or allocates a new one if the pool is
+     * empty.
+     * @return Cleared direct buffer of 2880 bytes.
+     */
+    ByteBuffer acquire() {
+        ByteBuffer block = free.poll();
+        if (block == null) {
+            return ByteBuffer.allocateDirect(HeaderReader.BLOCK_SIZE);
+        }
+        freeCount.decrementAndGet();
+        block.clear();
+        return block;
+    }
+
+    /**
+     * Returns a buffer to the pool. The buffer must not be used afterwards.
+     * @param block Buffer taken from {@link #acquire()}.
+     * @throws NullPointerException if {@code block} is {@code null}.
+     */
+    void release(ByteBuffer block) {
+        if (block == null) {
+            throw new NullPointerException("block must not be null.");
+        }
+        if (freeCount.incrementAndGet() <= capacity) {
+            free.offer(block);
+        } else {
+            freeCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * Gets the number of free buffers in the pool.
+     * @return Number of buffers that can be acquired without allocation.
+     */
+    int getFreeCount() {
+        return freeCount.get();
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Readable view of a file channel that reads through a {@link BlockCache}.
+ * <p>Like {@link PositionalChannel}, a view has a position of its own and
+ * never changes the position of the file channel, so views of the same file
+ * can be used by different threads concurrently. Reading the same header
+ * again, for example by another {@link HeaderReader}, is served from the
+ * cache.</p> <p>Closing a view does not close the file channel. Instances
+ * are not thread-safe.</p>
+ */
+public final class CachedChannel implements ReadableByteChannel {
+
+    private final BlockCache cache;
+    private final long fileId;
+    private final FileChannel channel;
+    private long position;
+    private boolean open;
+
+    /**
+     * Creates an instance.
+     * @param cache Cache to read through.
+     * @param fileId Id of the file in the cache.
+     * @param channel File channel to read missing pages from.
+     * @param position Position in the file of the first byte to read.
+     * @throws NullPointerException if {@code cache} or {@code channel} is
+     * {@code null}.
+     * @throws IllegalArgumentException if {@code position} is negative.
+     */
+    public CachedChannel(BlockCache cache, long fileId, FileChannel channel,
+            long position) {
+        if (cache == null) {
+            throw new NullPointerException("cache must not be null.");
+        }
+        if (channel == null) {
+            throw new NullPointerException("channel must not be null.");
+        }
+        if (position < 0) {
+            throw new IllegalArgumentException(
+                    "position must not be negative.");
+        }
+        this.cache = cache;
+        this.fileId = fileId;
+        this.channel = channel;
+        this.position = position;
+        this.open = true;
+    }
+
+    /**
+     * Gets the position of the next byte to read.
+     * @return Position in the file.
+     */
+    public long position() {
+        return position;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        int n = cache.read(fileId, channel, dst, position);
+        if (n > 0) {
+            position += n;
+        }
+        return n;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open && channel.isOpen();
+    }
+
+    @Override
+    public void close() {
+        open = false;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * HDU index and headers of a FITS file, as loaded by {@link HeaderCache}.
+ * <p>Instances of this type are immutable.</p>
+ */
+public final class CachedHeaders {
+
+    private final HduIndex index;
+    private final Header[] headers;
+    private final boolean hit;
+
+    /**
+     * Creates an instance.
+     * @param index Index of the HDUs.
+     * @param headers Header of each HDU.
+     * @param hit {@code true} if loaded from the cache.
+     */
+    CachedHeaders(HduIndex index, Header[] headers, boolean hit) {
+        this.index = index;
+        this.headers = headers;
+        this.hit = hit;
+    }
+
+    /**
+     * Gets the index of the HDUs.
+     * @return Index, never {@code null}.
+     */
+    public HduIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Gets the header of an HDU.
+     * @param hdu Index of the HDU, 0 for the primary HDU.
+     * @return Header, never {@code null}.
+     * @throws IndexOutOfBoundsException if {@code hdu} is out of range.
+     */
+    public Header getHeader(int hdu) {
+        return headers[hdu];
+    }
+
+    /**
+     * Gets the headers of all HDUs.
+     * @return Unmodifiable list of the headers in the order of the HDUs.
+     */
+    public List<Header> getHeaders() {
+        return Collections.unmodifiableList(Arrays.asList(headers));
+    }
+
+    /**
+     * Checks if the headers were loaded from the cache.
+     * @return {@code true} if loaded from the cache, {@code false} if the
+     * file was scanned.
+     */
+    public boolean isHit() {
+        return hit;
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Encodes properties into header records. <p>Values are encoded by the
+ * {@link HeaderValueConverter}s of this library, numbers and logical values
+ * in fixed format. Strings are padded to at least eight characters, as the
+ * standard requires for {@code XTENSION}. Comments that do not fit into the
+ * header record are truncated.</p> <p>Instances are not thread-safe.</p>
+ */
+final class CardEncoder {
+
+    /**
+     * Keyword of the header record ending a header. Must not be modified.
+     */
+    static final byte[] END = {'E', 'N', 'D'};
+    private final ErrorHandler errorHandler;
+    private final HeaderValueConverter[] converters;
+
+    /**
+     * Creates an instance.
+     * @param errorHandler Handler to which errors are reported.
+     * @throws NullPointerException if {@code errorHandler} is {@code null}.
+     */
+    CardEncoder(ErrorHandler errorHandler) {
+        if (errorHandler == null) {
+            throw new NullPointerException("errorHandler must not be null.");
+        }
+        this.errorHandler = errorHandler;
+        this.converters = new HeaderValueConverter[]{
+            new NullHeaderValueConverter(),
+            new StringHeaderValueConverter(),
+            new NumericHeaderValueConverter(),
+            new LogicalHeaderValueConverter()
+        };
+    }
+
+    /**
+     * Encodes the properties of a header, followed by the {@code END}
+     * keyword and padded with spaces to a multiple of 2880 bytes.
+     * @param properties Properties in the order of the header records.
+     * @return Buffer containing the header blocks from position to limit.
+     * @throws NullPointerException if {@code properties} is {@code null}.
+     * @throws IOException see {@link ErrorHandler}.
+     */
+    ByteBuffer encodeHeader(List<Property> properties) throws IOException {
+        if (properties == null) {
+            throw new NullPointerException("properties must not be null.");
+        }
+        int cards = properties.size() + 1;
+        int blocks = (cards + HeaderReader.CARDS_PER_BLOCK - 1)
+                / HeaderReader.CARDS_PER_BLOCK;
+        ByteBuffer target = ByteBuffer.allocate(
+                blocks * HeaderReader.BLOCK_SIZE);
+        for (Property property : properties) {
+            encode(property, target);
+        }
+        target.put(END);
+        while (target.hasRemaining()) {
+            target.put((byte) ' ');
+        }
+        target.flip();
+        return target;
+    }
+
+    /**
+     * Encodes a property into a header record.
+     * @param property Property to encode.
+     * @param target Buffer receiving the 80 bytes of the header record at
+     * its position. The position is advanced by 80.
+     * @throws NullPointerException if an argument is {@code null}.
+     * @throws IllegalArgumentException if the value of the property is
+     * complex, which is not supported.
+     * @throws java.nio.BufferOverflowException if {@code target} has less
+     * than 80 bytes remaining.
+     * @throws IOException see {@link ErrorHandler}.
+     */
+    void encode(Property property, ByteBuffer target) throws IOException {
+        if (property == null) {
+            throw new NullPointerException("property must not be null.");
+        }
+        ByteBuffer card = target.slice();
+        card.limit(CardParser.CARD_SIZE);
+        target.position(target.position() + CardParser.CARD_SIZE);
+        writeKeyword(property.getKeyword(), card);
+        if (property.isCommentary()) {
+            writeText(property.getComment(), card);
+        } else {
+            card.put((byte) '=').put((byte) ' ');
+            Object value = property.get();
+            if (value instanceof String) {
+                value = pad((String) value);
+            }
+            HeaderValueConverter converter = find(value);
+            converter.encode(value, value instanceof BigDecimal
+                    || value instanceof Boolean, card, errorHandler);
+            String comment = property.getComment();
+            if (comment.length() > 0 && card.remaining() > 3) {
+                card.put((byte) ' ').put((byte) '/').put((byte) ' ');
+                writeText(comment, card);
+            }
+        }
+        while (card.hasRemaining()) {
+            card.put((byte) ' ');
+        }
+    }
+
+    /**
+     * Writes a keyword padded to eight characters.
+     * @param keyword Keyword to write.
+     * @param card Buffer receiving the header record.
+     * @throws IOException see {@link ErrorHandler}.
+     */
+    private void writeKeyword(String keyword, ByteBuffer card)
+            throws IOException {
+        if (keyword.length() > CardParser.KEYWORD_LENGTH) {
+            FitsDataException ex = new FitsDataException(
+                    "CardEncoder_KeywordLength", keyword);
+            errorHandler.fatal(ex);
+            throw ex;
+        }
+        for (int i = 0; i < keyword.length(); i++) {
+            char c = keyword.charAt(i);
+            if (!((c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '_')) {
+                FitsDataException ex = new FitsDataException(
+                        "CardEncoder_KeywordCharacter", keyword, (int) c);
+                errorHandler.fatal(ex);
+                throw ex;
+            }
+            card.put((byte) c);
+        }
+        for (int i = keyword.length(); i < CardParser.KEYWORD_LENGTH; i++) {
+            card.put((byte) ' ');
+        }
+    }
+
+    /**
+     * Writes as much of a text as fits into the header record.
+     * @param text Text to write.
+     * @param card Buffer receiving the header record.
+     * @throws IOException see {@link ErrorHandler}.
+     */
+    private void writeText(String text, ByteBuffer card) throws IOException {
+        int length = Math.min(text.length(), card.remaining());
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < 32 || c > 126) {
+                FitsDataException ex = new FitsDataException(
+                        "CardEncoder_TextCharacter", text, (int) c);
+                errorHandler.fatal(ex);
+                throw ex;
+            }
+            card.put((byte) c);
+        }
+    }
+
+    /**
+     * Finds the converter for a value.
+     * @param value Value to encode.
+     * @return Converter.
+     * @throws IllegalArgumentException if there is no converter.
+     */
+    private HeaderValueConverter find(Object value) {
+        for (HeaderValueConverter converter : converters) {
+            if (converter.compatibleTypeCheck(value)) {
+                return converter;
+            }
+        }
+        throw new IllegalArgumentException("Cannot encode values of type "
+                + value.getClass().getSimpleName() + ".");
+    }
+
+    /**
+     * Pads a string with spaces to eight characters.
+     * @param value String to pad.
+     * @return Padded string.
+     */
+    private static String pad(String value) {
+        StringBuilder builder = new StringBuilder(value);
+        while (builder.length() < CardParser.KEYWORD_LENGTH) {
+            builder.append(' ');
+        }
+        return builder.toString();
+    }
+}
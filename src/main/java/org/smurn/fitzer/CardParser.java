@@ -0,0 +1,211 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Parses the parts of a header record. <p>All methods read from a buffer
+ * using absolute get operations. Offsets passed along are the positions of
+ * the corresponding bytes in the FITS file and are only used for error
+ * reporting.</p> <p>Instances reuse a character buffer and are not
+ * thread-safe.</p> <p>Errors that are reported to
+ * {@link ErrorHandler#error(FitsException)} are created without stack trace,
+ * they are usually not thrown and a broken header may contain many of
+ * them.</p>
+ */
+final class CardParser {
+
+    /**
+     * Size of a header record in bytes.
+     */
+    static final int CARD_SIZE = 80;
+    /**
+     * Maximal length of a keyword.
+     */
+    static final int KEYWORD_LENGTH = 8;
+    /**
+     * Index of the first byte of the value field within a header record.
+     */
+    static final int VALUE_START = 10;
+    private final HeaderValueConverterRegistry converters;
+    private final ErrorHandler errorHandler;
+    private final char[] text;
+
+    /**
+     * Creates an instance.
+     * @param converters Converters used to decode the values.
+     * @param errorHandler Handler to which errors are reported.
+     */
+    CardParser(HeaderValueConverterRegistry converters,
+            ErrorHandler errorHandler) {
+        this.converters = converters;
+        this.errorHandler = errorHandler;
+        this.text = new char[CARD_SIZE];
+    }
+
+    /**
+     * Parses the keyword of a header record.
+     * @param buffer Buffer containing the header record.
+     * @param card Index of the header record within the buffer.
+     * @param offset Offset of the header record.
+     * @return Keyword without trailing spaces.
+     * @throws IOException see {@link ErrorHandler}.
+     */
+    String readKeyword(ByteBuffer buffer, int card, long offset)
+            throws IOException {
+        int length = KEYWORD_LENGTH;
+        while (length > 0 && buffer.get(card + length - 1) == ' ') {
+            length--;
+        }
+        for (int i = 0; i < length; i++) {
+            byte c = buffer.get(card + i);
+            if (!((c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '_')) {
+                errorHandler.error(new FitsFormatException(
+                        FitsException.stackTrace(errorHandler), offset + i,
+                        "HeaderReader_KeywordCharacter", ((int) c) & 0xFF));
+            }
+            text[i] = (char) (c & 0xFF);
+        }
+        return new String(text, 0, length);
+    }
+
+    /**
+     * Checks if a header record has a value indicator.
+     * @param keyword Keyword of the header record.
+     * @param buffer Buffer containing the header record.
+     * @param card Index of the header record within the buffer.
+     * @return {@code true} if the record contains a value.
+     */
+    static boolean hasValue(String keyword, ByteBuffer buffer, int card) {
+        if (keyword.length() == 0 || "COMMENT".equals(keyword)
+                || "HISTORY".equals(keyword)) {
+            return false;
+        }
+        return buffer.get(card + KEYWORD_LENGTH) == '='
+                && buffer.get(card + KEYWORD_LENGTH + 1) == ' ';
+    }
+
+    /**
+     * Parses a header record without value into a commentary property.
+     * @param keyword Keyword of the header record.
+     * @param buffer Buffer containing the header record.
+     * @param card Index of the header record within the buffer.
+     * @param offset Offset of the header record.
+     * @return Commentary property.
+     * @throws IOException see {@link ErrorHandler}.
+     */
+    Property parseCommentary(String keyword, ByteBuffer buffer, int card,
+            long offset) throws IOException {
+        String comment = readText(buffer, card + KEYWORD_LENGTH,
+                card + CARD_SIZE, offset - card);
+        return new Property(keyword, null, comment, true);
+    }
+
+    /**
+     * Parses the value field of a header record into a property.
+     * @param keyword Keyword of the header record.
+     * @param buffer Buffer containing the value field.
+     * @param position Index of the first byte of the value field within the
+     * buffer.
+     * @param offset Offset of the value field.
+     * @return Property with the value and comment of the header record.
+     * @throws IOException see {@link ErrorHandler}.
+     */
+    Property parseValue(String keyword, ByteBuffer buffer, int position,
+            long offset) throws IOException {
+        HeaderValueConverter converter = converters.lookup(buffer, position);
+        if (converter == null) {
+            errorHandler.error(new FitsFormatException(
+                    FitsException.stackTrace(errorHandler), offset,
+                    "HeaderReader_UnknownValue", keyword));
+            return new Property(keyword, null, "");
+        }
+
+        HeaderValueConverter.ParsingResult result = converter.decode(
+                buffer, position, offset, errorHandler);
+        String comment = readComment(keyword, buffer,
+                position + result.getBytesConsumed(),
+                position + HeaderValueConverter.VALUE_LENGTH,
+                offset - position);
+        if (result.isCompact()) {
+            return new Property(keyword, result.getUnscaledValue(),
+                    result.getScale(), comment);
+        }
+        return new Property(keyword, result.getValue(), comment);
+    }
+
+    /**
+     * Parses the comment following a value.
+     * @param keyword Keyword of the header record.
+     * @param buffer Buffer containing the header record.
+     * @param start Index of the first byte after the value.
+     * @param end Index of the first byte after the header record.
+     * @param base Offset of the first byte of the buffer.
+     * @return Comment without leading and trailing spaces.
+     * @throws IOException see {@link ErrorHandler}.
+     */
+    private String readComment(String keyword, ByteBuffer buffer, int start,
+            int end, long base) throws IOException {
+        int pos = start;
+        while (pos < end && buffer.get(pos) == ' ') {
+            pos++;
+        }
+        if (pos == end) {
+            return "";
+        }
+        if (buffer.get(pos) == '/') {
+            pos++;
+            while (pos < end && buffer.get(pos) == ' ') {
+                pos++;
+            }
+        } else {
+            errorHandler.error(new FitsFormatException(
+                    FitsException.stackTrace(errorHandler), base + pos,
+                    "HeaderReader_CommentSeparator", keyword));
+        }
+        return readText(buffer, pos, end, base);
+    }
+
+    /**
+     * Reads ASCII text.
+     * @param buffer Buffer containing the text.
+     * @param start Index of the first character.
+     * @param end Index after the last character.
+     * @param base Offset of the first byte of the buffer.
+     * @return Text without trailing spaces.
+     * @throws IOException see {@link ErrorHandler}.
+     */
+    private String readText(ByteBuffer buffer, int start, int end, long base)
+            throws IOException {
+        int last = end;
+        while (last > start && buffer.get(last - 1) == ' ') {
+            last--;
+        }
+        for (int i = start; i < last; i++) {
+            byte c = buffer.get(i);
+            if (c < 32 || c > 126) {
+                errorHandler.error(new FitsFormatException(
+                        FitsException.stackTrace(errorHandler), base + i,
+                        "HeaderReader_TextCharacter", ((int) c) & 0xFF));
+            }
+            text[i - start] = (char) (c & 0xFF);
+        }
+        return new String(text, 0, last - start);
+    }
+}
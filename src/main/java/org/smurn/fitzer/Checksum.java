@@ -0,0 +1,365 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Computes the checksums of the {@code DATASUM} and {@code CHECKSUM}
+ * keywords. <p>The checksum is the 32 bit ones' complement sum of the bytes
+ * interpreted as big-endian 32 bit integers. It is accumulated in a
+ * {@code long} and the carries are folded back into the lower 32 bits only
+ * once per buffer, so the inner loop is a plain addition of two words per
+ * {@code long} read.</p> <p>Because the sum is associative, segments can be
+ * summed independently and combined with
+ * {@link #combine(long, long, long)}. A segment that does not start at a
+ * multiple of four bytes is accounted for by rotating its sum, so the
+ * buffers passed to {@link #update(ByteBuffer)} may have any length.</p>
+ * <p>Instances are not thread-safe.</p>
+ */
+public final class Checksum {
+
+    /**
+     * Value of the {@code CHECKSUM} keyword while the checksum of the header
+     * is computed.
+     */
+    public static final String ZERO = "0000000000000000";
+    /**
+     * Number of blocks summed by one task of
+     * {@link #compute(FileChannel, long, long, ExecutorService)}.
+     */
+    static final int TASK_BLOCKS = 1024;
+    private static final int READ_BLOCKS = 64;
+    private static final long MASK = 0xFFFFFFFFL;
+    private static final byte[] EXCLUDED = {
+        0x3a, 0x3b, 0x3c, 0x3d, 0x3e, 0x3f, 0x40,
+        0x5b, 0x5c, 0x5d, 0x5e, 0x5f, 0x60};
+    private long sum;
+    private long length;
+
+    /**
+     * Creates an instance with a sum of zero.
+     */
+    public Checksum() {
+        this.sum = 0;
+        this.length = 0;
+    }
+
+    /**
+     * Adds bytes to the checksum.
+     * @param buffer Bytes from position to limit. The position is advanced to
+     * the limit.
+     * @throws NullPointerException if {@code buffer} is {@code null}.
+     */
+    public void update(ByteBuffer buffer) {
+        if (buffer == null) {
+            throw new NullPointerException("buffer must not be null.");
+        }
+        long acc = sum;
+        int count = buffer.remaining();
+        int shift = (int) (length & 3);
+        while (shift != 0 && buffer.hasRemaining()) {
+            acc += (long) (buffer.get() & 0xFF) << (24 - 8 * shift);
+            shift = (shift + 1) & 3;
+        }
+        ByteOrder order = buffer.order();
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        while (buffer.remaining() >= 8) {
+            long value = buffer.getLong();
+            acc += (value >>> 32) + (value & MASK);
+        }
+        if (buffer.remaining() >= 4) {
+            acc += buffer.getInt() & MASK;
+        }
+        buffer.order(order);
+        while (buffer.hasRemaining()) {
+            acc += (long) (buffer.get() & 0xFF) << (24 - 8 * shift);
+            shift++;
+        }
+        sum = fold(acc);
+        length += count;
+    }
+
+    /**
+     * Gets the checksum of the bytes added so far.
+     * @return Ones' complement sum between 0 and 2<sup>32</sup>-1.
+     */
+    public long getValue() {
+        return sum;
+    }
+
+    /**
+     * Gets the number of bytes added so far.
+     * @return Number of bytes.
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Resets the sum to zero.
+     */
+    public void reset() {
+        sum = 0;
+        length = 0;
+    }
+
+    /**
+     * Combines the checksums of two consecutive segments.
+     * @param first Checksum of the first segment.
+     * @param second Checksum of the second segment, computed as if it started
+     * at a multiple of four bytes.
+     * @param offset Position of the second segment relative to the start of
+     * the first one.
+     * @return Checksum of both segments.
+     */
+    public static long combine(long first, long second, long offset) {
+        int bits = 8 * (int) (offset & 3);
+        long rotated = bits == 0 ? second
+                : ((second >>> bits) | (second << (32 - bits))) & MASK;
+        return fold(first + rotated);
+    }
+
+    /**
+     * Computes the checksum of a part of a file, in parallel if there is an
+     * executor. <p>The part is split into segments of {@value #TASK_BLOCKS}
+     * blocks which are read with positional reads and summed by separate
+     * tasks. The position of the channel is not changed.</p>
+     * @param channel Channel to read from.
+     * @param offset Position of the first byte.
+     * @param length Number of bytes.
+     * @param executor Executor running the tasks or {@code null} to compute
+     * the checksum in the calling thread.
+     * @return Checksum of the bytes.
+     * @throws NullPointerException if {@code channel} is {@code null}.
+     * @throws IllegalArgumentException if {@code offset} or {@code length} is
+     * negative.
+     * @throws EOFException if the file ends before the last byte.
+     * @throws IOException if reading fails.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public static long compute(final FileChannel channel, final long offset,
+            final long length, ExecutorService executor) throws IOException,
+            InterruptedException {
+        if (channel == null) {
+            throw new NullPointerException("channel must not be null.");
+        }
+        if (offset < 0 || length < 0) {
+            throw new IllegalArgumentException(
+                    "offset and length must not be negative.");
+        }
+        final long segment = (long) TASK_BLOCKS * HeaderReader.BLOCK_SIZE;
+        if (executor == null || length <= segment) {
+            return sum(channel, offset, length);
+        }
+        List<Callable<Long>> tasks = new ArrayList<Callable<Long>>();
+        for (long start = 0; start < length; start += segment) {
+            final long first = offset + start;
+            final long count = Math.min(segment, length - start);
+            tasks.add(new Callable<Long>() {
+
+                @Override
+                public Long call() throws IOException {
+                    return sum(channel, first, count);
+                }
+            });
+        }
+        List<Future<Long>> futures = executor.invokeAll(tasks);
+        long result = 0;
+        for (Future<Long> future : futures) {
+            try {
+                result = fold(result + future.get());
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IllegalStateException(cause);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Encodes a checksum as value of the {@code CHECKSUM} keyword. <p>This is
+     * the ASCII encoding of the FITS checksum convention. The complement of
+     * the sum is encoded into 16 characters from {@code 0-9}, {@code A-Z} and
+     * {@code a-z} whose checksum, in place of {@link #ZERO}, makes the sum of
+     * the HDU zero.</p>
+     * @param sum Checksum of the HDU with {@link #ZERO} as value of the
+     * {@code CHECKSUM} keyword.
+     * @return Encoded checksum.
+     */
+    public static String encode(long sum) {
+        long value = ~sum & MASK;
+        char[] encoded = new char[16];
+        int[] chars = new int[4];
+        for (int i = 0; i < 4; i++) {
+            int b = (int) (value >>> (24 - 8 * i)) & 0xFF;
+            int quotient = b / 4 + '0';
+            for (int j = 0; j < 4; j++) {
+                chars[j] = quotient;
+            }
+            chars[0] += b % 4;
+            boolean excluded = true;
+            while (excluded) {
+                excluded = false;
+                for (int j = 0; j < 4; j += 2) {
+                    if (isExcluded(chars[j]) || isExcluded(chars[j + 1])) {
+                        chars[j]++;
+                        chars[j + 1]--;
+                        excluded = true;
+                    }
+                }
+            }
+            for (int j = 0; j < 4; j++) {
+                encoded[(4 * j + i + 1) % 16] = (char) chars[j];
+            }
+        }
+        return new String(encoded);
+    }
+
+    /**
+     * Verifies the {@code DATASUM} and {@code CHECKSUM} keywords of an HDU.
+     * <p>Keywords that are missing are not verified. A mismatch is reported
+     * as recoverable error.</p>
+     * @param header Header of the HDU.
+     * @param headerSum Checksum of the header blocks.
+     * @param dataSum Checksum of the data unit including its padding.
+     * @param offset Position of the header in the file. Used for error
+     * reporting.
+     * @param errorHandler Handler to which mismatches are reported.
+     * @return {@code true} if all present keywords match.
+     * @throws NullPointerException if {@code header} or {@code errorHandler}
+     * is {@code null}.
+     * @throws IOException see {@link ErrorHandler}.
+     */
+    public static boolean verify(Header header, long headerSum, long dataSum,
+            long offset, ErrorHandler errorHandler) throws IOException {
+        if (header == null) {
+            throw new NullPointerException("header must not be null.");
+        }
+        if (errorHandler == null) {
+            throw new NullPointerException("errorHandler must not be null.");
+        }
+        boolean valid = true;
+        Property datasum = header.get("DATASUM");
+        if (datasum != null) {
+            Object expected = BinaryTable.trim(datasum.get());
+            if (!Long.toString(dataSum).equals(expected)) {
+                errorHandler.error(new FitsFormatException(
+                        FitsException.stackTrace(errorHandler), offset,
+                        "Checksum_DataSum", datasum.get(), dataSum));
+                valid = false;
+            }
+        }
+        if (header.get("CHECKSUM") != null) {
+            long total = fold(headerSum + dataSum);
+            if (total != 0 && total != MASK) {
+                errorHandler.error(new FitsFormatException(
+                        FitsException.stackTrace(errorHandler), offset,
+                        "Checksum_Checksum", total));
+                valid = false;
+            }
+        }
+        return valid;
+    }
+
+    /**
+     * Creates the value of the {@code DATASUM} keyword.
+     * @param dataSum Checksum of the data unit including its padding.
+     * @return Property with the checksum as decimal string.
+     */
+    public static Property dataSum(long dataSum) {
+        return new Property("DATASUM", Long.toString(dataSum),
+                "data unit checksum");
+    }
+
+    /**
+     * Folds the carries of an accumulated sum into the lower 32 bits.
+     * @param acc Sum of 32 bit words.
+     * @return Ones' complement sum.
+     */
+    static long fold(long acc) {
+        long result = acc;
+        while ((result >>> 32) != 0) {
+            result = (result & MASK) + (result >>> 32);
+        }
+        return result;
+    }
+
+    /**
+     * Checks if a character must not occur in an encoded checksum.
+     * @param c Character code.
+     * @return {@code true} if it is a punctuation character.
+     */
+    private static boolean isExcluded(int c) {
+        for (byte excluded : EXCLUDED) {
+            if (c == excluded) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sums a part of a file in the calling thread.
+     * @param channel Channel to read from.
+     * @param offset Position of the first byte.
+     * @param length Number of bytes.
+     * @return Checksum of the bytes.
+     * @throws IOException if reading fails.
+     */
+    static long sum(FileChannel channel, long offset, long length)
+            throws IOException {
+        Checksum checksum = new Checksum();
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(length,
+                (long) READ_BLOCKS * HeaderReader.BLOCK_SIZE));
+        long position = offset;
+        long end = offset + length;
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            while (buffer.hasRemaining()) {
+                int n = channel.read(buffer, position + buffer.position());
+                if (n < 0) {
+                    throw new EOFException("File ends at byte "
+                            + (position + buffer.position()) + ".");
+                }
+            }
+            position += buffer.position();
+            buffer.flip();
+            checksum.update(buffer);
+        }
+        return checksum.getValue();
+    }
+}
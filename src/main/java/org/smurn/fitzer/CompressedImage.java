@@ -0,0 +1,882 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Image stored as tile-compressed binary table ({@code ZIMAGE = T}).
+ * <p>The image is split into tiles of {@code ZTILE1 x ZTILE2 x ...} pixels,
+ * each compressed on its own into a row of the table. Supported algorithms
+ * ({@code ZCMPTYPE}) are {@code RICE_1}, {@code GZIP_1}, {@code GZIP_2} and
+ * {@code PLIO_1}. Floating point images quantized to integers are restored
+ * with {@code ZSCALE} and {@code ZZERO}, undoing the dither given by
+ * {@code ZQUANTIZ} and {@code ZDITHER0}.</p> <p>A read decompresses only
+ * the tiles overlapping the requested region. If an executor is given,
+ * tiles are decompressed in parallel. Decompressed tiles are kept in a
+ * cache holding the most recently used tiles, so reading neighbouring
+ * regions does not decompress the same tile again.</p> <p>Pixels are
+ * returned as stored in the original image: integer pixels are not scaled
+ * with {@code BSCALE} and {@code BZERO}, see {@link PhysicalValueConverter}
+ * for that. Undefined floating point pixels are NaN.</p> <p>Instances can
+ * be shared between threads.</p>
+ */
+public final class CompressedImage {
+
+    /**
+     * Default number of tiles kept in the cache.
+     */
+    public static final int DEFAULT_CACHE_SIZE = 16;
+    private final BinaryTable table;
+    private final ErrorHandler errorHandler;
+    private final ExecutorService executor;
+    private final String compression;
+    private final int bitpix;
+    private final long[] axes;
+    private final int[] tileAxes;
+    private final long[] tileCounts;
+    private final long tileCount;
+    private final int blockSize;
+    private final int bytePix;
+    private final int quantize;
+    private final int ditherSeed;
+    private final Long blank;
+    private final BinaryTableColumn compressed;
+    private final BinaryTableColumn uncompressed;
+    private final BinaryTableColumn gzipCompressed;
+    private final BinaryTableColumn scaleColumn;
+    private final BinaryTableColumn zeroColumn;
+    private final BinaryTableColumn blankColumn;
+    private final Map<Long, Object> cache;
+
+    /**
+     * Creates an instance that decompresses tiles on the calling thread and
+     * caches {@link #DEFAULT_CACHE_SIZE} tiles.
+     * @param table Binary table containing the compressed image.
+     * @param errorHandler Handler to which errors are reported.
+     * @throws NullPointerException if {@code table} or {@code errorHandler}
+     * is {@code null}.
+     * @throws IOException see {@link ErrorHandler}.
+     */
+    public CompressedImage(BinaryTable table, ErrorHandler errorHandler)
+            throws IOException {
+        this(table, errorHandler, null, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * Creates an instance.
+     * @param table Binary table containing the compressed image.
+     * @param errorHandler Handler to which errors are reported.
+     * @param executor Executor used to decompress tiles in parallel or
+     * {@code null} to decompress them on the calling thread.
+     * @param cacheSize Maximal number of decompressed tiles kept in memory,
+     * 0 disables the cache.
+     * @throws NullPointerException if {@code table} or {@code errorHandler}
+     * is {@code null}.
+     * @throws IllegalArgumentException if {@code cacheSize} is negative.
+     * @throws IOException see {@link ErrorHandler}.
+     */
+    public CompressedImage(BinaryTable table, ErrorHandler errorHandler,
+            ExecutorService executor, final int cacheSize)
+            throws IOException {
+        if (table == null) {
+            throw new NullPointerException("table must not be null.");
+        }
+        if (errorHandler == null) {
+            throw new NullPointerException("errorHandler must not be null.");
+        }
+        if (cacheSize < 0) {
+            throw new IllegalArgumentException(
+                    "cacheSize must not be negative.");
+        }
+        this.table = table;
+        this.errorHandler = errorHandler;
+        this.executor = executor;
+        Header header = table.getHeader();
+        if (!Boolean.TRUE.equals(value(header, "ZIMAGE"))) {
+            FitsFormatException ex = new FitsFormatException(
+                    table.getDataOffset(), "CompressedImage_NotCompressed");
+            errorHandler.fatal(ex);
+            throw ex;
+        }
+        this.compression = BinaryTable.trim(required(header, "ZCMPTYPE"));
+        if (!"RICE_1".equals(compression) && !"GZIP_1".equals(compression)
+                && !"GZIP_2".equals(compression)
+                && !"PLIO_1".equals(compression)) {
+            FitsFormatException ex = new FitsFormatException(
+                    table.getDataOffset(),
+                    "CompressedImage_UnknownCompression", compression);
+            errorHandler.fatal(ex);
+            throw ex;
+        }
+        this.bitpix = (int) integer(header, "ZBITPIX", -64, 64, true);
+        if (!DataUnitLayout.isValidBitpix(bitpix)) {
+            throw invalid(header, "ZBITPIX");
+        }
+        int naxis = (int) integer(header, "ZNAXIS", 0, 999, true);
+        this.axes = new long[naxis];
+        this.tileAxes = new int[naxis];
+        this.tileCounts = new long[naxis];
+        long count = naxis == 0 ? 0 : 1;
+        for (int i = 0; i < naxis; i++) {
+            axes[i] = integer(header, "ZNAXIS" + (i + 1), 0, Long.MAX_VALUE,
+                    true);
+            long tile = header.contains("ZTILE" + (i + 1))
+                    ? integer(header, "ZTILE" + (i + 1), 1,
+                    Integer.MAX_VALUE, true)
+                    : i == 0 ? Math.max(1, Math.min(axes[0],
+                    Integer.MAX_VALUE)) : 1;
+            tileAxes[i] = (int) tile;
+            tileCounts[i] = axes[i] / tile + (axes[i] % tile == 0 ? 0 : 1);
+            if (tileCounts[i] != 0 && count > Long.MAX_VALUE / tileCounts[i]) {
+                throw invalid(header, "ZNAXIS");
+            }
+            count *= tileCounts[i];
+        }
+        long tilePixels = 1;
+        for (int tile : tileAxes) {
+            tilePixels *= tile;
+            if (tilePixels > Integer.MAX_VALUE) {
+                throw invalid(header, "ZTILE1");
+            }
+        }
+        this.tileCount = count;
+        if (tileCount > table.getRowCount()) {
+            throw invalid(header, "ZNAXIS");
+        }
+
+        int block = RiceCodec.DEFAULT_BLOCK_SIZE;
+        int bytes = "RICE_1".equals(compression) ? 4 : 0;
+        for (int i = 1; header.contains("ZNAME" + i); i++) {
+            String name = BinaryTable.trim(value(header, "ZNAME" + i));
+            if ("BLOCKSIZE".equals(name)) {
+                block = (int) integer(header, "ZVAL" + i, 1, 1 << 16, true);
+            } else if ("BYTEPIX".equals(name)) {
+                bytes = (int) integer(header, "ZVAL" + i, 1, 8, true);
+            }
+        }
+        this.blockSize = block;
+        this.bytePix = bytes;
+
+        this.compressed = column(table, "COMPRESSED_DATA", true);
+        this.uncompressed = column(table, "UNCOMPRESSED_DATA", false);
+        this.gzipCompressed = column(table, "GZIP_COMPRESSED_DATA", false);
+        this.scaleColumn = bitpix < 0 ? column(table, "ZSCALE", false) : null;
+        this.zeroColumn = bitpix < 0 ? column(table, "ZZERO", false) : null;
+        this.blankColumn = column(table, "ZBLANK", false);
+        if ((scaleColumn == null) != (zeroColumn == null)) {
+            throw missingColumn(scaleColumn == null ? "ZSCALE" : "ZZERO");
+        }
+        this.quantize = Quantizer.parseMethod(
+                BinaryTable.trim(value(header, "ZQUANTIZ")));
+        if (quantize < 0) {
+            throw invalid(header, "ZQUANTIZ");
+        }
+        this.ditherSeed = header.contains("ZDITHER0")
+                ? (int) integer(header, "ZDITHER0", 1, Quantizer.RANDOM_COUNT,
+                true) : 1;
+        this.blank = header.contains("ZBLANK")
+                ? integer(header, "ZBLANK", Long.MIN_VALUE, Long.MAX_VALUE,
+                true) : null;
+        if (blankColumn != null && blankColumn.getRepeat() != 1) {
+            throw missingColumn("ZBLANK");
+        }
+
+        this.cache = new LinkedHashMap<Long, Object>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Object> e) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Gets the binary table containing the compressed image.
+     * @return Table, never {@code null}.
+     */
+    public BinaryTable getTable() {
+        return table;
+    }
+
+    /**
+     * Gets the compression algorithm.
+     * @return Value of {@code ZCMPTYPE}.
+     */
+    public String getCompression() {
+        return compression;
+    }
+
+    /**
+     * Gets the type of the pixels of the original image.
+     * @return Value of {@code ZBITPIX}.
+     */
+    public int getBitpix() {
+        return bitpix;
+    }
+
+    /**
+     * Gets the number of axes of the original image.
+     * @return Value of {@code ZNAXIS}.
+     */
+    public int getAxisCount() {
+        return axes.length;
+    }
+
+    /**
+     * Gets the length of an axis of the original image.
+     * @param axis Index of the axis, starting at zero.
+     * @return Value of {@code ZNAXISn} with {@code n = axis + 1}.
+     * @throws IndexOutOfBoundsException if {@code axis} is out of range.
+     */
+    public long getAxisLength(int axis) {
+        return axes[axis];
+    }
+
+    /**
+     * Gets the length of the tiles along an axis.
+     * @param axis Index of the axis, starting at zero.
+     * @return Value of {@code ZTILEn} with {@code n = axis + 1}. Tiles at the
+     * end of an axis may be shorter.
+     * @throws IndexOutOfBoundsException if {@code axis} is out of range.
+     */
+    public int getTileLength(int axis) {
+        return tileAxes[axis];
+    }
+
+    /**
+     * Gets the number of tiles.
+     * @return Number of tiles, each stored in a row of the table.
+     */
+    public long getTileCount() {
+        return tileCount;
+    }
+
+    /**
+     * Reads a region of an integer image.
+     * @param origin Coordinates of the first pixel of the region, starting
+     * at zero, one per axis.
+     * @param shape Size of the region along each axis.
+     * @return Pixels of the region, the index along the first axis varies
+     * fastest.
+     * @throws NullPointerException if an argument is {@code null}.
+     * @throws IllegalStateException if {@code ZBITPIX} is not 8, 16 or 32.
+     * @throws IllegalArgumentException if the number of coordinates does not
+     * match the number of axes or if the region is too large for an array.
+     * @throws IndexOutOfBoundsException if the region is not within the
+     * image.
+     * @throws IOException if a tile is corrupt, see {@link ErrorHandler}.
+     * @throws InterruptedException if interrupted while waiting for the
+     * tiles being decompressed in parallel.
+     */
+    public int[] readInts(long[] origin, int[] shape) throws IOException,
+            InterruptedException {
+        if (bitpix < 0 || bitpix == 64) {
+            throw new IllegalStateException("ZBITPIX is " + bitpix
+                    + ", expected 8, 16 or 32.");
+        }
+        int[] target = new int[checkRegion(origin, shape)];
+        read(origin, shape, target);
+        return target;
+    }
+
+    /**
+     * Reads a region of the image. <p>Works for all types of pixels. Values
+     * of {@code ZBITPIX = 64} images beyond 2^53 are rounded.</p>
+     * @param origin Coordinates of the first pixel of the region, starting
+     * at zero, one per axis.
+     * @param shape Size of the region along each axis.
+     * @return Pixels of the region, the index along the first axis varies
+     * fastest.
+     * @throws NullPointerException if an argument is {@code null}.
+     * @throws IllegalArgumentException if the number of coordinates does not
+     * match the number of axes or if the region is too large for an array.
+     * @throws IndexOutOfBoundsException if the region is not within the
+     * image.
+     * @throws IOException if a tile is corrupt, see {@link ErrorHandler}.
+     * @throws InterruptedException if interrupted while waiting for the
+     * tiles being decompressed in parallel.
+     */
+    public double[] readDoubles(long[] origin, int[] shape)
+            throws IOException, InterruptedException {
+        double[] target = new double[checkRegion(origin, shape)];
+        read(origin, shape, target);
+        return target;
+    }
+
+    /**
+     * Decompresses the tiles overlapping a region and copies their pixels.
+     * @param origin Coordinates of the first pixel of the region.
+     * @param shape Size of the region.
+     * @param target {@code int[]} or {@code double[]} receiving the pixels.
+     * @throws IOException see {@link ErrorHandler}.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    private void read(long[] origin, int[] shape, Object target)
+            throws IOException, InterruptedException {
+        int naxis = axes.length;
+        if (naxis == 0) {
+            return;
+        }
+        long[] first = new long[naxis];
+        long[] last = new long[naxis];
+        for (int i = 0; i < naxis; i++) {
+            if (shape[i] == 0) {
+                return;
+            }
+            first[i] = origin[i] / tileAxes[i];
+            last[i] = (origin[i] + shape[i] - 1) / tileAxes[i];
+        }
+        List<Long> tiles = new ArrayList<Long>();
+        long[] t = first.clone();
+        while (true) {
+            long index = 0;
+            for (int i = naxis - 1; i >= 0; i--) {
+                index = index * tileCounts[i] + t[i];
+            }
+            tiles.add(index);
+            int i = 0;
+            while (i < naxis && t[i] == last[i]) {
+                t[i] = first[i];
+                i++;
+            }
+            if (i == naxis) {
+                break;
+            }
+            t[i]++;
+        }
+        Object[] data = getTiles(tiles);
+        for (int i = 0; i < data.length; i++) {
+            copy(tiles.get(i), data[i], origin, shape, target);
+        }
+    }
+
+    /**
+     * Copies the pixels of a tile that lie within a region.
+     * @param tile Index of the tile.
+     * @param data Decompressed pixels of the tile.
+     * @param origin Coordinates of the first pixel of the region.
+     * @param shape Size of the region.
+     * @param target {@code int[]} or {@code double[]} receiving the pixels.
+     */
+    private void copy(long tile, Object data, long[] origin, int[] shape,
+            Object target) {
+        int naxis = axes.length;
+        long[] tileOrigin = new long[naxis];
+        int[] tileShape = new int[naxis];
+        tileGeometry(tile, tileOrigin, tileShape);
+        long[] lo = new long[naxis];
+        long[] hi = new long[naxis];
+        for (int i = 0; i < naxis; i++) {
+            lo[i] = Math.max(origin[i], tileOrigin[i]);
+            hi[i] = Math.min(origin[i] + shape[i],
+                    tileOrigin[i] + tileShape[i]);
+        }
+        int length = (int) (hi[0] - lo[0]);
+        long[] c = lo.clone();
+        while (true) {
+            int source = 0;
+            int dest = 0;
+            int sourceStride = 1;
+            int destStride = 1;
+            for (int i = 0; i < naxis; i++) {
+                source += (int) (c[i] - tileOrigin[i]) * sourceStride;
+                dest += (int) (c[i] - origin[i]) * destStride;
+                sourceStride *= tileShape[i];
+                destStride *= shape[i];
+            }
+            copyLine(data, source, target, dest, length);
+            int i = 1;
+            while (i < naxis && c[i] == hi[i] - 1) {
+                c[i] = lo[i];
+                i++;
+            }
+            if (i >= naxis) {
+                break;
+            }
+            c[i]++;
+        }
+    }
+
+    /**
+     * Copies consecutive pixels, converting them to the type of the target.
+     * @param data {@code int[]}, {@code long[]} or {@code double[]} to copy
+     * from.
+     * @param source Index of the first pixel in {@code data}.
+     * @param target {@code int[]} or {@code double[]} to copy to.
+     * @param dest Index of the first pixel in {@code target}.
+     * @param length Number of pixels.
+     */
+    private static void copyLine(Object data, int source, Object target,
+            int dest, int length) {
+        if (target instanceof int[]) {
+            System.arraycopy(data, source, target, dest, length);
+        } else if (data instanceof double[]) {
+            System.arraycopy(data, source, target, dest, length);
+        } else if (data instanceof int[]) {
+            int[] from = (int[]) data;
+            double[] to = (double[]) target;
+            for (int i = 0; i < length; i++) {
+                to[dest + i] = from[source + i];
+            }
+        } else {
+            long[] from = (long[]) data;
+            double[] to = (double[]) target;
+            for (int i = 0; i < length; i++) {
+                to[dest + i] = from[source + i];
+            }
+        }
+    }
+
+    /**
+     * Gets decompressed tiles, from the cache or by decompressing them.
+     * @param tiles Indices of the tiles.
+     * @return Pixels of the tiles in the same order.
+     * @throws IOException see {@link ErrorHandler}.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    private Object[] getTiles(List<Long> tiles) throws IOException,
+            InterruptedException {
+        Object[] data = new Object[tiles.size()];
+        List<Integer> missing = new ArrayList<Integer>();
+        synchronized (cache) {
+            for (int i = 0; i < data.length; i++) {
+                data[i] = cache.get(tiles.get(i));
+                if (data[i] == null) {
+                    missing.add(i);
+                }
+            }
+        }
+        if (executor == null || missing.size() < 2) {
+            for (int i : missing) {
+                data[i] = decompress(tiles.get(i));
+            }
+        } else {
+            List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+            for (int i : missing) {
+                final long tile = tiles.get(i);
+                tasks.add(new Callable<Object>() {
+
+                    @Override
+                    public Object call() throws IOException {
+                        return decompress(tile);
+                    }
+                });
+            }
+            List<Future<Object>> futures = executor.invokeAll(tasks);
+            for (int k = 0; k < futures.size(); k++) {
+                try {
+                    data[missing.get(k)] = futures.get(k).get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    }
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IllegalStateException(cause);
+                }
+            }
+        }
+        synchronized (cache) {
+            for (int i : missing) {
+                cache.put(tiles.get(i), data[i]);
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Decompresses a tile.
+     * @param tile Index of the tile, which is also the row of the table.
+     * @return {@code int[]} for integer images up to 32 bits, {@code long[]}
+     * for 64 bit images and {@code double[]} for floating point images.
+     * @throws IOException see {@link ErrorHandler}.
+     */
+    private Object decompress(long tile) throws IOException {
+        int[] shape = new int[axes.length];
+        tileGeometry(tile, new long[axes.length], shape);
+        int count = 1;
+        for (int length : shape) {
+            count *= length;
+        }
+        try {
+            ByteBuffer data = table.getArray(compressed, tile);
+            if (data.remaining() == 0) {
+                return decompressFallback(tile, count);
+            }
+            boolean quantized = bitpix < 0 && scaleColumn != null;
+            boolean shuffled = "GZIP_2".equals(compression);
+            if (bitpix == 64 || (bitpix < 0 && !quantized)) {
+                int size = Math.abs(bitpix) / 8;
+                if (compression.startsWith("GZIP")) {
+                    return decode(gunzip(data, size, shuffled), size,
+                            bitpix < 0, count);
+                }
+                throw corrupt(tile);
+            }
+            int[] ints = new int[count];
+            if ("RICE_1".equals(compression)) {
+                RiceCodec.decompress(data, ints, count, blockSize,
+                        bytePix == 0 ? 4 : bytePix);
+            } else if ("PLIO_1".equals(compression)) {
+                ShortBuffer words = data.asShortBuffer();
+                PlioCodec.decompress(words, ints, count);
+            } else {
+                int size = quantized ? 4 : bitpix / 8;
+                ints = (int[]) decode(gunzip(data, size, shuffled), size,
+                        false, count);
+            }
+            if (!quantized) {
+                return ints;
+            }
+            double[] values = new double[count];
+            double scale = table.readDoubles(scaleColumn, tile, 1)[0];
+            double zero = table.readDoubles(zeroColumn, tile, 1)[0];
+            long nullValue = blankColumn != null
+                    ? table.readLongs(blankColumn, tile, 1)[0]
+                    : blank != null ? blank : Quantizer.NULL_VALUE;
+            Quantizer.dequantize(ints, count, scale, zero, quantize, tile,
+                    ditherSeed, (int) nullValue, values);
+            return values;
+        } catch (IndexOutOfBoundsException e) {
+            throw corrupt(tile);
+        } catch (BufferUnderflowException e) {
+            throw corrupt(tile);
+        } catch (IllegalArgumentException e) {
+            throw corrupt(tile);
+        } catch (EOFException e) {
+            throw corrupt(tile);
+        } catch (ZipException e) {
+            throw corrupt(tile);
+        }
+    }
+
+    /**
+     * Reads a tile that could not be compressed with the main algorithm.
+     * @param tile Index of the tile.
+     * @param count Number of pixels of the tile.
+     * @return Pixels of the tile.
+     * @throws IOException see {@link ErrorHandler}.
+     */
+    private Object decompressFallback(long tile, int count)
+            throws IOException {
+        if (gzipCompressed != null) {
+            ByteBuffer data = table.getArray(gzipCompressed, tile);
+            if (data.remaining() > 0) {
+                int size = Math.abs(bitpix) / 8;
+                return decode(gunzip(data, size, false), size, bitpix < 0,
+                        count);
+            }
+        }
+        if (uncompressed != null) {
+            ByteBuffer data = table.getArray(uncompressed, tile);
+            char type = uncompressed.getArrayType();
+            int size = BinaryTableColumn.elementSize(type);
+            if (data.remaining() == count * size) {
+                return decode(data, size, type == 'E' || type == 'D', count);
+            }
+        }
+        throw corrupt(tile);
+    }
+
+    /**
+     * Converts big-endian values into the array type of a tile.
+     * @param data Values from position to limit.
+     * @param size Size of a value in bytes.
+     * @param floating {@code true} if the values are IEEE 754 numbers.
+     * @param count Number of values.
+     * @return {@code int[]}, {@code long[]} or {@code double[]}.
+     * @throws IndexOutOfBoundsException if there are too few values.
+     */
+    private Object decode(ByteBuffer data, int size, boolean floating,
+            int count) {
+        if (data.remaining() < count * size) {
+            throw new IndexOutOfBoundsException("Tile too short.");
+        }
+        int p = data.position();
+        if (floating) {
+            double[] values = new double[count];
+            for (int i = 0; i < count; i++) {
+                values[i] = size == 4 ? data.getFloat(p + 4 * i)
+                        : data.getDouble(p + 8 * i);
+            }
+            return values;
+        }
+        if (size == 8) {
+            long[] values = new long[count];
+            for (int i = 0; i < count; i++) {
+                values[i] = data.getLong(p + 8 * i);
+            }
+            return values;
+        }
+        int[] values = new int[count];
+        for (int i = 0; i < count; i++) {
+            switch (size) {
+                case 1:
+                    values[i] = data.get(p + i) & 0xFF;
+                    break;
+                case 2:
+                    values[i] = data.getShort(p + 2 * i);
+                    break;
+                default:
+                    values[i] = data.getInt(p + 4 * i);
+                    break;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Inflates a GZIP compressed tile. <p>With {@code GZIP_2} the bytes of
+     * the values are shuffled: first the most significant byte of all
+     * values, then the second one and so on. The shuffle is undone.
+     * {@code GZIP_COMPRESSED_DATA} is never shuffled.</p>
+     * @param data Compressed bytes from position to limit.
+     * @param size Size of a value in bytes.
+     * @param shuffled {@code true} if the bytes are shuffled.
+     * @return Big-endian values.
+     * @throws IOException if the data is not valid GZIP.
+     */
+    private static ByteBuffer gunzip(ByteBuffer data, int size,
+            boolean shuffled) throws IOException {
+        byte[] in = new byte[data.remaining()];
+        data.duplicate().get(in);
+        InputStream stream = new GZIPInputStream(
+                new ByteArrayInputStream(in));
+        byte[] out = new byte[Math.max(4 * in.length, 1024)];
+        int length = 0;
+        try {
+            int n;
+            while ((n = stream.read(out, length, out.length - length)) >= 0) {
+                length += n;
+                if (length == out.length) {
+                    byte[] larger = new byte[2 * out.length];
+                    System.arraycopy(out, 0, larger, 0, length);
+                    out = larger;
+                }
+            }
+        } finally {
+            stream.close();
+        }
+        if (shuffled && size > 1) {
+            int count = length / size;
+            byte[] plain = new byte[length];
+            for (int b = 0; b < size; b++) {
+                for (int i = 0; i < count; i++) {
+                    plain[i * size + b] = out[b * count + i];
+                }
+            }
+            out = plain;
+        }
+        return ByteBuffer.wrap(out, 0, length);
+    }
+
+    /**
+     * Calculates the position and size of a tile.
+     * @param tile Index of the tile.
+     * @param origin Array receiving the coordinates of the first pixel.
+     * @param shape Array receiving the size along each axis.
+     */
+    private void tileGeometry(long tile, long[] origin, int[] shape) {
+        long rest = tile;
+        for (int i = 0; i < axes.length; i++) {
+            long t = rest % tileCounts[i];
+            rest /= tileCounts[i];
+            origin[i] = t * tileAxes[i];
+            shape[i] = (int) Math.min(tileAxes[i], axes[i] - origin[i]);
+        }
+    }
+
+    /**
+     * Checks a region and calculates its number of pixels.
+     * @param origin Coordinates of the first pixel.
+     * @param shape Size along each axis.
+     * @return Number of pixels.
+     */
+    private int checkRegion(long[] origin, int[] shape) {
+        if (origin == null) {
+            throw new NullPointerException("origin must not be null.");
+        }
+        if (shape == null) {
+            throw new NullPointerException("shape must not be null.");
+        }
+        if (origin.length != axes.length || shape.length != axes.length) {
+            throw new IllegalArgumentException(
+                    "Number of coordinates does not match ZNAXIS.");
+        }
+        long count = axes.length == 0 ? 0 : 1;
+        for (int i = 0; i < axes.length; i++) {
+            if (origin[i] < 0 || shape[i] < 0
+                    || origin[i] > axes[i] - shape[i]) {
+                throw new IndexOutOfBoundsException(
+                        "Region out of range along axis " + (i + 1) + ".");
+            }
+            count *= shape[i];
+            if (count > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException(
+                        "Region too large for an array.");
+            }
+        }
+        return (int) count;
+    }
+
+    /**
+     * Gets the value of a keyword.
+     * @param header Header to read from.
+     * @param keyword Keyword to look up.
+     * @return Value or {@code null} if the keyword is missing.
+     */
+    private static Object value(Header header, String keyword) {
+        Property property = header.get(keyword);
+        return property == null ? null : property.get();
+    }
+
+    /**
+     * Gets the value of a mandatory keyword.
+     * @param header Header to read from.
+     * @param keyword Keyword to look up.
+     * @return Value, never {@code null}.
+     * @throws IOException see {@link ErrorHandler}.
+     */
+    private Object required(Header header, String keyword)
+            throws IOException {
+        Object value = value(header, keyword);
+        if (value == null) {
+            FitsFormatException ex = new FitsFormatException(
+                    table.getDataOffset(), "CompressedImage_MissingKeyword",
+                    keyword);
+            errorHandler.fatal(ex);
+            throw ex;
+        }
+        return value;
+    }
+
+    /**
+     * Gets the integer value of a keyword.
+     * @param header Header to read from.
+     * @param keyword Keyword to look up.
+     * @param min Smallest valid value.
+     * @param max Largest valid value.
+     * @param mandatory {@code true} if the keyword must be present.
+     * @return Value of the keyword.
+     * @throws IOException see {@link ErrorHandler}.
+     */
+    private long integer(Header header, String keyword, long min, long max,
+            boolean mandatory) throws IOException {
+        if (mandatory) {
+            required(header, keyword);
+        }
+        try {
+            long value = header.get(keyword).getLong();
+            if (value >= min && value <= max) {
+                return value;
+            }
+        } catch (IllegalStateException e) {
+            // reported below
+        } catch (ArithmeticException e) {
+            // reported below
+        }
+        throw invalid(header, keyword);
+    }
+
+    /**
+     * Reports an invalid keyword as fatal error.
+     * @param header Header to read from.
+     * @param keyword Invalid keyword.
+     * @return Exception to throw.
+     * @throws IOException see {@link ErrorHandler}.
+     */
+    private FitsFormatException invalid(Header header, String keyword)
+            throws IOException {
+        FitsFormatException ex = new FitsFormatException(
+                table.getDataOffset(), "CompressedImage_InvalidValue",
+                keyword, value(header, keyword));
+        errorHandler.fatal(ex);
+        return ex;
+    }
+
+    /**
+     * Finds a column by name.
+     * @param table Table to search.
+     * @param name Value of {@code TTYPEn}.
+     * @param mandatory {@code true} if the column must exist.
+     * @return Column or {@code null} if an optional column is missing.
+     * @throws IOException see {@link ErrorHandler}.
+     */
+    private BinaryTableColumn column(BinaryTable table, String name,
+            boolean mandatory) throws IOException {
+        BinaryTableColumn column = table.getColumn(name);
+        if (column == null && mandatory) {
+            throw missingColumn(name);
+        }
+        if (column != null && name.endsWith("_DATA")
+                && !BinaryTableColumn.isDescriptor(column.getType())) {
+            throw missingColumn(name);
+        }
+        return column;
+    }
+
+    /**
+     * Reports a missing or invalid column as fatal error.
+     * @param name Name of the column.
+     * @return Exception to throw.
+     * @throws IOException see {@link ErrorHandler}.
+     */
+    private FitsFormatException missingColumn(String name)
+            throws IOException {
+        FitsFormatException ex = new FitsFormatException(
+                table.getDataOffset(), "CompressedImage_MissingColumn", name);
+        errorHandler.fatal(ex);
+        return ex;
+    }
+
+    /**
+     * Reports a corrupt tile as fatal error.
+     * @param tile Index of the tile.
+     * @return Exception to throw.
+     * @throws IOException see {@link ErrorHandler}.
+     */
+    private FitsFormatException corrupt(long tile) throws IOException {
+        FitsFormatException ex = new FitsFormatException(
+                table.getDataOffset() + tile * table.getRowLength(),
+                "CompressedImage_CorruptTile", tile + 1);
+        errorHandler.fatal(ex);
+        return ex;
+    }
+}
@@ -0,0 +1,667 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes images as tile-compressed binary table extensions, the format read
+ * by {@link CompressedImage}. <p>The image is split into tiles of
+ * {@code ZTILE1 x ZTILE2 x ...} pixels which are compressed independently.
+ * Integer images are compressed with {@code RICE_1}, {@code GZIP_1} or
+ * {@code GZIP_2}. Floating point images are quantized to integers with
+ * {@code SUBTRACTIVE_DITHER_1} and then compressed the same way. Tiles that
+ * cannot be quantized, for example because all pixels are equal, are stored
+ * losslessly in the {@code GZIP_COMPRESSED_DATA} column. With a quantization
+ * level of zero, floating point images are compressed losslessly with
+ * GZIP.</p> <p>If an executor is given, tiles are compressed in parallel.
+ * The compressed tiles are placed into the heap in the order of the tiles,
+ * so the output is the same regardless of the number of threads. All
+ * compressed tiles are kept in memory until the extension is written, which
+ * also allows to write the {@code DATASUM} and {@code CHECKSUM} keywords
+ * without a second pass.</p>
+ * <p>Instances can be shared between threads.</p>
+ */
+public final class CompressedImageWriter {
+
+    /**
+     * Default quantization level: the quantization step is a quarter of the
+     * noise of the tile.
+     */
+    public static final double DEFAULT_QUANTIZE_LEVEL = 4;
+    /**
+     * Minimal number of pixels compressed by one task.
+     */
+    static final int TASK_PIXELS = 1 << 16;
+    private final String compression;
+    private final int[] tileLength;
+    private final double quantizeLevel;
+    private final int ditherSeed;
+    private final ExecutorService executor;
+    private final ErrorHandler errorHandler;
+
+    /**
+     * Creates an instance that compresses one row per tile on the calling
+     * thread.
+     * @param compression Compression algorithm: {@code RICE_1},
+     * {@code GZIP_1} or {@code GZIP_2}.
+     * @param errorHandler Handler to which errors are reported.
+     * @throws NullPointerException if an argument is {@code null}.
+     * @throws IllegalArgumentException if {@code compression} is not
+     * supported.
+     */
+    public CompressedImageWriter(String compression,
+            ErrorHandler errorHandler) {
+        this(compression, null, DEFAULT_QUANTIZE_LEVEL, 1, null,
+                errorHandler);
+    }
+
+    /**
+     * Creates an instance.
+     * @param compression Compression algorithm: {@code RICE_1},
+     * {@code GZIP_1} or {@code GZIP_2}.
+     * @param tileLength Length of the tiles along each axis or {@code null}
+     * for tiles of one row. Axes beyond the end of the array have length 1.
+     * @param quantizeLevel Quantization of floating point images. Positive
+     * values divide the noise of a tile, negative values are the
+     * quantization step itself. Zero stores floating point images without
+     * loss, which requires GZIP.
+     * @param ditherSeed Value of {@code ZDITHER0}, from 1 to 10000.
+     * @param executor Executor used to compress tiles in parallel or
+     * {@code null} to compress them on the calling thread.
+     * @param errorHandler Handler to which errors are reported.
+     * @throws NullPointerException if {@code compression} or
+     * {@code errorHandler} is {@code null}.
+     * @throws IllegalArgumentException if {@code compression} is not
+     * supported, a tile length is not positive or {@code ditherSeed} is out
+     * of range.
+     */
+    public CompressedImageWriter(String compression, int[] tileLength,
+            double quantizeLevel, int ditherSeed, ExecutorService executor,
+            ErrorHandler errorHandler) {
+        if (compression == null) {
+            throw new NullPointerException("compression must not be null.");
+        }
+        if (errorHandler == null) {
+            throw new NullPointerException("errorHandler must not be null.");
+        }
+        if (!"RICE_1".equals(compression) && !"GZIP_1".equals(compression)
+                && !"GZIP_2".equals(compression)) {
+            throw new IllegalArgumentException(
+                    "Unsupported compression: " + compression);
+        }
+        if (tileLength != null) {
+            for (int length : tileLength) {
+                if (length <= 0) {
+                    throw new IllegalArgumentException(
+                            "tileLength must be positive.");
+                }
+            }
+        }
+        if (ditherSeed < 1 || ditherSeed > Quantizer.RANDOM_COUNT) {
+            throw new IllegalArgumentException(
+                    "ditherSeed must be between 1 and 10000.");
+        }
+        if (Double.isNaN(quantizeLevel) || Double.isInfinite(quantizeLevel)) {
+            throw new IllegalArgumentException(
+                    "quantizeLevel must be finite.");
+        }
+        this.compression = compression;
+        this.tileLength = tileLength == null ? null : tileLength.clone();
+        this.quantizeLevel = quantizeLevel;
+        this.ditherSeed = ditherSeed;
+        this.executor = executor;
+        this.errorHandler = errorHandler;
+    }
+
+    /**
+     * Writes an integer image as compressed extension HDU.
+     * @param channel Channel to write to, positioned after the previous HDU.
+     * @param bitpix Type of the pixels: 8, 16 or 32. Pixels of 8 and 16 bit
+     * images are truncated to the lowest 8 or 16 bits.
+     * @param axes Length of each axis, the first one varies fastest.
+     * @param pixels Pixels of the image.
+     * @return Number of bytes written, a multiple of 2880.
+     * @throws NullPointerException if an argument is {@code null}.
+     * @throws IllegalArgumentException if {@code bitpix} is not supported
+     * or the number of pixels does not match the axes.
+     * @throws IOException if writing fails or see {@link ErrorHandler}.
+     * @throws InterruptedException if interrupted while waiting for the
+     * tiles being compressed in parallel.
+     */
+    public long write(WritableByteChannel channel, int bitpix, long[] axes,
+            int[] pixels) throws IOException, InterruptedException {
+        if (bitpix != 8 && bitpix != 16 && bitpix != 32) {
+            throw new IllegalArgumentException(
+                    "bitpix must be 8, 16 or 32.");
+        }
+        return write(channel, bitpix, axes, pixels,
+                pixels == null ? 0 : pixels.length);
+    }
+
+    /**
+     * Writes a floating point image as compressed extension HDU.
+     * @param channel Channel to write to, positioned after the previous HDU.
+     * @param bitpix Type of the pixels: -32 or -64.
+     * @param axes Length of each axis, the first one varies fastest.
+     * @param pixels Pixels of the image, NaN for undefined pixels.
+     * @return Number of bytes written, a multiple of 2880.
+     * @throws NullPointerException if an argument is {@code null}.
+     * @throws IllegalArgumentException if {@code bitpix} is not supported,
+     * the number of pixels does not match the axes or if lossless
+     * compression is requested with {@code RICE_1}.
+     * @throws IOException if writing fails or see {@link ErrorHandler}.
+     * @throws InterruptedException if interrupted while waiting for the
+     * tiles being compressed in parallel.
+     */
+    public long write(WritableByteChannel channel, int bitpix, long[] axes,
+            double[] pixels) throws IOException, InterruptedException {
+        if (bitpix != -32 && bitpix != -64) {
+            throw new IllegalArgumentException("bitpix must be -32 or -64.");
+        }
+        if (quantizeLevel == 0 && "RICE_1".equals(compression)) {
+            throw new IllegalArgumentException(
+                    "RICE_1 requires quantization of floating point images.");
+        }
+        return write(channel, bitpix, axes, pixels,
+                pixels == null ? 0 : pixels.length);
+    }
+
+    /**
+     * Compresses the tiles and writes the extension.
+     * @param channel Channel to write to.
+     * @param bitpix Type of the pixels.
+     * @param axes Length of each axis.
+     * @param pixels {@code int[]} or {@code double[]} with the pixels.
+     * @param length Number of pixels.
+     * @return Number of bytes written.
+     * @throws IOException if writing fails or see {@link ErrorHandler}.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    private long write(WritableByteChannel channel, int bitpix, long[] axes,
+            Object pixels, int length) throws IOException,
+            InterruptedException {
+        if (channel == null) {
+            throw new NullPointerException("channel must not be null.");
+        }
+        if (axes == null) {
+            throw new NullPointerException("axes must not be null.");
+        }
+        if (pixels == null) {
+            throw new NullPointerException("pixels must not be null.");
+        }
+        if (axes.length == 0 || axes.length > 999) {
+            throw new IllegalArgumentException(
+                    "Number of axes must be between 1 and 999.");
+        }
+        long count = 1;
+        for (long axis : axes) {
+            if (axis < 0) {
+                throw new IllegalArgumentException(
+                        "axes must not be negative.");
+            }
+            count *= axis;
+        }
+        if (count != length) {
+            throw new IllegalArgumentException(
+                    "Number of pixels does not match the axes.");
+        }
+        Geometry geometry = new Geometry(axes, tileLength);
+        TileData[] tiles = compress(geometry, bitpix, pixels);
+
+        boolean quantized = bitpix < 0 && quantizeLevel != 0;
+        long heapLength = 0;
+        long maxData = 0;
+        long maxFallback = 0;
+        for (TileData tile : tiles) {
+            heapLength += tile.data.length + tile.fallback.length;
+            maxData = Math.max(maxData, tile.data.length);
+            maxFallback = Math.max(maxFallback, tile.fallback.length);
+        }
+        boolean large = heapLength > Integer.MAX_VALUE;
+        int descriptor = large ? 16 : 8;
+        int rowLength = quantized ? 2 * descriptor + 16 : descriptor;
+
+        ByteBuffer rows = ByteBuffer.allocate(rowLength * tiles.length);
+        long heap = 0;
+        for (TileData tile : tiles) {
+            heap = putDescriptor(rows, large, tile.data.length, heap);
+            if (quantized) {
+                heap = putDescriptor(rows, large, tile.fallback.length, heap);
+                rows.putDouble(tile.scale);
+                rows.putDouble(tile.zero);
+            }
+        }
+        rows.flip();
+
+        Checksum dataSum = new Checksum();
+        dataSum.update(rows.duplicate());
+        for (TileData tile : tiles) {
+            dataSum.update(ByteBuffer.wrap(tile.data));
+            dataSum.update(ByteBuffer.wrap(tile.fallback));
+        }
+
+        List<Property> properties = header(bitpix, axes, geometry,
+                quantized, large, rowLength, tiles.length, heapLength,
+                maxData, maxFallback);
+        properties.add(new Property("CHECKSUM", Checksum.ZERO,
+                "HDU checksum"));
+        properties.add(Checksum.dataSum(dataSum.getValue()));
+        CardEncoder encoder = new CardEncoder(errorHandler);
+        Checksum headerSum = new Checksum();
+        headerSum.update(encoder.encodeHeader(properties));
+        properties.set(properties.size() - 2, new Property("CHECKSUM",
+                Checksum.encode(Checksum.combine(headerSum.getValue(),
+                dataSum.getValue(), 0)), "HDU checksum"));
+        long written = writeFully(channel, encoder.encodeHeader(properties));
+        long data = writeFully(channel, rows);
+        for (TileData tile : tiles) {
+            data += writeFully(channel, ByteBuffer.wrap(tile.data));
+            data += writeFully(channel, ByteBuffer.wrap(tile.fallback));
+        }
+        int padding = (int) ((HeaderReader.BLOCK_SIZE
+                - data % HeaderReader.BLOCK_SIZE) % HeaderReader.BLOCK_SIZE);
+        data += writeFully(channel, ByteBuffer.allocate(padding));
+        return written + data;
+    }
+
+    /**
+     * Creates the header of the extension.
+     * @return Properties in the order of the header records.
+     */
+    private List<Property> header(int bitpix, long[] axes, Geometry geometry,
+            boolean quantized, boolean large, int rowLength, int rowCount,
+            long heapLength, long maxData, long maxFallback) {
+        List<Property> properties = new ArrayList<Property>();
+        String descriptor = large ? "1QB(" : "1PB(";
+        properties.add(new Property("XTENSION", "BINTABLE",
+                "binary table extension"));
+        properties.add(new Property("BITPIX", 8));
+        properties.add(new Property("NAXIS", 2));
+        properties.add(new Property("NAXIS1", rowLength));
+        properties.add(new Property("NAXIS2", rowCount));
+        properties.add(new Property("PCOUNT", heapLength));
+        properties.add(new Property("GCOUNT", 1));
+        properties.add(new Property("TFIELDS", quantized ? 4 : 1));
+        properties.add(new Property("TTYPE1", "COMPRESSED_DATA"));
+        properties.add(new Property("TFORM1", descriptor + maxData + ")"));
+        if (quantized) {
+            properties.add(new Property("TTYPE2", "GZIP_COMPRESSED_DATA"));
+            properties.add(new Property("TFORM2",
+                    descriptor + maxFallback + ")"));
+            properties.add(new Property("TTYPE3", "ZSCALE"));
+            properties.add(new Property("TFORM3", "1D"));
+            properties.add(new Property("TTYPE4", "ZZERO"));
+            properties.add(new Property("TFORM4", "1D"));
+        }
+        properties.add(new Property("ZIMAGE", Boolean.TRUE,
+                "extension contains compressed image"));
+        properties.add(new Property("ZBITPIX", bitpix));
+        properties.add(new Property("ZNAXIS", axes.length));
+        for (int i = 0; i < axes.length; i++) {
+            properties.add(new Property("ZNAXIS" + (i + 1), axes[i]));
+        }
+        for (int i = 0; i < axes.length; i++) {
+            properties.add(new Property("ZTILE" + (i + 1),
+                    geometry.tileAxes[i]));
+        }
+        properties.add(new Property("ZCMPTYPE", compression));
+        if ("RICE_1".equals(compression)) {
+            properties.add(new Property("ZNAME1", "BLOCKSIZE"));
+            properties.add(new Property("ZVAL1",
+                    RiceCodec.DEFAULT_BLOCK_SIZE));
+            properties.add(new Property("ZNAME2", "BYTEPIX"));
+            properties.add(new Property("ZVAL2",
+                    quantized ? 4 : bitpix / 8));
+        }
+        if (quantized) {
+            properties.add(new Property("ZQUANTIZ", "SUBTRACTIVE_DITHER_1"));
+            properties.add(new Property("ZDITHER0", ditherSeed));
+            properties.add(new Property("ZBLANK", Quantizer.NULL_VALUE));
+        }
+        return properties;
+    }
+
+    /**
+     * Compresses all tiles, in parallel if there is an executor.
+     * @param geometry Tiling of the image.
+     * @param bitpix Type of the pixels.
+     * @param pixels {@code int[]} or {@code double[]} with the pixels.
+     * @return Compressed tiles in the order of the tiles.
+     * @throws IOException see {@link ErrorHandler}.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    private TileData[] compress(final Geometry geometry, final int bitpix,
+            final Object pixels) throws IOException, InterruptedException {
+        final TileData[] tiles = new TileData[(int) geometry.tileCount];
+        int perTask = Math.max(1, TASK_PIXELS / geometry.tilePixels);
+        if (executor == null || tiles.length <= perTask) {
+            compress(geometry, bitpix, pixels, tiles, 0, tiles.length);
+            return tiles;
+        }
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int first = 0; first < tiles.length; first += perTask) {
+            final int start = first;
+            final int end = Math.min(first + perTask, tiles.length);
+            tasks.add(new Callable<Void>() {
+
+                @Override
+                public Void call() throws IOException {
+                    compress(geometry, bitpix, pixels, tiles, start, end);
+                    return null;
+                }
+            });
+        }
+        List<Future<Void>> futures = executor.invokeAll(tasks);
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IllegalStateException(cause);
+            }
+        }
+        return tiles;
+    }
+
+    /**
+     * Compresses a range of tiles.
+     * @param geometry Tiling of the image.
+     * @param bitpix Type of the pixels.
+     * @param pixels {@code int[]} or {@code double[]} with the pixels.
+     * @param tiles Array receiving the compressed tiles.
+     * @param start Index of the first tile.
+     * @param end Index after the last tile.
+     * @throws IOException see {@link ErrorHandler}.
+     */
+    private void compress(Geometry geometry, int bitpix, Object pixels,
+            TileData[] tiles, int start, int end) throws IOException {
+        int[] ints = new int[geometry.tilePixels];
+        double[] doubles = bitpix < 0 ? new double[geometry.tilePixels]
+                : null;
+        for (int tile = start; tile < end; tile++) {
+            int count = geometry.extract(tile, pixels,
+                    doubles != null ? doubles : ints);
+            tiles[tile] = doubles == null
+                    ? compressInts(ints, count, bitpix / 8)
+                    : compressDoubles(doubles, count, bitpix, tile,
+                    geometry.tileAxes[0], ints);
+        }
+    }
+
+    /**
+     * Compresses a tile of integers.
+     * @param ints Pixels of the tile.
+     * @param count Number of pixels.
+     * @param size Size of a pixel in bytes.
+     * @return Compressed tile.
+     * @throws IOException see {@link ErrorHandler}.
+     */
+    private TileData compressInts(int[] ints, int count, int size)
+            throws IOException {
+        if ("RICE_1".equals(compression)) {
+            return new TileData(RiceCodec.compress(ints, 0, count,
+                    RiceCodec.DEFAULT_BLOCK_SIZE, size));
+        }
+        ByteBuffer raw = ByteBuffer.allocate(count * size);
+        for (int i = 0; i < count; i++) {
+            switch (size) {
+                case 1:
+                    raw.put((byte) ints[i]);
+                    break;
+                case 2:
+                    raw.putShort((short) ints[i]);
+                    break;
+                default:
+                    raw.putInt(ints[i]);
+                    break;
+            }
+        }
+        return new TileData(gzip(raw.array(), size,
+                "GZIP_2".equals(compression)));
+    }
+
+    /**
+     * Compresses a tile of floating point values.
+     * @param doubles Pixels of the tile.
+     * @param count Number of pixels.
+     * @param bitpix Type of the pixels.
+     * @param tile Index of the tile.
+     * @param rowLength Number of pixels per row of the tile.
+     * @param ints Array receiving the quantized values.
+     * @return Compressed tile.
+     * @throws IOException see {@link ErrorHandler}.
+     */
+    private TileData compressDoubles(double[] doubles, int count, int bitpix,
+            long tile, int rowLength, int[] ints) throws IOException {
+        int size = -bitpix / 8;
+        if (quantizeLevel != 0) {
+            double[] scaling = Quantizer.quantize(doubles, count, rowLength,
+                    quantizeLevel, tile, ditherSeed, ints);
+            if (scaling != null) {
+                TileData data = compressInts(ints, count, 4);
+                data.scale = scaling[0];
+                data.zero = scaling[1];
+                return data;
+            }
+        }
+        ByteBuffer raw = ByteBuffer.allocate(count * size);
+        for (int i = 0; i < count; i++) {
+            if (size == 4) {
+                raw.putFloat((float) doubles[i]);
+            } else {
+                raw.putDouble(doubles[i]);
+            }
+        }
+        if (quantizeLevel == 0) {
+            return new TileData(gzip(raw.array(), size,
+                    "GZIP_2".equals(compression)));
+        }
+        TileData data = new TileData(new byte[0]);
+        data.fallback = gzip(raw.array(), size, false);
+        return data;
+    }
+
+    /**
+     * Compresses bytes with GZIP. <p>The output does not depend on the time
+     * or platform, so equal tiles are compressed to equal bytes.</p>
+     * @param raw Big-endian values.
+     * @param size Size of a value in bytes.
+     * @param shuffle If {@code true}, the bytes are shuffled before
+     * compression, first the most significant bytes of all values, then the
+     * second ones and so on.
+     * @return Compressed bytes.
+     * @throws IOException see {@link ErrorHandler}.
+     */
+    private static byte[] gzip(byte[] raw, int size, boolean shuffle)
+            throws IOException {
+        byte[] in = raw;
+        if (shuffle && size > 1) {
+            int count = raw.length / size;
+            in = new byte[raw.length];
+            for (int b = 0; b < size; b++) {
+                for (int i = 0; i < count; i++) {
+                    in[b * count + i] = raw[i * size + b];
+                }
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(
+                in.length / 2 + 64);
+        GZIPOutputStream stream = new GZIPOutputStream(out);
+        try {
+            stream.write(in);
+        } finally {
+            stream.close();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes an array descriptor.
+     * @param rows Buffer receiving the descriptor.
+     * @param large {@code true} for 64 bit descriptors.
+     * @param length Number of elements of the array.
+     * @param heap Offset of the array in the heap.
+     * @return Offset of the next array.
+     */
+    private static long putDescriptor(ByteBuffer rows, boolean large,
+            int length, long heap) {
+        if (large) {
+            rows.putLong(length);
+            rows.putLong(heap);
+        } else {
+            rows.putInt(length);
+            rows.putInt((int) heap);
+        }
+        return heap + length;
+    }
+
+    /**
+     * Writes the remaining bytes of a buffer.
+     * @param channel Channel to write to.
+     * @param buffer Bytes from position to limit.
+     * @return Number of bytes written.
+     * @throws IOException if writing fails.
+     */
+    private static long writeFully(WritableByteChannel channel,
+            ByteBuffer buffer) throws IOException {
+        int length = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        return length;
+    }
+
+    /**
+     * Compressed tile.
+     */
+    private static final class TileData {
+
+        final byte[] data;
+        byte[] fallback;
+        double scale;
+        double zero;
+
+        /**
+         * Creates an instance.
+         * @param data Bytes for the {@code COMPRESSED_DATA} column.
+         */
+        TileData(byte[] data) {
+            this.data = data;
+            this.fallback = new byte[0];
+            this.scale = 1.0;
+            this.zero = 0.0;
+        }
+    }
+
+    /**
+     * Splits an image into tiles.
+     */
+    private static final class Geometry {
+
+        final long[] axes;
+        final int[] tileAxes;
+        final long[] tileCounts;
+        final long tileCount;
+        final int tilePixels;
+
+        /**
+         * Creates an instance.
+         * @param axes Length of each axis of the image.
+         * @param tileLength Requested tile lengths or {@code null} for rows.
+         */
+        Geometry(long[] axes, int[] tileLength) {
+            this.axes = axes;
+            this.tileAxes = new int[axes.length];
+            this.tileCounts = new long[axes.length];
+            long count = 1;
+            long pixels = 1;
+            for (int i = 0; i < axes.length; i++) {
+                long tile = tileLength != null && i < tileLength.length
+                        ? tileLength[i] : i == 0 ? axes[0] : 1;
+                tileAxes[i] = (int) Math.max(1, Math.min(tile, axes[i]));
+                tileCounts[i] = (axes[i] + tileAxes[i] - 1) / tileAxes[i];
+                count *= tileCounts[i];
+                pixels *= tileAxes[i];
+            }
+            if (pixels > Integer.MAX_VALUE || count > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException(
+                        "Tiles too large or too many tiles.");
+            }
+            this.tileCount = count;
+            this.tilePixels = (int) pixels;
+        }
+
+        /**
+         * Copies the pixels of a tile.
+         * @param tile Index of the tile.
+         * @param pixels {@code int[]} or {@code double[]} with the image.
+         * @param target Array of the same type receiving the pixels of the
+         * tile, the first axis varies fastest.
+         * @return Number of pixels of the tile.
+         */
+        int extract(long tile, Object pixels, Object target) {
+            int naxis = axes.length;
+            long[] origin = new long[naxis];
+            int[] shape = new int[naxis];
+            long rest = tile;
+            int count = 1;
+            for (int i = 0; i < naxis; i++) {
+                origin[i] = (rest % tileCounts[i]) * tileAxes[i];
+                rest /= tileCounts[i];
+                shape[i] = (int) Math.min(tileAxes[i], axes[i] - origin[i]);
+                count *= shape[i];
+            }
+            int[] c = new int[naxis];
+            for (int dest = 0; dest < count; dest += shape[0]) {
+                long source = 0;
+                long stride = 1;
+                for (int i = 0; i < naxis; i++) {
+                    source += (origin[i] + c[i]) * stride;
+                    stride *= axes[i];
+                }
+                System.arraycopy(pixels, (int) source, target, dest,
+                        shape[0]);
+                for (int i = 1; i < naxis; i++) {
+                    if (++c[i] < shape[i]) {
+                        break;
+                    }
+                    c[i] = 0;
+                }
+            }
+            return count;
+        }
+    }
+}
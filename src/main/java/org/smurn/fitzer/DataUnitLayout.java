@@ -0,0 +1,324 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.io.IOException;
+
+/**
+ * Size and shape of a data unit as described by the mandatory keywords of
+ * its header. <p>The size in bits of a data unit is
+ * {@code |BITPIX| * GCOUNT * (PCOUNT + NAXIS1 * ... * NAXISn)}. For random
+ * groups, indicated by {@code GROUPS = T} and {@code NAXIS1 = 0}, the
+ * product starts at {@code NAXIS2}.</p> <p>Instances of this type are
+ * immutable.</p>
+ */
+final class DataUnitLayout {
+
+    private final int bitpix;
+    private final long[] axes;
+    private final long pcount;
+    private final long gcount;
+    private final long elementCount;
+    private final long dataLength;
+
+    /**
+     * Creates an instance.
+     * @param bitpix Value of {@code BITPIX}.
+     * @param axes Values of {@code NAXIS1} to {@code NAXISn}.
+     * @param pcount Value of {@code PCOUNT}.
+     * @param gcount Value of {@code GCOUNT}.
+     * @param groups {@code true} if the data unit contains random groups.
+     * @throws NullPointerException if {@code axes} is {@code null}.
+     * @throws IllegalArgumentException if {@code bitpix} is not one of 8, 16,
+     * 32, 64, -32 or -64, if any of the counts is negative or if the size
+     * of the data unit does not fit into a {@code long}.
+     */
+    DataUnitLayout(int bitpix, long[] axes, long pcount, long gcount,
+            boolean groups) {
+        if (axes == null) {
+            throw new NullPointerException("axes must not be null.");
+        }
+        if (!isValidBitpix(bitpix)) {
+            throw new IllegalArgumentException("Invalid BITPIX: " + bitpix);
+        }
+        if (pcount < 0 || gcount < 0) {
+            throw new IllegalArgumentException(
+                    "PCOUNT and GCOUNT must not be negative.");
+        }
+        long count = axes.length == 0 ? 0 : 1;
+        for (int i = 0; i < axes.length; i++) {
+            if (axes[i] < 0) {
+                throw new IllegalArgumentException(
+                        "NAXISn must not be negative.");
+            }
+            if (i == 0 && groups && axes[0] == 0) {
+                continue;
+            }
+            count = multiply(count, axes[i]);
+        }
+        this.bitpix = bitpix;
+        this.axes = axes.clone();
+        this.pcount = pcount;
+        this.gcount = gcount;
+        this.elementCount = count;
+        this.dataLength = multiply(multiply(Math.abs(bitpix) / 8, gcount),
+                add(pcount, count));
+        if (dataLength > Long.MAX_VALUE - HeaderReader.BLOCK_SIZE) {
+            throw new IllegalArgumentException("Data unit too large.");
+        }
+    }
+
+    /**
+     * Reads the layout from the header of an HDU. <p>{@code PCOUNT} and
+     * {@code GCOUNT} default to 0 and 1 if they are missing, as they do in
+     * the primary HDU.</p>
+     * @param header Header of the HDU.
+     * @param offset Offset of the data unit. Used for error reporting.
+     * @param errorHandler Handler to which errors are reported.
+     * @return Layout of the data unit.
+     * @throws NullPointerException if {@code header} or {@code errorHandler}
+     * is {@code null}.
+     * @throws IOException see {@link ErrorHandler}.
+     */
+    static DataUnitLayout fromHeader(Header header, long offset,
+            ErrorHandler errorHandler) throws IOException {
+        if (header == null) {
+            throw new NullPointerException("header must not be null.");
+        }
+        if (errorHandler == null) {
+            throw new NullPointerException("errorHandler must not be null.");
+        }
+        long bitpix = readLong(header, "BITPIX", offset, errorHandler);
+        if (bitpix < Integer.MIN_VALUE || bitpix > Integer.MAX_VALUE
+                || !isValidBitpix((int) bitpix)) {
+            throw invalid("BITPIX", bitpix, offset, errorHandler);
+        }
+        long naxis = readLong(header, "NAXIS", offset, errorHandler);
+        if (naxis < 0 || naxis > 999) {
+            throw invalid("NAXIS", naxis, offset, errorHandler);
+        }
+        long[] axes = new long[(int) naxis];
+        for (int i = 0; i < axes.length; i++) {
+            String keyword = "NAXIS" + (i + 1);
+            axes[i] = readLong(header, keyword, offset, errorHandler);
+            if (axes[i] < 0) {
+                throw invalid(keyword, axes[i], offset, errorHandler);
+            }
+        }
+        long pcount = 0;
+        if (header.contains("PCOUNT")) {
+            pcount = readLong(header, "PCOUNT", offset, errorHandler);
+            if (pcount < 0) {
+                throw invalid("PCOUNT", pcount, offset, errorHandler);
+            }
+        }
+        long gcount = 1;
+        if (header.contains("GCOUNT")) {
+            gcount = readLong(header, "GCOUNT", offset, errorHandler);
+            if (gcount < 0) {
+                throw invalid("GCOUNT", gcount, offset, errorHandler);
+            }
+        }
+        Property groups = header.get("GROUPS");
+        boolean isGroups = groups != null
+                && Boolean.TRUE.equals(groups.get());
+        try {
+            return new DataUnitLayout((int) bitpix, axes, pcount, gcount,
+                    isGroups);
+        } catch (IllegalArgumentException e) {
+            FitsFormatException ex = new FitsFormatException(offset,
+                    "DataUnitLayout_TooLarge");
+            errorHandler.fatal(ex);
+            throw ex;
+        }
+    }
+
+    /**
+     * Gets the value of {@code BITPIX}.
+     * @return Number of bits per element, negative for floating point.
+     */
+    int getBitpix() {
+        return bitpix;
+    }
+
+    /**
+     * Gets the size of an element.
+     * @return Number of bytes per element.
+     */
+    int getBytesPerElement() {
+        return Math.abs(bitpix) / 8;
+    }
+
+    /**
+     * Gets the number of axes.
+     * @return Value of {@code NAXIS}.
+     */
+    int getAxisCount() {
+        return axes.length;
+    }
+
+    /**
+     * Gets the length of an axis.
+     * @param axis Index of the axis, starting at zero for {@code NAXIS1}.
+     * @return Value of {@code NAXISn} with {@code n = axis + 1}.
+     * @throws IndexOutOfBoundsException if {@code axis} is out of range.
+     */
+    long getAxisLength(int axis) {
+        return axes[axis];
+    }
+
+    /**
+     * Gets the lengths of all axes.
+     * @return Copy of the values of {@code NAXIS1} to {@code NAXISn}.
+     */
+    long[] getAxes() {
+        return axes.clone();
+    }
+
+    /**
+     * Gets the value of {@code PCOUNT}.
+     * @return Number of parameters or size of the heap in bytes.
+     */
+    long getPcount() {
+        return pcount;
+    }
+
+    /**
+     * Gets the value of {@code GCOUNT}.
+     * @return Number of groups.
+     */
+    long getGcount() {
+        return gcount;
+    }
+
+    /**
+     * Gets the number of elements in the array of a group.
+     * @return Product of the axis lengths, 0 if there are no axes.
+     */
+    long getElementCount() {
+        return elementCount;
+    }
+
+    /**
+     * Gets the size of the data unit without padding.
+     * @return Size in bytes.
+     */
+    long getDataLength() {
+        return dataLength;
+    }
+
+    /**
+     * Gets the size of the data unit including the padding to a multiple of
+     * the block size.
+     * @return Size in bytes.
+     */
+    long getPaddedLength() {
+        long blocks = (dataLength + HeaderReader.BLOCK_SIZE - 1)
+                / HeaderReader.BLOCK_SIZE;
+        return blocks * HeaderReader.BLOCK_SIZE;
+    }
+
+    /**
+     * Checks if a value of {@code BITPIX} is allowed by the FITS standard.
+     * @param bitpix Value to check.
+     * @return {@code true} if valid.
+     */
+    static boolean isValidBitpix(int bitpix) {
+        switch (bitpix) {
+            case 8:
+            case 16:
+            case 32:
+            case 64:
+            case -32:
+            case -64:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Reads a mandatory integer keyword.
+     * @param header Header to read from.
+     * @param keyword Keyword to read.
+     * @param offset Offset used for error reporting.
+     * @param errorHandler Handler to which errors are reported.
+     * @return Value of the keyword.
+     * @throws IOException see {@link ErrorHandler}.
+     */
+    private static long readLong(Header header, String keyword, long offset,
+            ErrorHandler errorHandler) throws IOException {
+        Property property = header.get(keyword);
+        if (property == null) {
+            FitsFormatException ex = new FitsFormatException(offset,
+                    "DataUnitLayout_MissingKeyword", keyword);
+            errorHandler.fatal(ex);
+            throw ex;
+        }
+        try {
+            return property.getLong();
+        } catch (IllegalStateException e) {
+            throw invalid(keyword, property.get(), offset, errorHandler);
+        } catch (ArithmeticException e) {
+            throw invalid(keyword, property.get(), offset, errorHandler);
+        }
+    }
+
+    /**
+     * Reports a keyword with an invalid value as fatal error.
+     * @param keyword Keyword with the invalid value.
+     * @param value Invalid value.
+     * @param offset Offset used for error reporting.
+     * @param errorHandler Handler to which the error is reported.
+     * @return Exception to throw.
+     * @throws IOException see {@link ErrorHandler}.
+     */
+    private static FitsFormatException invalid(String keyword, Object value,
+            long offset, ErrorHandler errorHandler) throws IOException {
+        FitsFormatException ex = new FitsFormatException(offset,
+                "DataUnitLayout_InvalidValue", keyword, value);
+        errorHandler.fatal(ex);
+        return ex;
+    }
+
+    /**
+     * Multiplies two non-negative numbers.
+     * @param a First factor.
+     * @param b Second factor.
+     * @return Product.
+     * @throws IllegalArgumentException if the product overflows.
+     */
+    private static long multiply(long a, long b) {
+        if (a != 0 && b > Long.MAX_VALUE / a) {
+            throw new IllegalArgumentException("Data unit too large.");
+        }
+        return a * b;
+    }
+
+    /**
+     * Adds two non-negative numbers.
+     * @param a First summand.
+     * @param b Second summand.
+     * @return Sum.
+     * @throws IllegalArgumentException if the sum overflows.
+     */
+    private static long add(long a, long b) {
+        if (b > Long.MAX_VALUE - a) {
+            throw new IllegalArgumentException("Data unit too large.");
+        }
+        return a + b;
+    }
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+
+/**
+ * Parses decimal numbers from ASCII bytes. <p>Accepts an optional sign,
+ * digits with an optional decimal point and an optional exponent introduced
+ * by {@code E} or {@code D}. Numbers with up to 18 significant digits are
+ * parsed into an unscaled {@code long} and a scale, the same representation
+ * {@code BigDecimal} uses, without creating any objects. Only longer numbers
+ * need {@link #toBigDecimal(java.nio.ByteBuffer)}.</p> <p>Instances keep the
+ * results of the last {@link #parse(java.nio.ByteBuffer, int, int)} call and
+ * are not thread-safe.</p>
+ */
+final class DecimalParser {
+
+    /**
+     * Maximal number of significant digits that are stored in a {@code long}.
+     */
+    static final int MAX_COMPACT_DIGITS = 18;
+    /**
+     * Largest absolute exponent accepted in the compact representation.
+     */
+    private static final int MAX_EXPONENT = 100000000;
+    /**
+     * Powers of ten that are exactly representable as {@code double}.
+     */
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12,
+        1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    /**
+     * Powers of ten that fit into a {@code long}.
+     */
+    private static final long[] LONG_POWERS_OF_TEN = {
+        1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L,
+        100000000L, 1000000000L, 10000000000L, 100000000000L,
+        1000000000000L, 10000000000000L, 100000000000000L,
+        1000000000000000L, 10000000000000000L, 100000000000000000L,
+        1000000000000000000L
+    };
+    private int start;
+    private int end;
+    private int errorPosition;
+    private boolean compact;
+    private boolean point;
+    private boolean exponent;
+    private long unscaled;
+    private int scale;
+
+    /**
+     * Checks if a byte can be the first byte of a number.
+     * @param c Byte to check.
+     * @return {@code true} if the byte is a digit, a sign or a decimal point.
+     */
+    static boolean isNumberStart(byte c) {
+        return (c >= '0' && c <= '9') || c == '+' || c == '-' || c == '.';
+    }
+
+    /**
+     * Parses a number. <p>Parsing stops at the first byte that cannot be part
+     * of the number or at {@code limit}. The caller is responsible to check
+     * that the number is properly terminated.</p>
+     * @param buffer Buffer to read from using absolute get operations.
+     * @param position Index of the first byte of the number.
+     * @param limit Index after the last byte that may be part of the number.
+     * @return {@code true} if a well formed number was found, {@code false}
+     * otherwise. In the latter case {@link #getErrorPosition()} gives the index
+     * of the offending byte.
+     */
+    boolean parse(ByteBuffer buffer, int position, int limit) {
+        start = position;
+        compact = true;
+        point = false;
+        exponent = false;
+        unscaled = 0;
+        scale = 0;
+        errorPosition = -1;
+
+        int pos = position;
+        boolean negative = false;
+        if (pos < limit && (buffer.get(pos) == '+' || buffer.get(pos) == '-')) {
+            negative = buffer.get(pos) == '-';
+            pos++;
+        }
+
+        int digits = 0;
+        int significant = 0;
+        int fraction = 0;
+        while (pos < limit) {
+            byte c = buffer.get(pos);
+            if (c >= '0' && c <= '9') {
+                digits++;
+                if (point) {
+                    fraction++;
+                }
+                if (significant > 0 || c != '0') {
+                    significant++;
+                    if (significant <= MAX_COMPACT_DIGITS) {
+                        unscaled = unscaled * 10 + (c - '0');
+                    } else {
+                        compact = false;
+                    }
+                }
+            } else if (c == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+            pos++;
+        }
+        if (digits == 0) {
+            errorPosition = pos;
+            return false;
+        }
+
+        int exp = 0;
+        if (pos < limit && (buffer.get(pos) == 'E' || buffer.get(pos) == 'D')) {
+            exponent = true;
+            pos++;
+            boolean negativeExp = false;
+            if (pos < limit
+                    && (buffer.get(pos) == '+' || buffer.get(pos) == '-')) {
+                negativeExp = buffer.get(pos) == '-';
+                pos++;
+            }
+            int expDigits = 0;
+            while (pos < limit && buffer.get(pos) >= '0'
+                    && buffer.get(pos) <= '9') {
+                if (exp < MAX_EXPONENT) {
+                    exp = exp * 10 + (buffer.get(pos) - '0');
+                } else {
+                    compact = false;
+                }
+                expDigits++;
+                pos++;
+            }
+            if (expDigits == 0) {
+                errorPosition = pos;
+                return false;
+            }
+            if (negativeExp) {
+                exp = -exp;
+            }
+        }
+
+        end = pos;
+        scale = fraction - exp;
+        if (negative) {
+            unscaled = -unscaled;
+        }
+        return true;
+    }
+
+    /**
+     * Gets the index of the first byte after the parsed number.
+     * @return Index after the number.
+     */
+    int getEnd() {
+        return end;
+    }
+
+    /**
+     * Gets the index of the byte at which parsing failed.
+     * @return Index of the offending byte or {@code -1} if parsing succeeded.
+     */
+    int getErrorPosition() {
+        return errorPosition;
+    }
+
+    /**
+     * Gets if the number fits into the compact representation.
+     * @return {@code true} if {@link #getUnscaled()} and {@link #getScale()}
+     * represent the number exactly.
+     */
+    boolean isCompact() {
+        return compact;
+    }
+
+    /**
+     * Gets if the number contained a decimal point.
+     * @return {@code true} if there was a decimal point.
+     */
+    boolean hasPoint() {
+        return point;
+    }
+
+    /**
+     * Gets if the number contained an exponent.
+     * @return {@code true} if there was an exponent.
+     */
+    boolean hasExponent() {
+        return exponent;
+    }
+
+    /**
+     * Gets the unscaled value of the compact representation.
+     * @return Unscaled value. Only valid if {@link #isCompact()}.
+     */
+    long getUnscaled() {
+        return unscaled;
+    }
+
+    /**
+     * Gets the scale of the compact representation.
+     * @return Scale, the number is {@code unscaled * 10^-scale}. Only valid if
+     * {@link #isCompact()}.
+     */
+    int getScale() {
+        return scale;
+    }
+
+    /**
+     * Creates a {@code BigDecimal} of the parsed number. <p>Works for all
+     * numbers, not only compact ones.</p>
+     * @param buffer Buffer that was passed to the last parse operation.
+     * @return Parsed number.
+     * @throws NumberFormatException if the number is out of the range of
+     * {@code BigDecimal}.
+     */
+    BigDecimal toBigDecimal(ByteBuffer buffer) {
+        if (compact) {
+            return BigDecimal.valueOf(unscaled, scale);
+        }
+        char[] chars = new char[end - start];
+        for (int i = 0; i < chars.length; i++) {
+            char c = (char) buffer.get(start + i);
+            chars[i] = c == 'D' ? 'E' : c;
+        }
+        return new BigDecimal(chars);
+    }
+
+    /**
+     * Converts a number in compact representation to the nearest
+     * {@code double}. <p>Uses exact floating point arithmetic if both the
+     * unscaled value and the power of ten can be represented exactly and falls
+     * back to {@code BigDecimal} otherwise.</p>
+     * @param unscaled Unscaled value.
+     * @param scale Scale of the value.
+     * @return {@code unscaled * 10^-scale} rounded to the nearest
+     * {@code double}.
+     */
+    static double toDouble(long unscaled, int scale) {
+        if (unscaled > -(1L << 53) && unscaled < (1L << 53)) {
+            if (scale == 0) {
+                return unscaled;
+            } else if (scale > 0 && scale < POWERS_OF_TEN.length) {
+                return unscaled / POWERS_OF_TEN[scale];
+            } else if (scale < 0 && -scale < POWERS_OF_TEN.length) {
+                return unscaled * POWERS_OF_TEN[-scale];
+            }
+        }
+        return BigDecimal.valueOf(unscaled, scale).doubleValue();
+    }
+
+    /**
+     * Converts a number in compact representation to a {@code long}.
+     * <p>Behaves like {@code BigDecimal.longValueExact()} without creating
+     * any objects.</p>
+     * @param unscaled Unscaled value.
+     * @param scale Scale of the value.
+     * @return {@code unscaled * 10^-scale}.
+     * @throws ArithmeticException if the number has a non-zero fractional
+     * part or is outside of the range of {@code long}.
+     */
+    static long toLongExact(long unscaled, int scale) {
+        if (scale == 0 || unscaled == 0) {
+            return unscaled;
+        }
+        if (scale > 0) {
+            if (scale >= LONG_POWERS_OF_TEN.length
+                    || unscaled % LONG_POWERS_OF_TEN[scale] != 0) {
+                throw new ArithmeticException("Rounding necessary.");
+            }
+            return unscaled / LONG_POWERS_OF_TEN[scale];
+        }
+        if (-scale >= LONG_POWERS_OF_TEN.length) {
+            throw new ArithmeticException("Overflow.");
+        }
+        long factor = LONG_POWERS_OF_TEN[-scale];
+        if (unscaled > Long.MAX_VALUE / factor
+                || unscaled < Long.MIN_VALUE / factor) {
+            throw new ArithmeticException("Overflow.");
+        }
+        return unscaled * factor;
+    }
+}
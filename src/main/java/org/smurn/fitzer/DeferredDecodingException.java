@@ -0,0 +1,49 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.io.IOException;
+
+/**
+ * Thrown by the getters of a lazily read {@link Property} if decoding the
+ * value failed. <p>The error was reported to the {@link ErrorHandler} of the
+ * {@link HeaderReader} before this exception is thrown. The cause is the
+ * exception that was thrown by the error handler, typically a
+ * {@link FitsFormatException} with the offset of the value in the file.</p>
+ */
+public class DeferredDecodingException extends RuntimeException {
+
+    /**
+     * Creates an instance.
+     * @param cause Exception thrown while decoding.
+     * @throws NullPointerException if {@code cause} is {@code null}.
+     */
+    public DeferredDecodingException(IOException cause) {
+        super(cause);
+        if (cause == null) {
+            throw new NullPointerException("cause must not be null.");
+        }
+    }
+
+    /**
+     * Gets the exception thrown while decoding.
+     * @return Cause of this exception, never {@code null}.
+     */
+    @Override
+    public IOException getCause() {
+        return (IOException) super.getCause();
+    }
+}
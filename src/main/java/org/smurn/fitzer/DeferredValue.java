@@ -0,0 +1,67 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Raw value field of a header record whose decoding was deferred. <p>Holds a
+ * copy of the 70 bytes of the value field together with everything needed to
+ * decode it later as if it was decoded while reading the header.</p>
+ */
+final class DeferredValue {
+
+    private final byte[] bytes;
+    private final long offset;
+    private final HeaderValueConverterRegistry converters;
+    private final ErrorHandler errorHandler;
+
+    /**
+     * Creates an instance.
+     * @param bytes Copy of the value field, 70 bytes.
+     * @param offset Offset of the value field in the FITS file.
+     * @param converters Converters used to decode the value.
+     * @param errorHandler Handler to which decoding errors are reported.
+     */
+    DeferredValue(byte[] bytes, long offset,
+            HeaderValueConverterRegistry converters,
+            ErrorHandler errorHandler) {
+        this.bytes = bytes;
+        this.offset = offset;
+        this.converters = converters;
+        this.errorHandler = errorHandler;
+    }
+
+    /**
+     * Gets the raw value field.
+     * @return Copy of the value field, 70 bytes. Must not be modified.
+     */
+    byte[] getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Decodes the value field.
+     * @param keyword Keyword of the header record.
+     * @return Property with the decoded value and comment.
+     * @throws IOException see {@link ErrorHandler}.
+     */
+    Property decode(String keyword) throws IOException {
+        CardParser parser = new CardParser(converters, errorHandler);
+        return parser.parseValue(keyword, ByteBuffer.wrap(bytes), 0, offset);
+    }
+}
@@ -32,11 +32,6 @@ public class FitsDataException extends FitsException {
      * @param messageParameters Parameters to of the error message. Passed to
      * {@link Formatter}.
      * @throws NullPointerException if {@code messageKey} is {@code null}.
-     * @throws IllegalArgumentException if {@code offset} is negative.
-     * @throws MissingResourceException if the message key does not exist in the
-     * root locale.
-     * @throws java.util.IllegalFormatException if formatting the message in the
-     * root locale fails.
      */
     public FitsDataException(String messageKey, Object... messageParameters) {
         super(messageKey, messageParameters);
@@ -18,18 +18,31 @@ package org.smurn.fitzer;
 import java.io.IOException;
 import java.util.Formatter;
 import java.util.Locale;
+import java.util.MissingResourceException;
 import java.util.ResourceBundle;
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 
 /**
  * Indicates that a FITS related error occured while reading or writing a FITS
- * file.
+ * file. <p>The message is formatted when it is requested for the first time
+ * and cached per locale. Creating an instance only stores the key and the
+ * parameters.</p> <p>Errors that are reported to
+ * {@link ErrorHandler#error(FitsException)} are often never thrown. For such
+ * diagnostics the recording of the stack trace can be disabled, which is by
+ * far the most expensive part of creating an exception.</p>
  */
 public class FitsException extends IOException {
 
     private final String messageKey;
     private final Object[] messageParameters;
+    private final boolean stackTrace;
+    /**
+     * Messages formatted so far. Benign data race, a message lost due to a
+     * concurrent update is formatted again. Not serialized, the messages are
+     * formatted again on demand.
+     */
+    private transient volatile FormattedMessage formatted;
 
     /**
      * Creates an instance.
@@ -39,37 +52,80 @@ public class FitsException extends IOException {
      * @param messageParameters Parameters to of the error message. Passed to
      * {@link Formatter}.
      * @throws NullPointerException if {@code messageKey} is {@code null}.
-     * @throws IllegalArgumentException if {@code offset} is negative.
-     * @throws MissingResourceException if the message key does not exist in the
-     * root locale.
-     * @throws java.util.IllegalFormatException if formatting the message in the
-     * root locale fails.
      */
     public FitsException(String messageKey,
             Object... messageParameters) {
+        this(true, messageKey, messageParameters);
+    }
+
+    /**
+     * Creates an instance that optionally does not record a stack trace.
+     * @param stackTrace If {@code false}, no stack trace is recorded and
+     * {@link #getStackTrace()} returns an empty array.
+     * @param messageKey Key of the error message within the {@code messages}
+     * resource bundle. The stored string will be formatted with
+     * {@link Formatter} to produce the final message.
+     * @param messageParameters Parameters to of the error message. Passed to
+     * {@link Formatter}.
+     * @throws NullPointerException if {@code messageKey} is {@code null}.
+     */
+    public FitsException(boolean stackTrace, String messageKey,
+            Object... messageParameters) {
         if (messageKey == null) {
             throw new NullPointerException("messageKey must not be null.");
         }
         this.messageKey = messageKey;
         this.messageParameters = messageParameters;
+        this.stackTrace = stackTrace;
+        if (stackTrace) {
+            super.fillInStackTrace();
+        }
+    }
 
-        ResourceBundle messages = ResourceBundle.getBundle(
-                "org.smurn.fitzer.messages", Locale.ROOT);
-        Formatter formatter = new Formatter(Locale.ROOT);
-        formatter.format(messages.getString(messageKey), messageParameters);
+    /**
+     * Checks if diagnostics reported to an error handler should record a
+     * stack trace.
+     * @param errorHandler Handler the diagnostic is reported to.
+     * @return {@code false} if the handler is a
+     * {@link ReportingErrorHandler}, {@code true} otherwise.
+     */
+    static boolean stackTrace(ErrorHandler errorHandler) {
+        return !(errorHandler instanceof ReportingErrorHandler);
+    }
+
+    /**
+     * Records the current stack trace unless this instance was created
+     * without stack trace.
+     * @return This instance.
+     */
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        // Called by the constructor of Throwable before stackTrace is
+        // assigned. The trace is recorded by our own constructor instead.
+        if (!stackTrace) {
+            return this;
+        }
+        return super.fillInStackTrace();
     }
 
     /**
      * Gets the message describing the error in the given locale.
      * @param locale Locale in which to return the message.
      * @return Message in the given locale.
+     * @throws MissingResourceException if the message key does not exist.
+     * @throws java.util.IllegalFormatException if formatting the message
+     * fails.
      */
     public String getLocalizedMessage(Locale locale) {
-        ResourceBundle messages = ResourceBundle.getBundle(
-                "org.smurn.fitzer.messages", locale);
-        Formatter formatter = new Formatter(locale);
-        formatter.format(messages.getString(messageKey), messageParameters);
-        return formatter.toString();
+        FormattedMessage first = formatted;
+        for (FormattedMessage m = first; m != null; m = m.next) {
+            if (m.locale.equals(locale)) {
+                return m.message;
+            }
+        }
+        String message = formatMessage(locale);
+        formatted = new FormattedMessage(locale, message, first);
+        return message;
     }
 
     /**
@@ -90,6 +146,35 @@ public class FitsException extends IOException {
         return getLocalizedMessage(Locale.getDefault());
     }
 
+    /**
+     * Formats the message describing the error. <p>Called at most once per
+     * locale, unless there are concurrent calls. Subclasses may override
+     * this method to add information to the message.</p>
+     * @param locale Locale in which to return the message.
+     * @return Message in the given locale.
+     * @throws MissingResourceException if the message key does not exist.
+     * @throws java.util.IllegalFormatException if formatting the message
+     * fails.
+     */
+    protected String formatMessage(Locale locale) {
+        return format(locale, messageKey, messageParameters);
+    }
+
+    /**
+     * Formats a message of the {@code messages} resource bundle.
+     * @param locale Locale in which to return the message.
+     * @param key Key of the message.
+     * @param parameters Parameters passed to {@link Formatter}.
+     * @return Formatted message.
+     */
+    static String format(Locale locale, String key, Object... parameters) {
+        ResourceBundle messages = ResourceBundle.getBundle(
+                "org.smurn.fitzer.messages", locale);
+        Formatter formatter = new Formatter(locale);
+        formatter.format(messages.getString(key), parameters);
+        return formatter.toString();
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (obj == null) {
@@ -113,4 +198,21 @@ public class FitsException extends IOException {
                 append(messageParameters).
                 toHashCode();
     }
+
+    /**
+     * Entry of the list of formatted messages.
+     */
+    private static final class FormattedMessage {
+
+        private final Locale locale;
+        private final String message;
+        private final FormattedMessage next;
+
+        FormattedMessage(Locale locale, String message,
+                FormattedMessage next) {
+            this.locale = locale;
+            this.message = message;
+            this.next = next;
+        }
+    }
 }
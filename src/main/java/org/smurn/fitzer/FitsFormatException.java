@@ -15,11 +15,8 @@
  */
 package org.smurn.fitzer;
 
-import java.io.IOException;
 import java.util.Formatter;
 import java.util.Locale;
-import java.util.MissingResourceException;
-import java.util.ResourceBundle;
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 
@@ -41,14 +38,29 @@ public class FitsFormatException extends FitsException {
      * {@link Formatter}.
      * @throws NullPointerException if {@code messageKey} is {@code null}.
      * @throws IllegalArgumentException if {@code offset} is negative.
-     * @throws MissingResourceException if the message key does not exist in the
-     * root locale.
-     * @throws java.util.IllegalFormatException if formatting the message in the
-     * root locale fails.
      */
     public FitsFormatException(long offset, String messageKey,
             Object... messageParameters) {
-        super(messageKey, messageParameters);
+        this(true, offset, messageKey, messageParameters);
+    }
+
+    /**
+     * Creates an instance that optionally does not record a stack trace.
+     * @param stackTrace If {@code false}, no stack trace is recorded and
+     * {@link #getStackTrace()} returns an empty array.
+     * @param offset Position in the data stream giving an indication where in
+     * the file the error was detected. The first byte in the file has offset 0.
+     * @param messageKey Key of the error message within the {@code messages}
+     * resource bundle. The stored string will be formatted with
+     * {@link Formatter} to produce the final message.
+     * @param messageParameters Parameters to of the error message. Passed to
+     * {@link Formatter}.
+     * @throws NullPointerException if {@code messageKey} is {@code null}.
+     * @throws IllegalArgumentException if {@code offset} is negative.
+     */
+    public FitsFormatException(boolean stackTrace, long offset,
+            String messageKey, Object... messageParameters) {
+        super(stackTrace, messageKey, messageParameters);
         if (offset < 0) {
             throw new IllegalArgumentException("offset must not be negative.");
         }
@@ -65,18 +77,14 @@ public class FitsFormatException extends FitsException {
     }
 
     /**
-     * Gets the message describing the error in the given locale.
+     * Formats the message describing the error, prefixed with the offset.
      * @param locale Locale in which to return the message.
      * @return Message in the given locale.
      */
     @Override
-    public String getLocalizedMessage(Locale locale) {
-        ResourceBundle messages = ResourceBundle.getBundle(
-                "org.smurn.fitzer.messages", locale);
-        Formatter formatter = new Formatter(locale);
-        formatter.format(messages.getString("FitsFormatException"), offset);
-
-        return formatter.toString() + super.getLocalizedMessage(locale);
+    protected String formatMessage(Locale locale) {
+        return format(locale, "FitsFormatException", offset)
+                + super.formatMessage(locale);
     }
 
     @Override
@@ -0,0 +1,506 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Positions of the HDUs of a FITS file. <p>The index is built by reading
+ * only the headers: of each header record, just the keyword is compared
+ * against the keywords that determine the size of the data unit
+ * ({@code BITPIX}, {@code NAXISn}, {@code PCOUNT}, {@code GCOUNT},
+ * {@code GROUPS}) and those that identify the HDU ({@code XTENSION},
+ * {@code EXTNAME}, {@code EXTVER}, {@code ZIMAGE}). Only the values of
+ * these records are decoded. The data units are skipped without reading
+ * them, so building the index costs one read per header block.</p>
+ * <p>Once built, any HDU can be opened at its header offset, for example
+ * with {@link BinaryTable#BinaryTable(FileChannel, long, ErrorHandler)}.
+ * Instances of this type are immutable.</p>
+ */
+public final class HduIndex {
+
+    private static final long SIMPLE = Header.packKeyword("SIMPLE");
+    private static final long XTENSION = Header.packKeyword("XTENSION");
+    private static final long END = Header.packKeyword("END");
+    private static final long[] KEYWORDS = sorted(XTENSION,
+            Header.packKeyword("BITPIX"), Header.packKeyword("PCOUNT"),
+            Header.packKeyword("GCOUNT"), Header.packKeyword("GROUPS"),
+            Header.packKeyword("EXTNAME"),
+            Header.packKeyword("EXTVER"), Header.packKeyword("ZIMAGE"));
+    private static final long NAXIS_PREFIX = Header.packKeyword("NAXIS")
+            & 0xFFFFFFFFFF000000L;
+    private final long[] headerOffsets;
+    private final long[] dataOffsets;
+    private final long[] dataLengths;
+    private final String[] types;
+    private final String[] names;
+    private final int[] versions;
+    private final boolean[] compressed;
+
+    /**
+     * Creates an instance.
+     * @param headerOffsets Offsets of the headers.
+     * @param dataOffsets Offsets of the data units.
+     * @param dataLengths Sizes of the data units without padding.
+     * @param types Values of {@code XTENSION}, {@code null} for the primary
+     * HDU.
+     * @param names Values of {@code EXTNAME} or {@code null}.
+     * @param versions Values of {@code EXTVER}.
+     * @param compressed {@code true} for tile-compressed images.
+     */
+    HduIndex(long[] headerOffsets, long[] dataOffsets, long[] dataLengths,
+            String[] types, String[] names, int[] versions,
+            boolean[] compressed) {
+        this.headerOffsets = headerOffsets;
+        this.dataOffsets = dataOffsets;
+        this.dataLengths = dataLengths;
+        this.types = types;
+        this.names = names;
+        this.versions = versions;
+        this.compressed = compressed;
+    }
+
+    /**
+     * Creates an instance.
+     * @param entries Scanned HDUs.
+     * @return Index of the HDUs.
+     */
+    private static HduIndex create(List<Entry> entries) {
+        int size = entries.size();
+        HduIndex index = new HduIndex(new long[size], new long[size],
+                new long[size], new String[size], new String[size],
+                new int[size], new boolean[size]);
+        for (int i = 0; i < size; i++) {
+            Entry entry = entries.get(i);
+            index.headerOffsets[i] = entry.headerOffset;
+            index.dataOffsets[i] = entry.dataOffset;
+            index.dataLengths[i] = entry.dataLength;
+            index.types[i] = entry.type;
+            index.names[i] = entry.name;
+            index.versions[i] = entry.version;
+            index.compressed[i] = entry.compressed;
+        }
+        return index;
+    }
+
+    /**
+     * Builds the index of a FITS file. <p>Scanning stops at the end of the
+     * file or at the first block after an HDU that does not start with
+     * {@code XTENSION}, which is reported as error.</p>
+     * @param channel Channel of the FITS file. Only positional reads are
+     * used, the position of the channel is not changed.
+     * @param errorHandler Handler to which errors are reported.
+     * @return Index of the HDUs.
+     * @throws NullPointerException if {@code channel} or
+     * {@code errorHandler} is {@code null}.
+     * @throws IOException if reading fails or see {@link ErrorHandler}.
+     */
+    public static HduIndex scan(FileChannel channel,
+            ErrorHandler errorHandler) throws IOException {
+        return scan(null, 0, channel, errorHandler, false);
+    }
+
+    /**
+     * Builds the index of a FITS file, reading the headers through a block
+     * cache. <p>Behaves like {@link #scan(FileChannel, ErrorHandler)}. The
+     * header blocks stay in the cache, so opening the HDUs afterwards with
+     * the same cache, for example with
+     * {@link BinaryTable#BinaryTable(BlockCache, long, FileChannel, long,
+     * ErrorHandler)}, does not read them from the file again.</p>
+     * @param cache Cache the headers are read through.
+     * @param fileId Id of the file in the cache.
+     * @param channel Channel of the FITS file.
+     * @param errorHandler Handler to which errors are reported.
+     * @return Index of the HDUs.
+     * @throws NullPointerException if an argument is {@code null}.
+     * @throws IOException if reading fails or see {@link ErrorHandler}.
+     */
+    public static HduIndex scan(BlockCache cache, long fileId,
+            FileChannel channel, ErrorHandler errorHandler)
+            throws IOException {
+        if (cache == null) {
+            throw new NullPointerException("cache must not be null.");
+        }
+        return scan(cache, fileId, channel, errorHandler, false);
+    }
+
+    /**
+     * Builds the index of a FITS file.
+     * @param cache Cache the headers are read through or {@code null} to
+     * read them from the channel.
+     * @param fileId Id of the file in the cache.
+     * @param channel Channel of the FITS file.
+     * @param errorHandler Handler to which errors are reported.
+     * @param ignoreTrailing If {@code true}, bytes behind the last HDU that
+     * do not form a header block starting with {@code XTENSION} are ignored
+     * instead of being reported.
+     * @return Index of the HDUs.
+     * @throws NullPointerException if {@code channel} or
+     * {@code errorHandler} is {@code null}.
+     * @throws IOException if reading fails or see {@link ErrorHandler}.
+     */
+    static HduIndex scan(BlockCache cache, long fileId, FileChannel channel,
+            ErrorHandler errorHandler, boolean ignoreTrailing)
+            throws IOException {
+        if (channel == null) {
+            throw new NullPointerException("channel must not be null.");
+        }
+        if (errorHandler == null) {
+            throw new NullPointerException("errorHandler must not be null.");
+        }
+        CardParser parser = new CardParser(
+                HeaderValueConverterRegistry.createDefault(), errorHandler);
+        ByteBuffer block = ByteBuffer.allocateDirect(HeaderReader.BLOCK_SIZE);
+        long size = channel.size();
+        List<Entry> entries = new ArrayList<Entry>();
+        long offset = 0;
+        while (offset < size) {
+            boolean trailing = ignoreTrailing && !entries.isEmpty();
+            if (trailing && size - offset < HeaderReader.BLOCK_SIZE) {
+                break;
+            }
+            if (!readBlock(cache, fileId, channel, block, offset, size,
+                    errorHandler)) {
+                break;
+            }
+            long first = block.getLong(0);
+            if (first != (entries.isEmpty() ? SIMPLE : XTENSION)) {
+                if (!trailing) {
+                    errorHandler.error(new FitsFormatException(
+                            FitsException.stackTrace(errorHandler), offset,
+                            "HduIndex_TrailingData", size - offset));
+                }
+                break;
+            }
+            Entry entry = scanHeader(cache, fileId, channel, block, offset,
+                    size, parser, errorHandler);
+            entries.add(entry);
+            offset = entry.dataOffset + padded(entry.dataLength);
+            if (entry.dataOffset + entry.dataLength > size) {
+                errorHandler.error(new FitsFormatException(
+                        FitsException.stackTrace(errorHandler),
+                        entry.dataOffset, "HduIndex_Truncated",
+                        entry.dataOffset + entry.dataLength, size));
+            }
+        }
+        return create(entries);
+    }
+
+    /**
+     * Gets the number of HDUs.
+     * @return Number of HDUs including the primary HDU.
+     */
+    public int size() {
+        return headerOffsets.length;
+    }
+
+    /**
+     * Gets the position of the header of an HDU.
+     * @param hdu Index of the HDU, 0 for the primary HDU.
+     * @return Offset of the first header block in the file.
+     * @throws IndexOutOfBoundsException if {@code hdu} is out of range.
+     */
+    public long getHeaderOffset(int hdu) {
+        return headerOffsets[hdu];
+    }
+
+    /**
+     * Gets the position of the data unit of an HDU.
+     * @param hdu Index of the HDU, 0 for the primary HDU.
+     * @return Offset of the data unit in the file.
+     * @throws IndexOutOfBoundsException if {@code hdu} is out of range.
+     */
+    public long getDataOffset(int hdu) {
+        return dataOffsets[hdu];
+    }
+
+    /**
+     * Gets the size of the data unit of an HDU.
+     * @param hdu Index of the HDU, 0 for the primary HDU.
+     * @return Size in bytes without the padding.
+     * @throws IndexOutOfBoundsException if {@code hdu} is out of range.
+     */
+    public long getDataLength(int hdu) {
+        return dataLengths[hdu];
+    }
+
+    /**
+     * Gets the type of an extension.
+     * @param hdu Index of the HDU, 0 for the primary HDU.
+     * @return Value of {@code XTENSION} without trailing spaces or
+     * {@code null} for the primary HDU.
+     * @throws IndexOutOfBoundsException if {@code hdu} is out of range.
+     */
+    public String getType(int hdu) {
+        return types[hdu];
+    }
+
+    /**
+     * Gets the name of an HDU.
+     * @param hdu Index of the HDU, 0 for the primary HDU.
+     * @return Value of {@code EXTNAME} without trailing spaces or
+     * {@code null} if there is none.
+     * @throws IndexOutOfBoundsException if {@code hdu} is out of range.
+     */
+    public String getName(int hdu) {
+        return names[hdu];
+    }
+
+    /**
+     * Gets the version of an HDU.
+     * @param hdu Index of the HDU, 0 for the primary HDU.
+     * @return Value of {@code EXTVER}, 1 if there is none.
+     * @throws IndexOutOfBoundsException if {@code hdu} is out of range.
+     */
+    public int getVersion(int hdu) {
+        return versions[hdu];
+    }
+
+    /**
+     * Checks if an HDU contains a tile-compressed image.
+     * @param hdu Index of the HDU, 0 for the primary HDU.
+     * @return {@code true} if the HDU is a binary table with
+     * {@code ZIMAGE = T}, see {@link CompressedImage}.
+     * @throws IndexOutOfBoundsException if {@code hdu} is out of range.
+     */
+    public boolean isCompressedImage(int hdu) {
+        return compressed[hdu];
+    }
+
+    /**
+     * Finds an HDU by name. <p>Names are compared ignoring case.</p>
+     * @param name Value of {@code EXTNAME} to look for.
+     * @return Index of the first HDU with this name or -1 if there is none.
+     * @throws NullPointerException if {@code name} is {@code null}.
+     */
+    public int find(String name) {
+        return find(name, -1);
+    }
+
+    /**
+     * Finds an HDU by name and version. <p>Names are compared ignoring
+     * case.</p>
+     * @param name Value of {@code EXTNAME} to look for.
+     * @param version Value of {@code EXTVER} to look for or -1 for any
+     * version.
+     * @return Index of the first matching HDU or -1 if there is none.
+     * @throws NullPointerException if {@code name} is {@code null}.
+     */
+    public int find(String name, int version) {
+        if (name == null) {
+            throw new NullPointerException("name must not be null.");
+        }
+        for (int i = 0; i < names.length; i++) {
+            if (name.equalsIgnoreCase(names[i])
+                    && (version < 0 || versions[i] == version)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Scans the header of an HDU.
+     * @param cache Cache to read through or {@code null}.
+     * @param fileId Id of the file in the cache.
+     * @param channel Channel of the FITS file.
+     * @param block Buffer containing the first header block.
+     * @param offset Offset of the header.
+     * @param size Size of the file.
+     * @param parser Parser for the records of interest.
+     * @param errorHandler Handler to which errors are reported.
+     * @return Scanned HDU.
+     * @throws IOException if reading fails or see {@link ErrorHandler}.
+     */
+    private static Entry scanHeader(BlockCache cache, long fileId,
+            FileChannel channel, ByteBuffer block, long offset, long size,
+            CardParser parser, ErrorHandler errorHandler)
+            throws IOException {
+        List<Property> properties = new ArrayList<Property>();
+        long blockOffset = offset;
+        while (true) {
+            for (int card = 0; card < HeaderReader.BLOCK_SIZE;
+                    card += CardParser.CARD_SIZE) {
+                long packed = block.getLong(card);
+                if (packed == END) {
+                    long dataOffset = blockOffset + HeaderReader.BLOCK_SIZE;
+                    return entry(new Header(properties), offset, dataOffset,
+                            errorHandler);
+                }
+                if (isIndexed(packed)) {
+                    String keyword = parser.readKeyword(block, card,
+                            blockOffset + card);
+                    if (CardParser.hasValue(keyword, block, card)) {
+                        int value = card + CardParser.VALUE_START;
+                        properties.add(parser.parseValue(keyword, block,
+                                value, blockOffset + value));
+                    }
+                }
+            }
+            blockOffset += HeaderReader.BLOCK_SIZE;
+            if (blockOffset >= size) {
+                FitsFormatException ex = new FitsFormatException(blockOffset,
+                        "HeaderReader_MissingEnd");
+                errorHandler.fatal(ex);
+                throw ex;
+            }
+            readBlock(cache, fileId, channel, block, blockOffset, size,
+                    errorHandler);
+        }
+    }
+
+    /**
+     * Creates the entry of an HDU from the records of interest.
+     * @param header Records of interest.
+     * @param offset Offset of the header.
+     * @param dataOffset Offset of the data unit.
+     * @param errorHandler Handler to which errors are reported.
+     * @return Scanned HDU.
+     * @throws IOException see {@link ErrorHandler}.
+     */
+    private static Entry entry(Header header, long offset, long dataOffset,
+            ErrorHandler errorHandler) throws IOException {
+        DataUnitLayout layout = DataUnitLayout.fromHeader(header, dataOffset,
+                errorHandler);
+        Entry entry = new Entry();
+        entry.headerOffset = offset;
+        entry.dataOffset = dataOffset;
+        entry.dataLength = layout.getDataLength();
+        Property xtension = header.get("XTENSION");
+        entry.type = xtension == null ? null
+                : BinaryTable.trim(xtension.get());
+        Property extname = header.get("EXTNAME");
+        entry.name = extname == null ? null
+                : BinaryTable.trim(extname.get());
+        entry.version = 1;
+        Property extver = header.get("EXTVER");
+        if (extver != null) {
+            try {
+                entry.version = extver.getInt();
+            } catch (IllegalStateException e) {
+                reportInvalid(extver, dataOffset, errorHandler);
+            } catch (ArithmeticException e) {
+                reportInvalid(extver, dataOffset, errorHandler);
+            }
+        }
+        Property zimage = header.get("ZIMAGE");
+        entry.compressed = "BINTABLE".equals(entry.type) && zimage != null
+                && Boolean.TRUE.equals(zimage.get());
+        return entry;
+    }
+
+    /**
+     * Reports a keyword with an invalid value as error.
+     * @param property Invalid property.
+     * @param offset Offset used for error reporting.
+     * @param errorHandler Handler to which the error is reported.
+     * @throws IOException see {@link ErrorHandler}.
+     */
+    private static void reportInvalid(Property property, long offset,
+            ErrorHandler errorHandler) throws IOException {
+        errorHandler.error(new FitsFormatException(
+                FitsException.stackTrace(errorHandler), offset,
+                "HduIndex_InvalidValue", property.getKeyword(),
+                property.get()));
+    }
+
+    /**
+     * Reads a block with a positional read.
+     * @param cache Cache to read through or {@code null}.
+     * @param fileId Id of the file in the cache.
+     * @param channel Channel to read from.
+     * @param block Buffer receiving the block.
+     * @param offset Offset of the block.
+     * @param size Size of the file.
+     * @param errorHandler Handler to which errors are reported.
+     * @return {@code true} if the block was read, {@code false} if the file
+     * ends with less than a block, which is reported as error.
+     * @throws IOException if reading fails or see {@link ErrorHandler}.
+     */
+    private static boolean readBlock(BlockCache cache, long fileId,
+            FileChannel channel, ByteBuffer block, long offset, long size,
+            ErrorHandler errorHandler) throws IOException {
+        if (size - offset < HeaderReader.BLOCK_SIZE) {
+            errorHandler.error(new FitsFormatException(
+                    FitsException.stackTrace(errorHandler), offset,
+                    "HeaderReader_TruncatedBlock", size - offset));
+            return false;
+        }
+        block.clear();
+        while (block.hasRemaining()) {
+            long position = offset + block.position();
+            int n = cache == null ? channel.read(block, position)
+                    : cache.read(fileId, channel, block, position);
+            if (n < 0) {
+                throw new IOException("Unexpected end of file.");
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks if a header record is of interest for the index.
+     * @param packed Keyword packed as in {@link Header#packKeyword(String)}.
+     * @return {@code true} if the value of the record is needed.
+     */
+    private static boolean isIndexed(long packed) {
+        if ((packed & 0xFFFFFFFFFF000000L) == NAXIS_PREFIX) {
+            return true;
+        }
+        return Arrays.binarySearch(KEYWORDS, packed) >= 0;
+    }
+
+    /**
+     * Rounds a size up to a multiple of the block size.
+     * @param length Size in bytes.
+     * @return Padded size.
+     */
+    private static long padded(long length) {
+        long blocks = (length + HeaderReader.BLOCK_SIZE - 1)
+                / HeaderReader.BLOCK_SIZE;
+        return blocks * HeaderReader.BLOCK_SIZE;
+    }
+
+    /**
+     * Creates a sorted array.
+     * @param values Values.
+     * @return Sorted values.
+     */
+    private static long[] sorted(long... values) {
+        long[] result = values.clone();
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * Scanned HDU.
+     */
+    private static final class Entry {
+
+        long headerOffset;
+        long dataOffset;
+        long dataLength;
+        String type;
+        String name;
+        int version;
+        boolean compressed;
+    }
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes HDUs to a channel. <p>The header records are encoded directly into
+ * direct buffers of one block each, taken from a pool that is shared by all
+ * writers. The header blocks, the data unit and its padding are then written
+ * with a single gathering write, so the data is not copied into a buffer of
+ * the writer. Data units that are taken from a file are transferred with
+ * {@link FileChannel#transferTo}, which lets the operating system copy the
+ * bytes without passing them through the Java heap.</p> <p>The header is
+ * padded with spaces and the data unit with zeros to a multiple of 2880
+ * bytes. The length of the data unit has to match the one described by the
+ * header.</p> <p>Instances are not thread-safe.</p>
+ */
+public final class HduWriter {
+
+    /**
+     * Maximal number of free blocks kept in the shared pool.
+     */
+    static final int POOL_CAPACITY = 64;
+    private static final BlockPool SHARED_POOL = new BlockPool(POOL_CAPACITY);
+    private static final ByteBuffer ZEROS = ByteBuffer.allocateDirect(
+            HeaderReader.BLOCK_SIZE).asReadOnlyBuffer();
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+    private final GatheringByteChannel channel;
+    private final ErrorHandler errorHandler;
+    private final CardEncoder encoder;
+    private final BlockPool pool;
+    private long offset;
+
+    /**
+     * Creates an instance writing from the beginning of a FITS file.
+     * @param channel Channel to write to.
+     * @param errorHandler Handler to which errors are reported.
+     * @throws NullPointerException if an argument is {@code null}.
+     */
+    public HduWriter(GatheringByteChannel channel,
+            ErrorHandler errorHandler) {
+        this(channel, 0, SHARED_POOL, errorHandler);
+    }
+
+    /**
+     * Creates an instance.
+     * @param channel Channel to write to.
+     * @param offset Position of the channel within the FITS file. Must be a
+     * multiple of 2880.
+     * @param errorHandler Handler to which errors are reported.
+     * @throws NullPointerException if {@code channel} or
+     * {@code errorHandler} is {@code null}.
+     * @throws IllegalArgumentException if {@code offset} is negative or not
+     * a multiple of 2880.
+     */
+    public HduWriter(GatheringByteChannel channel, long offset,
+            ErrorHandler errorHandler) {
+        this(channel, offset, SHARED_POOL, errorHandler);
+    }
+
+    /**
+     * Creates an instance using a given pool.
+     * @param channel Channel to write to.
+     * @param offset Position of the channel within the FITS file.
+     * @param pool Pool of the header blocks.
+     * @param errorHandler Handler to which errors are reported.
+     * @throws NullPointerException if {@code channel}, {@code pool} or
+     * {@code errorHandler} is {@code null}.
+     * @throws IllegalArgumentException if {@code offset} is negative or not
+     * a multiple of 2880.
+     */
+    HduWriter(GatheringByteChannel channel, long offset, BlockPool pool,
+            ErrorHandler errorHandler) {
+        if (channel == null) {
+            throw new NullPointerException("channel must not be null.");
+        }
+        if (pool == null) {
+            throw new NullPointerException("pool must not be null.");
+        }
+        if (errorHandler == null) {
+            throw new NullPointerException("errorHandler must not be null.");
+        }
+        if (offset < 0 || offset % HeaderReader.BLOCK_SIZE != 0) {
+            throw new IllegalArgumentException(
+                    "offset must be a non-negative multiple of 2880.");
+        }
+        this.channel = channel;
+        this.errorHandler = errorHandler;
+        this.encoder = new CardEncoder(errorHandler);
+        this.pool = pool;
+        this.offset = offset;
+    }
+
+    /**
+     * Writes an HDU without data unit.
+     * @param header Header of the HDU. Describes a data unit of zero bytes.
+     * @return Number of bytes written.
+     * @throws NullPointerException if {@code header} is {@code null}.
+     * @throws IOException if writing fails or see {@link ErrorHandler}.
+     */
+    public long write(Header header) throws IOException {
+        return write(header, EMPTY.duplicate());
+    }
+
+    /**
+     * Writes an HDU with a data unit from a buffer. <p>Mapped and other
+     * direct buffers are written by the operating system without being
+     * copied.</p>
+     * @param header Header of the HDU.
+     * @param data Data unit without padding, from position to limit. The
+     * position is advanced to the limit.
+     * @return Number of bytes written.
+     * @throws NullPointerException if an argument is {@code null}.
+     * @throws IOException if writing fails or see {@link ErrorHandler}.
+     */
+    public long write(Header header, ByteBuffer data) throws IOException {
+        if (data == null) {
+            throw new NullPointerException("data must not be null.");
+        }
+        List<ByteBuffer> blocks = encode(header, data.remaining());
+        try {
+            ByteBuffer[] buffers = blocks.toArray(
+                    new ByteBuffer[blocks.size() + 2]);
+            buffers[blocks.size()] = data;
+            buffers[blocks.size() + 1] = padding(data.remaining());
+            return writeFully(buffers);
+        } finally {
+            release(blocks);
+        }
+    }
+
+    /**
+     * Writes an HDU with a data unit copied from a file. <p>The data is
+     * transferred from {@code source} to the channel of this writer without
+     * passing through the Java heap.</p>
+     * @param header Header of the HDU.
+     * @param source Channel of the file containing the data unit. Its
+     * position is not changed.
+     * @param position Position of the data unit within {@code source}.
+     * @param length Length of the data unit without padding.
+     * @return Number of bytes written.
+     * @throws NullPointerException if {@code header} or {@code source} is
+     * {@code null}.
+     * @throws IllegalArgumentException if {@code position} or
+     * {@code length} is negative.
+     * @throws EOFException if {@code source} ends before the end of the
+     * data unit.
+     * @throws IOException if reading or writing fails or see
+     * {@link ErrorHandler}.
+     */
+    public long write(Header header, FileChannel source, long position,
+            long length) throws IOException {
+        if (source == null) {
+            throw new NullPointerException("source must not be null.");
+        }
+        if (position < 0 || length < 0) {
+            throw new IllegalArgumentException(
+                    "position and length must not be negative.");
+        }
+        List<ByteBuffer> blocks = encode(header, length);
+        long written;
+        try {
+            written = writeFully(blocks.toArray(
+                    new ByteBuffer[blocks.size()]));
+        } finally {
+            release(blocks);
+        }
+        long transferred = 0;
+        while (transferred < length) {
+            long n = source.transferTo(position + transferred,
+                    length - transferred, channel);
+            if (n <= 0 && position + transferred >= source.size()) {
+                throw new EOFException("File ends at byte "
+                        + (position + transferred) + ".");
+            }
+            transferred += n;
+        }
+        offset += transferred;
+        written += transferred;
+        written += writeFully(new ByteBuffer[]{padding(length)});
+        return written;
+    }
+
+    /**
+     * Gets the position in the FITS file of the next byte this writer will
+     * write.
+     * @return Position in the file, always a multiple of 2880.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Encodes a header into blocks from the pool.
+     * @param header Header to encode.
+     * @param dataLength Length of the data unit that follows.
+     * @return Header blocks, flipped for writing.
+     * @throws IOException see {@link ErrorHandler}.
+     */
+    private List<ByteBuffer> encode(Header header, long dataLength)
+            throws IOException {
+        if (header == null) {
+            throw new NullPointerException("header must not be null.");
+        }
+        long expected = DataUnitLayout.fromHeader(header, offset,
+                errorHandler).getDataLength();
+        if (expected != dataLength) {
+            FitsDataException ex = new FitsDataException(
+                    "HduWriter_DataLength", expected, dataLength);
+            errorHandler.fatal(ex);
+            throw ex;
+        }
+        List<ByteBuffer> blocks = new ArrayList<ByteBuffer>();
+        try {
+            ByteBuffer block = null;
+            for (int i = 0; i <= header.size(); i++) {
+                if (block == null || !block.hasRemaining()) {
+                    block = pool.acquire();
+                    blocks.add(block);
+                }
+                if (i < header.size()) {
+                    encoder.encode(header.get(i), block);
+                } else {
+                    block.put(CardEncoder.END);
+                    while (block.hasRemaining()) {
+                        block.put((byte) ' ');
+                    }
+                }
+            }
+        } catch (IOException e) {
+            release(blocks);
+            throw e;
+        } catch (RuntimeException e) {
+            release(blocks);
+            throw e;
+        }
+        for (ByteBuffer block : blocks) {
+            block.flip();
+        }
+        return blocks;
+    }
+
+    /**
+     * Returns blocks to the pool.
+     * @param blocks Blocks to return.
+     */
+    private void release(List<ByteBuffer> blocks) {
+        for (ByteBuffer block : blocks) {
+            pool.release(block);
+        }
+        blocks.clear();
+    }
+
+    /**
+     * Creates the padding of a data unit.
+     * @param length Length of the data unit.
+     * @return Buffer with the zeros from position to limit.
+     */
+    private static ByteBuffer padding(long length) {
+        ByteBuffer padding = ZEROS.duplicate();
+        padding.limit((int) ((HeaderReader.BLOCK_SIZE
+                - length % HeaderReader.BLOCK_SIZE)
+                % HeaderReader.BLOCK_SIZE));
+        return padding;
+    }
+
+    /**
+     * Writes buffers with gathering writes until all are written.
+     * @param buffers Buffers to write.
+     * @return Number of bytes written.
+     * @throws IOException if writing fails.
+     */
+    private long writeFully(ByteBuffer[] buffers) throws IOException {
+        long written = 0;
+        int first = 0;
+        while (first < buffers.length) {
+            written += channel.write(buffers, first, buffers.length - first);
+            while (first < buffers.length && !buffers[first].hasRemaining()) {
+                first++;
+            }
+        }
+        offset += written;
+        return written;
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Header of a FITS HDU. <p>Keeps the properties in the order of the header
+ * records and provides lookup by keyword in constant time. Keywords of up to
+ * eight ASCII characters, which covers all keywords of the FITS standard, are
+ * packed into a {@code long} so that a lookup compares numbers instead of
+ * strings.</p> <p>A keyword may occur more than once, for example
+ * {@code COMMENT} and {@code HISTORY}. {@link #get(String)} returns the first
+ * property that is not commentary, {@link #getAll(String)} returns all of
+ * them.</p> <p>Instances of this type are immutable.</p>
+ */
+public final class Header {
+
+    /**
+     * Packed value of keywords that cannot be packed into a {@code long}.
+     */
+    static final long NOT_PACKED = 0;
+    private final Property[] properties;
+    private final long[] packedKeywords;
+    private final int[] next;
+    private final int[] slots;
+    private final int mask;
+
+    /**
+     * Creates an instance.
+     * @param properties Properties in the order of the header records.
+     * @throws NullPointerException if {@code properties} or one of its
+     * elements is {@code null}.
+     */
+    public Header(List<Property> properties) {
+        if (properties == null) {
+            throw new NullPointerException("properties must not be null.");
+        }
+        this.properties = properties.toArray(new Property[properties.size()]);
+        for (Property property : this.properties) {
+            if (property == null) {
+                throw new NullPointerException(
+                        "properties must not contain null.");
+            }
+        }
+
+        int capacity = 16;
+        while (capacity < 2 * this.properties.length) {
+            capacity <<= 1;
+        }
+        this.mask = capacity - 1;
+        this.slots = new int[capacity];
+        Arrays.fill(slots, -1);
+        this.packedKeywords = new long[this.properties.length];
+        this.next = new int[this.properties.length];
+
+        int[] last = new int[capacity];
+        for (int i = 0; i < this.properties.length; i++) {
+            String keyword = this.properties[i].getKeyword();
+            long packed = packKeyword(keyword);
+            packedKeywords[i] = packed;
+            next[i] = -1;
+            int slot = find(keyword, packed);
+            if (slots[slot] < 0) {
+                slots[slot] = i;
+            } else {
+                next[last[slot]] = i;
+            }
+            last[slot] = i;
+        }
+    }
+
+    /**
+     * Gets the number of properties.
+     * @return Number of properties in this header.
+     */
+    public int size() {
+        return properties.length;
+    }
+
+    /**
+     * Gets a property by its position.
+     * @param index Index of the header record, starting at zero.
+     * @return Property at the given position.
+     * @throws IndexOutOfBoundsException if {@code index} is out of range.
+     */
+    public Property get(int index) {
+        return properties[index];
+    }
+
+    /**
+     * Gets all properties in the order of the header records.
+     * @return Unmodifiable list of the properties.
+     */
+    public List<Property> getProperties() {
+        return Collections.unmodifiableList(Arrays.asList(properties));
+    }
+
+    /**
+     * Gets the first property with a given keyword that is not commentary.
+     * @param keyword Keyword to look for.
+     * @return Property or {@code null} if this header has no such property.
+     * @throws NullPointerException if {@code keyword} is {@code null}.
+     */
+    public Property get(String keyword) {
+        if (keyword == null) {
+            throw new NullPointerException("keyword must not be null.");
+        }
+        int i = slots[find(keyword, packKeyword(keyword))];
+        while (i >= 0 && properties[i].isCommentary()) {
+            i = next[i];
+        }
+        return i >= 0 ? properties[i] : null;
+    }
+
+    /**
+     * Checks if this header has a property with a given keyword that is not
+     * commentary.
+     * @param keyword Keyword to look for.
+     * @return {@code true} if there is such a property.
+     * @throws NullPointerException if {@code keyword} is {@code null}.
+     */
+    public boolean contains(String keyword) {
+        return get(keyword) != null;
+    }
+
+    /**
+     * Gets all properties with a given keyword, including commentary ones.
+     * @param keyword Keyword to look for.
+     * @return Unmodifiable list of the properties in the order of the header
+     * records. Empty if there are none.
+     * @throws NullPointerException if {@code keyword} is {@code null}.
+     */
+    public List<Property> getAll(String keyword) {
+        if (keyword == null) {
+            throw new NullPointerException("keyword must not be null.");
+        }
+        List<Property> result = new ArrayList<Property>();
+        for (int i = slots[find(keyword, packKeyword(keyword))]; i >= 0;
+                i = next[i]) {
+            result.add(properties[i]);
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Finds the slot of a keyword in the hash table.
+     * @param keyword Keyword to look for.
+     * @param packed Packed keyword.
+     * @return Slot containing the first property with this keyword or the
+     * empty slot where it would be inserted.
+     */
+    private int find(String keyword, long packed) {
+        int slot = hash(keyword, packed) & mask;
+        while (slots[slot] >= 0) {
+            int i = slots[slot];
+            if (packed != NOT_PACKED ? packedKeywords[i] == packed
+                    : keyword.equals(properties[i].getKeyword())) {
+                break;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Calculates the hash of a keyword.
+     * @param keyword Keyword.
+     * @param packed Packed keyword.
+     * @return Hash value with well distributed lower bits.
+     */
+    private static int hash(String keyword, long packed) {
+        long h = packed != NOT_PACKED ? packed : keyword.hashCode();
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    /**
+     * Packs a keyword into a {@code long}. <p>The keyword is padded with
+     * spaces to eight characters which are stored as ASCII bytes, the first
+     * character in the most significant byte. This is the same representation
+     * the keyword has in the header record.</p>
+     * @param keyword Keyword to pack.
+     * @return Packed keyword or {@link #NOT_PACKED} if the keyword is longer
+     * than eight characters or contains characters outside of 32-126.
+     */
+    static long packKeyword(String keyword) {
+        int length = keyword.length();
+        if (length > CardParser.KEYWORD_LENGTH) {
+            return NOT_PACKED;
+        }
+        long packed = 0;
+        for (int i = 0; i < CardParser.KEYWORD_LENGTH; i++) {
+            char c = i < length ? keyword.charAt(i) : ' ';
+            if (c < 32 || c > 126) {
+                return NOT_PACKED;
+            }
+            packed = (packed << 8) | c;
+        }
+        return packed;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null) {
+            return false;
+        }
+        if (obj == this) {
+            return true;
+        }
+        if (obj.getClass() != getClass()) {
+            return false;
+        }
+        Header rhs = (Header) obj;
+        return Arrays.equals(properties, rhs.properties);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(properties);
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(properties);
+    }
+}
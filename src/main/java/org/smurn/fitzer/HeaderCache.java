@@ -0,0 +1,494 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * On-disk cache of the HDU index and headers of FITS files. <p>For each
+ * FITS file the cache directory holds one cache file, named after a hash of
+ * the absolute path of the FITS file. It contains the {@link HduIndex} and
+ * all headers in a compact binary encoding: keywords packed into a
+ * {@code long} as in {@link Header}, numbers of up to 18 digits as unscaled
+ * value and scale, other values as tagged strings.</p> <p>A cache file is
+ * used if the path, size and modification time of the FITS file and a hash
+ * of its first and last block match the ones recorded. Checking costs two
+ * block reads, loading maps the cache file and decodes it without parsing
+ * any header records. Otherwise the FITS file is scanned and the cache file
+ * is replaced.</p> <p>Errors in the headers are reported only while
+ * scanning, not when loading from the cache. Cache files that cannot be
+ * read are ignored and rebuilt.</p> <p>Instances can be shared between
+ * threads. Concurrent updates of the same cache file are safe, the cache
+ * file is written to a temporary file which is then renamed.</p>
+ */
+public final class HeaderCache {
+
+    /**
+     * First bytes of a cache file, {@code FZHC} followed by the version.
+     */
+    static final long MAGIC = 0x465A484300000001L;
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte COMPACT = 2;
+    private static final byte NUMBER = 3;
+    private static final byte TRUE = 4;
+    private static final byte FALSE = 5;
+    private static final byte COMPLEX = 6;
+    private static final byte COMMENTARY = 7;
+    private final File directory;
+    private final ErrorHandler errorHandler;
+
+    /**
+     * Creates an instance.
+     * @param directory Directory holding the cache files. Created when the
+     * first cache file is written.
+     * @param errorHandler Handler to which errors in the headers are
+     * reported while scanning.
+     * @throws NullPointerException if an argument is {@code null}.
+     */
+    public HeaderCache(File directory, ErrorHandler errorHandler) {
+        if (directory == null) {
+            throw new NullPointerException("directory must not be null.");
+        }
+        if (errorHandler == null) {
+            throw new NullPointerException("errorHandler must not be null.");
+        }
+        this.directory = directory;
+        this.errorHandler = errorHandler;
+    }
+
+    /**
+     * Loads the HDU index and headers of a FITS file, from the cache if it
+     * is up to date, otherwise by scanning the file and updating the cache.
+     * @param file FITS file.
+     * @return HDU index and headers.
+     * @throws NullPointerException if {@code file} is {@code null}.
+     * @throws IOException if reading the FITS file or writing the cache file
+     * fails or see {@link ErrorHandler}.
+     */
+    public CachedHeaders load(File file) throws IOException {
+        if (file == null) {
+            throw new NullPointerException("file must not be null.");
+        }
+        String path = file.getAbsolutePath();
+        File cacheFile = getCacheFile(file);
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            long modified = file.lastModified();
+            long hash = blockHash(channel, size);
+            if (cacheFile.isFile()) {
+                CachedHeaders cached = read(cacheFile, path, size, modified,
+                        hash);
+                if (cached != null) {
+                    return cached;
+                }
+            }
+            HduIndex index = HduIndex.scan(channel, errorHandler);
+            Header[] headers = new Header[index.size()];
+            for (int i = 0; i < headers.length; i++) {
+                long offset = index.getHeaderOffset(i);
+                headers[i] = new HeaderReader(
+                        new PositionalChannel(channel, offset), offset,
+                        errorHandler).readHeader();
+            }
+            write(cacheFile, path, size, modified, hash, index, headers);
+            return new CachedHeaders(index, headers, false);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Gets the cache file of a FITS file.
+     * @param file FITS file.
+     * @return Cache file in the cache directory, which may not exist.
+     * @throws NullPointerException if {@code file} is {@code null}.
+     */
+    public File getCacheFile(File file) {
+        if (file == null) {
+            throw new NullPointerException("file must not be null.");
+        }
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1").digest(
+                    file.getAbsolutePath().getBytes(UTF8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        String name = String.format("%040x", new BigInteger(1, digest));
+        return new File(directory, name + ".fzc");
+    }
+
+    /**
+     * Hashes the first and the last block of a file.
+     * @param channel Channel of the file.
+     * @param size Size of the file.
+     * @return CRC-32 of the blocks.
+     * @throws IOException if reading fails.
+     */
+    static long blockHash(FileChannel channel, long size) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer block = ByteBuffer.allocate(HeaderReader.BLOCK_SIZE);
+        long[] offsets = {0, Math.max(0, size - HeaderReader.BLOCK_SIZE)};
+        for (long offset : offsets) {
+            block.clear();
+            while (block.hasRemaining()) {
+                int n = channel.read(block, offset + block.position());
+                if (n < 0) {
+                    break;
+                }
+            }
+            crc.update(block.array(), 0, block.position());
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Loads a cache file.
+     * @param cacheFile Cache file.
+     * @param path Absolute path of the FITS file.
+     * @param size Size of the FITS file.
+     * @param modified Modification time of the FITS file.
+     * @param hash Hash of the blocks of the FITS file.
+     * @return Cached headers or {@code null} if the cache file is stale or
+     * cannot be read.
+     * @throws IOException if reading fails.
+     */
+    private static CachedHeaders read(File cacheFile, String path, long size,
+            long modified, long hash) throws IOException {
+        RandomAccessFile raf;
+        try {
+            raf = new RandomAccessFile(cacheFile, "r");
+        } catch (IOException e) {
+            return null;
+        }
+        try {
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buffer = channel.map(
+                    FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getLong() != MAGIC || !path.equals(getString(buffer,
+                    UTF8)) || buffer.getLong() != size
+                    || buffer.getLong() != modified
+                    || buffer.getLong() != hash) {
+                return null;
+            }
+            return decode(buffer);
+        } catch (BufferUnderflowException e) {
+            return null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Decodes the index and headers of a cache file.
+     * @param buffer Buffer positioned after the key of the cache file.
+     * @return Cached headers.
+     * @throws BufferUnderflowException if the cache file is truncated.
+     * @throws IllegalArgumentException if the cache file is corrupt.
+     */
+    private static CachedHeaders decode(ByteBuffer buffer) {
+        int count = buffer.getInt();
+        if (count < 0 || count > buffer.remaining()) {
+            throw new IllegalArgumentException("Corrupt cache file.");
+        }
+        long[] headerOffsets = new long[count];
+        long[] dataOffsets = new long[count];
+        long[] dataLengths = new long[count];
+        String[] types = new String[count];
+        String[] names = new String[count];
+        int[] versions = new int[count];
+        boolean[] compressed = new boolean[count];
+        Header[] headers = new Header[count];
+        for (int i = 0; i < count; i++) {
+            headerOffsets[i] = buffer.getLong();
+            dataOffsets[i] = buffer.getLong();
+            dataLengths[i] = buffer.getLong();
+            types[i] = getString(buffer, ASCII);
+            names[i] = getString(buffer, ASCII);
+            versions[i] = buffer.getInt();
+            compressed[i] = buffer.get() != 0;
+            int properties = buffer.getInt();
+            if (properties < 0 || properties > buffer.remaining()) {
+                throw new IllegalArgumentException("Corrupt cache file.");
+            }
+            List<Property> list = new ArrayList<Property>(properties);
+            for (int j = 0; j < properties; j++) {
+                list.add(getProperty(buffer));
+            }
+            headers[i] = new Header(list);
+        }
+        return new CachedHeaders(new HduIndex(headerOffsets, dataOffsets,
+                dataLengths, types, names, versions, compressed), headers,
+                true);
+    }
+
+    /**
+     * Writes a cache file.
+     * @throws IOException if writing fails.
+     */
+    private void write(File cacheFile, String path, long size, long modified,
+            long hash, HduIndex index, Header[] headers) throws IOException {
+        Output out = new Output();
+        out.putLong(MAGIC);
+        out.putString(path, UTF8);
+        out.putLong(size);
+        out.putLong(modified);
+        out.putLong(hash);
+        out.putInt(headers.length);
+        for (int i = 0; i < headers.length; i++) {
+            out.putLong(index.getHeaderOffset(i));
+            out.putLong(index.getDataOffset(i));
+            out.putLong(index.getDataLength(i));
+            out.putString(index.getType(i), ASCII);
+            out.putString(index.getName(i), ASCII);
+            out.putInt(index.getVersion(i));
+            out.put(index.isCompressedImage(i) ? 1 : 0);
+            out.putInt(headers[i].size());
+            for (int j = 0; j < headers[i].size(); j++) {
+                putProperty(out, headers[i].get(j));
+            }
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()
+                && !directory.isDirectory()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        File temp = File.createTempFile("fitzer", ".tmp", directory);
+        try {
+            FileOutputStream stream = new FileOutputStream(temp);
+            try {
+                stream.write(out.bytes, 0, out.length);
+            } finally {
+                stream.close();
+            }
+            if (!temp.renameTo(cacheFile)) {
+                cacheFile.delete();
+                if (!temp.renameTo(cacheFile)) {
+                    throw new IOException("Cannot replace " + cacheFile);
+                }
+            }
+        } finally {
+            temp.delete();
+        }
+    }
+
+    /**
+     * Encodes a property.
+     * @param out Output to write to.
+     * @param property Property to encode.
+     */
+    private static void putProperty(Output out, Property property) {
+        String keyword = property.getKeyword();
+        long packed = Header.packKeyword(keyword);
+        out.putLong(packed);
+        if (packed == Header.NOT_PACKED) {
+            out.putString(keyword, UTF8);
+        }
+        Object value = property.get();
+        if (property.isCommentary()) {
+            out.put(COMMENTARY);
+        } else if (value == null) {
+            out.put(NULL);
+        } else if (value instanceof String) {
+            out.put(STRING);
+            out.putString((String) value, UTF8);
+        } else if (value instanceof Boolean) {
+            out.put((Boolean) value ? TRUE : FALSE);
+        } else if (value instanceof Complex) {
+            out.put(COMPLEX);
+            out.putString(((Complex) value).getReal().toString(), ASCII);
+            out.putString(((Complex) value).getImag().toString(), ASCII);
+        } else {
+            BigDecimal number = (BigDecimal) value;
+            if (number.precision() <= DecimalParser.MAX_COMPACT_DIGITS) {
+                out.put(COMPACT);
+                out.putLong(number.unscaledValue().longValue());
+                out.putInt(number.scale());
+            } else {
+                out.put(NUMBER);
+                out.putString(number.toString(), ASCII);
+            }
+        }
+        out.putString(property.getComment(), UTF8);
+    }
+
+    /**
+     * Decodes a property.
+     * @param buffer Buffer positioned at the property.
+     * @return Decoded property.
+     */
+    private static Property getProperty(ByteBuffer buffer) {
+        long packed = buffer.getLong();
+        String keyword = packed == Header.NOT_PACKED
+                ? getString(buffer, UTF8) : unpack(packed);
+        byte type = buffer.get();
+        switch (type) {
+            case COMMENTARY:
+                return new Property(keyword, null, getString(buffer, UTF8),
+                        true);
+            case NULL:
+                return new Property(keyword, null, getString(buffer, UTF8));
+            case STRING:
+                String string = getString(buffer, UTF8);
+                return new Property(keyword, string, getString(buffer, UTF8));
+            case TRUE:
+            case FALSE:
+                return new Property(keyword, type == TRUE,
+                        getString(buffer, UTF8));
+            case COMPLEX:
+                Complex complex = new Complex(
+                        new BigDecimal(getString(buffer, ASCII)),
+                        new BigDecimal(getString(buffer, ASCII)));
+                return new Property(keyword, complex,
+                        getString(buffer, UTF8));
+            case COMPACT:
+                long unscaled = buffer.getLong();
+                int scale = buffer.getInt();
+                return new Property(keyword, unscaled, scale,
+                        getString(buffer, UTF8));
+            case NUMBER:
+                BigDecimal number = new BigDecimal(getString(buffer, ASCII));
+                return new Property(keyword, number, getString(buffer, UTF8));
+            default:
+                throw new IllegalArgumentException("Corrupt cache file.");
+        }
+    }
+
+    /**
+     * Unpacks a keyword.
+     * @param packed Keyword packed by {@link Header#packKeyword(String)}.
+     * @return Keyword without trailing spaces.
+     */
+    private static String unpack(long packed) {
+        char[] chars = new char[CardParser.KEYWORD_LENGTH];
+        int length = 0;
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) ((packed >>> (56 - 8 * i)) & 0xFF);
+            if (chars[i] != ' ') {
+                length = i + 1;
+            }
+        }
+        return new String(chars, 0, length);
+    }
+
+    /**
+     * Decodes a string.
+     * @param buffer Buffer positioned at the string.
+     * @param charset Encoding of the string.
+     * @return Decoded string, {@code null} if the length is -1.
+     */
+    private static String getString(ByteBuffer buffer, Charset charset) {
+        int length = buffer.getInt();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Corrupt cache file.");
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, charset);
+    }
+
+    /**
+     * Growable big-endian output buffer.
+     */
+    private static final class Output {
+
+        private byte[] bytes = new byte[4096];
+        private int length;
+
+        /**
+         * Ensures that there is space for more bytes.
+         * @param n Number of bytes to be written.
+         */
+        private void reserve(int n) {
+            if (length + n > bytes.length) {
+                byte[] larger = new byte[Math.max(2 * bytes.length,
+                        length + n)];
+                System.arraycopy(bytes, 0, larger, 0, length);
+                bytes = larger;
+            }
+        }
+
+        /**
+         * Writes a byte.
+         * @param value Byte to write.
+         */
+        void put(int value) {
+            reserve(1);
+            bytes[length++] = (byte) value;
+        }
+
+        /**
+         * Writes an {@code int}.
+         * @param value Value to write.
+         */
+        void putInt(int value) {
+            reserve(4);
+            ByteBuffer.wrap(bytes, length, 4).putInt(value);
+            length += 4;
+        }
+
+        /**
+         * Writes a {@code long}.
+         * @param value Value to write.
+         */
+        void putLong(long value) {
+            reserve(8);
+            ByteBuffer.wrap(bytes, length, 8).putLong(value);
+            length += 8;
+        }
+
+        /**
+         * Writes a string with its length.
+         * @param value String to write or {@code null}.
+         * @param charset Encoding of the string.
+         */
+        void putString(String value, Charset charset) {
+            if (value == null) {
+                putInt(-1);
+                return;
+            }
+            byte[] encoded = value.getBytes(charset);
+            putInt(encoded.length);
+            reserve(encoded.length);
+            System.arraycopy(encoded, 0, bytes, length, encoded.length);
+            length += encoded.length;
+        }
+    }
+}
@@ -0,0 +1,348 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Changes the header of an HDU in place. <p>The header is read when the
+ * editor is created, changes are collected in memory and written by
+ * {@link #commit()}. Only the header records that changed are encoded, all
+ * other records keep their original bytes. The new header is laid out into
+ * the existing blocks, using up blank records in front of {@code END}, and
+ * only the blocks whose bytes differ are written with positional writes. The
+ * data unit is not touched.</p> <p>If the header no longer fits into its
+ * blocks, the rest of the file is moved towards the end by the number of
+ * additional blocks, copying backwards from the end of the file, and then the
+ * whole header is written. This happens in place and is not crash-safe: if
+ * the process or the system fails while the file is moved, the file is left
+ * corrupted. Callers that need to survive a crash have to make a copy first,
+ * or keep the header within its blocks. If the header shrinks, it keeps its
+ * blocks and the space is filled with blank records, so the data unit stays
+ * where it is.</p> <p>Instances are not thread-safe and the file must not
+ * be changed by others while an editor is in use.</p>
+ */
+public final class HeaderEditor {
+
+    private static final int COPY_BLOCKS = 256;
+    private static final byte[] BLANK_CARD = new byte[CardParser.CARD_SIZE];
+    private final FileChannel channel;
+    private final long offset;
+    private final CardEncoder encoder;
+    private final List<Entry> entries;
+    private byte[] blocks;
+
+    static {
+        Arrays.fill(BLANK_CARD, (byte) ' ');
+    }
+
+    /**
+     * Creates an instance and reads the header.
+     * @param channel Channel of the FITS file, opened for reading and
+     * writing.
+     * @param offset Position of the header within the file.
+     * @param errorHandler Handler to which errors are reported.
+     * @throws NullPointerException if {@code channel} or
+     * {@code errorHandler} is {@code null}.
+     * @throws IllegalArgumentException if {@code offset} is negative or not
+     * a multiple of 2880.
+     * @throws IOException if reading fails or see {@link ErrorHandler}.
+     */
+    public HeaderEditor(FileChannel channel, long offset,
+            ErrorHandler errorHandler) throws IOException {
+        if (channel == null) {
+            throw new NullPointerException("channel must not be null.");
+        }
+        if (errorHandler == null) {
+            throw new NullPointerException("errorHandler must not be null.");
+        }
+        if (offset < 0 || offset % HeaderReader.BLOCK_SIZE != 0) {
+            throw new IllegalArgumentException(
+                    "offset must be a non-negative multiple of 2880.");
+        }
+        this.channel = channel;
+        this.offset = offset;
+        this.encoder = new CardEncoder(errorHandler);
+        this.entries = new ArrayList<Entry>();
+
+        HeaderReader reader = new HeaderReader(
+                new PositionalChannel(channel, offset), offset, errorHandler);
+        Header header = reader.readHeader();
+        blocks = new byte[(int) (reader.getOffset() - offset)];
+        read(ByteBuffer.wrap(blocks), offset);
+        for (int i = 0; i < header.size(); i++) {
+            byte[] card = Arrays.copyOfRange(blocks, i * CardParser.CARD_SIZE,
+                    (i + 1) * CardParser.CARD_SIZE);
+            entries.add(new Entry(header.get(i), card));
+        }
+        while (!entries.isEmpty()
+                && Arrays.equals(entries.get(entries.size() - 1).card,
+                BLANK_CARD)) {
+            entries.remove(entries.size() - 1);
+        }
+    }
+
+    /**
+     * Gets the header including the changes not yet committed.
+     * @return Header without the blank records in front of {@code END}.
+     */
+    public Header getHeader() {
+        List<Property> properties = new ArrayList<Property>(entries.size());
+        for (Entry entry : entries) {
+            properties.add(entry.property);
+        }
+        return new Header(properties);
+    }
+
+    /**
+     * Sets a property. <p>Replaces the first property with the same keyword
+     * that is not commentary. If there is none, the property is added at the
+     * end of the header.</p>
+     * @param property Property to set.
+     * @throws NullPointerException if {@code property} is {@code null}.
+     */
+    public void set(Property property) {
+        if (property == null) {
+            throw new NullPointerException("property must not be null.");
+        }
+        int index = find(property.getKeyword());
+        if (index < 0) {
+            entries.add(new Entry(property, null));
+        } else if (!entries.get(index).property.equals(property)) {
+            entries.set(index, new Entry(property, null));
+        }
+    }
+
+    /**
+     * Adds a property at the end of the header, for example a
+     * {@code HISTORY} record.
+     * @param property Property to add.
+     * @throws NullPointerException if {@code property} is {@code null}.
+     */
+    public void add(Property property) {
+        if (property == null) {
+            throw new NullPointerException("property must not be null.");
+        }
+        entries.add(new Entry(property, null));
+    }
+
+    /**
+     * Removes the first property with a given keyword that is not
+     * commentary.
+     * @param keyword Keyword of the property.
+     * @return {@code true} if there was such a property.
+     * @throws NullPointerException if {@code keyword} is {@code null}.
+     */
+    public boolean remove(String keyword) {
+        if (keyword == null) {
+            throw new NullPointerException("keyword must not be null.");
+        }
+        int index = find(keyword);
+        if (index < 0) {
+            return false;
+        }
+        entries.remove(index);
+        return true;
+    }
+
+    /**
+     * Gets the number of blocks the header occupies in the file.
+     * @return Number of 2880 byte blocks.
+     */
+    public int getBlockCount() {
+        return blocks.length / HeaderReader.BLOCK_SIZE;
+    }
+
+    /**
+     * Writes the changes to the file. <p>If the header needs additional
+     * blocks, the rest of the file is moved first, which is not crash-safe:
+     * the file is corrupted if this is interrupted. Otherwise each changed
+     * block is written with a single write.</p> <p>If the file is also read
+     * through a {@link BlockCache}, its pages have to be dropped with
+     * {@link BlockCache#invalidate(long)} afterwards.</p>
+     * @return Number of bytes written, including the bytes of the data
+     * units that were moved.
+     * @throws IOException if reading or writing fails or see
+     * {@link ErrorHandler}.
+     */
+    public long commit() throws IOException {
+        byte[] updated = layout();
+        int blockCount = updated.length / HeaderReader.BLOCK_SIZE;
+        long written = 0;
+        if (updated.length > blocks.length) {
+            written += move(offset + blocks.length,
+                    updated.length - blocks.length);
+            written += write(ByteBuffer.wrap(updated), offset);
+        } else {
+            for (int b = 0; b < blockCount; b++) {
+                int start = b * HeaderReader.BLOCK_SIZE;
+                int stop = start + HeaderReader.BLOCK_SIZE;
+                if (!Arrays.equals(Arrays.copyOfRange(blocks, start, stop),
+                        Arrays.copyOfRange(updated, start, stop))) {
+                    written += write(ByteBuffer.wrap(updated, start,
+                            HeaderReader.BLOCK_SIZE), offset + start);
+                }
+            }
+        }
+        blocks = updated;
+        return written;
+    }
+
+    /**
+     * Computes the checksum of the header as {@link #commit()} would write
+     * it.
+     * @return Checksum of the header blocks.
+     * @throws IOException see {@link ErrorHandler}.
+     */
+    long getChecksum() throws IOException {
+        Checksum checksum = new Checksum();
+        checksum.update(ByteBuffer.wrap(layout()));
+        return checksum.getValue();
+    }
+
+    /**
+     * Lays out the header into blocks. <p>Records that changed are encoded,
+     * the others keep their bytes.</p>
+     * @return Header blocks, at least as many as the header has now.
+     * @throws IOException see {@link ErrorHandler}.
+     */
+    private byte[] layout() throws IOException {
+        int cards = entries.size() + 1;
+        int blockCount = Math.max(getBlockCount(),
+                (cards + HeaderReader.CARDS_PER_BLOCK - 1)
+                / HeaderReader.CARDS_PER_BLOCK);
+        byte[] updated = new byte[blockCount * HeaderReader.BLOCK_SIZE];
+        ByteBuffer target = ByteBuffer.wrap(updated);
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            if (entry.card == null) {
+                encoder.encode(entry.property, target);
+                entry.card = Arrays.copyOfRange(updated,
+                        target.position() - CardParser.CARD_SIZE,
+                        target.position());
+            } else {
+                target.put(entry.card);
+            }
+        }
+        int end = Math.max(entries.size(), (blockCount - 1)
+                * HeaderReader.CARDS_PER_BLOCK);
+        while (target.position() < end * CardParser.CARD_SIZE) {
+            target.put(BLANK_CARD);
+        }
+        target.put(CardEncoder.END);
+        while (target.hasRemaining()) {
+            target.put((byte) ' ');
+        }
+        return updated;
+    }
+
+    /**
+     * Finds the first property with a keyword that is not commentary.
+     * @param keyword Keyword to look for.
+     * @return Index of the entry or -1 if there is none.
+     */
+    private int find(String keyword) {
+        for (int i = 0; i < entries.size(); i++) {
+            Property property = entries.get(i).property;
+            if (!property.isCommentary()
+                    && keyword.equals(property.getKeyword())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Moves the rest of the file towards its end.
+     * @param start Position of the first byte to move.
+     * @param distance Number of bytes to move by.
+     * @return Number of bytes written.
+     * @throws IOException if reading or writing fails.
+     */
+    private long move(long start, long distance) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(
+                COPY_BLOCKS * HeaderReader.BLOCK_SIZE);
+        long written = 0;
+        long position = channel.size();
+        while (position > start) {
+            int length = (int) Math.min(buffer.capacity(), position - start);
+            position -= length;
+            buffer.clear();
+            buffer.limit(length);
+            read(buffer, position);
+            buffer.flip();
+            written += write(buffer, position + distance);
+        }
+        return written;
+    }
+
+    /**
+     * Fills a buffer with a positional read.
+     * @param buffer Buffer to fill from position to limit.
+     * @param position Position in the file.
+     * @throws IOException if reading fails.
+     */
+    private void read(ByteBuffer buffer, long position) throws IOException {
+        long start = position - buffer.position();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, start + buffer.position()) < 0) {
+                throw new EOFException("File ends at byte "
+                        + (start + buffer.position()) + ".");
+            }
+        }
+    }
+
+    /**
+     * Writes a buffer with positional writes.
+     * @param buffer Bytes from position to limit.
+     * @param position Position in the file.
+     * @return Number of bytes written.
+     * @throws IOException if writing fails.
+     */
+    private long write(ByteBuffer buffer, long position) throws IOException {
+        int length = buffer.remaining();
+        long start = position - buffer.position();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, start + buffer.position());
+        }
+        return length;
+    }
+
+    /**
+     * Property of the header together with its encoded header record.
+     */
+    private static final class Entry {
+
+        private final Property property;
+        private byte[] card;
+
+        /**
+         * Creates an instance.
+         * @param property Property.
+         * @param card Header record or {@code null} if not yet encoded.
+         */
+        Entry(Property property, byte[] card) {
+            this.property = property;
+            this.card = card;
+        }
+    }
+}
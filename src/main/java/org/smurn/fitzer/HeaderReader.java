@@ -0,0 +1,263 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the properties of a FITS header from a channel. <p>The header is read
+ * block by block. Each block of 2880 bytes is split into 36 header records of
+ * 80 bytes from which the properties are parsed one by one. Reading stops
+ * after the block containing the {@code END} keyword, so the channel is
+ * positioned at the first byte after the header once {@link #readProperty()}
+ * returned {@code null}.</p> <p>A reader uses a single block buffer for its
+ * whole lifetime, the memory consumption does not depend on the size of the
+ * header. Instances are not thread-safe.</p> <p>A lazy reader only parses the
+ * keywords while reading. The value and comment of a property are decoded
+ * when they are accessed for the first time, see {@link Property}. This saves
+ * the decoding of properties that are never looked at, which are the majority
+ * in many headers.</p> <p>The checksum of the blocks is accumulated while
+ * reading, so the {@code CHECKSUM} keyword can be verified without reading
+ * the header a second time, see {@link #getChecksum()}.</p>
+ */
+public final class HeaderReader {
+
+    /**
+     * Size of a FITS block in bytes.
+     */
+    static final int BLOCK_SIZE = 2880;
+    /**
+     * Number of header records in a block.
+     */
+    static final int CARDS_PER_BLOCK = BLOCK_SIZE / CardParser.CARD_SIZE;
+    private final ReadableByteChannel channel;
+    private final ErrorHandler errorHandler;
+    private final HeaderValueConverterRegistry converters;
+    private final CardParser parser;
+    private final boolean lazy;
+    private final ByteBuffer block;
+    private final Checksum checksum;
+    private long blockOffset;
+    private int nextCard;
+    private boolean end;
+
+    /**
+     * Creates an instance that reads a header starting at the beginning of a
+     * FITS file.
+     * @param channel Channel to read from.
+     * @param errorHandler Handler to which errors in the header are reported.
+     * @throws NullPointerException if {@code channel} or {@code errorHandler}
+     * is {@code null}.
+     */
+    public HeaderReader(ReadableByteChannel channel,
+            ErrorHandler errorHandler) {
+        this(channel, 0, errorHandler);
+    }
+
+    /**
+     * Creates an instance.
+     * @param channel Channel to read from.
+     * @param offset Position of the channel within the FITS file. Used for
+     * error reporting.
+     * @param errorHandler Handler to which errors in the header are reported.
+     * @throws NullPointerException if {@code channel} or {@code errorHandler}
+     * is {@code null}.
+     * @throws IllegalArgumentException if {@code offset} is negative.
+     */
+    public HeaderReader(ReadableByteChannel channel, long offset,
+            ErrorHandler errorHandler) {
+        this(channel, offset, errorHandler, false);
+    }
+
+    /**
+     * Creates an instance that optionally defers the decoding of the values.
+     * @param channel Channel to read from.
+     * @param offset Position of the channel within the FITS file. Used for
+     * error reporting.
+     * @param errorHandler Handler to which errors in the header are reported.
+     * Errors in deferred values are reported when the value is accessed.
+     * @param lazy If {@code true}, values and comments are decoded on first
+     * access instead of while reading.
+     * @throws NullPointerException if {@code channel} or {@code errorHandler}
+     * is {@code null}.
+     * @throws IllegalArgumentException if {@code offset} is negative.
+     */
+    public HeaderReader(ReadableByteChannel channel, long offset,
+            ErrorHandler errorHandler, boolean lazy) {
+        this(channel, offset, HeaderValueConverterRegistry.createDefault(),
+                errorHandler, lazy);
+    }
+
+    /**
+     * Creates an instance using a given set of converters.
+     * @param channel Channel to read from.
+     * @param offset Position of the channel within the FITS file. Used for
+     * error reporting.
+     * @param converters Converters used to decode the values.
+     * @param errorHandler Handler to which errors in the header are reported.
+     * @param lazy If {@code true}, values and comments are decoded on first
+     * access instead of while reading.
+     * @throws NullPointerException if {@code channel}, {@code converters} or
+     * {@code errorHandler} is {@code null}.
+     * @throws IllegalArgumentException if {@code offset} is negative.
+     */
+    HeaderReader(ReadableByteChannel channel, long offset,
+            HeaderValueConverterRegistry converters,
+            ErrorHandler errorHandler, boolean lazy) {
+        if (channel == null) {
+            throw new NullPointerException("channel must not be null.");
+        }
+        if (converters == null) {
+            throw new NullPointerException("converters must not be null.");
+        }
+        if (errorHandler == null) {
+            throw new NullPointerException("errorHandler must not be null.");
+        }
+        if (offset < 0) {
+            throw new IllegalArgumentException("offset must not be negative.");
+        }
+        this.channel = channel;
+        this.errorHandler = errorHandler;
+        this.converters = converters;
+        this.parser = new CardParser(converters, errorHandler);
+        this.lazy = lazy;
+        this.block = ByteBuffer.allocateDirect(BLOCK_SIZE);
+        this.checksum = new Checksum();
+        this.blockOffset = offset - BLOCK_SIZE;
+        this.nextCard = CARDS_PER_BLOCK;
+        this.end = false;
+    }
+
+    /**
+     * Reads the next property of the header.
+     * @return The next property or {@code null} if the {@code END} keyword
+     * was reached.
+     * @throws IOException if reading from the channel fails or see
+     * {@link ErrorHandler}.
+     */
+    public Property readProperty() throws IOException {
+        while (!end) {
+            if (nextCard == CARDS_PER_BLOCK) {
+                readBlock();
+            }
+            int card = nextCard * CardParser.CARD_SIZE;
+            nextCard++;
+
+            String keyword = parser.readKeyword(block, card,
+                    blockOffset + card);
+            if ("END".equals(keyword)) {
+                end = true;
+            } else {
+                return readCard(keyword, card);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads all remaining properties of the header.
+     * @return Header containing the properties up to the {@code END}
+     * keyword.
+     * @throws IOException if reading from the channel fails or see
+     * {@link ErrorHandler}.
+     */
+    public Header readHeader() throws IOException {
+        List<Property> properties = new ArrayList<Property>();
+        Property property;
+        while ((property = readProperty()) != null) {
+            properties.add(property);
+        }
+        return new Header(properties);
+    }
+
+    /**
+     * Gets the position in the FITS file of the next byte this reader will
+     * read from the channel.
+     * @return Position in the file. After the {@code END} keyword was reached
+     * this is the position of the first byte after the header.
+     */
+    public long getOffset() {
+        return blockOffset + BLOCK_SIZE;
+    }
+
+    /**
+     * Gets the checksum of the blocks read so far.
+     * @return Ones' complement sum of the blocks. After the {@code END}
+     * keyword was reached this is the checksum of the whole header.
+     */
+    public long getChecksum() {
+        return checksum.getValue();
+    }
+
+    /**
+     * Reads the next block from the channel into the block buffer.
+     * @throws IOException if reading fails or see {@link ErrorHandler}.
+     */
+    private void readBlock() throws IOException {
+        blockOffset += BLOCK_SIZE;
+        block.clear();
+        while (block.hasRemaining()) {
+            if (channel.read(block) < 0) {
+                break;
+            }
+        }
+        if (block.position() == 0) {
+            FitsFormatException ex = new FitsFormatException(
+                    blockOffset, "HeaderReader_MissingEnd");
+            errorHandler.fatal(ex);
+            throw ex;
+        }
+        if (block.hasRemaining()) {
+            FitsFormatException ex = new FitsFormatException(
+                    blockOffset + block.position(),
+                    "HeaderReader_TruncatedBlock", block.position());
+            errorHandler.fatal(ex);
+            throw ex;
+        }
+        block.flip();
+        checksum.update(block);
+        nextCard = 0;
+    }
+
+    /**
+     * Parses the value and comment of a header record.
+     * @param keyword Keyword of the header record.
+     * @param card Index of the header record within the block buffer.
+     * @return Property of the header record.
+     * @throws IOException see {@link ErrorHandler}.
+     */
+    private Property readCard(String keyword, int card) throws IOException {
+        if (!CardParser.hasValue(keyword, block, card)) {
+            return parser.parseCommentary(keyword, block, card,
+                    blockOffset + card);
+        }
+        int valueStart = card + CardParser.VALUE_START;
+        long valueOffset = blockOffset + valueStart;
+        if (lazy) {
+            byte[] raw = new byte[HeaderValueConverter.VALUE_LENGTH];
+            for (int i = 0; i < raw.length; i++) {
+                raw[i] = block.get(valueStart + i);
+            }
+            return Property.deferred(keyword, new DeferredValue(raw,
+                    valueOffset, converters, errorHandler));
+        }
+        return parser.parseValue(keyword, block, valueStart, valueOffset);
+    }
+}
@@ -17,6 +17,7 @@ package org.smurn.fitzer;
 
 import java.io.IOException;
 import java.math.BigDecimal;
+import java.nio.ByteBuffer;
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.apache.commons.lang3.builder.ToStringBuilder;
@@ -27,25 +28,33 @@ import org.apache.commons.lang3.builder.ToStringBuilder;
  */
 interface HeaderValueConverter {
 
+    /**
+     * Length of the value field of a header record in bytes.
+     */
+    static final int VALUE_LENGTH = 70;
+
     /**
      * Represents the results from the parsing operation. <p>See
-     * {@link HeaderValueConverter#decode(byte[], org.smurn.fitzer.ErrorHandler)}
-     * .</p>
+     * {@link HeaderValueConverter#decode(byte[], long, ErrorHandler)}.</p>
      */
     public static final class ParsingResult {
 
         final boolean fixedFormat;
         final int bytesConsumed;
         final Object value;
+        final boolean compact;
+        final long unscaledValue;
+        final int scale;
 
         /**
          * Creates an instance.
          * @param fixedFormat if the value is in fixed format.
-         * @param bytesConsumed Number of bytes from the beginning of the array
-         * given to the parsing operation that contain the value.
+         * @param bytesConsumed Number of bytes from the beginning of the value
+         * field given to the parsing operation that contain the value.
          * @param value Value that was parsed.
          * @throws IllegalArgumentException if {@code value} is not an instance
-         * of {@code String}, {@code BigDecimal}, {@link Complex} or the value {@code null}.
+         * of {@code String}, {@code BigDecimal}, {@code Boolean},
+         * {@link Complex} or the value {@code null}.
          * Also thrown if {@code bytesConsumed} is negative.
          */
         public ParsingResult(boolean fixedFormat, int bytesConsumed,
@@ -57,19 +66,51 @@ interface HeaderValueConverter {
             }
             if (value != null && !(value instanceof String
                     || value instanceof BigDecimal
+                    || value instanceof Boolean
                     || value instanceof Complex)) {
                 throw new IllegalArgumentException("Value as an invalid type.");
             }
             this.fixedFormat = fixedFormat;
             this.bytesConsumed = bytesConsumed;
             this.value = value;
+            this.compact = false;
+            this.unscaledValue = 0;
+            this.scale = 0;
+        }
+
+        /**
+         * Creates an instance for a numeric value in compact representation.
+         * <p>The value is {@code unscaledValue * 10^-scale}, like for
+         * {@code BigDecimal.valueOf(long, int)}. The {@code BigDecimal} is
+         * only created if {@link #getValue()} is called.</p>
+         * @param fixedFormat if the value is in fixed format.
+         * @param bytesConsumed Number of bytes from the beginning of the value
+         * field given to the parsing operation that contain the value.
+         * @param unscaledValue Unscaled value of the number.
+         * @param scale Scale of the number.
+         * @throws IllegalArgumentException if {@code bytesConsumed} is
+         * negative.
+         */
+        public ParsingResult(boolean fixedFormat, int bytesConsumed,
+                long unscaledValue, int scale) {
+
+            if (bytesConsumed < 0) {
+                throw new IllegalArgumentException(
+                        "bytesConsumed must not be negative.");
+            }
+            this.fixedFormat = fixedFormat;
+            this.bytesConsumed = bytesConsumed;
+            this.value = null;
+            this.compact = true;
+            this.unscaledValue = unscaledValue;
+            this.scale = scale;
         }
 
         /**
          * Gets the number of bytes that contained the encoded value. <p>The
-         * bytes are counted from the beginning of the 70-byte array passed to
-         * the parser.</p>
-         * @return Number of bytes from the beginning of the array.
+         * bytes are counted from the beginning of the 70-byte value field
+         * passed to the parser.</p>
+         * @return Number of bytes from the beginning of the value field.
          */
         public int getBytesConsumed() {
             return bytesConsumed;
@@ -88,13 +129,41 @@ interface HeaderValueConverter {
 
         /**
          * Parsed value.
-         * @return Instance of {@code String}, {@code BigDecimal}
-         * ,{@link Complex}, or the value {@code null}.
+         * @return Instance of {@code String}, {@code BigDecimal},
+         * {@code Boolean}, {@link Complex}, or the value {@code null}.
          */
         public Object getValue() {
+            if (compact) {
+                return BigDecimal.valueOf(unscaledValue, scale);
+            }
             return value;
         }
 
+        /**
+         * Gets if the value is a number in compact representation.
+         * @return {@code true} if the value is given by
+         * {@link #getUnscaledValue()} and {@link #getScale()}.
+         */
+        public boolean isCompact() {
+            return compact;
+        }
+
+        /**
+         * Gets the unscaled value of a number in compact representation.
+         * @return Unscaled value, only meaningful if {@link #isCompact()}.
+         */
+        public long getUnscaledValue() {
+            return unscaledValue;
+        }
+
+        /**
+         * Gets the scale of a number in compact representation.
+         * @return Scale, only meaningful if {@link #isCompact()}.
+         */
+        public int getScale() {
+            return scale;
+        }
+
         @Override
         public boolean equals(Object obj) {
             if (obj == null) {
@@ -109,7 +178,7 @@ interface HeaderValueConverter {
             ParsingResult rhs = (ParsingResult) obj;
             return new EqualsBuilder().append(fixedFormat, rhs.fixedFormat).
                     append(bytesConsumed, rhs.bytesConsumed).
-                    append(value, rhs.value).
+                    append(getValue(), rhs.getValue()).
                     isEquals();
         }
 
@@ -117,13 +186,13 @@ interface HeaderValueConverter {
         public int hashCode() {
             return new HashCodeBuilder().append(fixedFormat).
                     append(bytesConsumed).
-                    append(value).
+                    append(getValue()).
                     toHashCode();
         }
 
         @Override
         public String toString() {
-            return new ToStringBuilder(this).append(value).
+            return new ToStringBuilder(this).append(getValue()).
                     append(bytesConsumed).
                     append(fixedFormat).build();
         }
@@ -143,7 +212,7 @@ interface HeaderValueConverter {
      * ensure that the value is properly formatted. It returns {@code true} if
      * the bytes can be recognized as an encoding of this converter's type even
      * if the encoding is invalid. Precise checking and error reporting is done
-     * by {@link #decode(byte[], org.smurn.fitzer.ErrorHandler)}.
+     * by {@link #decode(byte[], long, ErrorHandler)}.
      * @param bytes Part of the header record containing the value. Must be of
      * length 70.
      * @return {@code true} if the bytes contain a value of the type this
@@ -153,6 +222,25 @@ interface HeaderValueConverter {
      */
     boolean compatibleEncodingCheck(byte[] bytes);
 
+    /**
+     * Checks if a given FITS representation of a value is of the type supported
+     * by this converter. <p>Same as {@link #compatibleEncodingCheck(byte[])}
+     * but reads the 70 bytes of the value field directly from a buffer. Only
+     * absolute get operations are used, the position and limit of the buffer
+     * are not modified.</p>
+     * @param buffer Buffer containing the header record. May be a heap, direct
+     * or memory mapped buffer.
+     * @param position Index of the first byte of the value field within the
+     * buffer.
+     * @return {@code true} if the bytes contain a value of the type this
+     * converter works with, {@code false} otherwise.
+     * @throws NullPointerException if {@code buffer} is {@code null}.
+     * @throws IllegalArgumentException if {@code position} is negative or if
+     * there are less than 70 bytes between {@code position} and the limit of
+     * the buffer.
+     */
+    boolean compatibleEncodingCheck(ByteBuffer buffer, int position);
+
     /**
      * Parses the value in the FITS binary format into a java type. <p>The given
      * FITS representation might contain additional data such as comments. The
@@ -172,6 +260,30 @@ interface HeaderValueConverter {
     ParsingResult decode(byte[] bytes, long offset, ErrorHandler errorHandler)
             throws IOException;
 
+    /**
+     * Parses the value in the FITS binary format into a java type. <p>Same as
+     * {@link #decode(byte[], long, ErrorHandler)} but reads the 70 bytes of
+     * the value field directly from a buffer without copying them. Only
+     * absolute get operations are used, the position and limit of the buffer
+     * are not modified.</p>
+     * @param buffer Buffer containing the header record. May be a heap, direct
+     * or memory mapped buffer.
+     * @param position Index of the first byte of the value field within the
+     * buffer.
+     * @param offset Offset to the first byte of the value field. Used for
+     * error reporting.
+     * @param errorHandler Parsing errors are reported to this handler.
+     * @return Results from the parsing process.
+     * @throws NullPointerException if either {@code buffer} or
+     * {@code errorHandler} is {@code null}.
+     * @throws IllegalArgumentException if {@code position} is negative or if
+     * there are less than 70 bytes between {@code position} and the limit of
+     * the buffer.
+     * @throws IOException see {@link ErrorHandler}.
+     */
+    ParsingResult decode(ByteBuffer buffer, int position, long offset,
+            ErrorHandler errorHandler) throws IOException;
+
     /**
      * Encodes the value given as a java object into the FITS format.
      * @param value Value to encode.
@@ -187,4 +299,30 @@ interface HeaderValueConverter {
      */
     byte[] encode(Object value, boolean fixedFormat, ErrorHandler errorHandler)
             throws IOException;
+
+    /**
+     * Encodes the value given as a java object into the FITS format. <p>Same
+     * as {@link #encode(Object, boolean, ErrorHandler)} but writes the encoded
+     * value into a buffer at its current position, without padding it to 70
+     * bytes. The position is advanced by the number of bytes written. Nothing
+     * is written if an exception is thrown.</p>
+     * @param value Value to encode.
+     * @param fixedFormat if {@code true} the encoding uses the fixed format,
+     * otherwise the encoding should be such that the resulting array is as
+     * small (no unnecessary padding).
+     * @param target Buffer to write the encoded value to.
+     * @param errorHandler Encoding errors are reported to this handler.
+     * @return Number of bytes written. No more than 70.
+     * @throws NullPointerException if {@code target} or {@code errorHandler}
+     * is {@code null}.
+     * @throws IllegalArgumentException if {@code value} does not compatible
+     * (see {@link #compatibleTypeCheck()}) or if {@code fixedFormat} is
+     * {@code true} but the converter does not support the fixed format.
+     * @throws java.nio.BufferOverflowException if the encoded value does not
+     * fit into the remaining bytes of {@code target}.
+     * @throws java.nio.ReadOnlyBufferException if {@code target} is read-only.
+     * @throws IOException see {@link ErrorHandler}.
+     */
+    int encode(Object value, boolean fixedFormat, ByteBuffer target,
+            ErrorHandler errorHandler) throws IOException;
 }
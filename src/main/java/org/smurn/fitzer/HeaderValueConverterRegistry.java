@@ -0,0 +1,134 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Selects the {@link HeaderValueConverter} for a value field. <p>The type of a
+ * value can be recognized by the first non-space byte of the value field. The
+ * registry holds a table indexed by this byte, so finding the converter takes
+ * a single scan over the leading spaces and one table lookup, regardless of
+ * the number of registered converters.</p> <p>Registration is not
+ * thread-safe. Once all converters are registered, lookups may be done
+ * concurrently.</p>
+ */
+final class HeaderValueConverterRegistry {
+
+    private final HeaderValueConverter[] byLeadByte;
+    private HeaderValueConverter emptyConverter;
+
+    /**
+     * Creates an empty registry.
+     */
+    HeaderValueConverterRegistry() {
+        this.byLeadByte = new HeaderValueConverter[128];
+        this.emptyConverter = null;
+    }
+
+    /**
+     * Creates a registry with the converters of this library. <p>Strings start
+     * with {@code '}, numbers with a digit, a sign or a decimal point and
+     * logical values are {@code T} or {@code F}. Value
+     * fields that are empty or start with the comment separator {@code /} are
+     * {@code null} values.</p>
+     * @return New registry.
+     */
+    static HeaderValueConverterRegistry createDefault() {
+        HeaderValueConverterRegistry registry =
+                new HeaderValueConverterRegistry();
+        HeaderValueConverter nullConverter = new NullHeaderValueConverter();
+        HeaderValueConverter numericConverter =
+                new NumericHeaderValueConverter();
+        registry.registerEmpty(nullConverter);
+        registry.register((byte) '/', nullConverter);
+        registry.register((byte) '\'', new StringHeaderValueConverter());
+        for (byte c = '0'; c <= '9'; c++) {
+            registry.register(c, numericConverter);
+        }
+        registry.register((byte) '+', numericConverter);
+        registry.register((byte) '-', numericConverter);
+        registry.register((byte) '.', numericConverter);
+        HeaderValueConverter logicalConverter =
+                new LogicalHeaderValueConverter();
+        registry.register((byte) 'T', logicalConverter);
+        registry.register((byte) 'F', logicalConverter);
+        return registry;
+    }
+
+    /**
+     * Registers a converter for values starting with a given byte. <p>Replaces
+     * the converter previously registered for this byte, if any.</p>
+     * @param leadByte First non-space byte of the values handled by the
+     * converter.
+     * @param converter Converter to register.
+     * @throws NullPointerException if {@code converter} is {@code null}.
+     * @throws IllegalArgumentException if {@code leadByte} is not a printable
+     * ASCII character other than space.
+     */
+    void register(byte leadByte, HeaderValueConverter converter) {
+        if (converter == null) {
+            throw new NullPointerException("converter must not be null.");
+        }
+        if (leadByte <= ' ' || leadByte > '~') {
+            throw new IllegalArgumentException(
+                    "leadByte must be a printable ASCII character.");
+        }
+        byLeadByte[leadByte] = converter;
+    }
+
+    /**
+     * Registers the converter for value fields that contain only spaces.
+     * @param converter Converter to register.
+     * @throws NullPointerException if {@code converter} is {@code null}.
+     */
+    void registerEmpty(HeaderValueConverter converter) {
+        if (converter == null) {
+            throw new NullPointerException("converter must not be null.");
+        }
+        emptyConverter = converter;
+    }
+
+    /**
+     * Finds the converter for a value field.
+     * @param buffer Buffer containing the value field. Only absolute get
+     * operations are used.
+     * @param position Index of the first byte of the value field.
+     * @return Converter registered for the first non-space byte or
+     * {@code null} if there is none.
+     * @throws NullPointerException if {@code buffer} is {@code null}.
+     * @throws IllegalArgumentException if {@code position} is negative or if
+     * there are less than 70 bytes between {@code position} and the limit of
+     * the buffer.
+     */
+    HeaderValueConverter lookup(ByteBuffer buffer, int position) {
+        if (buffer == null) {
+            throw new NullPointerException("buffer must not be null.");
+        }
+        int end = position + HeaderValueConverter.VALUE_LENGTH;
+        if (position < 0 || end > buffer.limit()) {
+            throw new IllegalArgumentException(
+                    "buffer must contain 70 bytes at position.");
+        }
+        for (int i = position; i < end; i++) {
+            byte c = buffer.get(i);
+            if (c != ' ') {
+                return c > 0 ? byLeadByte[c] : null;
+            }
+        }
+        return emptyConverter;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Header value converter for logical values. <p>Logical values are encoded
+ * as {@code T} or {@code F} and represented as {@code Boolean}. In fixed
+ * format the character is in column 30 of the header record, which is the
+ * twentieth byte of the value field.</p>
+ */
+final class LogicalHeaderValueConverter implements HeaderValueConverter {
+
+    /**
+     * Number of bytes of a value in fixed format.
+     */
+    static final int FIXED_LENGTH = 20;
+
+    @Override
+    public boolean compatibleTypeCheck(Object value) {
+        return value instanceof Boolean;
+    }
+
+    @Override
+    public boolean compatibleEncodingCheck(byte[] bytes) {
+        if (bytes == null) {
+            throw new NullPointerException("bytes must not be null.");
+        }
+        if (bytes.length != VALUE_LENGTH) {
+            throw new IllegalArgumentException("bytes must be of length 70.");
+        }
+        return compatibleEncodingCheck(ByteBuffer.wrap(bytes), 0);
+    }
+
+    @Override
+    public boolean compatibleEncodingCheck(ByteBuffer buffer, int position) {
+        if (buffer == null) {
+            throw new NullPointerException("buffer must not be null.");
+        }
+        if (position < 0 || position > buffer.limit() - VALUE_LENGTH) {
+            throw new IllegalArgumentException(
+                    "buffer must contain 70 bytes at position.");
+        }
+
+        int end = position + VALUE_LENGTH;
+        for (int i = position; i < end; i++) {
+            byte c = buffer.get(i);
+            if (c != ' ') {
+                return c == 'T' || c == 'F';
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public ParsingResult decode(byte[] bytes, long offset,
+            ErrorHandler errorHandler) throws IOException {
+
+        if (bytes == null) {
+            throw new NullPointerException("bytes must not be null.");
+        }
+        if (errorHandler == null) {
+            throw new NullPointerException("errorHandler must not be null.");
+        }
+        if (bytes.length != VALUE_LENGTH) {
+            throw new IllegalArgumentException("bytes must be of length 70.");
+        }
+        return decode(ByteBuffer.wrap(bytes), 0, offset, errorHandler);
+    }
+
+    @Override
+    public ParsingResult decode(ByteBuffer buffer, int position, long offset,
+            ErrorHandler errorHandler) throws IOException {
+
+        if (buffer == null) {
+            throw new NullPointerException("buffer must not be null.");
+        }
+        if (errorHandler == null) {
+            throw new NullPointerException("errorHandler must not be null.");
+        }
+        if (position < 0 || position > buffer.limit() - VALUE_LENGTH) {
+            throw new IllegalArgumentException(
+                    "buffer must contain 70 bytes at position.");
+        }
+        int i = 0;
+        while (i < VALUE_LENGTH && buffer.get(position + i) == ' ') {
+            i++;
+        }
+        byte c = i < VALUE_LENGTH ? buffer.get(position + i) : (byte) ' ';
+        if (c != 'T' && c != 'F') {
+            throw new IllegalArgumentException(
+                    "Encoded type is not compatible with this converter.");
+        }
+        int end = i + 1;
+        if (end < VALUE_LENGTH && buffer.get(position + end) != ' '
+                && buffer.get(position + end) != '/') {
+            FitsFormatException ex = new FitsFormatException(offset + end,
+                    "LogicalHeaderValueConverter_DecodeMalformed");
+            errorHandler.fatal(ex);
+            throw ex;
+        }
+        return new ParsingResult(end == FIXED_LENGTH, end,
+                Boolean.valueOf(c == 'T'));
+    }
+
+    @Override
+    public byte[] encode(Object value, boolean fixedFormat,
+            ErrorHandler errorHandler) throws IOException {
+        byte[] v = new byte[fixedFormat ? FIXED_LENGTH : 1];
+        encode(value, fixedFormat, ByteBuffer.wrap(v), errorHandler);
+        return v;
+    }
+
+    @Override
+    public int encode(Object value, boolean fixedFormat, ByteBuffer target,
+            ErrorHandler errorHandler) throws IOException {
+
+        if (!(value instanceof Boolean)) {
+            throw new IllegalArgumentException("Value is not a logical.");
+        }
+        if (target == null) {
+            throw new NullPointerException("target must not be null.");
+        }
+        if (errorHandler == null) {
+            throw new NullPointerException("errorHandler must not be null.");
+        }
+        int length = fixedFormat ? FIXED_LENGTH : 1;
+        if (target.remaining() < length) {
+            throw new BufferOverflowException();
+        }
+        for (int i = 1; i < length; i++) {
+            target.put((byte) ' ');
+        }
+        target.put(((Boolean) value).booleanValue() ? (byte) 'T' : (byte) 'F');
+        return length;
+    }
+}
@@ -0,0 +1,519 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Image of a primary HDU or {@code IMAGE} extension, memory mapped directly
+ * from the file. <p>The data unit is mapped read-only with
+ * {@code FileChannel.map}, pixels are read from the file on demand by the
+ * operating system and never copied onto the heap. Data units larger than
+ * 2 GB are mapped in segments of 1 GB. The pixels of a segment are available
+ * as big-endian buffer of the type matching {@code BITPIX}, see for example
+ * {@link #getShortBuffer(int)}. Single pixels can be read by their index,
+ * see for example {@link #getShort(long)}.</p> <p>Pixels are indexed as in
+ * the file: the index along {@code NAXIS1} varies fastest. {@link
+ * #index(long...)} and {@link #coordinates(long, long[])} convert between
+ * coordinates and index. Coordinates start at zero.</p> <p>Instances can be
+ * shared between threads, the buffers returned are independent of each
+ * other. The mapping stays valid after the channel is closed.</p>
+ */
+public final class MappedImage {
+
+    private final Header header;
+    private final DataUnitLayout layout;
+    private final long dataOffset;
+    private final MappedRegion region;
+    private final int bytesPerPixel;
+
+    /**
+     * Reads the header of the primary HDU and maps its data unit.
+     * @param channel Channel of the FITS file.
+     * @param errorHandler Handler to which errors are reported.
+     * @throws NullPointerException if {@code channel} or
+     * {@code errorHandler} is {@code null}.
+     * @throws IOException if reading or mapping fails or see
+     * {@link ErrorHandler}.
+     */
+    public MappedImage(FileChannel channel, ErrorHandler errorHandler)
+            throws IOException {
+        this(channel, 0, errorHandler);
+    }
+
+    /**
+     * Reads the header of an HDU and maps its data unit.
+     * @param channel Channel of the FITS file.
+     * @param offset Position of the header of the HDU in the file.
+     * @param errorHandler Handler to which errors are reported.
+     * @throws NullPointerException if {@code channel} or
+     * {@code errorHandler} is {@code null}.
+     * @throws IllegalArgumentException if {@code offset} is negative.
+     * @throws IOException if reading or mapping fails or see
+     * {@link ErrorHandler}.
+     */
+    public MappedImage(FileChannel channel, long offset,
+            ErrorHandler errorHandler) throws IOException {
+        this(channel, new PositionalChannel(channel, offset), offset,
+                errorHandler);
+    }
+
+    /**
+     * Reads the header of an HDU through a block cache and maps its data unit.
+     * <p>Opening HDUs of the same file again reads their headers from the
+     * cache.</p>
+     * @param cache Cache the header is read through.
+     * @param fileId Id of the file in the cache.
+     * @param channel Channel of the FITS file.
+     * @param offset Position of the header of the HDU in the file.
+     * @param errorHandler Handler to which errors are reported.
+     * @throws NullPointerException if {@code cache}, {@code channel} or
+     * {@code errorHandler} is {@code null}.
+     * @throws IllegalArgumentException if {@code offset} is negative.
+     * @throws IOException if reading or mapping fails or see
+     * {@link ErrorHandler}.
+     */
+    public MappedImage(BlockCache cache, long fileId, FileChannel channel,
+            long offset, ErrorHandler errorHandler) throws IOException {
+        this(channel, new CachedChannel(cache, fileId, channel, offset),
+                offset, errorHandler);
+    }
+
+    /**
+     * Reads the header of an HDU and maps its data unit.
+     * @param channel Channel of the FITS file.
+     * @param source Channel positioned at the header.
+     * @param offset Position of the header of the HDU in the file.
+     * @param errorHandler Handler to which errors are reported.
+     * @throws IOException if reading or mapping fails or see
+     * {@link ErrorHandler}.
+     */
+    private MappedImage(FileChannel channel, ReadableByteChannel source,
+            long offset, ErrorHandler errorHandler) throws IOException {
+        HeaderReader reader = new HeaderReader(source, offset, errorHandler);
+        Header h = reader.readHeader();
+        this.header = h;
+        this.dataOffset = reader.getOffset();
+        this.layout = readLayout(h, dataOffset, errorHandler);
+        this.region = map(channel, dataOffset, layout, errorHandler,
+                MappedRegion.DEFAULT_SEGMENT_SHIFT);
+        this.bytesPerPixel = layout.getBytesPerElement();
+    }
+
+    /**
+     * Maps the data unit of an HDU whose header was already read.
+     * @param channel Channel of the FITS file.
+     * @param header Header of the HDU.
+     * @param dataOffset Position of the data unit in the file.
+     * @param errorHandler Handler to which errors are reported.
+     * @param segmentShift Binary logarithm of the segment size.
+     * @throws NullPointerException if {@code channel}, {@code header} or
+     * {@code errorHandler} is {@code null}.
+     * @throws IOException if mapping fails or see {@link ErrorHandler}.
+     */
+    MappedImage(FileChannel channel, Header header, long dataOffset,
+            ErrorHandler errorHandler, int segmentShift) throws IOException {
+        if (channel == null) {
+            throw new NullPointerException("channel must not be null.");
+        }
+        this.header = header;
+        this.dataOffset = dataOffset;
+        this.layout = readLayout(header, dataOffset, errorHandler);
+        this.region = map(channel, dataOffset, layout, errorHandler,
+                segmentShift);
+        this.bytesPerPixel = layout.getBytesPerElement();
+    }
+
+    /**
+     * Gets the header of the HDU.
+     * @return Header, never {@code null}.
+     */
+    public Header getHeader() {
+        return header;
+    }
+
+    /**
+     * Gets the position of the data unit in the file.
+     * @return Offset in bytes.
+     */
+    public long getDataOffset() {
+        return dataOffset;
+    }
+
+    /**
+     * Gets the type of the pixels.
+     * @return Value of {@code BITPIX}: 8, 16, 32, 64, -32 or -64.
+     */
+    public int getBitpix() {
+        return layout.getBitpix();
+    }
+
+    /**
+     * Gets the number of axes.
+     * @return Value of {@code NAXIS}.
+     */
+    public int getAxisCount() {
+        return layout.getAxisCount();
+    }
+
+    /**
+     * Gets the length of an axis.
+     * @param axis Index of the axis, starting at zero for {@code NAXIS1}.
+     * @return Value of {@code NAXISn} with {@code n = axis + 1}.
+     * @throws IndexOutOfBoundsException if {@code axis} is out of range.
+     */
+    public long getAxisLength(int axis) {
+        return layout.getAxisLength(axis);
+    }
+
+    /**
+     * Gets the number of pixels.
+     * @return Product of the axis lengths, 0 if there are no axes.
+     */
+    public long getPixelCount() {
+        return layout.getElementCount();
+    }
+
+    /**
+     * Calculates the index of a pixel.
+     * @param coordinates Coordinates of the pixel, one per axis, starting with
+     * the one along {@code NAXIS1}.
+     * @return Index of the pixel.
+     * @throws NullPointerException if {@code coordinates} is {@code null}.
+     * @throws IllegalArgumentException if the number of coordinates does not
+     * match the number of axes.
+     * @throws IndexOutOfBoundsException if a coordinate is out of range.
+     */
+    public long index(long... coordinates) {
+        if (coordinates == null) {
+            throw new NullPointerException("coordinates must not be null.");
+        }
+        if (coordinates.length != layout.getAxisCount()) {
+            throw new IllegalArgumentException(
+                    "Number of coordinates does not match NAXIS.");
+        }
+        long index = 0;
+        for (int axis = coordinates.length - 1; axis >= 0; axis--) {
+            long length = layout.getAxisLength(axis);
+            long c = coordinates[axis];
+            if (c < 0 || c >= length) {
+                throw new IndexOutOfBoundsException("Coordinate " + c
+                        + " out of range for NAXIS" + (axis + 1) + ".");
+            }
+            index = index * length + c;
+        }
+        return index;
+    }
+
+    /**
+     * Calculates the coordinates of a pixel.
+     * @param index Index of the pixel.
+     * @param coordinates Array to store the coordinates in, one per axis,
+     * starting with the one along {@code NAXIS1}.
+     * @throws NullPointerException if {@code coordinates} is {@code null}.
+     * @throws IllegalArgumentException if the length of {@code coordinates}
+     * does not match the number of axes.
+     * @throws IndexOutOfBoundsException if {@code index} is out of range.
+     */
+    public void coordinates(long index, long[] coordinates) {
+        if (coordinates == null) {
+            throw new NullPointerException("coordinates must not be null.");
+        }
+        if (coordinates.length != layout.getAxisCount()) {
+            throw new IllegalArgumentException(
+                    "Number of coordinates does not match NAXIS.");
+        }
+        checkPixel(index);
+        long rest = index;
+        for (int axis = 0; axis < coordinates.length; axis++) {
+            long length = layout.getAxisLength(axis);
+            coordinates[axis] = rest % length;
+            rest /= length;
+        }
+    }
+
+    /**
+     * Gets the number of segments the data unit is mapped in.
+     * @return Number of segments, 0 if the image has no pixels.
+     */
+    public int getSegmentCount() {
+        return region.getSegmentCount();
+    }
+
+    /**
+     * Gets the index of the first pixel of a segment.
+     * @param segment Index of the segment.
+     * @return Index of the pixel at position zero of the segment's buffer.
+     */
+    public long getSegmentStart(int segment) {
+        return region.getSegmentStart(segment) / bytesPerPixel;
+    }
+
+    /**
+     * Gets the pixels of a segment of an image with {@code BITPIX = 8}.
+     * @param segment Index of the segment.
+     * @return Read-only buffer, its capacity is the number of pixels in the
+     * segment.
+     * @throws IllegalStateException if {@code BITPIX} is not 8.
+     * @throws IndexOutOfBoundsException if {@code segment} is out of range.
+     */
+    public ByteBuffer getByteBuffer(int segment) {
+        checkBitpix(8);
+        return region.getSegment(segment);
+    }
+
+    /**
+     * Gets the pixels of a segment of an image with {@code BITPIX = 16}.
+     * @param segment Index of the segment.
+     * @return Read-only big-endian buffer, its capacity is the number of
+     * pixels in the segment.
+     * @throws IllegalStateException if {@code BITPIX} is not 16.
+     * @throws IndexOutOfBoundsException if {@code segment} is out of range.
+     */
+    public ShortBuffer getShortBuffer(int segment) {
+        checkBitpix(16);
+        return region.getSegment(segment).asShortBuffer();
+    }
+
+    /**
+     * Gets the pixels of a segment of an image with {@code BITPIX = 32}.
+     * @param segment Index of the segment.
+     * @return Read-only big-endian buffer, its capacity is the number of
+     * pixels in the segment.
+     * @throws IllegalStateException if {@code BITPIX} is not 32.
+     * @throws IndexOutOfBoundsException if {@code segment} is out of range.
+     */
+    public IntBuffer getIntBuffer(int segment) {
+        checkBitpix(32);
+        return region.getSegment(segment).asIntBuffer();
+    }
+
+    /**
+     * Gets the pixels of a segment of an image with {@code BITPIX = 64}.
+     * @param segment Index of the segment.
+     * @return Read-only big-endian buffer, its capacity is the number of
+     * pixels in the segment.
+     * @throws IllegalStateException if {@code BITPIX} is not 64.
+     * @throws IndexOutOfBoundsException if {@code segment} is out of range.
+     */
+    public LongBuffer getLongBuffer(int segment) {
+        checkBitpix(64);
+        return region.getSegment(segment).asLongBuffer();
+    }
+
+    /**
+     * Gets the pixels of a segment of an image with {@code BITPIX = -32}.
+     * @param segment Index of the segment.
+     * @return Read-only big-endian buffer, its capacity is the number of
+     * pixels in the segment.
+     * @throws IllegalStateException if {@code BITPIX} is not -32.
+     * @throws IndexOutOfBoundsException if {@code segment} is out of range.
+     */
+    public FloatBuffer getFloatBuffer(int segment) {
+        checkBitpix(-32);
+        return region.getSegment(segment).asFloatBuffer();
+    }
+
+    /**
+     * Gets the pixels of a segment of an image with {@code BITPIX = -64}.
+     * @param segment Index of the segment.
+     * @return Read-only big-endian buffer, its capacity is the number of
+     * pixels in the segment.
+     * @throws IllegalStateException if {@code BITPIX} is not -64.
+     * @throws IndexOutOfBoundsException if {@code segment} is out of range.
+     */
+    public DoubleBuffer getDoubleBuffer(int segment) {
+        checkBitpix(-64);
+        return region.getSegment(segment).asDoubleBuffer();
+    }
+
+    /**
+     * Gets a pixel of an image with {@code BITPIX = 8}.
+     * @param index Index of the pixel.
+     * @return Raw value of the pixel. FITS defines the values as unsigned.
+     * @throws IllegalStateException if {@code BITPIX} is not 8.
+     * @throws IndexOutOfBoundsException if {@code index} is out of range.
+     */
+    public byte getByte(long index) {
+        checkBitpix(8);
+        checkPixel(index);
+        return region.getByte(index);
+    }
+
+    /**
+     * Gets a pixel of an image with {@code BITPIX = 16}.
+     * @param index Index of the pixel.
+     * @return Raw value of the pixel.
+     * @throws IllegalStateException if {@code BITPIX} is not 16.
+     * @throws IndexOutOfBoundsException if {@code index} is out of range.
+     */
+    public short getShort(long index) {
+        checkBitpix(16);
+        checkPixel(index);
+        return region.getShort(index << 1);
+    }
+
+    /**
+     * Gets a pixel of an image with {@code BITPIX = 32}.
+     * @param index Index of the pixel.
+     * @return Raw value of the pixel.
+     * @throws IllegalStateException if {@code BITPIX} is not 32.
+     * @throws IndexOutOfBoundsException if {@code index} is out of range.
+     */
+    public int getInt(long index) {
+        checkBitpix(32);
+        checkPixel(index);
+        return region.getInt(index << 2);
+    }
+
+    /**
+     * Gets a pixel of an image with {@code BITPIX = 64}.
+     * @param index Index of the pixel.
+     * @return Raw value of the pixel.
+     * @throws IllegalStateException if {@code BITPIX} is not 64.
+     * @throws IndexOutOfBoundsException if {@code index} is out of range.
+     */
+    public long getLong(long index) {
+        checkBitpix(64);
+        checkPixel(index);
+        return region.getLong(index << 3);
+    }
+
+    /**
+     * Gets a pixel of an image with {@code BITPIX = -32}.
+     * @param index Index of the pixel.
+     * @return Raw value of the pixel.
+     * @throws IllegalStateException if {@code BITPIX} is not -32.
+     * @throws IndexOutOfBoundsException if {@code index} is out of range.
+     */
+    public float getFloat(long index) {
+        checkBitpix(-32);
+        checkPixel(index);
+        return region.getFloat(index << 2);
+    }
+
+    /**
+     * Gets a pixel of an image with {@code BITPIX = -64}.
+     * @param index Index of the pixel.
+     * @return Raw value of the pixel.
+     * @throws IllegalStateException if {@code BITPIX} is not -64.
+     * @throws IndexOutOfBoundsException if {@code index} is out of range.
+     */
+    public double getDouble(long index) {
+        checkBitpix(-64);
+        checkPixel(index);
+        return region.getDouble(index << 3);
+    }
+
+    /**
+     * Gets the mapped data unit.
+     * @return Mapped region of the data unit.
+     */
+    MappedRegion getRegion() {
+        return region;
+    }
+
+    /**
+     * Gets the layout of the data unit.
+     * @return Layout, never {@code null}.
+     */
+    DataUnitLayout getLayout() {
+        return layout;
+    }
+
+    /**
+     * Checks the type of the pixels.
+     * @param bitpix Expected value of {@code BITPIX}.
+     * @throws IllegalStateException if the image is of another type.
+     */
+    private void checkBitpix(int bitpix) {
+        if (layout.getBitpix() != bitpix) {
+            throw new IllegalStateException("Image has BITPIX "
+                    + layout.getBitpix() + ", not " + bitpix + ".");
+        }
+    }
+
+    /**
+     * Checks the index of a pixel.
+     * @param index Index to check.
+     * @throws IndexOutOfBoundsException if {@code index} is out of range.
+     */
+    private void checkPixel(long index) {
+        if (index < 0 || index >= layout.getElementCount()) {
+            throw new IndexOutOfBoundsException("Pixel index " + index
+                    + " out of range.");
+        }
+    }
+
+    /**
+     * Reads the layout of the data unit and checks that it is a primary or
+     * {@code IMAGE} extension HDU.
+     * @param header Header of the HDU.
+     * @param dataOffset Position of the data unit in the file.
+     * @param errorHandler Handler to which errors are reported.
+     * @return Layout of the data unit.
+     * @throws IOException see {@link ErrorHandler}.
+     */
+    private static DataUnitLayout readLayout(Header header, long dataOffset,
+            ErrorHandler errorHandler) throws IOException {
+        Property xtension = header.get("XTENSION");
+        DataUnitLayout layout = DataUnitLayout.fromHeader(header, dataOffset,
+                errorHandler);
+        boolean image = xtension == null ? header.contains("SIMPLE")
+                : "IMAGE".equals(BinaryTable.trim(xtension.get()));
+        if (!image || layout.getPcount() != 0 || layout.getGcount() != 1
+                || header.contains("GROUPS")) {
+            FitsFormatException ex = new FitsFormatException(dataOffset,
+                    "MappedImage_NotAnImage");
+            errorHandler.fatal(ex);
+            throw ex;
+        }
+        return layout;
+    }
+
+    /**
+     * Maps the data unit.
+     * @param channel Channel of the FITS file.
+     * @param dataOffset Position of the data unit in the file.
+     * @param layout Layout of the data unit.
+     * @param errorHandler Handler to which errors are reported.
+     * @param segmentShift Binary logarithm of the segment size.
+     * @return Mapped region.
+     * @throws IOException if mapping fails or see {@link ErrorHandler}.
+     */
+    private static MappedRegion map(FileChannel channel, long dataOffset,
+            DataUnitLayout layout, ErrorHandler errorHandler,
+            int segmentShift) throws IOException {
+        long size = channel.size();
+        long end = dataOffset + layout.getDataLength();
+        if (end > size) {
+            FitsFormatException ex = new FitsFormatException(size,
+                    "MappedImage_Truncated", end, size);
+            errorHandler.fatal(ex);
+            throw ex;
+        }
+        return new MappedRegion(channel, dataOffset, layout.getDataLength(),
+                segmentShift);
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only memory mapping of a region of a file that may be larger than
+ * 2 GB. <p>A {@code MappedByteBuffer} is limited to {@code Integer.MAX_VALUE}
+ * bytes, so the region is mapped in segments of {@code 2^segmentShift}
+ * bytes. Each segment maps a few additional bytes of the next one, so that a
+ * value that starts in one segment and ends in the next can still be read
+ * from a single buffer. Larger ranges spanning two segments can be mapped
+ * on their own with {@link #slice(long, int)}, which requires the channel to
+ * be still open.</p> <p>All buffers are big-endian, the byte order of
+ * FITS. Only absolute get operations are used, instances can be shared
+ * between threads.</p>
+ */
+final class MappedRegion {
+
+    /**
+     * Default segment size, 1 GB.
+     */
+    static final int DEFAULT_SEGMENT_SHIFT = 30;
+    /**
+     * Number of bytes each segment overlaps with the next one. Large enough
+     * for the largest primitive value.
+     */
+    static final int OVERLAP = 8;
+    private final FileChannel channel;
+    private final long position;
+    private final long length;
+    private final int segmentShift;
+    private final long segmentMask;
+    private final ByteBuffer[] segments;
+
+    /**
+     * Maps a region of a file using the default segment size.
+     * @param channel Channel of the file.
+     * @param position Offset of the region within the file.
+     * @param length Length of the region in bytes.
+     * @throws NullPointerException if {@code channel} is {@code null}.
+     * @throws IllegalArgumentException if {@code position} or {@code length}
+     * is negative.
+     * @throws IOException if mapping fails.
+     */
+    MappedRegion(FileChannel channel, long position, long length)
+            throws IOException {
+        this(channel, position, length, DEFAULT_SEGMENT_SHIFT);
+    }
+
+    /**
+     * Maps a region of a file.
+     * @param channel Channel of the file.
+     * @param position Offset of the region within the file.
+     * @param length Length of the region in bytes.
+     * @param segmentShift Binary logarithm of the segment size.
+     * @throws NullPointerException if {@code channel} is {@code null}.
+     * @throws IllegalArgumentException if {@code position} or {@code length}
+     * is negative or if {@code segmentShift} is not within 3 and 30.
+     * @throws IOException if mapping fails.
+     */
+    MappedRegion(FileChannel channel, long position, long length,
+            int segmentShift) throws IOException {
+        if (channel == null) {
+            throw new NullPointerException("channel must not be null.");
+        }
+        if (position < 0 || length < 0) {
+            throw new IllegalArgumentException(
+                    "position and length must not be negative.");
+        }
+        if (segmentShift < 3 || segmentShift > DEFAULT_SEGMENT_SHIFT) {
+            throw new IllegalArgumentException(
+                    "segmentShift must be within 3 and 30.");
+        }
+        this.channel = channel;
+        this.position = position;
+        this.length = length;
+        this.segmentShift = segmentShift;
+        this.segmentMask = (1L << segmentShift) - 1;
+
+        long segmentSize = 1L << segmentShift;
+        int count = (int) ((length + segmentSize - 1) >>> segmentShift);
+        this.segments = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            long start = (long) i << segmentShift;
+            long size = Math.min(segmentSize + OVERLAP, length - start);
+            ByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY,
+                    position + start, size);
+            segment.order(ByteOrder.BIG_ENDIAN);
+            segments[i] = segment;
+        }
+    }
+
+    /**
+     * Gets the offset of the region within the file.
+     * @return Offset in bytes.
+     */
+    long getPosition() {
+        return position;
+    }
+
+    /**
+     * Gets the length of the region.
+     * @return Length in bytes.
+     */
+    long getLength() {
+        return length;
+    }
+
+    /**
+     * Gets the number of segments.
+     * @return Number of segments, 0 if the region is empty.
+     */
+    int getSegmentCount() {
+        return segments.length;
+    }
+
+    /**
+     * Gets the offset of a segment within the region.
+     * @param segment Index of the segment.
+     * @return Offset in bytes relative to the start of the region.
+     */
+    long getSegmentStart(int segment) {
+        return (long) segment << segmentShift;
+    }
+
+    /**
+     * Gets the segment containing a byte.
+     * @param index Offset relative to the start of the region.
+     * @return Index of the segment.
+     */
+    int getSegmentOf(long index) {
+        return (int) (index >>> segmentShift);
+    }
+
+    /**
+     * Gets a segment without the bytes overlapping with the next segment.
+     * @param segment Index of the segment.
+     * @return New big-endian buffer sharing the mapped memory. Position zero,
+     * the limit is the size of the segment.
+     * @throws IndexOutOfBoundsException if {@code segment} is out of range.
+     */
+    ByteBuffer getSegment(int segment) {
+        ByteBuffer buffer = segments[segment].duplicate();
+        long size = Math.min(1L << segmentShift,
+                length - getSegmentStart(segment));
+        buffer.limit((int) size);
+        return buffer.slice().order(ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * Gets a range of bytes as buffer. <p>If the range lies within a mapped
+     * segment, the buffer shares its memory. Otherwise the range is mapped
+     * separately. No bytes are copied in either case.</p>
+     * @param index Offset of the range relative to the start of the region.
+     * @param size Length of the range in bytes.
+     * @return New read-only big-endian buffer with position zero and the
+     * size of the range as limit.
+     * @throws IndexOutOfBoundsException if the range is not within the
+     * region.
+     * @throws IOException if mapping fails.
+     */
+    ByteBuffer slice(long index, int size) throws IOException {
+        if (size < 0) {
+            throw new IndexOutOfBoundsException("Negative size.");
+        }
+        ByteBuffer buffer = getMappedSegment(index, size);
+        if (buffer != null) {
+            int start = getSegmentIndex(index);
+            buffer = buffer.duplicate();
+            buffer.limit(start + size);
+            buffer.position(start);
+            buffer = buffer.slice();
+        } else {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                    position + index, size);
+        }
+        return buffer.order(ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * Gets the mapped segment containing a range of bytes. <p>Avoids
+     * creating a buffer for each access if many small ranges are read. The
+     * returned buffer is shared and must only be used with absolute get
+     * operations at {@code index & (2^segmentShift - 1)}.</p>
+     * @param index Offset of the range relative to the start of the region.
+     * @param size Length of the range in bytes.
+     * @return Mapped segment or {@code null} if the range is not entirely
+     * within the mapped bytes of a single segment.
+     * @throws IndexOutOfBoundsException if the range is not within the
+     * region.
+     */
+    ByteBuffer getMappedSegment(long index, int size) {
+        checkIndex(index, size);
+        int segment = getSegmentOf(index);
+        if (segment < segments.length && (int) (index & segmentMask) + size
+                <= segments[segment].capacity()) {
+            return segments[segment];
+        }
+        return null;
+    }
+
+    /**
+     * Gets the position of a byte within its mapped segment.
+     * @param index Offset relative to the start of the region.
+     * @return Index within the buffer returned by
+     * {@link #getMappedSegment(long, int)}.
+     */
+    int getSegmentIndex(long index) {
+        return (int) (index & segmentMask);
+    }
+
+    /**
+     * Gets a byte.
+     * @param index Offset relative to the start of the region.
+     * @return Value at the given offset.
+     * @throws IndexOutOfBoundsException if the value is not within the
+     * region.
+     */
+    byte getByte(long index) {
+        checkIndex(index, 1);
+        return segments[(int) (index >>> segmentShift)].get(
+                (int) (index & segmentMask));
+    }
+
+    /**
+     * Gets a big-endian {@code short}.
+     * @param index Offset relative to the start of the region.
+     * @return Value at the given offset.
+     * @throws IndexOutOfBoundsException if the value is not within the
+     * region.
+     */
+    short getShort(long index) {
+        checkIndex(index, 2);
+        return segments[(int) (index >>> segmentShift)].getShort(
+                (int) (index & segmentMask));
+    }
+
+    /**
+     * Gets a big-endian {@code int}.
+     * @param index Offset relative to the start of the region.
+     * @return Value at the given offset.
+     * @throws IndexOutOfBoundsException if the value is not within the
+     * region.
+     */
+    int getInt(long index) {
+        checkIndex(index, 4);
+        return segments[(int) (index >>> segmentShift)].getInt(
+                (int) (index & segmentMask));
+    }
+
+    /**
+     * Gets a big-endian {@code long}.
+     * @param index Offset relative to the start of the region.
+     * @return Value at the given offset.
+     * @throws IndexOutOfBoundsException if the value is not within the
+     * region.
+     */
+    long getLong(long index) {
+        checkIndex(index, 8);
+        return segments[(int) (index >>> segmentShift)].getLong(
+                (int) (index & segmentMask));
+    }
+
+    /**
+     * Gets a big-endian IEEE 754 single precision number.
+     * @param index Offset relative to the start of the region.
+     * @return Value at the given offset.
+     * @throws IndexOutOfBoundsException if the value is not within the
+     * region.
+     */
+    float getFloat(long index) {
+        checkIndex(index, 4);
+        return segments[(int) (index >>> segmentShift)].getFloat(
+                (int) (index & segmentMask));
+    }
+
+    /**
+     * Gets a big-endian IEEE 754 double precision number.
+     * @param index Offset relative to the start of the region.
+     * @return Value at the given offset.
+     * @throws IndexOutOfBoundsException if the value is not within the
+     * region.
+     */
+    double getDouble(long index) {
+        checkIndex(index, 8);
+        return segments[(int) (index >>> segmentShift)].getDouble(
+                (int) (index & segmentMask));
+    }
+
+    /**
+     * Checks that a value lies within the region.
+     * @param index Offset of the value.
+     * @param size Size of the value in bytes.
+     * @throws IndexOutOfBoundsException if not.
+     */
+    private void checkIndex(long index, int size) {
+        if (index < 0 || index > length - size) {
+            throw new IndexOutOfBoundsException("Index " + index
+                    + " out of region of length " + length + ".");
+        }
+    }
+}
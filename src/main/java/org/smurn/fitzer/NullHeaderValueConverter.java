@@ -16,6 +16,7 @@
 package org.smurn.fitzer;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Header value converter for {@code null} values.
@@ -32,12 +33,25 @@ final class NullHeaderValueConverter implements HeaderValueConverter {
         if (bytes == null) {
             throw new NullPointerException("bytes must not be null.");
         }
-        if (bytes.length != 70) {
+        if (bytes.length != VALUE_LENGTH) {
             throw new IllegalArgumentException("bytes must be of length 70.");
         }
+        return compatibleEncodingCheck(ByteBuffer.wrap(bytes), 0);
+    }
+
+    @Override
+    public boolean compatibleEncodingCheck(ByteBuffer buffer, int position) {
+        if (buffer == null) {
+            throw new NullPointerException("buffer must not be null.");
+        }
+        if (position < 0 || position > buffer.limit() - VALUE_LENGTH) {
+            throw new IllegalArgumentException(
+                    "buffer must contain 70 bytes at position.");
+        }
 
-        for (int i = 0; i < bytes.length && bytes[i] != '/'; i++) {
-            if (bytes[i] != ' ') {
+        int end = position + VALUE_LENGTH;
+        for (int i = position; i < end && buffer.get(i) != '/'; i++) {
+            if (buffer.get(i) != ' ') {
                 return false;
             }
         }
@@ -54,15 +68,32 @@ final class NullHeaderValueConverter implements HeaderValueConverter {
         if (errorHandler == null) {
             throw new NullPointerException("errorHandler must not be null.");
         }
-        if (bytes.length != 70) {
+        if (bytes.length != VALUE_LENGTH) {
             throw new IllegalArgumentException("bytes must be of length 70.");
         }
+        return decode(ByteBuffer.wrap(bytes), 0, offset, errorHandler);
+    }
+
+    @Override
+    public ParsingResult decode(ByteBuffer buffer, int position, long offset,
+            ErrorHandler errorHandler) throws IOException {
+
+        if (buffer == null) {
+            throw new NullPointerException("buffer must not be null.");
+        }
+        if (errorHandler == null) {
+            throw new NullPointerException("errorHandler must not be null.");
+        }
+        if (position < 0 || position > buffer.limit() - VALUE_LENGTH) {
+            throw new IllegalArgumentException(
+                    "buffer must contain 70 bytes at position.");
+        }
         int i;
         for (i = 0;
-                i < bytes.length && bytes[i] != '/';
+                i < VALUE_LENGTH && buffer.get(position + i) != '/';
                 i++) {
 
-            if (bytes[i] != ' ') {
+            if (buffer.get(position + i) != ' ') {
                 throw new IllegalArgumentException(
                         "Encoded type is not compatible with this converter.");
             }
@@ -84,4 +115,21 @@ final class NullHeaderValueConverter implements HeaderValueConverter {
         }
         return new byte[0];
     }
+
+    @Override
+    public int encode(Object value, boolean fixedFormat, ByteBuffer target,
+            ErrorHandler errorHandler) throws IOException {
+
+        if (value != null) {
+            throw new IllegalArgumentException(
+                    "Can only encode the null value.");
+        }
+        if (target == null) {
+            throw new NullPointerException("target must not be null.");
+        }
+        if (errorHandler == null) {
+            throw new NullPointerException("errorHandler must not be null.");
+        }
+        return 0;
+    }
 }
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Header value converter for integer and floating point values. <p>Both kinds
+ * are represented as {@code BigDecimal} (see headerProperties.apt). Numbers
+ * with up to 18 significant digits are returned in the compact representation
+ * of {@link ParsingResult} so that no objects other than the result are
+ * created while parsing.</p>
+ */
+final class NumericHeaderValueConverter implements HeaderValueConverter {
+
+    /**
+     * Number of bytes in which fixed format numbers are right justified.
+     */
+    static final int FIXED_LENGTH = 20;
+    /**
+     * Parser of the current thread. Converters are shared by all properties
+     * of a header, which may be decoded lazily by different threads.
+     */
+    private static final ThreadLocal<DecimalParser> PARSER =
+            new ThreadLocal<DecimalParser>() {
+                @Override
+                protected DecimalParser initialValue() {
+                    return new DecimalParser();
+                }
+            };
+
+    @Override
+    public boolean compatibleTypeCheck(Object value) {
+        return value instanceof BigDecimal;
+    }
+
+    @Override
+    public boolean compatibleEncodingCheck(byte[] bytes) {
+        if (bytes == null) {
+            throw new NullPointerException("bytes must not be null.");
+        }
+        if (bytes.length != VALUE_LENGTH) {
+            throw new IllegalArgumentException("bytes must be of length 70.");
+        }
+        return compatibleEncodingCheck(ByteBuffer.wrap(bytes), 0);
+    }
+
+    @Override
+    public boolean compatibleEncodingCheck(ByteBuffer buffer, int position) {
+        if (buffer == null) {
+            throw new NullPointerException("buffer must not be null.");
+        }
+        if (position < 0 || position > buffer.limit() - VALUE_LENGTH) {
+            throw new IllegalArgumentException(
+                    "buffer must contain 70 bytes at position.");
+        }
+
+        int end = position + VALUE_LENGTH;
+        for (int i = position; i < end; i++) {
+            byte c = buffer.get(i);
+            if (c != ' ') {
+                return DecimalParser.isNumberStart(c);
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public ParsingResult decode(byte[] bytes, long offset,
+            ErrorHandler errorHandler) throws IOException {
+
+        if (bytes == null) {
+            throw new NullPointerException("bytes must not be null.");
+        }
+        if (errorHandler == null) {
+            throw new NullPointerException("errorHandler must not be null.");
+        }
+        if (bytes.length != VALUE_LENGTH) {
+            throw new IllegalArgumentException("bytes must be of length 70.");
+        }
+        return decode(ByteBuffer.wrap(bytes), 0, offset, errorHandler);
+    }
+
+    @Override
+    public ParsingResult decode(ByteBuffer buffer, int position, long offset,
+            ErrorHandler errorHandler) throws IOException {
+
+        if (buffer == null) {
+            throw new NullPointerException("buffer must not be null.");
+        }
+        if (errorHandler == null) {
+            throw new NullPointerException("errorHandler must not be null.");
+        }
+        if (position < 0 || position > buffer.limit() - VALUE_LENGTH) {
+            throw new IllegalArgumentException(
+                    "buffer must contain 70 bytes at position.");
+        }
+
+        int end = position + VALUE_LENGTH;
+        int start = position;
+        while (start < end && buffer.get(start) == ' ') {
+            start++;
+        }
+        if (start >= end || !DecimalParser.isNumberStart(buffer.get(start))) {
+            throw new IllegalArgumentException(
+                    "Encoded type is not compatible with this converter.");
+        }
+
+        DecimalParser parser = PARSER.get();
+        if (!parser.parse(buffer, start, end)) {
+            throw malformed(offset + parser.getErrorPosition() - position,
+                    errorHandler);
+        }
+        int stop = parser.getEnd();
+        if (stop < end && buffer.get(stop) != ' ' && buffer.get(stop) != '/') {
+            throw malformed(offset + stop - position, errorHandler);
+        }
+
+        int consumed = stop - position;
+        boolean fixed = consumed == FIXED_LENGTH;
+        if (parser.isCompact()) {
+            return new ParsingResult(fixed, consumed, parser.getUnscaled(),
+                    parser.getScale());
+        }
+        BigDecimal value;
+        try {
+            value = parser.toBigDecimal(buffer);
+        } catch (NumberFormatException e) {
+            throw malformed(offset + start - position, errorHandler);
+        }
+        return new ParsingResult(fixed, consumed, value);
+    }
+
+    /**
+     * Reports a malformed number as fatal error.
+     * @param offset Address of the offending byte.
+     * @param errorHandler Error handler to report the error to.
+     * @return Exception to throw if the error handler does not throw.
+     * @throws IOException see {@link ErrorHandler}.
+     */
+    private FitsFormatException malformed(long offset,
+            ErrorHandler errorHandler) throws IOException {
+        FitsFormatException ex = new FitsFormatException(offset,
+                "NumericHeaderValueConverter_DecodeMalformed");
+        errorHandler.fatal(ex);
+        return ex;
+    }
+
+    @Override
+    public byte[] encode(Object value, boolean fixedFormat,
+            ErrorHandler errorHandler) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(VALUE_LENGTH);
+        int length = encode(value, fixedFormat, buffer, errorHandler);
+        return Arrays.copyOf(buffer.array(), length);
+    }
+
+    @Override
+    public int encode(Object value, boolean fixedFormat, ByteBuffer target,
+            ErrorHandler errorHandler) throws IOException {
+
+        if (!(value instanceof BigDecimal)) {
+            throw new IllegalArgumentException("Value is not a number.");
+        }
+        if (target == null) {
+            throw new NullPointerException("target must not be null.");
+        }
+        if (errorHandler == null) {
+            throw new NullPointerException("errorHandler must not be null.");
+        }
+        String string = value.toString();
+        int length = string.length();
+
+        if (length > VALUE_LENGTH) {
+            FitsDataException ex = new FitsDataException(
+                    "NumericHeaderValueConverter_EncodeLength",
+                    string, length);
+            errorHandler.fatal(ex);
+            throw ex;
+        }
+        if (fixedFormat && length > FIXED_LENGTH) {
+            errorHandler.error(new FitsDataException(
+                    "NumericHeaderValueConverter_EncodeFixedLength",
+                    string, length));
+            fixedFormat = false;
+        }
+
+        int padding = fixedFormat ? FIXED_LENGTH - length : 0;
+        if (target.remaining() < padding + length) {
+            throw new BufferOverflowException();
+        }
+        for (int i = 0; i < padding; i++) {
+            target.put((byte) ' ');
+        }
+        for (int i = 0; i < length; i++) {
+            target.put((byte) string.charAt(i));
+        }
+        return padding + length;
+    }
+}
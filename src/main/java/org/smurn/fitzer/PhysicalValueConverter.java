@@ -0,0 +1,619 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Converts raw pixel values into physical values. <p>The physical value of
+ * a pixel is {@code BZERO + BSCALE * raw}. Integer pixels equal to
+ * {@code BLANK} are undefined and converted to {@code NaN}.</p> <p>The
+ * conversion works on whole buffers of big-endian pixels as stored in the
+ * file. There is one loop per {@code BITPIX} and per combination of scaling
+ * and {@code BLANK}, so that the inner loops contain no type dispatch and,
+ * if there is no {@code BLANK}, no branches. Such loops are compiled to SIMD
+ * instructions by the JIT compiler where the platform supports it. The
+ * scale keywords are read once as {@code double}, no {@code BigDecimal} is
+ * involved per pixel.</p> <p>Large ranges of a {@link MappedImage} can be
+ * converted in parallel by passing an {@code ExecutorService}.</p>
+ * <p>Instances of this type are immutable.</p>
+ */
+public final class PhysicalValueConverter {
+
+    /**
+     * Number of pixels converted by a single task of a parallel conversion.
+     */
+    static final int CHUNK_SIZE = 1 << 18;
+    private final int bitpix;
+    private final double scale;
+    private final double zero;
+    private final boolean hasBlank;
+    private final long blank;
+
+    /**
+     * Creates an instance.
+     * @param bitpix Type of the raw pixels, value of {@code BITPIX}.
+     * @param scale Value of {@code BSCALE}.
+     * @param zero Value of {@code BZERO}.
+     * @param blank Value of {@code BLANK} or {@code null} if all integer
+     * pixels are defined. Ignored for floating point pixels.
+     * @throws IllegalArgumentException if {@code bitpix} is not one of 8,
+     * 16, 32, 64, -32 or -64.
+     */
+    public PhysicalValueConverter(int bitpix, double scale, double zero,
+            Long blank) {
+        if (!DataUnitLayout.isValidBitpix(bitpix)) {
+            throw new IllegalArgumentException("Invalid BITPIX: " + bitpix);
+        }
+        this.bitpix = bitpix;
+        this.scale = scale;
+        this.zero = zero;
+        this.hasBlank = blank != null && bitpix > 0;
+        this.blank = blank != null ? blank.longValue() : 0;
+    }
+
+    /**
+     * Creates an instance from the keywords of a header. <p>{@code BSCALE}
+     * defaults to 1, {@code BZERO} to 0. If {@code BLANK} is missing all
+     * pixels are defined.</p>
+     * @param header Header of the HDU.
+     * @param offset Offset of the header. Used for error reporting.
+     * @param errorHandler Handler to which errors are reported.
+     * @return New instance.
+     * @throws NullPointerException if {@code header} or {@code errorHandler}
+     * is {@code null}.
+     * @throws IOException see {@link ErrorHandler}.
+     */
+    public static PhysicalValueConverter fromHeader(Header header,
+            long offset, ErrorHandler errorHandler) throws IOException {
+        if (header == null) {
+            throw new NullPointerException("header must not be null.");
+        }
+        if (errorHandler == null) {
+            throw new NullPointerException("errorHandler must not be null.");
+        }
+        DataUnitLayout layout = DataUnitLayout.fromHeader(header, offset,
+                errorHandler);
+        double scale = 1;
+        double zero = 0;
+        Long blank = null;
+        Property property = header.get("BSCALE");
+        if (property != null) {
+            try {
+                scale = property.getDouble();
+            } catch (IllegalStateException e) {
+                throw invalid(property, offset, errorHandler);
+            }
+        }
+        property = header.get("BZERO");
+        if (property != null) {
+            try {
+                zero = property.getDouble();
+            } catch (IllegalStateException e) {
+                throw invalid(property, offset, errorHandler);
+            }
+        }
+        property = header.get("BLANK");
+        if (property != null && layout.getBitpix() > 0) {
+            try {
+                blank = property.getLong();
+            } catch (IllegalStateException e) {
+                throw invalid(property, offset, errorHandler);
+            } catch (ArithmeticException e) {
+                throw invalid(property, offset, errorHandler);
+            }
+        }
+        return new PhysicalValueConverter(layout.getBitpix(), scale, zero,
+                blank);
+    }
+
+    /**
+     * Gets the type of the raw pixels.
+     * @return Value of {@code BITPIX}.
+     */
+    public int getBitpix() {
+        return bitpix;
+    }
+
+    /**
+     * Gets the factor applied to the raw values.
+     * @return Value of {@code BSCALE}.
+     */
+    public double getScale() {
+        return scale;
+    }
+
+    /**
+     * Gets the offset added to the scaled values.
+     * @return Value of {@code BZERO}.
+     */
+    public double getZero() {
+        return zero;
+    }
+
+    /**
+     * Converts the raw pixels of a buffer into single precision physical
+     * values.
+     * @param raw Big-endian raw pixels between position and limit. The
+     * position of the buffer is not modified.
+     * @param target Array to store the physical values in.
+     * @param offset Index in {@code target} of the first value.
+     * @return Number of pixels converted.
+     * @throws NullPointerException if {@code raw} or {@code target} is
+     * {@code null}.
+     * @throws IndexOutOfBoundsException if {@code target} is too small.
+     */
+    public int toFloat(ByteBuffer raw, float[] target, int offset) {
+        int count = pixelCount(raw, target.length, offset);
+        convert(raw, count, target, offset);
+        return count;
+    }
+
+    /**
+     * Converts the raw pixels of a buffer into double precision physical
+     * values.
+     * @param raw Big-endian raw pixels between position and limit. The
+     * position of the buffer is not modified.
+     * @param target Array to store the physical values in.
+     * @param offset Index in {@code target} of the first value.
+     * @return Number of pixels converted.
+     * @throws NullPointerException if {@code raw} or {@code target} is
+     * {@code null}.
+     * @throws IndexOutOfBoundsException if {@code target} is too small.
+     */
+    public int toDouble(ByteBuffer raw, double[] target, int offset) {
+        int count = pixelCount(raw, target.length, offset);
+        convert(raw, count, target, offset);
+        return count;
+    }
+
+    /**
+     * Converts a range of pixels of an image into single precision physical
+     * values.
+     * @param image Image to read from.
+     * @param first Index of the first pixel.
+     * @param target Array to store the physical values in.
+     * @param offset Index in {@code target} of the first value.
+     * @param count Number of pixels to convert.
+     * @throws NullPointerException if {@code image} or {@code target} is
+     * {@code null}.
+     * @throws IllegalArgumentException if the type of the image does not
+     * match.
+     * @throws IndexOutOfBoundsException if the range is not within the image
+     * or {@code target}.
+     */
+    public void toFloat(MappedImage image, long first, float[] target,
+            int offset, int count) {
+        checkRange(image, first, target.length, offset, count);
+        convert(image.getRegion(), first, count, target, offset);
+    }
+
+    /**
+     * Converts a range of pixels of an image into double precision physical
+     * values.
+     * @param image Image to read from.
+     * @param first Index of the first pixel.
+     * @param target Array to store the physical values in.
+     * @param offset Index in {@code target} of the first value.
+     * @param count Number of pixels to convert.
+     * @throws NullPointerException if {@code image} or {@code target} is
+     * {@code null}.
+     * @throws IllegalArgumentException if the type of the image does not
+     * match.
+     * @throws IndexOutOfBoundsException if the range is not within the image
+     * or {@code target}.
+     */
+    public void toDouble(MappedImage image, long first, double[] target,
+            int offset, int count) {
+        checkRange(image, first, target.length, offset, count);
+        convert(image.getRegion(), first, count, target, offset);
+    }
+
+    /**
+     * Converts a range of pixels of an image into single precision physical
+     * values, splitting the work into tasks run by an executor.
+     * @param image Image to read from.
+     * @param first Index of the first pixel.
+     * @param target Array to store the physical values in.
+     * @param offset Index in {@code target} of the first value.
+     * @param count Number of pixels to convert.
+     * @param executor Executor running the tasks.
+     * @throws NullPointerException if {@code image}, {@code target} or
+     * {@code executor} is {@code null}.
+     * @throws IllegalArgumentException if the type of the image does not
+     * match.
+     * @throws IndexOutOfBoundsException if the range is not within the image
+     * or {@code target}.
+     * @throws InterruptedException if interrupted while waiting for the
+     * tasks. Tasks still running are cancelled.
+     */
+    public void toFloat(final MappedImage image, final long first,
+            final float[] target, final int offset, int count,
+            ExecutorService executor) throws InterruptedException {
+        checkRange(image, first, target.length, offset, count);
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int start = 0; start < count; start += CHUNK_SIZE) {
+            final int chunkStart = start;
+            final int chunkCount = Math.min(CHUNK_SIZE, count - start);
+            tasks.add(new Callable<Void>() {
+
+                @Override
+                public Void call() {
+                    convert(image.getRegion(), first + chunkStart, chunkCount,
+                            target, offset + chunkStart);
+                    return null;
+                }
+            });
+        }
+        run(tasks, executor);
+    }
+
+    /**
+     * Converts a range of pixels of an image into double precision physical
+     * values, splitting the work into tasks run by an executor.
+     * @param image Image to read from.
+     * @param first Index of the first pixel.
+     * @param target Array to store the physical values in.
+     * @param offset Index in {@code target} of the first value.
+     * @param count Number of pixels to convert.
+     * @param executor Executor running the tasks.
+     * @throws NullPointerException if {@code image}, {@code target} or
+     * {@code executor} is {@code null}.
+     * @throws IllegalArgumentException if the type of the image does not
+     * match.
+     * @throws IndexOutOfBoundsException if the range is not within the image
+     * or {@code target}.
+     * @throws InterruptedException if interrupted while waiting for the
+     * tasks. Tasks still running are cancelled.
+     */
+    public void toDouble(final MappedImage image, final long first,
+            final double[] target, final int offset, int count,
+            ExecutorService executor) throws InterruptedException {
+        checkRange(image, first, target.length, offset, count);
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int start = 0; start < count; start += CHUNK_SIZE) {
+            final int chunkStart = start;
+            final int chunkCount = Math.min(CHUNK_SIZE, count - start);
+            tasks.add(new Callable<Void>() {
+
+                @Override
+                public Void call() {
+                    convert(image.getRegion(), first + chunkStart, chunkCount,
+                            target, offset + chunkStart);
+                    return null;
+                }
+            });
+        }
+        run(tasks, executor);
+    }
+
+    /**
+     * Runs tasks and waits for their completion.
+     * @param tasks Tasks to run.
+     * @param executor Executor running the tasks.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    private static void run(List<Callable<Void>> tasks,
+            ExecutorService executor) throws InterruptedException {
+        if (executor == null) {
+            throw new NullPointerException("executor must not be null.");
+        }
+        List<Future<Void>> futures = executor.invokeAll(tasks);
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IllegalStateException(cause);
+            }
+        }
+    }
+
+    /**
+     * Converts pixels of a mapped region segment by segment.
+     * @param region Region containing the raw pixels.
+     * @param first Index of the first pixel.
+     * @param count Number of pixels.
+     * @param target Array to store the physical values in.
+     * @param offset Index in {@code target} of the first value.
+     */
+    private void convert(MappedRegion region, long first, int count,
+            float[] target, int offset) {
+        int bytesPerPixel = Math.abs(bitpix) / 8;
+        long position = first * bytesPerPixel;
+        int done = 0;
+        while (done < count) {
+            ByteBuffer raw = segment(region, position, count - done);
+            int n = raw.remaining() / bytesPerPixel;
+            convert(raw, n, target, offset + done);
+            done += n;
+            position += (long) n * bytesPerPixel;
+        }
+    }
+
+    /**
+     * Converts pixels of a mapped region segment by segment.
+     * @param region Region containing the raw pixels.
+     * @param first Index of the first pixel.
+     * @param count Number of pixels.
+     * @param target Array to store the physical values in.
+     * @param offset Index in {@code target} of the first value.
+     */
+    private void convert(MappedRegion region, long first, int count,
+            double[] target, int offset) {
+        int bytesPerPixel = Math.abs(bitpix) / 8;
+        long position = first * bytesPerPixel;
+        int done = 0;
+        while (done < count) {
+            ByteBuffer raw = segment(region, position, count - done);
+            int n = raw.remaining() / bytesPerPixel;
+            convert(raw, n, target, offset + done);
+            done += n;
+            position += (long) n * bytesPerPixel;
+        }
+    }
+
+    /**
+     * Gets the part of a segment holding the next pixels to convert.
+     * @param region Region containing the raw pixels.
+     * @param position Offset of the first pixel in the region.
+     * @param count Number of pixels still to convert.
+     * @return Buffer with the pixels between position and limit.
+     */
+    private ByteBuffer segment(MappedRegion region, long position,
+            int count) {
+        int segment = region.getSegmentOf(position);
+        ByteBuffer raw = region.getSegment(segment);
+        int start = (int) (position - region.getSegmentStart(segment));
+        long end = start + (long) count * (Math.abs(bitpix) / 8);
+        raw.limit((int) Math.min(raw.limit(), end));
+        raw.position(start);
+        return raw;
+    }
+
+    /**
+     * Converts raw pixels into single precision physical values.
+     * @param raw Raw pixels starting at the position of the buffer.
+     * @param count Number of pixels.
+     * @param t Array to store the physical values in.
+     * @param o Index in {@code t} of the first value.
+     */
+    private void convert(ByteBuffer raw, int count, float[] t, int o) {
+        ByteBuffer b = raw.slice().order(ByteOrder.BIG_ENDIAN);
+        final double s = scale;
+        final double z = zero;
+        final long nil = blank;
+        switch (bitpix) {
+            case 8:
+                if (!hasBlank) {
+                    for (int i = 0; i < count; i++) {
+                        t[o + i] = (float) (z + s * (b.get(i) & 0xFF));
+                    }
+                } else {
+                    for (int i = 0; i < count; i++) {
+                        int v = b.get(i) & 0xFF;
+                        t[o + i] = v == nil ? Float.NaN : (float) (z + s * v);
+                    }
+                }
+                break;
+            case 16:
+                if (!hasBlank) {
+                    for (int i = 0; i < count; i++) {
+                        t[o + i] = (float) (z + s * b.getShort(i << 1));
+                    }
+                } else {
+                    for (int i = 0; i < count; i++) {
+                        short v = b.getShort(i << 1);
+                        t[o + i] = v == nil ? Float.NaN : (float) (z + s * v);
+                    }
+                }
+                break;
+            case 32:
+                if (!hasBlank) {
+                    for (int i = 0; i < count; i++) {
+                        t[o + i] = (float) (z + s * b.getInt(i << 2));
+                    }
+                } else {
+                    for (int i = 0; i < count; i++) {
+                        int v = b.getInt(i << 2);
+                        t[o + i] = v == nil ? Float.NaN : (float) (z + s * v);
+                    }
+                }
+                break;
+            case 64:
+                if (!hasBlank) {
+                    for (int i = 0; i < count; i++) {
+                        t[o + i] = (float) (z + s * b.getLong(i << 3));
+                    }
+                } else {
+                    for (int i = 0; i < count; i++) {
+                        long v = b.getLong(i << 3);
+                        t[o + i] = v == nil ? Float.NaN : (float) (z + s * v);
+                    }
+                }
+                break;
+            case -32:
+                if (s == 1 && z == 0) {
+                    b.asFloatBuffer().get(t, o, count);
+                } else {
+                    for (int i = 0; i < count; i++) {
+                        t[o + i] = (float) (z + s * b.getFloat(i << 2));
+                    }
+                }
+                break;
+            default:
+                for (int i = 0; i < count; i++) {
+                    t[o + i] = (float) (z + s * b.getDouble(i << 3));
+                }
+                break;
+        }
+    }
+
+    /**
+     * Converts raw pixels into double precision physical values.
+     * @param raw Raw pixels starting at the position of the buffer.
+     * @param count Number of pixels.
+     * @param t Array to store the physical values in.
+     * @param o Index in {@code t} of the first value.
+     */
+    private void convert(ByteBuffer raw, int count, double[] t, int o) {
+        ByteBuffer b = raw.slice().order(ByteOrder.BIG_ENDIAN);
+        final double s = scale;
+        final double z = zero;
+        final long nil = blank;
+        switch (bitpix) {
+            case 8:
+                if (!hasBlank) {
+                    for (int i = 0; i < count; i++) {
+                        t[o + i] = z + s * (b.get(i) & 0xFF);
+                    }
+                } else {
+                    for (int i = 0; i < count; i++) {
+                        int v = b.get(i) & 0xFF;
+                        t[o + i] = v == nil ? Double.NaN : z + s * v;
+                    }
+                }
+                break;
+            case 16:
+                if (!hasBlank) {
+                    for (int i = 0; i < count; i++) {
+                        t[o + i] = z + s * b.getShort(i << 1);
+                    }
+                } else {
+                    for (int i = 0; i < count; i++) {
+                        short v = b.getShort(i << 1);
+                        t[o + i] = v == nil ? Double.NaN : z + s * v;
+                    }
+                }
+                break;
+            case 32:
+                if (!hasBlank) {
+                    for (int i = 0; i < count; i++) {
+                        t[o + i] = z + s * b.getInt(i << 2);
+                    }
+                } else {
+                    for (int i = 0; i < count; i++) {
+                        int v = b.getInt(i << 2);
+                        t[o + i] = v == nil ? Double.NaN : z + s * v;
+                    }
+                }
+                break;
+            case 64:
+                if (!hasBlank) {
+                    for (int i = 0; i < count; i++) {
+                        t[o + i] = z + s * b.getLong(i << 3);
+                    }
+                } else {
+                    for (int i = 0; i < count; i++) {
+                        long v = b.getLong(i << 3);
+                        t[o + i] = v == nil ? Double.NaN : z + s * v;
+                    }
+                }
+                break;
+            case -32:
+                for (int i = 0; i < count; i++) {
+                    t[o + i] = z + s * b.getFloat(i << 2);
+                }
+                break;
+            default:
+                if (s == 1 && z == 0) {
+                    b.asDoubleBuffer().get(t, o, count);
+                } else {
+                    for (int i = 0; i < count; i++) {
+                        t[o + i] = z + s * b.getDouble(i << 3);
+                    }
+                }
+                break;
+        }
+    }
+
+    /**
+     * Calculates the number of pixels in a buffer and checks that they fit
+     * into the target array.
+     * @param raw Buffer with the raw pixels.
+     * @param length Length of the target array.
+     * @param offset Index in the target array of the first value.
+     * @return Number of pixels.
+     * @throws IndexOutOfBoundsException if the target array is too small.
+     */
+    private int pixelCount(ByteBuffer raw, int length, int offset) {
+        int count = raw.remaining() / (Math.abs(bitpix) / 8);
+        if (offset < 0 || count > length - offset) {
+            throw new IndexOutOfBoundsException(
+                    "target too small for the pixels in raw.");
+        }
+        return count;
+    }
+
+    /**
+     * Checks the arguments of a conversion from an image.
+     * @param image Image to read from.
+     * @param first Index of the first pixel.
+     * @param length Length of the target array.
+     * @param offset Index in the target array of the first value.
+     * @param count Number of pixels to convert.
+     * @throws IllegalArgumentException if the type of the image does not
+     * match.
+     * @throws IndexOutOfBoundsException if the range is not within the image
+     * or the target array.
+     */
+    private void checkRange(MappedImage image, long first, int length,
+            int offset, int count) {
+        if (image.getBitpix() != bitpix) {
+            throw new IllegalArgumentException("Image has BITPIX "
+                    + image.getBitpix() + ", not " + bitpix + ".");
+        }
+        if (first < 0 || count < 0 || first > image.getPixelCount() - count) {
+            throw new IndexOutOfBoundsException(
+                    "Pixel range out of the image.");
+        }
+        if (offset < 0 || count > length - offset) {
+            throw new IndexOutOfBoundsException(
+                    "Pixel range out of the target array.");
+        }
+    }
+
+    /**
+     * Reports a scale keyword with a value that is not a number.
+     * @param property Property with the invalid value.
+     * @param offset Offset used for error reporting.
+     * @param errorHandler Handler to which the error is reported.
+     * @return Exception to throw.
+     * @throws IOException see {@link ErrorHandler}.
+     */
+    private static FitsFormatException invalid(Property property,
+            long offset, ErrorHandler errorHandler) throws IOException {
+        FitsFormatException ex = new FitsFormatException(offset,
+                "PhysicalValueConverter_InvalidValue", property.getKeyword(),
+                property.get());
+        errorHandler.fatal(ex);
+        return ex;
+    }
+}
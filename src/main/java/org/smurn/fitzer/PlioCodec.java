@@ -0,0 +1,108 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.nio.ShortBuffer;
+
+/**
+ * Decompression of tiles compressed with the IRAF pixel list algorithm,
+ * {@code PLIO_1} of the FITS tiled image convention. <p>The compressed
+ * tile is a line list of 16 bit words: a header followed by instructions
+ * that set the current pixel value, skip runs of zeros and emit runs of the
+ * current value. It is meant for masks with non-negative values of up to
+ * 24 bits.</p>
+ */
+final class PlioCodec {
+
+    /**
+     * Not instantiable.
+     */
+    private PlioCodec() {
+    }
+
+    /**
+     * Decompresses a tile.
+     * @param in Line list from the position to the limit of the buffer.
+     * Only absolute get operations are used.
+     * @param out Array receiving the pixels.
+     * @param count Number of pixels to decompress.
+     * @throws IndexOutOfBoundsException if the line list is truncated.
+     */
+    static void decompress(ShortBuffer in, int[] out, int count) {
+        int base = in.position() - 1;
+        int length;
+        int first;
+        if (in.get(base + 3) > 0) {
+            length = in.get(base + 3);
+            first = 4;
+        } else {
+            length = (in.get(base + 5) << 15) + in.get(base + 4);
+            first = in.get(base + 2) + 1;
+        }
+        int op = 0;
+        if (count > 0 && length > 0) {
+            int x1 = 1;
+            int value = 1;
+            for (int ip = first; ip <= length && x1 <= count; ip++) {
+                int word = in.get(base + ip) & 0xFFFF;
+                int opcode = word >>> 12;
+                int data = word & 0xFFF;
+                switch (opcode) {
+                    case 0:
+                    case 4:
+                    case 5:
+                        int x2 = x1 + data - 1;
+                        int end = Math.min(x2, count);
+                        int n = end - x1 + 1;
+                        if (n > 0) {
+                            int top = op + n;
+                            int fill = opcode == 4 ? value : 0;
+                            while (op < top) {
+                                out[op++] = fill;
+                            }
+                            if (opcode == 5 && end == x2) {
+                                out[top - 1] = value;
+                            }
+                        }
+                        x1 = x2 + 1;
+                        break;
+                    case 1:
+                        value = ((in.get(base + ip + 1) & 0xFFFF) << 12)
+                                + data;
+                        ip++;
+                        break;
+                    case 2:
+                        value += data;
+                        break;
+                    case 3:
+                        value -= data;
+                        break;
+                    case 6:
+                    case 7:
+                        value += opcode == 6 ? data : -data;
+                        out[op++] = value;
+                        x1++;
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+        while (op < count) {
+            out[op++] = 0;
+        }
+    }
+}
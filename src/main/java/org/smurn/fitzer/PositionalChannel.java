@@ -0,0 +1,88 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Readable view of a file channel with a position of its own. <p>Reads are
+ * done with {@link FileChannel#read(ByteBuffer, long)}, which neither uses
+ * nor changes the position of the file channel. Any number of views can read
+ * from the same file channel concurrently, each thread using its own view,
+ * for example to read the headers of different HDUs at the same time.</p>
+ * <p>Closing a view does not close the file channel. Instances are not
+ * thread-safe.</p>
+ */
+public final class PositionalChannel implements ReadableByteChannel {
+
+    private final FileChannel channel;
+    private long position;
+    private boolean open;
+
+    /**
+     * Creates an instance.
+     * @param channel File channel to read from.
+     * @param position Position in the file of the first byte to read.
+     * @throws NullPointerException if {@code channel} is {@code null}.
+     * @throws IllegalArgumentException if {@code position} is negative.
+     */
+    public PositionalChannel(FileChannel channel, long position) {
+        if (channel == null) {
+            throw new NullPointerException("channel must not be null.");
+        }
+        if (position < 0) {
+            throw new IllegalArgumentException(
+                    "position must not be negative.");
+        }
+        this.channel = channel;
+        this.position = position;
+        this.open = true;
+    }
+
+    /**
+     * Gets the position of the next byte to read.
+     * @return Position in the file.
+     */
+    public long position() {
+        return position;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        int n = channel.read(dst, position);
+        if (n > 0) {
+            position += n;
+        }
+        return n;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open && channel.isOpen();
+    }
+
+    @Override
+    public void close() {
+        open = false;
+    }
+}
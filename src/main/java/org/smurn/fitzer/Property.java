@@ -15,27 +15,61 @@
  */
 package org.smurn.fitzer;
 
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.util.Arrays;
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 
 /**
  * Property of a FITS header. <p>Instances of this type are immutable.</p>
+ * <p>Numbers with up to 18 significant digits are stored as an unscaled
+ * {@code long} and a scale. {@link #getLong()}, {@link #getInt()} and
+ * {@link #getDouble()} work on this representation directly and do not create
+ * any objects.</p> <p>Properties read by a lazy {@link HeaderReader} keep the
+ * raw value field and decode it when the value or comment is accessed for
+ * the first time. Decoding happens once, even if several threads access the
+ * property concurrently. Errors are reported to the error handler of the
+ * reader at that time. If decoding fails, the getters throw a
+ * {@link DeferredDecodingException}, while {@link #equals(Object)} and
+ * {@link #hashCode()} fall back to the raw value field.</p>
  */
 public class Property {
 
     private final String keyword;
     private final Object value;
+    private final boolean compact;
+    private final long unscaledValue;
+    private final int scale;
     private final String comment;
     private final boolean commentary;
+    /**
+     * Raw value of a property read lazily, {@code null} otherwise.
+     */
+    private final DeferredValue deferred;
+    /**
+     * Property with the decoded value, set once {@link #deferred} was
+     * decoded.
+     */
+    private volatile Property decoded;
+    /**
+     * Exception thrown when decoding {@link #deferred}. Guarded by
+     * {@code this}.
+     */
+    private IOException failure;
+    /**
+     * Number created from the compact representation on first request.
+     * Benign data race, {@code BigDecimal} is immutable.
+     */
+    private BigDecimal number;
 
     /**
      * Creates an instance. <p>The created property is not commentary. The
      * comment is an empty string.</p>
      * @param keyword Keyword of the property.
      * @param value Value of the property, must of one of the following types:
-     * {@code String}, {@code BigDecimal} or {@link Complex}.
+     * {@code String}, {@code BigDecimal}, {@code Boolean} or {@link Complex}.
      * @throws NullPointerException if {@code keyword} or {@code comment} are
      * {@code null}.
      * @throws IllegalArgumentException if {@code value} is of a wrong type.
@@ -48,7 +82,7 @@ public class Property {
      * Creates an instance. <p>The created property is not commentary.</p>
      * @param keyword Keyword of the property.
      * @param value Value of the property, must of one of the following types:
-     * {@code String}, {@code BigDecimal} or {@link Complex}.
+     * {@code String}, {@code BigDecimal}, {@code Boolean} or {@link Complex}.
      * @param comment Comment of this property.
      * @throws NullPointerException if {@code keyword} or {@code comment} are
      * {@code null}.
@@ -62,7 +96,7 @@ public class Property {
      * Creates an instance.
      * @param keyword Keyword of the property.
      * @param value Value of the property, must of one of the following types:
-     * {@code String}, {@code BigDecimal} or {@link Complex}.
+     * {@code String}, {@code BigDecimal}, {@code Boolean} or {@link Complex}.
      * @param comment Comment of this property.
      * @param commentary If this property is commentary or not.
      * @throws NullPointerException if {@code keyword} or {@code comment} are
@@ -80,6 +114,7 @@ public class Property {
         if (value != null
                 && !(value instanceof String)
                 && !(value instanceof BigDecimal)
+                && !(value instanceof Boolean)
                 && !(value instanceof Complex)) {
             throw new IllegalArgumentException(
                     "Unsupported value type: "
@@ -96,6 +131,109 @@ public class Property {
         this.value = value;
         this.comment = comment;
         this.commentary = commentary;
+        this.deferred = null;
+        if (value instanceof BigDecimal && ((BigDecimal) value).precision()
+                <= DecimalParser.MAX_COMPACT_DIGITS) {
+            BigDecimal decimal = (BigDecimal) value;
+            this.compact = true;
+            this.unscaledValue = decimal.unscaledValue().longValue();
+            this.scale = decimal.scale();
+            this.number = decimal;
+        } else {
+            this.compact = false;
+            this.unscaledValue = 0;
+            this.scale = 0;
+        }
+    }
+
+    /**
+     * Creates an instance with an integer value. <p>The created property is
+     * not commentary. The comment is an empty string.</p>
+     * @param keyword Keyword of the property.
+     * @param value Value of the property.
+     * @throws NullPointerException if {@code keyword} is {@code null}.
+     */
+    public Property(String keyword, long value) {
+        this(keyword, value, "");
+    }
+
+    /**
+     * Creates an instance with an integer value. <p>The created property is
+     * not commentary.</p>
+     * @param keyword Keyword of the property.
+     * @param value Value of the property.
+     * @param comment Comment of this property.
+     * @throws NullPointerException if {@code keyword} or {@code comment} are
+     * {@code null}.
+     */
+    public Property(String keyword, long value, String comment) {
+        this(keyword, value, 0, comment);
+    }
+
+    /**
+     * Creates an instance with a numeric value in compact representation.
+     * <p>The created property is not commentary. The value is
+     * {@code unscaledValue * 10^-scale}.</p>
+     * @param keyword Keyword of the property.
+     * @param unscaledValue Unscaled value of the number.
+     * @param scale Scale of the number.
+     * @param comment Comment of this property.
+     * @throws NullPointerException if {@code keyword} or {@code comment} are
+     * {@code null}.
+     */
+    Property(String keyword, long unscaledValue, int scale, String comment) {
+        if (keyword == null) {
+            throw new NullPointerException("Keyword must not be null.");
+        }
+        if (comment == null) {
+            throw new NullPointerException("Comment must not be null.");
+        }
+        this.keyword = keyword;
+        this.value = null;
+        this.compact = true;
+        this.unscaledValue = unscaledValue;
+        this.scale = scale;
+        this.comment = comment;
+        this.commentary = false;
+        this.deferred = null;
+    }
+
+    /**
+     * Creates an instance whose value is decoded on first access. <p>The
+     * created property is not commentary.</p>
+     * @param keyword Keyword of the property.
+     * @param deferred Raw value field.
+     * @return New property.
+     * @throws NullPointerException if {@code keyword} or {@code deferred} are
+     * {@code null}.
+     */
+    static Property deferred(String keyword, DeferredValue deferred) {
+        return new Property(deferred, keyword);
+    }
+
+    /**
+     * Creates an instance whose value is decoded on first access. <p>Private
+     * to keep {@code new Property(null, value)} unambiguous.</p>
+     * @param deferred Raw value field.
+     * @param keyword Keyword of the property.
+     * @throws NullPointerException if {@code deferred} or {@code keyword} are
+     * {@code null}.
+     */
+    private Property(DeferredValue deferred, String keyword) {
+        if (keyword == null) {
+            throw new NullPointerException("Keyword must not be null.");
+        }
+        if (deferred == null) {
+            throw new NullPointerException("deferred must not be null.");
+        }
+        this.keyword = keyword;
+        this.value = null;
+        this.compact = false;
+        this.unscaledValue = 0;
+        this.scale = 0;
+        this.comment = "";
+        this.commentary = false;
+        this.deferred = deferred;
     }
 
     /**
@@ -109,9 +247,21 @@ public class Property {
     /**
      * Gets the value of this property.
      * @return Value of this property. Will be {@code null} or of type
-     * {@code String}, {@code BigDecimal} or {@link Complex}.
+     * {@code String}, {@code BigDecimal}, {@code Boolean} or
+     * {@link Complex}.
      */
     public Object get() {
+        if (deferred != null) {
+            return resolve().get();
+        }
+        if (compact) {
+            BigDecimal n = number;
+            if (n == null) {
+                n = BigDecimal.valueOf(unscaledValue, scale);
+                number = n;
+            }
+            return n;
+        }
         return value;
     }
 
@@ -122,10 +272,11 @@ public class Property {
      * {@code String}.
      */
     public String getString() {
-        if (value == null) {
+        Object v = get();
+        if (v == null) {
             return null;
-        } else if (value instanceof String) {
-            return (String) value;
+        } else if (v instanceof String) {
+            return (String) v;
         } else {
             throw new IllegalStateException(
                     "Property does not contain a string value.");
@@ -139,16 +290,88 @@ public class Property {
      * {@code BigDecimal}.
      */
     public BigDecimal getNumber() {
-        if (value == null) {
+        Object v = get();
+        if (v == null) {
             return null;
-        } else if (value instanceof BigDecimal) {
-            return (BigDecimal) value;
+        } else if (v instanceof BigDecimal) {
+            return (BigDecimal) v;
         } else {
             throw new IllegalStateException(
                     "Property does not contain a numeric value.");
         }
     }
 
+    /**
+     * Gets the value of this property as {@code long}. <p>Numbers that have a
+     * fractional part but represent an integer, such as {@code 1024.00}, are
+     * accepted. No objects are created if the number has no more than 18
+     * significant digits.</p>
+     * @return Value of this property.
+     * @throws IllegalStateException if the value is not a number.
+     * @throws ArithmeticException if the value is not an integer or outside
+     * of the range of {@code long}.
+     */
+    public long getLong() {
+        if (deferred != null) {
+            return resolve().getLong();
+        }
+        if (compact) {
+            return DecimalParser.toLongExact(unscaledValue, scale);
+        }
+        return requireNumber().longValueExact();
+    }
+
+    /**
+     * Gets the value of this property as {@code int}. <p>Same as
+     * {@link #getLong()} with an additional range check.</p>
+     * @return Value of this property.
+     * @throws IllegalStateException if the value is not a number.
+     * @throws ArithmeticException if the value is not an integer or outside
+     * of the range of {@code int}.
+     */
+    public int getInt() {
+        long l = getLong();
+        if (l < Integer.MIN_VALUE || l > Integer.MAX_VALUE) {
+            throw new ArithmeticException("Value out of int range.");
+        }
+        return (int) l;
+    }
+
+    /**
+     * Gets the value of this property as {@code double}. <p>The value is
+     * rounded to the nearest {@code double}. No objects are created if the
+     * number has no more than 18 significant digits and a small exponent.</p>
+     * @return Value of this property.
+     * @throws IllegalStateException if the value is not a number.
+     */
+    public double getDouble() {
+        if (deferred != null) {
+            return resolve().getDouble();
+        }
+        if (compact) {
+            return DecimalParser.toDouble(unscaledValue, scale);
+        }
+        return requireNumber().doubleValue();
+    }
+
+    /**
+     * Gets the value of this property.
+     * @return Value of this property, may be {@code null}.
+     * @throws IllegalStateException if the value is neigher {@code null} nor a
+     * {@code Boolean}.
+     */
+    public Boolean getBoolean() {
+        Object v = get();
+        if (v == null) {
+            return null;
+        } else if (v instanceof Boolean) {
+            return (Boolean) v;
+        } else {
+            throw new IllegalStateException(
+                    "Property does not contain a logical value.");
+        }
+    }
+
     /**
      * Gets the value of this property.
      * @return Value of this property, may be {@code null}.
@@ -156,10 +379,11 @@ public class Property {
      * {@code Complex}.
      */
     public Complex getComplex() {
-        if (value == null) {
+        Object v = get();
+        if (v == null) {
             return null;
-        } else if (value instanceof BigDecimal) {
-            return (Complex) value;
+        } else if (v instanceof Complex) {
+            return (Complex) v;
         } else {
             throw new IllegalStateException(
                     "Property does not contain a complex value.");
@@ -171,6 +395,9 @@ public class Property {
      * @return Comment, never {@code null}.
      */
     public String getComment() {
+        if (deferred != null) {
+            return resolve().getComment();
+        }
         return comment;
     }
 
@@ -183,6 +410,75 @@ public class Property {
         return commentary;
     }
 
+    /**
+     * Gets the property with the decoded value of a property that was read
+     * lazily. <p>Decodes the value on the first call.</p>
+     * @return Property with the decoded value, or this property if it was
+     * not read lazily.
+     * @throws DeferredDecodingException if decoding fails.
+     */
+    private Property resolve() {
+        if (deferred == null) {
+            return this;
+        }
+        Property result = decoded;
+        if (result == null) {
+            result = decode();
+        }
+        return result;
+    }
+
+    /**
+     * Gets the property with the decoded value without throwing if decoding
+     * fails. <p>Used by {@link #equals(Object)} and {@link #hashCode()}:
+     * properties whose deferred value cannot be decoded are compared by
+     * their keyword and raw value field instead.</p>
+     * @return Property with the decoded value, this instance if it was not
+     * read lazily, or {@code null} if decoding fails.
+     */
+    private Property resolveQuietly() {
+        try {
+            return resolve();
+        } catch (DeferredDecodingException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Decodes the deferred value unless this was done already.
+     * @return Property with the decoded value.
+     * @throws DeferredDecodingException if decoding fails.
+     */
+    private synchronized Property decode() {
+        if (decoded != null) {
+            return decoded;
+        }
+        if (failure != null) {
+            throw new DeferredDecodingException(failure);
+        }
+        try {
+            decoded = deferred.decode(keyword);
+        } catch (IOException e) {
+            failure = e;
+            throw new DeferredDecodingException(e);
+        }
+        return decoded;
+    }
+
+    /**
+     * Gets the numeric value of a property that is not in compact
+     * representation.
+     * @return Value of this property.
+     * @throws IllegalStateException if the value is not a number.
+     */
+    private BigDecimal requireNumber() {
+        if (!(value instanceof BigDecimal)) {
+            throw new IllegalStateException(
+                    "Property does not contain a numeric value.");
+        }
+        return (BigDecimal) value;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (obj == null) {
@@ -194,28 +490,48 @@ public class Property {
         if (obj.getClass() != getClass()) {
             return false;
         }
-        Property rhs = (Property) obj;
-        return new EqualsBuilder().append(keyword, rhs.keyword).
-                append(value, rhs.value).
-                append(comment, rhs.comment).
-                append(commentary, rhs.commentary).
+        Property other = (Property) obj;
+        Property lhs = resolveQuietly();
+        Property rhs = other.resolveQuietly();
+        if (lhs == null || rhs == null) {
+            return lhs == rhs && keyword.equals(other.keyword)
+                    && Arrays.equals(deferred.getBytes(),
+                    other.deferred.getBytes());
+        }
+        return new EqualsBuilder().append(lhs.keyword, rhs.keyword).
+                append(lhs.compact, rhs.compact).
+                append(lhs.unscaledValue, rhs.unscaledValue).
+                append(lhs.scale, rhs.scale).
+                append(lhs.compact ? null : lhs.value,
+                rhs.compact ? null : rhs.value).
+                append(lhs.comment, rhs.comment).
+                append(lhs.commentary, rhs.commentary).
                 isEquals();
     }
 
     @Override
     public int hashCode() {
-        return new HashCodeBuilder().append(keyword).
-                append(value).
-                append(comment).
-                append(commentary).
+        Property p = resolveQuietly();
+        if (p == null) {
+            return new HashCodeBuilder().append(keyword).
+                    append(deferred.getBytes()).
+                    toHashCode();
+        }
+        return new HashCodeBuilder().append(p.keyword).
+                append(p.compact).
+                append(p.unscaledValue).
+                append(p.scale).
+                append(p.compact ? null : p.value).
+                append(p.comment).
+                append(p.commentary).
                 toHashCode();
     }
 
     @Override
     public String toString() {
         return new ToStringBuilder(this).append(keyword).
-                append(value).
-                append(comment).
+                append(get()).
+                append(getComment()).
                 append(commentary).
                 build();
     }
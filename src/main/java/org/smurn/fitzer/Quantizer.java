@@ -0,0 +1,282 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.util.Arrays;
+
+/**
+ * Quantization of floating point tiles, as used by the FITS tiled image
+ * convention. <p>Compressed floating point images usually store each tile
+ * as integers {@code i} with {@code value = (i - r + 0.5) * ZSCALE + ZZERO}
+ * where {@code r} is a pseudo random dither in {@code [0, 1)} or zero if
+ * the tile is not dithered. The random sequence and the way a tile picks its
+ * start in the sequence follow the convention, so that tiles written by
+ * CFITSIO are restored exactly.</p>
+ */
+final class Quantizer {
+
+    /**
+     * {@code ZQUANTIZ = 'NO_DITHER'}.
+     */
+    static final int NO_DITHER = 0;
+    /**
+     * {@code ZQUANTIZ = 'SUBTRACTIVE_DITHER_1'}.
+     */
+    static final int SUBTRACTIVE_DITHER_1 = 1;
+    /**
+     * {@code ZQUANTIZ = 'SUBTRACTIVE_DITHER_2'}, which keeps exact zeros.
+     */
+    static final int SUBTRACTIVE_DITHER_2 = 2;
+    /**
+     * Integer marking undefined pixels.
+     */
+    static final int NULL_VALUE = -2147483647;
+    /**
+     * Integer marking exact zeros with {@link #SUBTRACTIVE_DITHER_2}.
+     */
+    static final int ZERO_VALUE = -2147483646;
+    /**
+     * Length of the random sequence.
+     */
+    static final int RANDOM_COUNT = 10000;
+    /**
+     * Number of integers near the lower end of the range that are reserved
+     * for special values.
+     */
+    private static final int RESERVED_VALUES = 10;
+    /**
+     * Ratio of the standard deviation of gaussian noise and the median of
+     * the absolute second order differences.
+     */
+    private static final double NOISE_FACTOR = 0.6052697;
+    private static final float[] RANDOM = createRandom();
+
+    /**
+     * Not instantiable.
+     */
+    private Quantizer() {
+    }
+
+    /**
+     * Parses the value of {@code ZQUANTIZ}.
+     * @param name Value of the keyword without trailing spaces, {@code null}
+     * if the keyword is missing.
+     * @return One of the method constants or {@code -1} if unknown.
+     */
+    static int parseMethod(String name) {
+        if (name == null || "NO_DITHER".equals(name)) {
+            return NO_DITHER;
+        } else if ("SUBTRACTIVE_DITHER_1".equals(name)) {
+            return SUBTRACTIVE_DITHER_1;
+        } else if ("SUBTRACTIVE_DITHER_2".equals(name)) {
+            return SUBTRACTIVE_DITHER_2;
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the random number at which the dither of a tile starts.
+     * @param tile Index of the tile, starting at zero.
+     * @param seed Value of {@code ZDITHER0}.
+     * @return Index into the random sequence of the first dither value.
+     */
+    static int firstSeed(long tile, int seed) {
+        return (int) ((tile + seed - 1) % RANDOM_COUNT);
+    }
+
+    /**
+     * Gets a number of the random sequence.
+     * @param index Index into the sequence.
+     * @return Random number in {@code [0, 1)}.
+     */
+    static float random(int index) {
+        return RANDOM[index];
+    }
+
+    /**
+     * Restores floating point values from quantized integers.
+     * @param in Quantized values.
+     * @param count Number of values.
+     * @param scale Value of {@code ZSCALE}.
+     * @param zero Value of {@code ZZERO}.
+     * @param method Dithering method, see the constants.
+     * @param tile Index of the tile, starting at zero.
+     * @param seed Value of {@code ZDITHER0}.
+     * @param blank Integer marking undefined pixels.
+     * @param out Array receiving the values, NaN for undefined pixels.
+     */
+    static void dequantize(int[] in, int count, double scale, double zero,
+            int method, long tile, int seed, int blank, double[] out) {
+        if (method == NO_DITHER) {
+            for (int i = 0; i < count; i++) {
+                out[i] = in[i] == blank ? Double.NaN : in[i] * scale + zero;
+            }
+            return;
+        }
+        int iseed = firstSeed(tile, seed);
+        int next = (int) (RANDOM[iseed] * 500);
+        for (int i = 0; i < count; i++) {
+            int v = in[i];
+            if (v == blank) {
+                out[i] = Double.NaN;
+            } else if (method == SUBTRACTIVE_DITHER_2 && v == ZERO_VALUE) {
+                out[i] = 0.0;
+            } else {
+                out[i] = (v - RANDOM[next] + 0.5) * scale + zero;
+            }
+            next++;
+            if (next == RANDOM_COUNT) {
+                iseed = (iseed + 1) % RANDOM_COUNT;
+                next = (int) (RANDOM[iseed] * 500);
+            }
+        }
+    }
+
+    /**
+     * Quantizes floating point values with subtractive dithering. <p>The
+     * step between two quantization levels is the noise of the tile divided
+     * by {@code level}, or {@code -level} if {@code level} is negative. The
+     * levels start at the smallest value, so the integers do not collide
+     * with {@link #NULL_VALUE}.</p>
+     * @param in Values to quantize, NaN for undefined pixels.
+     * @param count Number of values.
+     * @param rowLength Number of values per row of the tile, used to
+     * estimate the noise.
+     * @param level Quantization level, see above.
+     * @param tile Index of the tile, starting at zero.
+     * @param seed Value of {@code ZDITHER0}.
+     * @param out Array receiving the quantized values.
+     * @return {@code ZSCALE} and {@code ZZERO} or {@code null} if the tile
+     * cannot be quantized, because it has no noise, contains infinite values
+     * or spans too many quantization levels.
+     */
+    static double[] quantize(double[] in, int count, int rowLength,
+            double level, long tile, int seed, int[] out) {
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            double v = in[i];
+            if (Double.isInfinite(v)) {
+                return null;
+            }
+            if (v < min) {
+                min = v;
+            }
+            if (v > max) {
+                max = v;
+            }
+        }
+        double scale = level < 0 ? -level : noise(in, count, rowLength)
+                / level;
+        if (!(scale > 0) || (max - min) / scale
+                > 2.0 * Integer.MAX_VALUE - RESERVED_VALUES) {
+            return null;
+        }
+        double zero;
+        if (max < min || (max - min) / scale
+                < Integer.MAX_VALUE - RESERVED_VALUES) {
+            zero = max < min ? 0 : Math.floor(min / scale + 0.5) * scale;
+        } else {
+            zero = (min + max) / 2;
+        }
+        int iseed = firstSeed(tile, seed);
+        int next = (int) (RANDOM[iseed] * 500);
+        for (int i = 0; i < count; i++) {
+            double v = in[i];
+            if (Double.isNaN(v)) {
+                out[i] = NULL_VALUE;
+            } else {
+                double q = (v - zero) / scale + RANDOM[next] - 0.5;
+                out[i] = (int) (q >= 0 ? q + 0.5 : q - 0.5);
+            }
+            next++;
+            if (next == RANDOM_COUNT) {
+                iseed = (iseed + 1) % RANDOM_COUNT;
+                next = (int) (RANDOM[iseed] * 500);
+            }
+        }
+        return new double[]{scale, zero};
+    }
+
+    /**
+     * Estimates the noise of a tile. <p>Uses the median of the absolute
+     * second order differences {@code 2 v[i] - v[i-2] - v[i+2]} of each
+     * row, scaled to the standard deviation of gaussian noise. The estimate
+     * of the tile is the median of the rows. Tiles with rows shorter than
+     * five values are treated as one row.</p>
+     * @param in Values of the tile, NaN for undefined pixels.
+     * @param count Number of values.
+     * @param rowLength Number of values per row.
+     * @return Estimated standard deviation of the noise, zero if it cannot
+     * be estimated.
+     */
+    static double noise(double[] in, int count, int rowLength) {
+        int length = rowLength < 5 ? count : rowLength;
+        int rows = length == 0 ? 0 : count / length;
+        double[] rowNoise = new double[rows];
+        double[] diffs = new double[length];
+        double[] values = new double[length];
+        int n = 0;
+        for (int r = 0; r < rows; r++) {
+            int valid = 0;
+            for (int i = r * length; i < (r + 1) * length; i++) {
+                if (!Double.isNaN(in[i])) {
+                    values[valid++] = in[i];
+                }
+            }
+            if (valid < 5) {
+                continue;
+            }
+            for (int i = 2; i < valid - 2; i++) {
+                diffs[i - 2] = Math.abs(2 * values[i] - values[i - 2]
+                        - values[i + 2]);
+            }
+            rowNoise[n++] = median(diffs, valid - 4);
+        }
+        return n == 0 ? 0 : NOISE_FACTOR * median(rowNoise, n);
+    }
+
+    /**
+     * Calculates the median, reordering the values.
+     * @param values Values.
+     * @param count Number of values, at least one.
+     * @return Median.
+     */
+    private static double median(double[] values, int count) {
+        Arrays.sort(values, 0, count);
+        int half = count / 2;
+        return count % 2 == 1 ? values[half]
+                : (values[half - 1] + values[half]) / 2;
+    }
+
+    /**
+     * Creates the random sequence of the convention, a Park-Miller minimal
+     * standard generator started with seed 1.
+     * @return Random numbers in {@code [0, 1)}.
+     */
+    private static float[] createRandom() {
+        float[] random = new float[RANDOM_COUNT];
+        double a = 16807.0;
+        double m = 2147483647.0;
+        double seed = 1;
+        for (int i = 0; i < RANDOM_COUNT; i++) {
+            double temp = a * seed;
+            seed = temp - m * (int) (temp / m);
+            random[i] = (float) (seed / m);
+        }
+        return random;
+    }
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+/**
+ * Marker for error handlers that only record {@code ERROR}s and
+ * {@code WARNING}s and never throw them. <p>Validating a file that violates
+ * the specification in many places can produce a large number of
+ * diagnostics. The library creates the exceptions it passes to
+ * {@link #error(FitsException)} and {@link #warning(FitsException)} of such a
+ * handler without a stack trace, which makes creating them considerably
+ * cheaper. Exceptions passed to {@link #fatal(FitsException)} always carry a
+ * stack trace.</p>
+ */
+public interface ReportingErrorHandler extends ErrorHandler {
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Rice compression of integer tiles, as used by the {@code RICE_1}
+ * algorithm of the FITS tiled image convention. <p>Pixels are processed in
+ * blocks of {@code BLOCKSIZE} pixels. The differences between consecutive
+ * pixels are mapped to non-negative numbers and coded with a Golomb-Rice
+ * code whose parameter is chosen per block. Blocks of zero differences and
+ * blocks with high entropy have special codes. The format is bit for bit
+ * the one written by CFITSIO.</p>
+ */
+final class RiceCodec {
+
+    /**
+     * Default number of pixels per block.
+     */
+    static final int DEFAULT_BLOCK_SIZE = 32;
+
+    /**
+     * Not instantiable.
+     */
+    private RiceCodec() {
+    }
+
+    /**
+     * Decompresses a tile.
+     * @param in Compressed bytes from the position to the limit of the
+     * buffer. Only absolute get operations are used.
+     * @param out Array receiving the pixels.
+     * @param count Number of pixels to decompress.
+     * @param blockSize Number of pixels per block.
+     * @param bytePix Size of the original pixels: 1, 2 or 4 bytes. Bytes are
+     * unsigned, larger values signed.
+     * @throws IllegalArgumentException if {@code bytePix} is not supported
+     * or {@code blockSize} is not positive.
+     * @throws IndexOutOfBoundsException if the compressed data is truncated.
+     */
+    static void decompress(ByteBuffer in, int[] out, int count, int blockSize,
+            int bytePix) {
+        int fsBits = fsBits(bytePix);
+        int fsMax = fsMax(bytePix);
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("blockSize must be positive.");
+        }
+        int bBits = 1 << fsBits;
+        int c = in.position();
+        int last = 0;
+        for (int i = 0; i < bytePix; i++) {
+            last = (last << 8) | (in.get(c++) & 0xFF);
+        }
+        last = normalize(last, bytePix);
+        int b = in.get(c++) & 0xFF;
+        int nbits = 8;
+        int i = 0;
+        while (i < count) {
+            nbits -= fsBits;
+            while (nbits < 0) {
+                b = (b << 8) | (in.get(c++) & 0xFF);
+                nbits += 8;
+            }
+            int fs = (b >>> nbits) - 1;
+            b &= (1 << nbits) - 1;
+            int end = Math.min(i + blockSize, count);
+            if (fs < 0) {
+                while (i < end) {
+                    out[i++] = last;
+                }
+            } else if (fs == fsMax) {
+                while (i < end) {
+                    int k = bBits - nbits;
+                    int diff = k < 32 ? b << k : 0;
+                    for (k -= 8; k >= 0; k -= 8) {
+                        b = in.get(c++) & 0xFF;
+                        diff |= b << k;
+                    }
+                    if (nbits > 0) {
+                        b = in.get(c++) & 0xFF;
+                        diff |= b >>> -k;
+                        b &= (1 << nbits) - 1;
+                    } else {
+                        b = 0;
+                    }
+                    last = normalize(unmap(diff) + last, bytePix);
+                    out[i++] = last;
+                }
+            } else {
+                while (i < end) {
+                    while (b == 0) {
+                        nbits += 8;
+                        b = in.get(c++) & 0xFF;
+                    }
+                    int nzero = nbits - (32 - Integer.numberOfLeadingZeros(b));
+                    nbits -= nzero + 1;
+                    b ^= 1 << nbits;
+                    nbits -= fs;
+                    while (nbits < 0) {
+                        b = (b << 8) | (in.get(c++) & 0xFF);
+                        nbits += 8;
+                    }
+                    int diff = (nzero << fs) | (b >>> nbits);
+                    b &= (1 << nbits) - 1;
+                    last = normalize(unmap(diff) + last, bytePix);
+                    out[i++] = last;
+                }
+            }
+        }
+    }
+
+    /**
+     * Compresses a tile. <p>The output is identical to the one of CFITSIO
+     * for the same pixels and parameters.</p>
+     * @param in Pixels to compress. With {@code bytePix} 1 and 2 only the
+     * lowest 8 or 16 bits of each pixel are used.
+     * @param offset Index of the first pixel.
+     * @param count Number of pixels.
+     * @param blockSize Number of pixels per block.
+     * @param bytePix Size of the pixels: 1, 2 or 4 bytes.
+     * @return Compressed bytes.
+     * @throws IllegalArgumentException if {@code bytePix} is not supported
+     * or {@code blockSize} is not positive.
+     */
+    static byte[] compress(int[] in, int offset, int count, int blockSize,
+            int bytePix) {
+        int fsBits = fsBits(bytePix);
+        int fsMax = fsMax(bytePix);
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("blockSize must be positive.");
+        }
+        int bBits = 1 << fsBits;
+        int blocks = (count + blockSize - 1) / blockSize;
+        BitOutput out = new BitOutput(bytePix * (count + 1)
+                + (blocks * fsBits + 7) / 8 + 1);
+        int[] diff = new int[blockSize];
+        int last = count > 0 ? signed(in[offset], bytePix) : 0;
+        out.write(last, 8 * bytePix);
+        for (int i = 0; i < count; i += blockSize) {
+            int length = Math.min(blockSize, count - i);
+            double sum = 0;
+            for (int j = 0; j < length; j++) {
+                int next = signed(in[offset + i + j], bytePix);
+                int d = signed(next - last, bytePix);
+                diff[j] = d < 0 ? ~(d << 1) : d << 1;
+                sum += diff[j] & 0xFFFFFFFFL;
+                last = next;
+            }
+            double mean = (sum - length / 2 - 1) / length;
+            long psum = mean < 0 ? 0 : ((long) mean & 0xFFFFFFFFL) >>> 1;
+            int fs = 0;
+            while (psum > 0) {
+                psum >>>= 1;
+                fs++;
+            }
+            if (fs >= fsMax) {
+                out.write(fsMax + 1, fsBits);
+                for (int j = 0; j < length; j++) {
+                    out.write(diff[j], bBits);
+                }
+            } else if (fs == 0 && sum == 0) {
+                out.write(0, fsBits);
+            } else {
+                out.write(fs + 1, fsBits);
+                for (int j = 0; j < length; j++) {
+                    long v = diff[j] & 0xFFFFFFFFL;
+                    out.writeUnary((int) (v >>> fs));
+                    if (fs > 0) {
+                        out.write((int) v, fs);
+                    }
+                }
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Truncates a value to the signed type of the pixels.
+     * @param value Value to truncate.
+     * @param bytePix Size of the pixels.
+     * @return Value as signed byte, signed short or int.
+     */
+    private static int signed(int value, int bytePix) {
+        switch (bytePix) {
+            case 1:
+                return (byte) value;
+            case 2:
+                return (short) value;
+            default:
+                return value;
+        }
+    }
+
+    /**
+     * Undoes the mapping of a difference to a non-negative number.
+     * @param mapped Mapped difference.
+     * @return Difference, even numbers are positive, odd ones negative.
+     */
+    private static int unmap(int mapped) {
+        return (mapped & 1) == 0 ? mapped >>> 1 : ~(mapped >>> 1);
+    }
+
+    /**
+     * Truncates a value to the size of the original pixels.
+     * @param value Value to truncate.
+     * @param bytePix Size of the pixels.
+     * @return Value as unsigned byte, signed short or int.
+     */
+    private static int normalize(int value, int bytePix) {
+        switch (bytePix) {
+            case 1:
+                return value & 0xFF;
+            case 2:
+                return (short) value;
+            default:
+                return value;
+        }
+    }
+
+    /**
+     * Gets the number of bits used to code the parameter of a block.
+     * @param bytePix Size of the pixels.
+     * @return Number of bits.
+     * @throws IllegalArgumentException if {@code bytePix} is not 1, 2 or 4.
+     */
+    static int fsBits(int bytePix) {
+        switch (bytePix) {
+            case 1:
+                return 3;
+            case 2:
+                return 4;
+            case 4:
+                return 5;
+            default:
+                throw new IllegalArgumentException(
+                        "bytePix must be 1, 2 or 4.");
+        }
+    }
+
+    /**
+     * Gets the parameter that marks a block of directly coded differences.
+     * @param bytePix Size of the pixels.
+     * @return Largest parameter.
+     * @throws IllegalArgumentException if {@code bytePix} is not 1, 2 or 4.
+     */
+    static int fsMax(int bytePix) {
+        switch (bytePix) {
+            case 1:
+                return 6;
+            case 2:
+                return 14;
+            case 4:
+                return 25;
+            default:
+                throw new IllegalArgumentException(
+                        "bytePix must be 1, 2 or 4.");
+        }
+    }
+
+    /**
+     * Writes bits into a byte array, most significant bit first.
+     */
+    private static final class BitOutput {
+
+        private byte[] bytes;
+        private int length;
+        private long bits;
+        private int count;
+
+        /**
+         * Creates an instance.
+         * @param capacity Expected number of bytes.
+         */
+        BitOutput(int capacity) {
+            this.bytes = new byte[Math.max(capacity, 16)];
+        }
+
+        /**
+         * Writes the lowest bits of a value.
+         * @param value Value to write.
+         * @param n Number of bits, at most 32.
+         */
+        void write(int value, int n) {
+            bits = (bits << n) | (value & (0xFFFFFFFFL >>> (32 - n)));
+            count += n;
+            while (count >= 8) {
+                count -= 8;
+                put((int) (bits >>> count));
+            }
+            bits &= (1L << count) - 1;
+        }
+
+        /**
+         * Writes a number of zeros followed by a one.
+         * @param zeros Number of zeros.
+         */
+        void writeUnary(int zeros) {
+            int n = zeros;
+            while (n >= 32) {
+                write(0, 32);
+                n -= 32;
+            }
+            write(1, n + 1);
+        }
+
+        /**
+         * Appends a byte.
+         * @param b Byte to append, only the lowest 8 bits are used.
+         */
+        private void put(int b) {
+            if (length == bytes.length) {
+                byte[] larger = new byte[2 * bytes.length];
+                System.arraycopy(bytes, 0, larger, 0, length);
+                bytes = larger;
+            }
+            bytes[length++] = (byte) b;
+        }
+
+        /**
+         * Writes the remaining bits, padded with zeros, and returns the
+         * bytes.
+         * @return Bytes written.
+         */
+        byte[] toByteArray() {
+            if (count > 0) {
+                write(0, 8 - count);
+            }
+            byte[] result = new byte[length];
+            System.arraycopy(bytes, 0, result, 0, length);
+            return result;
+        }
+    }
+}
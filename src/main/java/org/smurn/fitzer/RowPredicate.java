@@ -0,0 +1,260 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+/**
+ * Condition on a column of a binary table, used to select rows with
+ * {@link BinaryTable#scan(long, int, RowPredicate...)}. <p>Predicates work on
+ * scalar columns, that is columns with a repeat count of one. They are
+ * evaluated on the raw big-endian bytes of the field, the value is never
+ * converted to an object. Undefined values, given by {@code TNULLn} for
+ * integer columns and NaN for floating point columns, only match
+ * {@link #isNull(BinaryTableColumn)}.</p> <p>Instances of this type are
+ * immutable.</p>
+ */
+public abstract class RowPredicate {
+
+    private final BinaryTableColumn column;
+
+    /**
+     * Creates an instance.
+     * @param column Column the condition is on.
+     * @param types Allowed type codes of the column.
+     * @throws NullPointerException if {@code column} is {@code null}.
+     * @throws IllegalArgumentException if the column has a type that is not
+     * allowed or a repeat count other than one.
+     */
+    RowPredicate(BinaryTableColumn column, String types) {
+        if (column == null) {
+            throw new NullPointerException("column must not be null.");
+        }
+        if (types.indexOf(column.getType()) < 0) {
+            throw new IllegalArgumentException("Column of type "
+                    + column.getType() + " not supported, expected one of "
+                    + types + ".");
+        }
+        if (column.getRepeat() != 1) {
+            throw new IllegalArgumentException(
+                    "Column must have a repeat count of one.");
+        }
+        this.column = column;
+    }
+
+    /**
+     * Creates a predicate matching values within a range. <p>Integer values
+     * are compared as {@code double}.</p>
+     * @param column Numeric column of type {@code B I J K E D}.
+     * @param min Smallest matching value.
+     * @param max Largest matching value.
+     * @return Predicate.
+     * @throws NullPointerException if {@code column} is {@code null}.
+     * @throws IllegalArgumentException if the column is not numeric or not
+     * scalar.
+     */
+    public static RowPredicate between(BinaryTableColumn column,
+            final double min, final double max) {
+        if (column != null && (column.getType() == 'E'
+                || column.getType() == 'D')) {
+            return new RowPredicate(column, "ED") {
+
+                @Override
+                boolean matches(MappedRegion region, long position) {
+                    double value = readFloating(region, position);
+                    return value >= min && value <= max;
+                }
+            };
+        }
+        return new IntegerPredicate(column) {
+
+            @Override
+            boolean matchesDefined(long value) {
+                return value >= min && value <= max;
+            }
+        };
+    }
+
+    /**
+     * Creates a predicate matching an integer value.
+     * @param column Integer column of type {@code B I J K}.
+     * @param value Matching value, bytes are unsigned.
+     * @return Predicate.
+     * @throws NullPointerException if {@code column} is {@code null}.
+     * @throws IllegalArgumentException if the column is not an integer column
+     * or not scalar.
+     */
+    public static RowPredicate equalTo(BinaryTableColumn column,
+            final long value) {
+        return new IntegerPredicate(column) {
+
+            @Override
+            boolean matchesDefined(long v) {
+                return v == value;
+            }
+        };
+    }
+
+    /**
+     * Creates a predicate matching undefined values. <p>Integer values are
+     * undefined if they are equal to {@code TNULLn}, floating point values if
+     * they are NaN.</p>
+     * @param column Numeric column of type {@code B I J K E D}.
+     * @return Predicate.
+     * @throws NullPointerException if {@code column} is {@code null}.
+     * @throws IllegalArgumentException if the column is not numeric or not
+     * scalar.
+     */
+    public static RowPredicate isNull(BinaryTableColumn column) {
+        if (column != null && (column.getType() == 'E'
+                || column.getType() == 'D')) {
+            return new RowPredicate(column, "ED") {
+
+                @Override
+                boolean matches(MappedRegion region, long position) {
+                    double value = readFloating(region, position);
+                    return value != value;
+                }
+            };
+        }
+        return new RowPredicate(column, "BIJK") {
+
+            @Override
+            boolean matches(MappedRegion region, long position) {
+                Long nullValue = getColumn().getNullValue();
+                return nullValue != null
+                        && readInteger(region, position) == nullValue;
+            }
+        };
+    }
+
+    /**
+     * Gets the column this predicate is on.
+     * @return Column, never {@code null}.
+     */
+    public BinaryTableColumn getColumn() {
+        return column;
+    }
+
+    /**
+     * Checks that this predicate can be evaluated on a table.
+     * @param table Table to scan.
+     * @throws IllegalArgumentException if the column of this predicate
+     * belongs to another table.
+     */
+    void check(BinaryTable table) {
+        table.checkColumn(column);
+    }
+
+    /**
+     * Removes the rows not matching this predicate from a selection. <p>Only
+     * rows that are still selected are read.</p>
+     * @param region Mapped data unit.
+     * @param rowLength Size of a row in bytes.
+     * @param firstRow Index of the row of the first bit.
+     * @param words Bitmap of the selected rows, updated in place.
+     */
+    void evaluate(MappedRegion region, int rowLength, long firstRow,
+            long[] words) {
+        long base = firstRow * rowLength + column.getOffset();
+        for (int w = 0; w < words.length; w++) {
+            long remaining = words[w];
+            long result = remaining;
+            while (remaining != 0) {
+                int bit = Long.numberOfTrailingZeros(remaining);
+                remaining &= remaining - 1;
+                long row = ((long) w << 6) + bit;
+                if (!matches(region, base + row * rowLength)) {
+                    result &= ~(1L << bit);
+                }
+            }
+            words[w] = result;
+        }
+    }
+
+    /**
+     * Checks if a field matches this predicate.
+     * @param region Mapped data unit.
+     * @param position Position of the field within the data unit.
+     * @return {@code true} if the row matches.
+     */
+    abstract boolean matches(MappedRegion region, long position);
+
+    /**
+     * Reads the raw value of an integer field.
+     * @param region Mapped data unit.
+     * @param position Position of the field within the data unit.
+     * @return Value, bytes are unsigned.
+     */
+    final long readInteger(MappedRegion region, long position) {
+        switch (column.getType()) {
+            case 'B':
+                return region.getByte(position) & 0xFF;
+            case 'I':
+                return region.getShort(position);
+            case 'J':
+                return region.getInt(position);
+            default:
+                return region.getLong(position);
+        }
+    }
+
+    /**
+     * Reads the raw value of a floating point field.
+     * @param region Mapped data unit.
+     * @param position Position of the field within the data unit.
+     * @return Value.
+     */
+    final double readFloating(MappedRegion region, long position) {
+        if (column.getType() == 'E') {
+            return region.getFloat(position);
+        }
+        return region.getDouble(position);
+    }
+
+    /**
+     * Predicate on an integer column that never matches undefined values.
+     */
+    private abstract static class IntegerPredicate extends RowPredicate {
+
+        private final boolean hasNull;
+        private final long nullValue;
+
+        /**
+         * Creates an instance.
+         * @param column Integer column.
+         */
+        IntegerPredicate(BinaryTableColumn column) {
+            super(column, "BIJK");
+            this.hasNull = column.getNullValue() != null;
+            this.nullValue = hasNull ? column.getNullValue() : 0;
+        }
+
+        @Override
+        final boolean matches(MappedRegion region, long position) {
+            long value = readInteger(region, position);
+            if (hasNull && value == nullValue) {
+                return false;
+            }
+            return matchesDefined(value);
+        }
+
+        /**
+         * Checks if a defined value matches this predicate.
+         * @param value Value of the field.
+         * @return {@code true} if the row matches.
+         */
+        abstract boolean matchesDefined(long value);
+    }
+}
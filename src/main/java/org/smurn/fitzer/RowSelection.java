@@ -0,0 +1,156 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.util.Arrays;
+
+/**
+ * Set of rows of a binary table selected by
+ * {@link BinaryTable#scan(long, int, RowPredicate...)}. <p>The rows are
+ * stored as bitmap with one bit per scanned row. Selected rows can be
+ * iterated with {@link #nextSelected(long)}:</p>
+ * <pre>
+ * for (long row = selection.nextSelected(selection.getFirstRow());
+ *         row &gt;= 0; row = selection.nextSelected(row + 1)) {
+ *     ...
+ * }
+ * </pre> <p>Instances of this type are immutable.</p>
+ */
+public final class RowSelection {
+
+    private final long firstRow;
+    private final int rowCount;
+    private final long[] words;
+
+    /**
+     * Creates an instance.
+     * @param firstRow Index of the first scanned row.
+     * @param rowCount Number of scanned rows.
+     * @param words Bitmap, bit {@code i % 64} of word {@code i / 64} is set
+     * if row {@code firstRow + i} is selected. Not copied.
+     */
+    private RowSelection(long firstRow, int rowCount, long[] words) {
+        this.firstRow = firstRow;
+        this.rowCount = rowCount;
+        this.words = words;
+    }
+
+    /**
+     * Creates a selection containing all rows of a range.
+     * @param firstRow Index of the first row.
+     * @param rowCount Number of rows.
+     * @return New selection.
+     */
+    static RowSelection all(long firstRow, int rowCount) {
+        long[] words = new long[(rowCount + 63) >>> 6];
+        Arrays.fill(words, -1L);
+        if ((rowCount & 63) != 0) {
+            words[words.length - 1] = (1L << rowCount) - 1;
+        }
+        return new RowSelection(firstRow, rowCount, words);
+    }
+
+    /**
+     * Gets the bitmap of this selection. <p>Used while scanning, must not be
+     * modified once the selection was returned to the caller.</p>
+     * @return Bitmap, not a copy.
+     */
+    long[] getWords() {
+        return words;
+    }
+
+    /**
+     * Gets the index of the first scanned row.
+     * @return Index of the row.
+     */
+    public long getFirstRow() {
+        return firstRow;
+    }
+
+    /**
+     * Gets the number of scanned rows.
+     * @return Number of rows, selected or not.
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Checks if a row is selected.
+     * @param row Index of the row in the table.
+     * @return {@code true} if the row was scanned and is selected.
+     */
+    public boolean isSelected(long row) {
+        long i = row - firstRow;
+        if (i < 0 || i >= rowCount) {
+            return false;
+        }
+        return (words[(int) (i >>> 6)] & (1L << i)) != 0;
+    }
+
+    /**
+     * Counts the selected rows.
+     * @return Number of selected rows.
+     */
+    public int count() {
+        int count = 0;
+        for (long word : words) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    /**
+     * Finds the next selected row.
+     * @param row Index of the row in the table where the search starts.
+     * @return Index of the first selected row that is not smaller than
+     * {@code row} or {@code -1} if there is none.
+     */
+    public long nextSelected(long row) {
+        long i = Math.max(row - firstRow, 0);
+        if (i >= rowCount) {
+            return -1;
+        }
+        int w = (int) (i >>> 6);
+        long word = words[w] & (-1L << i);
+        while (word == 0) {
+            w++;
+            if (w == words.length) {
+                return -1;
+            }
+            word = words[w];
+        }
+        return firstRow + ((long) w << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    /**
+     * Gets the indices of all selected rows.
+     * @return Indices of the rows in the table in ascending order.
+     */
+    public long[] toRows() {
+        long[] rows = new long[count()];
+        int k = 0;
+        for (int w = 0; w < words.length; w++) {
+            long word = words[w];
+            while (word != 0) {
+                rows[k++] = firstRow + ((long) w << 6)
+                        + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+            }
+        }
+        return rows;
+    }
+}
@@ -16,9 +16,8 @@
 package org.smurn.fitzer;
 
 import java.io.IOException;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
-import java.nio.CharBuffer;
-import java.nio.charset.*;
 
 /**
  * Header value converter for {@code String} values.
@@ -35,15 +34,29 @@ final class StringHeaderValueConverter implements HeaderValueConverter {
         if (bytes == null) {
             throw new NullPointerException("bytes must not be null.");
         }
-        if (bytes.length != 70) {
+        if (bytes.length != VALUE_LENGTH) {
             throw new IllegalArgumentException("bytes must be of length 70.");
         }
+        return compatibleEncodingCheck(ByteBuffer.wrap(bytes), 0);
+    }
+
+    @Override
+    public boolean compatibleEncodingCheck(ByteBuffer buffer, int position) {
+        if (buffer == null) {
+            throw new NullPointerException("buffer must not be null.");
+        }
+        if (position < 0 || position > buffer.limit() - VALUE_LENGTH) {
+            throw new IllegalArgumentException(
+                    "buffer must contain 70 bytes at position.");
+        }
 
-        for (int i = 0; i < bytes.length && bytes[i] != '/'; i++) {
-            if (bytes[i] == ' ') {
+        int end = position + VALUE_LENGTH;
+        for (int i = position; i < end && buffer.get(i) != '/'; i++) {
+            byte c = buffer.get(i);
+            if (c == ' ') {
                 continue; // ignore leading spaces
             }
-            if (bytes[i] == '\'') {
+            if (c == '\'') {
                 return true;
             }
         }
@@ -60,16 +73,33 @@ final class StringHeaderValueConverter implements HeaderValueConverter {
         if (errorHandler == null) {
             throw new NullPointerException("errorHandler must not be null.");
         }
-        if (bytes.length != 70) {
+        if (bytes.length != VALUE_LENGTH) {
             throw new IllegalArgumentException("bytes must be of length 70.");
         }
+        return decode(ByteBuffer.wrap(bytes), 0, offset, errorHandler);
+    }
+
+    @Override
+    public ParsingResult decode(ByteBuffer buffer, int position, long offset,
+            ErrorHandler errorHandler) throws IOException {
+
+        if (buffer == null) {
+            throw new NullPointerException("buffer must not be null.");
+        }
+        if (errorHandler == null) {
+            throw new NullPointerException("errorHandler must not be null.");
+        }
+        if (position < 0 || position > buffer.limit() - VALUE_LENGTH) {
+            throw new IllegalArgumentException(
+                    "buffer must contain 70 bytes at position.");
+        }
 
         int start = 0;
-        while (start < bytes.length && bytes[start] == ' ') {
+        while (start < VALUE_LENGTH && buffer.get(position + start) == ' ') {
             start++;
         }
 
-        if (start >= bytes.length || bytes[start] != '\'') {
+        if (start >= VALUE_LENGTH || buffer.get(position + start) != '\'') {
             throw new IllegalArgumentException(
                     "Encoded type is not compatible with this converter.");
         }
@@ -77,8 +107,8 @@ final class StringHeaderValueConverter implements HeaderValueConverter {
         int pos = start + 1;
         boolean inside = true;
         StringBuilder str = new StringBuilder();
-        while (pos < bytes.length) {
-            byte c = bytes[pos];
+        while (pos < VALUE_LENGTH) {
+            byte c = buffer.get(position + pos);
             if (inside) {
                 if (c == '\'') {
                     inside = false;
@@ -100,7 +130,7 @@ final class StringHeaderValueConverter implements HeaderValueConverter {
 
         if (inside) {
             FitsFormatException ex = new FitsFormatException(
-                    offset + bytes.length - 1,
+                    offset + VALUE_LENGTH - 1,
                     "StringHeaderValueConverter_DecodeOpen");
             errorHandler.fatal(ex);
             throw ex;
@@ -129,6 +159,7 @@ final class StringHeaderValueConverter implements HeaderValueConverter {
 
         if (character < 32 || character > 126) {
             FitsFormatException ex = new FitsFormatException(
+                    FitsException.stackTrace(errorHandler),
                     offset, "StringHeaderValueConverter_DecodeLowBit",
                     (int) character);
             errorHandler.error(ex);
@@ -138,52 +169,73 @@ final class StringHeaderValueConverter implements HeaderValueConverter {
     @Override
     public byte[] encode(Object value, boolean fixedFormat,
             ErrorHandler errorHandler) throws IOException {
+        byte[] v = new byte[VALUE_LENGTH];
+        int pos = encode(value, fixedFormat, ByteBuffer.wrap(v), errorHandler);
+        while (pos < v.length) {
+            v[pos++] = ' ';
+        }
+        return v;
+    }
+
+    @Override
+    public int encode(Object value, boolean fixedFormat, ByteBuffer target,
+            ErrorHandler errorHandler) throws IOException {
         if (!(value instanceof String)) {
             throw new IllegalArgumentException("Value is not a string.");
         }
+        if (target == null) {
+            throw new NullPointerException("target must not be null.");
+        }
+        if (errorHandler == null) {
+            throw new NullPointerException("errorHandler must not be null.");
+        }
         String string = (String) value;
+        int length = string.length();
 
-        CharsetEncoder encoder = Charset.forName("US-ASCII").newEncoder();
-        encoder.onMalformedInput(CodingErrorAction.REPORT);
-        encoder.onUnmappableCharacter(CodingErrorAction.REPORT);
-        CharBuffer buffer = CharBuffer.allocate(string.length());
-        buffer.clear();
-        buffer.put(string);
-        buffer.flip();
-        ByteBuffer encodedBody;
-        try {
-            encodedBody = encoder.encode(buffer);
-        } catch (CharacterCodingException ex) {
-            FitsDataException e = new FitsDataException(
-                    "StringHeaderValueConverter_EncodeHighBit", string);
-            errorHandler.fatal(e);
-            throw e;
-        }
-
-        if (encodedBody.remaining() > 68) {
+        int encodedLength = length;
+        for (int i = 0; i < length; i++) {
+            char c = string.charAt(i);
+            if (c > 127) {
+                FitsDataException ex = new FitsDataException(
+                        "StringHeaderValueConverter_EncodeHighBit", string);
+                errorHandler.fatal(ex);
+                throw ex;
+            }
+            if (c == '\'') {
+                encodedLength++;
+            }
+        }
+        if (encodedLength > VALUE_LENGTH - 2) {
             FitsDataException ex = new FitsDataException(
                     "StringHeaderValueConverter_EncodeLength",
-                    string, encodedBody.remaining());
+                    string, encodedLength);
             errorHandler.fatal(ex);
             throw ex;
         }
-        byte[] v = new byte[70];
-        int pos = 0;
-        v[pos++] = '\'';
-        while (encodedBody.hasRemaining()) {
-            byte b = encodedBody.get();
+        if (target.remaining() < encodedLength + 2) {
+            throw new BufferOverflowException();
+        }
+
+        // Absolute puts so that the position is only advanced once the error
+        // handler had its say.
+        int start = target.position();
+        int pos = start;
+        target.put(pos++, (byte) '\'');
+        for (int i = 0; i < length; i++) {
+            byte b = (byte) string.charAt(i);
             if (b < 32 || b > 126) {
                 FitsDataException ex = new FitsDataException(
                         "StringHeaderValueConverter_EncodeLowBit",
                         string, (int) b);
                 errorHandler.error(ex);
             }
-            v[pos++] = b;
-        }
-        v[pos++] = '\'';
-        while (pos < v.length) {
-            v[pos++] = ' ';
+            target.put(pos++, b);
+            if (b == '\'') {
+                target.put(pos++, b);
+            }
         }
-        return v;
+        target.put(pos++, (byte) '\'');
+        target.position(pos);
+        return pos - start;
     }
 }
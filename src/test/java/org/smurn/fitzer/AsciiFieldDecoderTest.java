@@ -0,0 +1,145 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.nio.ByteBuffer;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.smurn.fitzer.TestUtils.*;
+
+/**
+ * Unit tests for {@link AsciiFieldDecoder}.
+ */
+public class AsciiFieldDecoderTest {
+
+    private static ByteBuffer field(String text) {
+        return ByteBuffer.wrap(toByte("##" + text + "##"));
+    }
+
+    private static long decodeLong(String format, String text) {
+        AsciiFieldDecoder target = AsciiTable.parseFormat(0, null, format, 0,
+                null).getDecoder();
+        return target.decodeLong(field(text), 2, new DecimalParser());
+    }
+
+    private static double decodeDouble(String format, String text) {
+        AsciiFieldDecoder target = AsciiTable.parseFormat(0, null, format, 0,
+                null).getDecoder();
+        return target.decodeDouble(field(text), 2, new DecimalParser());
+    }
+
+    @Test
+    public void integer() {
+        assertEquals(42, decodeLong("I5", "   42"));
+        assertEquals(-7, decodeLong("I5", " -7  "));
+        assertEquals(12, decodeLong("I3", "+12"));
+        assertEquals(42.0, decodeDouble("I5", "   42"), 0.0);
+    }
+
+    @Test
+    public void integer_Limits() {
+        assertEquals(Long.MAX_VALUE,
+                decodeLong("I20", " 9223372036854775807"));
+        assertEquals(Long.MIN_VALUE,
+                decodeLong("I20", "-9223372036854775808"));
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void integer_Overflow() {
+        decodeLong("I20", " 9223372036854775808");
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void integer_EmbeddedSpace() {
+        decodeLong("I5", " 1 2 ");
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void integer_OnlySign() {
+        decodeLong("I3", "  -");
+    }
+
+    @Test
+    public void real() {
+        assertEquals(1.25, decodeDouble("F8.2", "    1.25"), 0.0);
+        assertEquals(-0.5, decodeDouble("E10.3", "  -5.0E-01"), 0.0);
+        assertEquals(1e300, decodeDouble("D10.3", "   1.0D300"), 0.0);
+    }
+
+    @Test
+    public void real_ImpliedDecimals() {
+        assertEquals(1.25, decodeDouble("F6.2", "   125"), 0.0);
+        assertEquals(12.5, decodeDouble("E8.2", "   125E1"), 0.0);
+        assertEquals(125.0, decodeDouble("F6.2", "  125."), 0.0);
+    }
+
+    @Test
+    public void real_Long() {
+        assertEquals(1200, decodeLong("F8.2", "  1.2E03"));
+        assertEquals(3, decodeLong("F6.2", "   300"));
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void real_LongFraction() {
+        decodeLong("F6.2", "  1.25");
+    }
+
+    @Test
+    public void real_ManyDigits() {
+        assertEquals(0.1234567890123456789, decodeDouble("D25.17",
+                "   0.12345678901234567890"), 0.0);
+        assertEquals(1.2345678901234567, decodeDouble("F22.19",
+                "  12345678901234567890"), 1e-15);
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void real_Malformed() {
+        decodeDouble("F6.2", " 1.2x ");
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void character() {
+        decodeDouble("A4", "1234");
+    }
+
+    @Test
+    public void isNull() {
+        AsciiFieldDecoder target = AsciiFieldDecoder.compile('I', 5, 0,
+                " -99 ");
+        assertTrue(target.isNull(field("     "), 2));
+        assertTrue(target.isNull(field("  -99"), 2));
+        assertFalse(target.isNull(field(" -999"), 2));
+        assertFalse(target.isNull(field("    1"), 2));
+    }
+
+    @Test
+    public void isNull_NoNullValue() {
+        AsciiFieldDecoder target = AsciiFieldDecoder.compile('F', 3, 1, null);
+        assertTrue(target.isNull(field("   "), 2));
+        assertFalse(target.isNull(field("0.0"), 2));
+    }
+
+    @Test
+    public void decodeString() {
+        AsciiFieldDecoder target = AsciiFieldDecoder.compile('A', 5, 0, null);
+        assertEquals(" ab", target.decodeString(field(" ab  "), 2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void compile_UnknownType() {
+        AsciiFieldDecoder.compile('J', 5, 0, null);
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.channels.FileChannel;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+import static org.smurn.fitzer.TestUtils.*;
+
+/**
+ * Unit tests for {@link AsciiTable}.
+ */
+public class AsciiTableTest {
+
+    private static byte[] catalog(String extra) {
+        return header(
+                "XTENSION= 'TABLE   '",
+                "BITPIX  =                    8",
+                "NAXIS   =                    2",
+                "NAXIS1  =                   26",
+                "NAXIS2  =                    3",
+                "PCOUNT  =                    0",
+                "GCOUNT  =                    1",
+                "TFIELDS =                    3",
+                "TTYPE1  = 'ID      '",
+                "TBCOL1  =                    1",
+                "TFORM1  = 'I5      '",
+                "TNULL1  = '-1      '",
+                "TTYPE2  = 'NAME    '",
+                "TBCOL2  =                    7",
+                "TFORM2  = 'A6      '",
+                "TTYPE3  = 'MAG     '",
+                "TBCOL3  =                   14",
+                "TFORM3  = 'E13.5   '",
+                extra,
+                "END");
+    }
+
+    private static FileChannel table() throws IOException {
+        return file(catalog("COMMENT"),
+                toByte("   12 Vega     0.03000E+00"),
+                toByte("   -1 Sirius  -1.46000E+00"),
+                toByte("    7 Deneb   xx          "));
+    }
+
+    @Test
+    public void ctr_Columns() throws IOException {
+        AsciiTable target = new AsciiTable(table(), 0,
+                mock(ErrorHandler.class));
+        assertEquals(3, target.getRowCount());
+        assertEquals(26, target.getRowLength());
+        assertEquals(2880, target.getDataOffset());
+        AsciiTableColumn mag = target.getColumn("mag");
+        assertEquals(2, mag.getIndex());
+        assertEquals('E', mag.getType());
+        assertEquals(13, mag.getWidth());
+        assertEquals(5, mag.getDecimals());
+        assertEquals(13, mag.getOffset());
+        assertEquals("-1", target.getColumn(0).getNullValue());
+        assertNull(target.getColumn("NONE"));
+    }
+
+    @Test
+    public void ctr_Cache() throws IOException {
+        FileChannel channel = table();
+        BlockCache cache = new BlockCache(16 * 2880);
+        long fileId = BlockCache.newFileId();
+        new AsciiTable(cache, fileId, channel, 0, THROW_ALWAYS);
+        AsciiTable target = new AsciiTable(cache, fileId, channel, 0,
+                THROW_ALWAYS);
+        assertEquals(3, target.getRowCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void readLongs() throws IOException {
+        AsciiTable target = new AsciiTable(table(), 0, THROW_ALWAYS);
+        assertArrayEquals(new long[]{12, Long.MIN_VALUE, 7},
+                target.readLongs(target.getColumn("ID"), 0, 3,
+                Long.MIN_VALUE));
+    }
+
+    @Test
+    public void readDoubles() throws IOException {
+        AsciiTable target = new AsciiTable(table(), 0, THROW_ALWAYS);
+        assertArrayEquals(new double[]{0.03, -1.46},
+                target.readDoubles(target.getColumn("MAG"), 0, 2), 0.0);
+        assertArrayEquals(new double[]{Double.NaN, 7},
+                target.readDoubles(target.getColumn("ID"), 1, 2), 0.0);
+    }
+
+    @Test
+    public void readDoubles_Malformed() throws IOException {
+        ErrorHandler handler = mock(ErrorHandler.class);
+        AsciiTable target = new AsciiTable(table(), 0, handler);
+        double[] values = target.readDoubles(target.getColumn("MAG"), 2, 1);
+        assertTrue(Double.isNaN(values[0]));
+        verify(handler).error(new FitsFormatException(2880 + 52 + 13,
+                "AsciiTable_MalformedField", 3, 2L));
+    }
+
+    @Test
+    public void readStrings() throws IOException {
+        AsciiTable target = new AsciiTable(table(), 0, THROW_ALWAYS);
+        assertArrayEquals(new String[]{"Vega", "Sirius", "Deneb"},
+                target.readStrings(target.getColumn("NAME"), 0, 3));
+        assertArrayEquals(new String[]{"   -1"},
+                target.readStrings(target.getColumn("ID"), 1, 1));
+    }
+
+    @Test
+    public void read_AcrossSegments() throws IOException {
+        FileChannel channel = table();
+        Header header = new HeaderReader(channel, THROW_ALWAYS).readHeader();
+        AsciiTable target = new AsciiTable(channel, header, 2880,
+                THROW_ALWAYS, 3);
+        assertArrayEquals(new double[]{0.03, -1.46},
+                target.readDoubles(target.getColumn("MAG"), 0, 2), 0.0);
+        assertArrayEquals(new String[]{"Vega", "Sirius", "Deneb"},
+                target.readStrings(target.getColumn("NAME"), 0, 3));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void read_WrongType() throws IOException {
+        AsciiTable target = new AsciiTable(table(), 0, THROW_ALWAYS);
+        target.readDoubles(target.getColumn("NAME"), 0, 1);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void read_OutOfRange() throws IOException {
+        AsciiTable target = new AsciiTable(table(), 0, THROW_ALWAYS);
+        target.readStrings(target.getColumn("NAME"), 1, 3);
+    }
+
+    @Test
+    public void ctr_NotATable() throws IOException {
+        FileChannel channel = file(header(
+                "XTENSION= 'BINTABLE'",
+                "BITPIX  =                    8",
+                "NAXIS   =                    2",
+                "NAXIS1  =                    0",
+                "NAXIS2  =                    0",
+                "PCOUNT  =                    0",
+                "GCOUNT  =                    1",
+                "TFIELDS =                    0",
+                "END"));
+        ErrorHandler handler = mock(ErrorHandler.class);
+        try {
+            new AsciiTable(channel, 0, handler);
+            fail();
+        } catch (FitsFormatException e) {
+            FitsFormatException expected = new FitsFormatException(2880,
+                    "AsciiTable_NotATable");
+            assertEquals(expected, e);
+            verify(handler).fatal(expected);
+        }
+    }
+
+    @Test
+    public void ctr_FieldBeyondRow() throws IOException {
+        FileChannel channel = file(header(
+                "XTENSION= 'TABLE   '",
+                "BITPIX  =                    8",
+                "NAXIS   =                    2",
+                "NAXIS1  =                    4",
+                "NAXIS2  =                    0",
+                "PCOUNT  =                    0",
+                "GCOUNT  =                    1",
+                "TFIELDS =                    1",
+                "TBCOL1  =                    2",
+                "TFORM1  = 'I4      '",
+                "END"));
+        ErrorHandler handler = mock(ErrorHandler.class);
+        try {
+            new AsciiTable(channel, 0, handler);
+            fail();
+        } catch (FitsFormatException e) {
+            FitsFormatException expected = new FitsFormatException(2880,
+                    "AsciiTable_InvalidKeyword", "TBCOL1",
+                    BigDecimal.valueOf(2));
+            assertEquals(expected, e);
+            verify(handler).fatal(expected);
+        }
+    }
+
+    @Test
+    public void parseFormat() {
+        AsciiTableColumn column = AsciiTable.parseFormat(1, "X", "D25.17", 4,
+                null);
+        assertEquals('D', column.getType());
+        assertEquals(25, column.getWidth());
+        assertEquals(17, column.getDecimals());
+        assertEquals(4, column.getOffset());
+    }
+
+    @Test
+    public void parseFormat_Invalid() {
+        assertNull(AsciiTable.parseFormat(0, null, null, 0, null));
+        assertNull(AsciiTable.parseFormat(0, null, "I", 0, null));
+        assertNull(AsciiTable.parseFormat(0, null, "I0", 0, null));
+        assertNull(AsciiTable.parseFormat(0, null, "F10", 0, null));
+        assertNull(AsciiTable.parseFormat(0, null, "F4.5", 0, null));
+        assertNull(AsciiTable.parseFormat(0, null, "I4x", 0, null));
+        assertNull(AsciiTable.parseFormat(0, null, "J4", 0, null));
+        assertNull(AsciiTable.parseFormat(0, null, "A99999999999", 0, null));
+    }
+}
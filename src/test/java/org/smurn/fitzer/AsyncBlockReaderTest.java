@@ -0,0 +1,163 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link AsyncBlockReader}.
+ */
+public class AsyncBlockReaderTest {
+
+    private static final int LENGTH = 10 * 2880 + 7;
+    private AsynchronousFileChannel channel;
+
+    @Before
+    public void setUp() throws IOException {
+        File temp = File.createTempFile("fitzer", ".fits");
+        temp.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            for (int i = 0; i < LENGTH; i++) {
+                out.write(i);
+            }
+        } finally {
+            out.close();
+        }
+        channel = AsynchronousFileChannel.open(temp.toPath(),
+                StandardOpenOption.READ);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        channel.close();
+    }
+
+    private static void assertContent(long position, ByteBuffer buffer) {
+        for (int i = buffer.position(); i < buffer.limit(); i++) {
+            assertEquals((byte) (position + i), buffer.get(i));
+        }
+    }
+
+    @Test
+    public void read() throws Exception {
+        ByteBuffer actual = new AsyncBlockReader(channel).read(
+                ByteBuffer.allocate(100), 5).get();
+        assertEquals(0, actual.position());
+        assertEquals(100, actual.limit());
+        assertContent(5, actual);
+    }
+
+    @Test
+    public void read_Handler() throws Exception {
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<Object> result = new AtomicReference<Object>();
+        new AsyncBlockReader(channel).read(ByteBuffer.allocateDirect(3000),
+                2880, "a", new CompletionHandler<ByteBuffer, String>() {
+
+            @Override
+            public void completed(ByteBuffer buffer, String attachment) {
+                result.set("a".equals(attachment) ? buffer : attachment);
+                done.countDown();
+            }
+
+            @Override
+            public void failed(Throwable exc, String attachment) {
+                result.set(exc);
+                done.countDown();
+            }
+        });
+        done.await();
+        ByteBuffer buffer = (ByteBuffer) result.get();
+        assertEquals(3000, buffer.remaining());
+        assertContent(2880, buffer);
+    }
+
+    @Test
+    public void read_EndOfFile() throws Exception {
+        try {
+            new AsyncBlockReader(channel).read(ByteBuffer.allocate(100),
+                    LENGTH - 50).get();
+            fail("Exception not thrown.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof EOFException);
+        }
+    }
+
+    @Test
+    public void readBlocks() throws Exception {
+        ByteBuffer actual = new AsyncBlockReader(channel).readBlocks(2880, 3)
+                .get();
+        assertEquals(3 * 2880, actual.remaining());
+        assertContent(2880, actual);
+    }
+
+    @Test
+    public void readAll() throws Exception {
+        ByteBuffer[] buffers = new ByteBuffer[10];
+        long[] positions = new long[10];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = ByteBuffer.allocate(2880);
+            positions[i] = (9 - i) * 2880L;
+        }
+        ByteBuffer[] actual = new AsyncBlockReader(channel).readAll(buffers,
+                positions).get();
+        assertSame(buffers, actual);
+        for (int i = 0; i < actual.length; i++) {
+            assertEquals(2880, actual[i].remaining());
+            assertContent(positions[i], actual[i]);
+        }
+    }
+
+    @Test
+    public void readAll_Failure() throws Exception {
+        ByteBuffer[] buffers = {ByteBuffer.allocate(10),
+            ByteBuffer.allocate(10)};
+        try {
+            new AsyncBlockReader(channel).readAll(buffers,
+                    new long[]{0, LENGTH}).get();
+            fail("Exception not thrown.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof EOFException);
+        }
+    }
+
+    @Test
+    public void readAll_Empty() throws Exception {
+        assertEquals(0, new AsyncBlockReader(channel).readAll(
+                new ByteBuffer[0], new long[0]).get().length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void readAll_LengthMismatch() {
+        new AsyncBlockReader(channel).readAll(new ByteBuffer[1],
+                new long[2]);
+    }
+}
@@ -0,0 +1,494 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+import static org.smurn.fitzer.TestUtils.*;
+
+/**
+ * Unit tests for {@link BinaryTableAppender}.
+ */
+public class BinaryTableAppenderTest {
+
+    private FileChannel channel;
+
+    @After
+    public void tearDown() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    private static byte[] primary() {
+        return header(
+                "SIMPLE  =                    T",
+                "BITPIX  =                    8",
+                "NAXIS   =                    0",
+                "END");
+    }
+
+    private static byte[] ids() {
+        return header(
+                "XTENSION= 'BINTABLE'",
+                "BITPIX  =                    8",
+                "NAXIS   =                    2",
+                "NAXIS1  =                    4",
+                "NAXIS2  =                    2",
+                "PCOUNT  =                    0",
+                "GCOUNT  =                    1",
+                "TFIELDS =                    1",
+                "TTYPE1  = 'ID      '",
+                "TFORM1  = '1J      '",
+                "END");
+    }
+
+    private static byte[] arrays() {
+        return header(
+                "XTENSION= 'BINTABLE'",
+                "BITPIX  =                    8",
+                "NAXIS   =                    2",
+                "NAXIS1  =                   12",
+                "NAXIS2  =                    2",
+                "PCOUNT  =                    5",
+                "GCOUNT  =                    1",
+                "TFIELDS =                    2",
+                "TTYPE1  = 'ID      '",
+                "TFORM1  = '1J      '",
+                "TTYPE2  = 'ARR     '",
+                "TFORM2  = '1PB(3)  '",
+                "END");
+    }
+
+    private static byte[] heapKeyword() {
+        String[] cards = new String[42];
+        String[] first = {
+            "XTENSION= 'BINTABLE'",
+            "BITPIX  =                    8",
+            "NAXIS   =                    2",
+            "NAXIS1  =                    4",
+            "NAXIS2  =                    2",
+            "PCOUNT  =                    0",
+            "GCOUNT  =                    1",
+            "TFIELDS =                    1",
+            "TTYPE1  = 'ID      '",
+            "TFORM1  = '1J      '"};
+        System.arraycopy(first, 0, cards, 0, first.length);
+        for (int i = first.length; i < 40; i++) {
+            cards[i] = "COMMENT filler";
+        }
+        cards[40] = "THEAP   =                    8";
+        cards[41] = "END";
+        return header(cards);
+    }
+
+    private static ByteBuffer rows(int first, int count) {
+        ByteBuffer buffer = ByteBuffer.allocate(4 * count);
+        for (int i = 0; i < count; i++) {
+            buffer.putInt(first + i);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static ByteBuffer arrayRows(int first, int count) {
+        ByteBuffer buffer = ByteBuffer.allocate(12 * count);
+        for (int i = 0; i < count; i++) {
+            buffer.putInt(first + i);
+            buffer.putInt((first + i) % 2 == 0 ? 2 : 3);
+            buffer.putInt((first + i) % 2 == 0 ? 0 : 2);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static byte[] arrayData() {
+        ByteBuffer buffer = ByteBuffer.allocate(2880);
+        buffer.put(arrayRows(0, 2));
+        buffer.put(new byte[]{1, 2, 3, 4, 5});
+        return buffer.array();
+    }
+
+    private static int[] range(int count) {
+        int[] values = new int[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = i;
+        }
+        return values;
+    }
+
+    private static byte[] get(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void append() throws IOException {
+        channel = rwFile(primary(), ids(), rows(0, 2).array(), new byte[2872]);
+        BinaryTableAppender target = new BinaryTableAppender(channel,
+                THROW_ALWAYS);
+        assertEquals(4, target.getRowLength());
+        assertEquals(2, target.getRowCount());
+        target.append(rows(2, 1000));
+        assertEquals(1000, target.getPendingRowCount());
+        assertEquals(2, new BinaryTable(channel, 2880, THROW_ALWAYS)
+                .getRowCount());
+
+        target.commit();
+        assertEquals(1002, target.getRowCount());
+        assertEquals(0, target.getPendingRowCount());
+        assertEquals(4 * 2880, channel.size());
+        BinaryTable table = new BinaryTable(channel, 2880, THROW_ALWAYS);
+        assertArrayEquals(range(1002), table.readInts(table.getColumn("ID"),
+                0, 1002));
+    }
+
+    @Test
+    public void append_Batches() throws IOException {
+        channel = rwFile(primary(), ids(), rows(0, 2).array(), new byte[2872]);
+        BinaryTableAppender target = new BinaryTableAppender(channel,
+                THROW_ALWAYS);
+        target.append(rows(2, 3));
+        target.append(rows(5, 5));
+        target.commit();
+        target.append(rows(10, 2));
+        target.commit();
+        BinaryTable table = new BinaryTable(channel, 2880, THROW_ALWAYS);
+        assertArrayEquals(range(12), table.readInts(table.getColumn("ID"),
+                0, 12));
+        assertEquals(12, new BinaryTableAppender(channel, THROW_ALWAYS)
+                .getRowCount());
+    }
+
+    @Test
+    public void append_MovesHeap() throws IOException {
+        channel = rwFile(primary(), arrays(), arrayData());
+        BinaryTableAppender target = new BinaryTableAppender(channel,
+                THROW_ALWAYS);
+        target.append(arrayRows(2, 4));
+        BinaryTable table = new BinaryTable(channel, 2880, THROW_ALWAYS);
+        assertEquals(2, table.getRowCount());
+        assertArrayEquals(new byte[]{3, 4, 5},
+                get(table.getArray(table.getColumn("ARR"), 1)));
+
+        target.commit();
+        table = new BinaryTable(channel, 2880, THROW_ALWAYS);
+        assertEquals(6, table.getRowCount());
+        assertEquals(5, table.getHeapLength());
+        assertArrayEquals(range(6), table.readInts(table.getColumn("ID"),
+                0, 6));
+        for (int i = 0; i < 6; i++) {
+            byte[] expected = i % 2 == 0 ? new byte[]{1, 2}
+                    : new byte[]{3, 4, 5};
+            assertArrayEquals(expected,
+                    get(table.getArray(table.getColumn("ARR"), i)));
+        }
+        assertEquals(0, channel.size() % 2880);
+    }
+
+    @Test
+    public void append_HeapGap() throws IOException {
+        channel = rwFile(primary(), arrays(), arrayData());
+        BinaryTableAppender target = new BinaryTableAppender(channel,
+                THROW_ALWAYS);
+        target.append(arrayRows(2, 4));
+        target.commit();
+        long heapOffset = new BinaryTable(channel, 2880, THROW_ALWAYS)
+                .getHeapOffset();
+        for (int i = 6; i < 20; i++) {
+            target.append(arrayRows(i, 1));
+            target.commit();
+        }
+        BinaryTable table = new BinaryTable(channel, 2880, THROW_ALWAYS);
+        assertEquals(heapOffset, table.getHeapOffset());
+        assertArrayEquals(range(20), table.readInts(table.getColumn("ID"),
+                0, 20));
+        assertArrayEquals(new byte[]{3, 4, 5},
+                get(table.getArray(table.getColumn("ARR"), 19)));
+    }
+
+    @Test
+    public void ctor_Uncommitted() throws IOException {
+        channel = rwFile(primary(), ids(), rows(0, 2).array(), new byte[2872]);
+        new BinaryTableAppender(channel, THROW_ALWAYS).append(
+                rows(2, 1000));
+        assertTrue(channel.size() > 3 * 2880);
+
+        BinaryTableAppender target = new BinaryTableAppender(channel,
+                THROW_ALWAYS);
+        assertEquals(2, target.getRowCount());
+        assertEquals(3 * 2880, channel.size());
+        target.append(rows(2, 3));
+        target.commit();
+        BinaryTable table = new BinaryTable(channel, 2880, THROW_ALWAYS);
+        assertArrayEquals(range(5), table.readInts(table.getColumn("ID"),
+                0, 5));
+        assertEquals(3 * 2880, channel.size());
+    }
+
+    @Test
+    public void ctor_UncommittedHeap() throws IOException {
+        channel = rwFile(primary(), arrays(), arrayData());
+        new BinaryTableAppender(channel, THROW_ALWAYS).append(
+                arrayRows(2, 4));
+        byte[] garbage = new byte[100];
+        channel.write(ByteBuffer.wrap(garbage), channel.size());
+
+        BinaryTableAppender target = new BinaryTableAppender(channel,
+                THROW_ALWAYS);
+        assertEquals(2, target.getRowCount());
+        assertEquals(0, channel.size() % 2880);
+        target.append(arrayRows(2, 1));
+        target.commit();
+        BinaryTable table = new BinaryTable(channel, 2880, THROW_ALWAYS);
+        assertArrayEquals(range(3), table.readInts(table.getColumn("ID"),
+                0, 3));
+        assertArrayEquals(new byte[]{1, 2},
+                get(table.getArray(table.getColumn("ARR"), 2)));
+    }
+
+    @Test
+    public void commit_HeapKeywordInLaterBlock() throws IOException {
+        for (int crash = 0;; crash++) {
+            CrashingChannel crashing = new CrashingChannel(rwFile(primary(),
+                    heapKeyword(), rows(0, 2).array(), new byte[2872]));
+            channel = crashing.channel;
+            BinaryTableAppender target = new BinaryTableAppender(crashing,
+                    THROW_ALWAYS);
+            target.append(rows(2, 3));
+            crashing.writesLeft = crash;
+            boolean crashed;
+            try {
+                target.commit();
+                crashed = false;
+            } catch (IOException e) {
+                crashed = true;
+            }
+            BinaryTable table = new BinaryTable(channel, 2880, THROW_ALWAYS);
+            int count = (int) table.getRowCount();
+            assertTrue(count == 2 || count == 5);
+            assertArrayEquals(range(count), table.readInts(
+                    table.getColumn("ID"), 0, count));
+            assertEquals(count, new BinaryTableAppender(channel,
+                    THROW_ALWAYS).getRowCount());
+            channel.close();
+            if (!crashed) {
+                assertEquals(5, count);
+                assertEquals(20, table.getHeapOffset());
+                break;
+            }
+        }
+        channel = null;
+    }
+
+    @Test
+    public void commit_Checksums() throws Exception {
+        channel = rwFile(primary(), header(
+                "XTENSION= 'BINTABLE'",
+                "BITPIX  =                    8",
+                "NAXIS   =                    2",
+                "NAXIS1  =                   12",
+                "NAXIS2  =                    2",
+                "PCOUNT  =                    5",
+                "GCOUNT  =                    1",
+                "TFIELDS =                    2",
+                "TTYPE1  = 'ID      '",
+                "TFORM1  = '1J      '",
+                "TTYPE2  = 'ARR     '",
+                "TFORM2  = '1PB(3)  '",
+                "CHECKSUM= '0000000000000000'",
+                "DATASUM = '0       '",
+                "END"), arrayData());
+        BinaryTableAppender target = new BinaryTableAppender(channel,
+                THROW_ALWAYS);
+        target.append(arrayRows(2, 4));
+        target.commit();
+        target.append(arrayRows(6, 1));
+        target.commit();
+
+        HeaderReader reader = new HeaderReader(
+                new PositionalChannel(channel, 2880), 2880, THROW_ALWAYS);
+        Header header = reader.readHeader();
+        long dataSum = Checksum.compute(channel, reader.getOffset(),
+                channel.size() - reader.getOffset(), null);
+        assertTrue(Checksum.verify(header, reader.getChecksum(), dataSum,
+                2880, THROW_ALWAYS));
+        assertEquals(7, new BinaryTable(channel, 2880, THROW_ALWAYS)
+                .getRowCount());
+    }
+
+    @Test
+    public void commit_Nothing() throws IOException {
+        channel = rwFile(primary(), ids(), rows(0, 2).array(), new byte[2872]);
+        byte[] before = new byte[(int) channel.size()];
+        channel.read(ByteBuffer.wrap(before), 0);
+        new BinaryTableAppender(channel, THROW_ALWAYS).commit();
+        byte[] after = new byte[(int) channel.size()];
+        channel.read(ByteBuffer.wrap(after), 0);
+        assertArrayEquals(before, after);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void append_PartialRow() throws IOException {
+        channel = rwFile(primary(), ids(), rows(0, 2).array(), new byte[2872]);
+        new BinaryTableAppender(channel, THROW_ALWAYS).append(
+                ByteBuffer.allocate(5));
+    }
+
+    @Test
+    public void ctor_NotATable() throws IOException {
+        channel = rwFile(primary());
+        ErrorHandler handler = mock(ErrorHandler.class);
+        try {
+            new BinaryTableAppender(channel, handler);
+            fail("Exception not thrown.");
+        } catch (FitsFormatException e) {
+            // expected
+        }
+        verify(handler).fatal(new FitsFormatException(2880,
+                "BinaryTable_NotATable"));
+    }
+
+    /**
+     * File channel that fails once a number of writes was issued, simulating
+     * a crash.
+     */
+    private static final class CrashingChannel extends FileChannel {
+
+        private final FileChannel channel;
+        private int writesLeft = Integer.MAX_VALUE;
+
+        CrashingChannel(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        private void checkWrite() throws IOException {
+            if (writesLeft == 0) {
+                throw new IOException("Simulated crash.");
+            }
+            writesLeft--;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return channel.read(dst);
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length)
+                throws IOException {
+            return channel.read(dsts, offset, length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            checkWrite();
+            return channel.write(src);
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length)
+                throws IOException {
+            checkWrite();
+            return channel.write(srcs, offset, length);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return channel.position();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            channel.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return channel.size();
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            checkWrite();
+            channel.truncate(size);
+            return this;
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            channel.force(metaData);
+        }
+
+        @Override
+        public long transferTo(long position, long count,
+                WritableByteChannel target) throws IOException {
+            return channel.transferTo(position, count, target);
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position,
+                long count) throws IOException {
+            checkWrite();
+            return channel.transferFrom(src, position, count);
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            return channel.read(dst, position);
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) throws IOException {
+            checkWrite();
+            return channel.write(src, position);
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size)
+                throws IOException {
+            return channel.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared)
+                throws IOException {
+            return channel.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared)
+                throws IOException {
+            return channel.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            channel.close();
+        }
+    }
+}
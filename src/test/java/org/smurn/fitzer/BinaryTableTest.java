@@ -0,0 +1,609 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+import static org.smurn.fitzer.TestUtils.*;
+
+/**
+ * Unit tests for {@link BinaryTable}.
+ */
+public class BinaryTableTest {
+
+    private static final int ROW_LENGTH = 29;
+
+    private static byte[] row(int j, float e, String a, String l, int x,
+            int i0, int i1, double d) {
+        ByteBuffer buffer = ByteBuffer.allocate(ROW_LENGTH);
+        buffer.putInt(j);
+        buffer.putFloat(e);
+        buffer.put(toBytePad(a, 4));
+        buffer.put(toByte(l));
+        buffer.putShort((short) x);
+        buffer.putShort((short) i0);
+        buffer.putShort((short) i1);
+        buffer.putDouble(d);
+        return buffer.array();
+    }
+
+    private static FileChannel table() throws IOException {
+        return file(header(
+                "SIMPLE  =                    T",
+                "BITPIX  =                    8",
+                "NAXIS   =                    0",
+                "END"),
+                header(
+                "XTENSION= 'BINTABLE'",
+                "BITPIX  =                    8",
+                "NAXIS   =                    2",
+                "NAXIS1  =                   29",
+                "NAXIS2  =                    3",
+                "PCOUNT  =                    0",
+                "GCOUNT  =                    1",
+                "TFIELDS =                    7",
+                "TTYPE1  = 'ID      '",
+                "TFORM1  = 'J       '",
+                "TTYPE2  = 'FLUX    '",
+                "TFORM2  = '1E      '",
+                "TTYPE3  = 'NAME    '",
+                "TFORM3  = '4A      '",
+                "TTYPE4  = 'FLAGS   '",
+                "TFORM4  = '3L      '",
+                "TTYPE5  = 'MASK    '",
+                "TFORM5  = '10X     '",
+                "TTYPE6  = 'POS     '",
+                "TFORM6  = '2I      '",
+                "TFORM7  = 'D       '",
+                "END"),
+                row(1, 1.5f, "ab", "TFT", 0x8040, 10, -20, 0.25),
+                row(2, -2.5f, "cd\0x", "FFF", 0xFFC0, 30, 40, 1.0),
+                row(-3, 0f, "", "TT\0", 0x0000, -1, 0, -8.0));
+    }
+
+    @Test
+    public void ctr_Columns() throws IOException {
+        BinaryTable target = new BinaryTable(table(), 2880, THROW_ALWAYS);
+        assertEquals(3, target.getRowCount());
+        assertEquals(ROW_LENGTH, target.getRowLength());
+        assertEquals(5760, target.getDataOffset());
+        assertEquals(7, target.getColumns().size());
+        BinaryTableColumn mask = target.getColumn(4);
+        assertEquals("MASK", mask.getName());
+        assertEquals('X', mask.getType());
+        assertEquals(10, mask.getRepeat());
+        assertEquals(15, mask.getOffset());
+        assertEquals(2, mask.getWidth());
+        assertNull(target.getColumn(6).getName());
+    }
+
+    @Test
+    public void getColumn_Name() throws IOException {
+        BinaryTable target = new BinaryTable(table(), 2880, THROW_ALWAYS);
+        assertSame(target.getColumn(1), target.getColumn("flux"));
+        assertNull(target.getColumn("NONE"));
+    }
+
+    @Test
+    public void readInts() throws IOException {
+        BinaryTable target = new BinaryTable(table(), 2880, THROW_ALWAYS);
+        assertArrayEquals(new int[]{1, 2, -3},
+                target.readInts(target.getColumn("ID"), 0, 3));
+        assertArrayEquals(new int[]{30, 40, -1, 0},
+                target.readInts(target.getColumn("POS"), 1, 2));
+    }
+
+    @Test
+    public void readLongs() throws IOException {
+        BinaryTable target = new BinaryTable(table(), 2880, THROW_ALWAYS);
+        assertArrayEquals(new long[]{2, -3},
+                target.readLongs(target.getColumn("ID"), 1, 2));
+    }
+
+    @Test
+    public void readFloats() throws IOException {
+        BinaryTable target = new BinaryTable(table(), 2880, THROW_ALWAYS);
+        assertArrayEquals(new float[]{1.5f, -2.5f, 0f},
+                target.readFloats(target.getColumn("FLUX"), 0, 3), 0f);
+    }
+
+    @Test
+    public void readDoubles() throws IOException {
+        BinaryTable target = new BinaryTable(table(), 2880, THROW_ALWAYS);
+        assertArrayEquals(new double[]{0.25, 1.0, -8.0},
+                target.readDoubles(target.getColumn(6), 0, 3), 0.0);
+        assertArrayEquals(new double[]{1.5, -2.5},
+                target.readDoubles(target.getColumn("FLUX"), 0, 2), 0.0);
+        assertArrayEquals(new double[]{10, -20},
+                target.readDoubles(target.getColumn("POS"), 0, 1), 0.0);
+    }
+
+    @Test
+    public void readBits_Logical() throws IOException {
+        BinaryTable target = new BinaryTable(table(), 2880, THROW_ALWAYS);
+        long[] bits = target.readBits(target.getColumn("FLAGS"), 0, 3);
+        assertArrayEquals(new long[]{0x0C5L}, bits);
+    }
+
+    @Test
+    public void readBits_Bit() throws IOException {
+        BinaryTable target = new BinaryTable(table(), 2880, THROW_ALWAYS);
+        long[] bits = target.readBits(target.getColumn("MASK"), 0, 3);
+        assertArrayEquals(new long[]{0x000FFE01L}, bits);
+    }
+
+    @Test
+    public void readBits_MultipleWords() throws IOException {
+        FileChannel channel = file(header(
+                "XTENSION= 'BINTABLE'",
+                "BITPIX  =                    8",
+                "NAXIS   =                    2",
+                "NAXIS1  =                    9",
+                "NAXIS2  =                    1",
+                "PCOUNT  =                    0",
+                "GCOUNT  =                    1",
+                "TFIELDS =                    1",
+                "TFORM1  = '70X     '",
+                "END"),
+                new byte[]{(byte) 0x80, 0, 0, 0, 0, 0, 0, 0, (byte) 0xA0});
+        BinaryTable target = new BinaryTable(channel, 0, THROW_ALWAYS);
+        long[] bits = target.readBits(target.getColumn(0), 0, 1);
+        assertArrayEquals(new long[]{1L, 0x5L}, bits);
+    }
+
+    @Test
+    public void readStrings() throws IOException {
+        BinaryTable target = new BinaryTable(table(), 2880, THROW_ALWAYS);
+        assertArrayEquals(new String[]{"ab", "cd", ""},
+                target.readStrings(target.getColumn("NAME"), 0, 3));
+    }
+
+    @Test
+    public void read_NoRows() throws IOException {
+        BinaryTable target = new BinaryTable(table(), 2880, THROW_ALWAYS);
+        assertEquals(0, target.readInts(target.getColumn("ID"), 3, 0).length);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void read_WrongType() throws IOException {
+        BinaryTable target = new BinaryTable(table(), 2880, THROW_ALWAYS);
+        target.readFloats(target.getColumn("ID"), 0, 1);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void read_OutOfRange() throws IOException {
+        BinaryTable target = new BinaryTable(table(), 2880, THROW_ALWAYS);
+        target.readInts(target.getColumn("ID"), 2, 2);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void read_NullColumn() throws IOException {
+        BinaryTable target = new BinaryTable(table(), 2880, THROW_ALWAYS);
+        target.readInts(null, 0, 1);
+    }
+
+    @Test
+    public void ctr_NotATable() throws IOException {
+        FileChannel channel = file(header(
+                "SIMPLE  =                    T",
+                "BITPIX  =                    8",
+                "NAXIS   =                    0",
+                "END"));
+        ErrorHandler handler = mock(ErrorHandler.class);
+        try {
+            new BinaryTable(channel, 0, handler);
+            fail();
+        } catch (FitsFormatException e) {
+            FitsFormatException expected = new FitsFormatException(2880,
+                    "BinaryTable_NotATable");
+            assertEquals(expected, e);
+            verify(handler).fatal(expected);
+        }
+    }
+
+    @Test
+    public void ctr_InvalidFormat() throws IOException {
+        FileChannel channel = file(header(
+                "XTENSION= 'BINTABLE'",
+                "BITPIX  =                    8",
+                "NAXIS   =                    2",
+                "NAXIS1  =                    4",
+                "NAXIS2  =                    0",
+                "PCOUNT  =                    0",
+                "GCOUNT  =                    1",
+                "TFIELDS =                    1",
+                "TFORM1  = '4Z      '",
+                "END"));
+        ErrorHandler handler = mock(ErrorHandler.class);
+        try {
+            new BinaryTable(channel, 0, handler);
+            fail();
+        } catch (FitsFormatException e) {
+            FitsFormatException expected = new FitsFormatException(2880,
+                    "BinaryTable_InvalidKeyword", "TFORM1", "4Z");
+            assertEquals(expected, e);
+            verify(handler).fatal(expected);
+        }
+    }
+
+    @Test
+    public void ctr_RowLength() throws IOException {
+        FileChannel channel = file(header(
+                "XTENSION= 'BINTABLE'",
+                "BITPIX  =                    8",
+                "NAXIS   =                    2",
+                "NAXIS1  =                    6",
+                "NAXIS2  =                    0",
+                "PCOUNT  =                    0",
+                "GCOUNT  =                    1",
+                "TFIELDS =                    1",
+                "TFORM1  = 'J       '",
+                "END"));
+        ErrorHandler handler = mock(ErrorHandler.class);
+        BinaryTable target = new BinaryTable(channel, 0, handler);
+        assertEquals(1, target.getColumns().size());
+        verify(handler).error(new FitsFormatException(2880,
+                "BinaryTable_RowLength", 4, 6));
+    }
+
+    @Test
+    public void ctr_Truncated() throws IOException {
+        FileChannel channel = file(header(
+                "XTENSION= 'BINTABLE'",
+                "BITPIX  =                    8",
+                "NAXIS   =                    2",
+                "NAXIS1  =                    4",
+                "NAXIS2  =                    2",
+                "PCOUNT  =                    0",
+                "GCOUNT  =                    1",
+                "TFIELDS =                    1",
+                "TFORM1  = 'J       '",
+                "END"),
+                new byte[4]);
+        ErrorHandler handler = mock(ErrorHandler.class);
+        try {
+            new BinaryTable(channel, 0, handler);
+            fail();
+        } catch (FitsFormatException e) {
+            FitsFormatException expected = new FitsFormatException(2884,
+                    "BinaryTable_Truncated", 2888L, 2884L);
+            assertEquals(expected, e);
+            verify(handler).fatal(expected);
+        }
+    }
+
+    private static FileChannel catalog() throws IOException {
+        ByteBuffer data = ByteBuffer.allocate(100 * 12);
+        for (int i = 0; i < 100; i++) {
+            data.putInt(i % 10 == 0 ? -1 : i);
+            data.putDouble(i % 7 == 0 ? Double.NaN : i * 0.5);
+        }
+        return file(header(
+                "XTENSION= 'BINTABLE'",
+                "BITPIX  =                    8",
+                "NAXIS   =                    2",
+                "NAXIS1  =                   12",
+                "NAXIS2  =                  100",
+                "PCOUNT  =                    0",
+                "GCOUNT  =                    1",
+                "TFIELDS =                    2",
+                "TTYPE1  = 'ID      '",
+                "TFORM1  = 'J       '",
+                "TNULL1  =                   -1",
+                "TTYPE2  = 'RA      '",
+                "TFORM2  = 'D       '",
+                "END"),
+                data.array());
+    }
+
+    @Test
+    public void ctr_NullValue() throws IOException {
+        BinaryTable target = new BinaryTable(catalog(), 0, THROW_ALWAYS);
+        assertEquals(Long.valueOf(-1), target.getColumn("ID").getNullValue());
+        assertNull(target.getColumn("RA").getNullValue());
+    }
+
+    @Test
+    public void ctr_InvalidNullValue() throws IOException {
+        FileChannel channel = file(header(
+                "XTENSION= 'BINTABLE'",
+                "BITPIX  =                    8",
+                "NAXIS   =                    2",
+                "NAXIS1  =                    2",
+                "NAXIS2  =                    0",
+                "PCOUNT  =                    0",
+                "GCOUNT  =                    1",
+                "TFIELDS =                    1",
+                "TFORM1  = 'I       '",
+                "TNULL1  = 'none'",
+                "END"));
+        ErrorHandler handler = mock(ErrorHandler.class);
+        BinaryTable target = new BinaryTable(channel, 0, handler);
+        assertNull(target.getColumn(0).getNullValue());
+        verify(handler).error(new FitsFormatException(2880,
+                "BinaryTable_InvalidKeyword", "TNULL1", "none"));
+    }
+
+    @Test
+    public void scan_NoPredicates() throws IOException {
+        BinaryTable target = new BinaryTable(catalog(), 0, THROW_ALWAYS);
+        assertEquals(100, target.scan(0, 100).count());
+    }
+
+    @Test
+    public void scan_Between() throws IOException {
+        BinaryTable target = new BinaryTable(catalog(), 0, THROW_ALWAYS);
+        RowSelection selection = target.scan(0, 100,
+                RowPredicate.between(target.getColumn("RA"), 10, 12));
+        assertArrayEquals(new long[]{20, 22, 23, 24}, selection.toRows());
+    }
+
+    @Test
+    public void scan_BetweenInteger() throws IOException {
+        BinaryTable target = new BinaryTable(catalog(), 0, THROW_ALWAYS);
+        RowSelection selection = target.scan(0, 100,
+                RowPredicate.between(target.getColumn("ID"), -5, 3));
+        assertArrayEquals(new long[]{1, 2, 3}, selection.toRows());
+    }
+
+    @Test
+    public void scan_EqualTo() throws IOException {
+        BinaryTable target = new BinaryTable(catalog(), 0, THROW_ALWAYS);
+        RowSelection selection = target.scan(0, 100,
+                RowPredicate.equalTo(target.getColumn("ID"), 42));
+        assertArrayEquals(new long[]{42}, selection.toRows());
+        selection = target.scan(0, 100,
+                RowPredicate.equalTo(target.getColumn("ID"), -1));
+        assertEquals(0, selection.count());
+    }
+
+    @Test
+    public void scan_IsNull() throws IOException {
+        BinaryTable target = new BinaryTable(catalog(), 0, THROW_ALWAYS);
+        RowSelection selection = target.scan(0, 100,
+                RowPredicate.isNull(target.getColumn("ID")));
+        assertEquals(10, selection.count());
+        assertEquals(30, selection.nextSelected(21));
+        selection = target.scan(0, 15,
+                RowPredicate.isNull(target.getColumn("RA")));
+        assertArrayEquals(new long[]{0, 7, 14}, selection.toRows());
+    }
+
+    @Test
+    public void scan_Combined() throws IOException {
+        BinaryTable target = new BinaryTable(catalog(), 0, THROW_ALWAYS);
+        RowSelection selection = target.scan(10, 80,
+                RowPredicate.between(target.getColumn("RA"), 0, 30),
+                RowPredicate.isNull(target.getColumn("ID")));
+        assertArrayEquals(new long[]{10, 20, 30, 40, 50, 60},
+                selection.toRows());
+        assertEquals(10, selection.getFirstRow());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void scan_ForeignColumn() throws IOException {
+        BinaryTable target = new BinaryTable(catalog(), 0, THROW_ALWAYS);
+        BinaryTable other = new BinaryTable(catalog(), 0, THROW_ALWAYS);
+        target.scan(0, 1, RowPredicate.equalTo(other.getColumn(0), 1));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void scan_OutOfRange() throws IOException {
+        BinaryTable target = new BinaryTable(catalog(), 0, THROW_ALWAYS);
+        target.scan(50, 51);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void predicate_NotScalar() throws IOException {
+        BinaryTable target = new BinaryTable(table(), 2880, THROW_ALWAYS);
+        RowPredicate.equalTo(target.getColumn("POS"), 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void predicate_WrongType() throws IOException {
+        BinaryTable target = new BinaryTable(table(), 2880, THROW_ALWAYS);
+        RowPredicate.equalTo(target.getColumn("FLUX"), 1);
+    }
+
+    private static FileChannel spectra() throws IOException {
+        ByteBuffer data = ByteBuffer.allocate(2 * 24 + 4 + 40);
+        data.putInt(3).putInt(0);
+        data.putLong(0).putLong(0);
+        data.putInt(0).putInt(0);
+        data.putLong(2).putLong(8);
+        data.putInt(0);
+        data.putShort((short) 1).putShort((short) -2).putShort((short) 3);
+        data.putShort((short) 0);
+        data.putDouble(0.5).putDouble(-1.5);
+        return file(header(
+                "XTENSION= 'BINTABLE'",
+                "BITPIX  =                    8",
+                "NAXIS   =                    2",
+                "NAXIS1  =                   24",
+                "NAXIS2  =                    2",
+                "PCOUNT  =                   44",
+                "GCOUNT  =                    1",
+                "TFIELDS =                    2",
+                "TTYPE1  = 'FLUX    '",
+                "TFORM1  = '1PI(3)  '",
+                "TTYPE2  = 'WAVE    '",
+                "TFORM2  = 'QD      '",
+                "THEAP   =                   52",
+                "END"),
+                data.array());
+    }
+
+    @Test
+    public void ctr_Heap() throws IOException {
+        BinaryTable target = new BinaryTable(spectra(), 0, THROW_ALWAYS);
+        assertEquals(52, target.getHeapOffset());
+        assertEquals(40, target.getHeapLength());
+        assertEquals('I', target.getColumn("FLUX").getArrayType());
+        assertEquals('D', target.getColumn("WAVE").getArrayType());
+    }
+
+    @Test
+    public void getArrayLength() throws IOException {
+        BinaryTable target = new BinaryTable(spectra(), 0, THROW_ALWAYS);
+        assertEquals(3, target.getArrayLength(target.getColumn("FLUX"), 0));
+        assertEquals(0, target.getArrayLength(target.getColumn("WAVE"), 0));
+        assertEquals(2, target.getArrayLength(target.getColumn("WAVE"), 1));
+    }
+
+    @Test
+    public void getShortArray() throws IOException {
+        BinaryTable target = new BinaryTable(spectra(), 0, THROW_ALWAYS);
+        ShortBuffer flux = target.getShortArray(target.getColumn("FLUX"), 0);
+        assertEquals(3, flux.remaining());
+        assertEquals(1, flux.get(0));
+        assertEquals(-2, flux.get(1));
+        assertEquals(3, flux.get(2));
+        assertTrue(flux.isReadOnly());
+    }
+
+    @Test
+    public void getDoubleArray() throws IOException {
+        BinaryTable target = new BinaryTable(spectra(), 0, THROW_ALWAYS);
+        DoubleBuffer wave = target.getDoubleArray(target.getColumn("WAVE"),
+                1);
+        assertEquals(2, wave.remaining());
+        assertEquals(0.5, wave.get(0), 0.0);
+        assertEquals(-1.5, wave.get(1), 0.0);
+        assertEquals(0, target.getDoubleArray(target.getColumn("WAVE"), 0).
+                remaining());
+    }
+
+    @Test
+    public void getArray_AcrossSegments() throws IOException {
+        FileChannel channel = spectra();
+        Header header = new HeaderReader(channel, THROW_ALWAYS).readHeader();
+        BinaryTable target = new BinaryTable(channel, header, 2880,
+                THROW_ALWAYS, 3);
+        DoubleBuffer wave = target.getDoubleArray(target.getColumn("WAVE"),
+                1);
+        assertEquals(0.5, wave.get(0), 0.0);
+        assertEquals(-1.5, wave.get(1), 0.0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void getArray_WrongType() throws IOException {
+        BinaryTable target = new BinaryTable(spectra(), 0, THROW_ALWAYS);
+        target.getFloatArray(target.getColumn("FLUX"), 0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void getArray_NotDescriptor() throws IOException {
+        BinaryTable target = new BinaryTable(table(), 2880, THROW_ALWAYS);
+        target.getArray(target.getColumn("ID"), 0);
+    }
+
+    @Test
+    public void getArray_OutsideHeap() throws IOException {
+        ByteBuffer data = ByteBuffer.allocate(8 + 4);
+        data.putInt(2).putInt(2);
+        FileChannel channel = file(header(
+                "XTENSION= 'BINTABLE'",
+                "BITPIX  =                    8",
+                "NAXIS   =                    2",
+                "NAXIS1  =                    8",
+                "NAXIS2  =                    1",
+                "PCOUNT  =                    4",
+                "GCOUNT  =                    1",
+                "TFIELDS =                    1",
+                "TFORM1  = 'PJ      '",
+                "END"),
+                data.array());
+        ErrorHandler handler = mock(ErrorHandler.class);
+        BinaryTable target = new BinaryTable(channel, 0, handler);
+        try {
+            target.getArray(target.getColumn(0), 0);
+            fail();
+        } catch (FitsFormatException e) {
+            FitsFormatException expected = new FitsFormatException(2880,
+                    "BinaryTable_InvalidDescriptor", 1, 0L, 2L, 2L);
+            assertEquals(expected, e);
+            verify(handler).fatal(expected);
+        }
+    }
+
+    @Test
+    public void ctr_InvalidHeap() throws IOException {
+        FileChannel channel = file(header(
+                "XTENSION= 'BINTABLE'",
+                "BITPIX  =                    8",
+                "NAXIS   =                    2",
+                "NAXIS1  =                    8",
+                "NAXIS2  =                    1",
+                "PCOUNT  =                    0",
+                "GCOUNT  =                    1",
+                "TFIELDS =                    1",
+                "TFORM1  = 'PJ      '",
+                "THEAP   =                    4",
+                "END"),
+                new byte[8]);
+        ErrorHandler handler = mock(ErrorHandler.class);
+        try {
+            new BinaryTable(channel, 0, handler);
+            fail();
+        } catch (FitsFormatException e) {
+            FitsFormatException expected = new FitsFormatException(2880,
+                    "BinaryTable_InvalidKeyword", "THEAP",
+                    BigDecimal.valueOf(4));
+            assertEquals(expected, e);
+            verify(handler).fatal(expected);
+        }
+    }
+
+    @Test
+    public void parseFormat() {
+        BinaryTableColumn column = BinaryTable.parseFormat(2, "X", "16D", 8);
+        assertEquals(2, column.getIndex());
+        assertEquals('D', column.getType());
+        assertEquals(16, column.getRepeat());
+        assertEquals(8, column.getOffset());
+        assertEquals(128, column.getWidth());
+    }
+
+    @Test
+    public void parseFormat_Descriptor() {
+        BinaryTableColumn column = BinaryTable.parseFormat(0, null,
+                "1PE(100)", 0);
+        assertEquals('P', column.getType());
+        assertEquals('E', column.getArrayType());
+        assertEquals(8, column.getWidth());
+    }
+
+    @Test
+    public void parseFormat_ZeroRepeat() {
+        assertEquals(0, BinaryTable.parseFormat(0, null, "0J", 0).getWidth());
+    }
+
+    @Test
+    public void parseFormat_Invalid() {
+        assertNull(BinaryTable.parseFormat(0, null, "", 0));
+        assertNull(BinaryTable.parseFormat(0, null, "12", 0));
+        assertNull(BinaryTable.parseFormat(0, null, "99999999999J", 0));
+        assertNull(BinaryTable.parseFormat(0, null, "1P", 0));
+        assertNull(BinaryTable.parseFormat(0, null, "1PP", 0));
+    }
+}
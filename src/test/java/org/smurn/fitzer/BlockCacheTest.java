@@ -0,0 +1,221 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.smurn.fitzer.TestUtils.*;
+
+/**
+ * Unit tests for {@link BlockCache} and {@link CachedChannel}.
+ */
+public class BlockCacheTest {
+
+    private static byte[] bytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(42).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] read(BlockCache cache, long fileId,
+            FileChannel channel, long position, int length)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        assertEquals(length, cache.read(fileId, channel, buffer, position));
+        return buffer.array();
+    }
+
+    private static byte[] range(byte[] bytes, int start, int length) {
+        byte[] range = new byte[length];
+        System.arraycopy(bytes, start, range, 0, length);
+        return range;
+    }
+
+    @Test
+    public void read() throws IOException {
+        byte[] bytes = bytes(5 * 2880);
+        FileChannel channel = file(bytes);
+        BlockCache target = new BlockCache(10 * 2880);
+        assertArrayEquals(range(bytes, 2000, 4000),
+                read(target, 1, channel, 2000, 4000));
+        assertEquals(0, target.getHitCount());
+        assertEquals(3, target.getMissCount());
+        assertArrayEquals(range(bytes, 2880, 100),
+                read(target, 1, channel, 2880, 100));
+        assertEquals(1, target.getHitCount());
+        assertEquals(3, target.getMissCount());
+    }
+
+    @Test
+    public void read_Pages() throws IOException {
+        byte[] bytes = bytes(10 * 2880);
+        FileChannel channel = file(bytes);
+        BlockCache target = new BlockCache(4 * 4 * 2880, 4);
+        assertEquals(4 * 2880, target.getPageSize());
+        assertArrayEquals(range(bytes, 100, 9 * 2880),
+                read(target, 1, channel, 100, 9 * 2880));
+        assertEquals(3, target.getMissCount());
+    }
+
+    @Test
+    public void read_EndOfFile() throws IOException {
+        byte[] bytes = bytes(3000);
+        FileChannel channel = file(bytes);
+        BlockCache target = new BlockCache(10 * 2880);
+        ByteBuffer buffer = ByteBuffer.allocate(200);
+        assertEquals(100, target.read(1, channel, buffer, 2900));
+        assertArrayEquals(range(bytes, 2900, 100),
+                range(buffer.array(), 0, 100));
+        buffer.clear();
+        assertEquals(-1, target.read(1, channel, buffer, 3000));
+        buffer.clear();
+        assertEquals(-1, target.read(1, channel, buffer, 9000));
+    }
+
+    @Test
+    public void read_Evicts() throws IOException {
+        byte[] bytes = bytes(8 * 2880);
+        FileChannel channel = file(bytes);
+        BlockCache target = new BlockCache(2 * 2880);
+        assertEquals(2 * 2880, target.getCapacity());
+        for (int i = 0; i < 8; i++) {
+            assertArrayEquals(range(bytes, i * 2880, 2880),
+                    read(target, 1, channel, i * 2880, 2880));
+        }
+        assertEquals(6, target.getEvictionCount());
+        assertEquals(0, target.getHitCount());
+    }
+
+    @Test
+    public void read_SecondChance() throws IOException {
+        FileChannel channel = file(bytes(4 * 2880));
+        BlockCache target = new BlockCache(2 * 2880);
+        read(target, 1, channel, 0, 1);
+        read(target, 1, channel, 2880, 1);
+        read(target, 1, channel, 0, 1);
+        read(target, 1, channel, 2 * 2880, 1);
+        read(target, 1, channel, 0, 1);
+        assertEquals(2, target.getHitCount());
+    }
+
+    @Test
+    public void read_Files() throws IOException {
+        byte[] first = bytes(2880);
+        byte[] second = new byte[2880];
+        BlockCache target = new BlockCache(10 * 2880);
+        FileChannel firstChannel = file(first);
+        FileChannel secondChannel = file(second);
+        assertArrayEquals(first, read(target, 1, firstChannel, 0, 2880));
+        assertArrayEquals(second, read(target, 2, secondChannel, 0, 2880));
+        assertEquals(2, target.getMissCount());
+    }
+
+    @Test
+    public void read_Disabled() throws IOException {
+        byte[] bytes = bytes(2880);
+        BlockCache target = new BlockCache(100);
+        FileChannel channel = file(bytes);
+        assertEquals(0, target.getCapacity());
+        assertArrayEquals(bytes, read(target, 1, channel, 0, 2880));
+        assertArrayEquals(bytes, read(target, 1, channel, 0, 2880));
+        assertEquals(2, target.getMissCount());
+    }
+
+    @Test
+    public void invalidate() throws IOException {
+        FileChannel channel = file(bytes(2880));
+        BlockCache target = new BlockCache(10 * 2880);
+        read(target, 1, channel, 0, 10);
+        target.invalidate(1);
+        read(target, 1, channel, 0, 10);
+        assertEquals(2, target.getMissCount());
+        assertEquals(0, target.getHitCount());
+    }
+
+    @Test
+    public void read_Concurrent() throws Exception {
+        final byte[] bytes = bytes(64 * 2880);
+        final FileChannel channel = file(bytes);
+        final BlockCache target = new BlockCache(32 * 2880);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+            for (int t = 0; t < 8; t++) {
+                final Random random = new Random(t);
+                tasks.add(new Callable<Void>() {
+
+                    @Override
+                    public Void call() throws IOException {
+                        for (int i = 0; i < 500; i++) {
+                            int position = random.nextInt(63 * 2880);
+                            int length = 1 + random.nextInt(2880);
+                            assertArrayEquals(range(bytes, position, length),
+                                    read(target, 1, channel, position,
+                                    length));
+                        }
+                        return null;
+                    }
+                });
+            }
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void cachedChannel() throws IOException {
+        byte[] hdu = header(
+                "SIMPLE  =                    T",
+                "BITPIX  =                    8",
+                "NAXIS   =                    0",
+                "END");
+        FileChannel channel = file(hdu);
+        BlockCache cache = new BlockCache(10 * 2880);
+        long fileId = BlockCache.newFileId();
+        Header expected = new HeaderReader(new CachedChannel(cache, fileId,
+                channel, 0), THROW_ALWAYS).readHeader();
+        Header actual = new HeaderReader(new CachedChannel(cache, fileId,
+                channel, 0), THROW_ALWAYS).readHeader();
+        assertEquals(expected, actual);
+        assertEquals(3, actual.size());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(0, channel.position());
+    }
+
+    @Test
+    public void newFileId() {
+        assertTrue(BlockCache.newFileId() != BlockCache.newFileId());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ctor_NegativeCapacity() {
+        new BlockCache(-1);
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.nio.ByteBuffer;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link BlockPool}.
+ */
+public class BlockPoolTest {
+
+    @Test
+    public void acquire() {
+        ByteBuffer block = new BlockPool(1).acquire();
+        assertTrue(block.isDirect());
+        assertEquals(2880, block.remaining());
+    }
+
+    @Test
+    public void acquire_Reuses() {
+        BlockPool target = new BlockPool(1);
+        ByteBuffer block = target.acquire();
+        block.put((byte) 1);
+        target.release(block);
+        assertEquals(1, target.getFreeCount());
+        ByteBuffer actual = target.acquire();
+        assertSame(block, actual);
+        assertEquals(0, actual.position());
+        assertEquals(0, target.getFreeCount());
+    }
+
+    @Test
+    public void release_Full() {
+        BlockPool target = new BlockPool(1);
+        target.release(target.acquire());
+        target.release(ByteBuffer.allocateDirect(2880));
+        assertEquals(1, target.getFreeCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ctor_NegativeCapacity() {
+        new BlockPool(-1);
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+import static org.smurn.fitzer.TestUtils.*;
+
+/**
+ * Unit tests for {@link CardEncoder}.
+ */
+public class CardEncoderTest {
+
+    private static String encode(Property property) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(82);
+        buffer.put((byte) 'x');
+        new CardEncoder(THROW_ALWAYS).encode(property, buffer);
+        assertEquals(81, buffer.position());
+        return new String(buffer.array(), 1, 80, "US-ASCII");
+    }
+
+    @Test
+    public void encode_Number() throws IOException {
+        assertEquals(String.format("%-80s",
+                "NAXIS1  =                  120 / length of a row"),
+                encode(new Property("NAXIS1", 120, "length of a row")));
+    }
+
+    @Test
+    public void encode_Decimal() throws IOException {
+        assertEquals(String.format("%-80s", "BSCALE  =                 1.25"),
+                encode(new Property("BSCALE", new BigDecimal("1.25"))));
+    }
+
+    @Test
+    public void encode_Logical() throws IOException {
+        assertEquals(String.format("%-80s", "SIMPLE  =                    T"),
+                encode(new Property("SIMPLE", Boolean.TRUE)));
+    }
+
+    @Test
+    public void encode_String() throws IOException {
+        assertEquals(String.format("%-80s", "TFORM1  = 'J       '"),
+                encode(new Property("TFORM1", "J")));
+        assertEquals(String.format("%-80s", "OBJECT  = 'it''s a galaxy'"),
+                encode(new Property("OBJECT", "it's a galaxy")));
+    }
+
+    @Test
+    public void encode_Commentary() throws IOException {
+        assertEquals(String.format("%-80s", "HISTORY reduced"),
+                encode(new Property("HISTORY", null, "reduced", true)));
+    }
+
+    @Test
+    public void encode_CommentTruncated() throws IOException {
+        String card = encode(new Property("A", Boolean.FALSE,
+                repeat("c", 100)));
+        assertEquals("A       =                    F / " + repeat("c", 47),
+                card);
+    }
+
+    @Test
+    public void encode_KeywordLength() throws IOException {
+        ErrorHandler handler = mock(ErrorHandler.class);
+        FitsDataException expected = new FitsDataException(
+                "CardEncoder_KeywordLength", "TOOLONGKEY");
+        try {
+            new CardEncoder(handler).encode(
+                    new Property("TOOLONGKEY", 1), ByteBuffer.allocate(80));
+            fail();
+        } catch (FitsDataException e) {
+            assertEquals(expected, e);
+        }
+        verify(handler).fatal(expected);
+    }
+
+    @Test
+    public void encode_KeywordCharacter() throws IOException {
+        ErrorHandler handler = mock(ErrorHandler.class);
+        FitsDataException expected = new FitsDataException(
+                "CardEncoder_KeywordCharacter", "lower", (int) 'l');
+        try {
+            new CardEncoder(handler).encode(
+                    new Property("lower", 1), ByteBuffer.allocate(80));
+            fail();
+        } catch (FitsDataException e) {
+            assertEquals(expected, e);
+        }
+        verify(handler).fatal(expected);
+    }
+
+    @Test
+    public void encodeHeader() throws IOException {
+        ByteBuffer buffer = new CardEncoder(THROW_ALWAYS).encodeHeader(
+                Arrays.asList(new Property("SIMPLE", Boolean.TRUE),
+                new Property("BITPIX", 16), new Property("NAXIS", 0)));
+        assertEquals(2880, buffer.remaining());
+        Header header = new HeaderReader(channel(Arrays.copyOf(
+                buffer.array(), buffer.limit())), THROW_ALWAYS).readHeader();
+        assertEquals(3, header.size());
+        assertEquals(16, header.get("BITPIX").getLong());
+        assertEquals(Boolean.TRUE, header.get("SIMPLE").get());
+    }
+}
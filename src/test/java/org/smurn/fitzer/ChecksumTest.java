@@ -0,0 +1,206 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+import static org.smurn.fitzer.TestUtils.*;
+
+/**
+ * Unit tests for {@link Checksum}.
+ */
+public class ChecksumTest {
+
+    private static byte[] random(int length) {
+        byte[] bytes = new byte[length];
+        new Random(42).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static long sum(byte[] bytes) {
+        Checksum checksum = new Checksum();
+        checksum.update(ByteBuffer.wrap(bytes));
+        return checksum.getValue();
+    }
+
+    @Test
+    public void update() {
+        assertEquals(3, sum(new byte[]{0, 0, 0, 1, 0, 0, 0, 2}));
+    }
+
+    @Test
+    public void update_Carry() {
+        assertEquals(2, sum(new byte[]{-1, -1, -1, -1, 0, 0, 0, 2}));
+    }
+
+    @Test
+    public void update_PartialWord() {
+        assertEquals(0x01020300L, sum(new byte[]{1, 2, 3}));
+    }
+
+    @Test
+    public void update_Split() {
+        byte[] bytes = random(1001);
+        Checksum target = new Checksum();
+        target.update(ByteBuffer.wrap(bytes, 0, 3));
+        target.update(ByteBuffer.wrap(bytes, 3, 498));
+        target.update(ByteBuffer.wrap(bytes, 501, 500));
+        assertEquals(sum(bytes), target.getValue());
+        assertEquals(1001, target.getLength());
+    }
+
+    @Test
+    public void update_LittleEndian() {
+        byte[] bytes = random(100);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        Checksum target = new Checksum();
+        target.update(buffer);
+        assertEquals(sum(bytes), target.getValue());
+        assertEquals(ByteOrder.LITTLE_ENDIAN, buffer.order());
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    public void reset() {
+        Checksum target = new Checksum();
+        target.update(ByteBuffer.wrap(random(10)));
+        target.reset();
+        assertEquals(0, target.getValue());
+        assertEquals(0, target.getLength());
+    }
+
+    @Test
+    public void combine() {
+        byte[] bytes = random(1001);
+        for (int split = 0; split < 8; split++) {
+            byte[] first = new byte[split];
+            byte[] second = new byte[bytes.length - split];
+            System.arraycopy(bytes, 0, first, 0, split);
+            System.arraycopy(bytes, split, second, 0, second.length);
+            assertEquals(sum(bytes), Checksum.combine(sum(first),
+                    sum(second), split));
+        }
+    }
+
+    @Test
+    public void compute() throws Exception {
+        byte[] bytes = random(3 * Checksum.TASK_BLOCKS * 2880 + 1234);
+        FileChannel channel = file(bytes);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            long expected = sum(bytes);
+            assertEquals(expected, Checksum.compute(channel, 0, bytes.length,
+                    null));
+            assertEquals(expected, Checksum.compute(channel, 0, bytes.length,
+                    executor));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void compute_Offset() throws Exception {
+        byte[] bytes = random(10000);
+        byte[] part = new byte[5000];
+        System.arraycopy(bytes, 2880, part, 0, part.length);
+        assertEquals(sum(part), Checksum.compute(file(bytes), 2880,
+                part.length, null));
+    }
+
+    @Test(expected = EOFException.class)
+    public void compute_Truncated() throws Exception {
+        Checksum.compute(file(new byte[100]), 0, 200, null);
+    }
+
+    @Test
+    public void encode() {
+        String actual = Checksum.encode(0x12345678L);
+        assertEquals(16, actual.length());
+        assertTrue(actual.matches("[0-9A-Za-z]+"));
+    }
+
+    private static List<Property> properties(String checksum, long dataSum) {
+        List<Property> properties = new ArrayList<Property>();
+        properties.add(new Property("SIMPLE", Boolean.TRUE));
+        properties.add(new Property("BITPIX", 8));
+        properties.add(new Property("NAXIS", 1));
+        properties.add(new Property("NAXIS1", 1000));
+        properties.add(new Property("CHECKSUM", checksum));
+        properties.add(Checksum.dataSum(dataSum));
+        return properties;
+    }
+
+    private static long headerSum(List<Property> properties)
+            throws IOException {
+        Checksum checksum = new Checksum();
+        checksum.update(new CardEncoder(THROW_ALWAYS).encodeHeader(
+                properties));
+        return checksum.getValue();
+    }
+
+    @Test
+    public void encode_ZeroesHdu() throws IOException {
+        for (long seed = 0; seed < 20; seed++) {
+            byte[] data = random(2880);
+            data[0] = (byte) seed;
+            long dataSum = sum(data);
+            long zero = headerSum(properties(Checksum.ZERO, dataSum));
+            String encoded = Checksum.encode(Checksum.combine(zero, dataSum,
+                    0));
+            long headerSum = headerSum(properties(encoded, dataSum));
+            assertEquals(0xFFFFFFFFL, Checksum.combine(headerSum, dataSum,
+                    0));
+            assertTrue(Checksum.verify(new Header(properties(encoded,
+                    dataSum)), headerSum, dataSum, 0, THROW_ALWAYS));
+        }
+    }
+
+    @Test
+    public void verify_DataSum() throws IOException {
+        ErrorHandler handler = mock(ErrorHandler.class);
+        Header header = new Header(properties(Checksum.ZERO, 1234));
+        assertFalse(Checksum.verify(header, 0, 1235, 2880, handler));
+        verify(handler).error(new FitsFormatException(false, 2880,
+                "Checksum_DataSum", "1234", 1235L));
+    }
+
+    @Test
+    public void verify_Checksum() throws IOException {
+        ErrorHandler handler = mock(ErrorHandler.class);
+        Header header = new Header(properties(Checksum.ZERO, 1234));
+        assertFalse(Checksum.verify(header, 5, 1234, 0, handler));
+        verify(handler).error(new FitsFormatException(false, 0,
+                "Checksum_Checksum", 1239L));
+    }
+
+    @Test
+    public void verify_Missing() throws IOException {
+        Header header = new Header(new ArrayList<Property>());
+        assertTrue(Checksum.verify(header, 5, 6, 0, THROW_ALWAYS));
+    }
+}
@@ -0,0 +1,456 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+import static org.smurn.fitzer.TestUtils.*;
+
+/**
+ * Unit tests for {@link CompressedImage}.
+ */
+public class CompressedImageTest {
+
+    private static final int WIDTH = 5;
+    private static final int HEIGHT = 3;
+
+    /**
+     * Gets the value of a pixel of the test image.
+     */
+    private static int pixel(int x, int y) {
+        return x + 10 * y - 7;
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GZIPOutputStream stream = new GZIPOutputStream(out);
+        stream.write(data);
+        stream.close();
+        return out.toByteArray();
+    }
+
+    /**
+     * Splits the test image into tiles of 2 x 2 pixels stored as shorts.
+     */
+    private static List<byte[]> tiles(boolean shuffle) throws IOException {
+        List<byte[]> tiles = new ArrayList<byte[]>();
+        for (int ty = 0; ty < HEIGHT; ty += 2) {
+            for (int tx = 0; tx < WIDTH; tx += 2) {
+                ByteBuffer buffer = ByteBuffer.allocate(8);
+                for (int y = ty; y < Math.min(ty + 2, HEIGHT); y++) {
+                    for (int x = tx; x < Math.min(tx + 2, WIDTH); x++) {
+                        buffer.putShort((short) pixel(x, y));
+                    }
+                }
+                byte[] data = Arrays.copyOf(buffer.array(),
+                        buffer.position());
+                if (shuffle) {
+                    byte[] shuffled = new byte[data.length];
+                    int count = data.length / 2;
+                    for (int i = 0; i < count; i++) {
+                        shuffled[i] = data[2 * i];
+                        shuffled[count + i] = data[2 * i + 1];
+                    }
+                    data = shuffled;
+                }
+                tiles.add(gzip(data));
+            }
+        }
+        return tiles;
+    }
+
+    /**
+     * Creates a compressed image whose rows hold a descriptor of the
+     * compressed tile followed by {@code extra} bytes per row.
+     */
+    private static FileChannel file(List<byte[]> tiles, byte[][] extra,
+            String... cards) throws IOException {
+        int extraLength = extra == null ? 0 : extra[0].length;
+        int rowLength = 8 + extraLength;
+        ByteBuffer data = ByteBuffer.allocate(8192);
+        int heap = 0;
+        for (int i = 0; i < tiles.size(); i++) {
+            data.putInt(tiles.get(i).length);
+            data.putInt(heap);
+            if (extra != null) {
+                data.put(extra[i]);
+            }
+            heap += tiles.get(i).length;
+        }
+        for (byte[] tile : tiles) {
+            data.put(tile);
+        }
+        List<String> header = new ArrayList<String>(Arrays.asList(
+                "XTENSION= 'BINTABLE'",
+                "BITPIX  =                    8",
+                "NAXIS   =                    2",
+                String.format("NAXIS1  = %20d", rowLength),
+                String.format("NAXIS2  = %20d", tiles.size()),
+                String.format("PCOUNT  = %20d", heap),
+                "GCOUNT  =                    1"));
+        header.addAll(Arrays.asList(cards));
+        header.add("END");
+        return TestUtils.file(header(
+                "SIMPLE  =                    T",
+                "BITPIX  =                    8",
+                "NAXIS   =                    0",
+                "END"),
+                header(header.toArray(new String[header.size()])),
+                Arrays.copyOf(data.array(), data.position()));
+    }
+
+    private static FileChannel image(String compression, boolean shuffle)
+            throws IOException {
+        return file(tiles(shuffle), null,
+                "TFIELDS =                    1",
+                "TTYPE1  = 'COMPRESSED_DATA'",
+                "TFORM1  = '1PB(16) '",
+                "ZIMAGE  =                    T",
+                "ZCMPTYPE= '" + compression + "'",
+                "ZBITPIX =                   16",
+                "ZNAXIS  =                    2",
+                "ZNAXIS1 =                    5",
+                "ZNAXIS2 =                    3",
+                "ZTILE1  =                    2",
+                "ZTILE2  =                    2");
+    }
+
+    private static CompressedImage open(FileChannel file,
+            ErrorHandler handler) throws IOException {
+        return new CompressedImage(new BinaryTable(file, 2880, handler),
+                handler);
+    }
+
+    private static int[] expected(int x0, int y0, int width, int height) {
+        int[] expected = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                expected[x + width * y] = pixel(x0 + x, y0 + y);
+            }
+        }
+        return expected;
+    }
+
+    @Test
+    public void ctr() throws IOException {
+        CompressedImage target = open(image("GZIP_1", false), THROW_ALWAYS);
+        assertEquals("GZIP_1", target.getCompression());
+        assertEquals(16, target.getBitpix());
+        assertEquals(2, target.getAxisCount());
+        assertEquals(5, target.getAxisLength(0));
+        assertEquals(3, target.getAxisLength(1));
+        assertEquals(2, target.getTileLength(0));
+        assertEquals(2, target.getTileLength(1));
+        assertEquals(6, target.getTileCount());
+    }
+
+    @Test
+    public void readInts_All() throws Exception {
+        CompressedImage target = open(image("GZIP_1", false), THROW_ALWAYS);
+        assertArrayEquals(expected(0, 0, 5, 3),
+                target.readInts(new long[]{0, 0}, new int[]{5, 3}));
+    }
+
+    @Test
+    public void readInts_Region() throws Exception {
+        CompressedImage target = open(image("GZIP_1", false), THROW_ALWAYS);
+        assertArrayEquals(expected(1, 1, 3, 2),
+                target.readInts(new long[]{1, 1}, new int[]{3, 2}));
+        assertArrayEquals(expected(4, 2, 1, 1),
+                target.readInts(new long[]{4, 2}, new int[]{1, 1}));
+    }
+
+    @Test
+    public void readInts_Empty() throws Exception {
+        CompressedImage target = open(image("GZIP_1", false), THROW_ALWAYS);
+        assertEquals(0,
+                target.readInts(new long[]{5, 0}, new int[]{0, 3}).length);
+    }
+
+    @Test
+    public void readInts_Shuffled() throws Exception {
+        CompressedImage target = open(image("GZIP_2", true), THROW_ALWAYS);
+        assertArrayEquals(expected(0, 0, 5, 3),
+                target.readInts(new long[]{0, 0}, new int[]{5, 3}));
+    }
+
+    @Test
+    public void readInts_Parallel() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            ErrorHandler handler = THROW_ALWAYS;
+            CompressedImage target = new CompressedImage(new BinaryTable(
+                    image("GZIP_1", false), 2880, handler), handler, executor,
+                    0);
+            assertArrayEquals(expected(0, 0, 5, 3),
+                    target.readInts(new long[]{0, 0}, new int[]{5, 3}));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void readInts_OnlyOverlappingTiles() throws Exception {
+        List<byte[]> tiles = tiles(false);
+        tiles.set(0, new byte[]{1, 2, 3});
+        CompressedImage target = open(file(tiles, null,
+                "TFIELDS =                    1",
+                "TTYPE1  = 'COMPRESSED_DATA'",
+                "TFORM1  = '1PB(16) '",
+                "ZIMAGE  =                    T",
+                "ZCMPTYPE= 'GZIP_1  '",
+                "ZBITPIX =                   16",
+                "ZNAXIS  =                    2",
+                "ZNAXIS1 =                    5",
+                "ZNAXIS2 =                    3",
+                "ZTILE1  =                    2",
+                "ZTILE2  =                    2"), THROW_ALWAYS);
+        assertArrayEquals(expected(2, 0, 3, 3),
+                target.readInts(new long[]{2, 0}, new int[]{3, 3}));
+    }
+
+    @Test
+    public void readDoubles() throws Exception {
+        CompressedImage target = open(image("GZIP_1", false), THROW_ALWAYS);
+        assertArrayEquals(new double[]{pixel(3, 1), pixel(4, 1)},
+                target.readDoubles(new long[]{3, 1}, new int[]{2, 1}), 0.0);
+    }
+
+    @Test
+    public void readDoubles_Quantized() throws Exception {
+        byte[] tile = gzip(new byte[]{0, 0, 0, 2, -128, 0, 0, 1, 0, 0, 0, 5});
+        ByteBuffer extra = ByteBuffer.allocate(16);
+        extra.putDouble(0.5).putDouble(1.0);
+        CompressedImage target = open(file(Arrays.asList(tile),
+                new byte[][]{extra.array()},
+                "TFIELDS =                    3",
+                "TTYPE1  = 'COMPRESSED_DATA'",
+                "TFORM1  = '1PB(12) '",
+                "TTYPE2  = 'ZSCALE  '",
+                "TFORM2  = 'D       '",
+                "TTYPE3  = 'ZZERO   '",
+                "TFORM3  = 'D       '",
+                "ZIMAGE  =                    T",
+                "ZCMPTYPE= 'GZIP_1  '",
+                "ZBITPIX =                  -32",
+                "ZNAXIS  =                    1",
+                "ZNAXIS1 =                    3"), THROW_ALWAYS);
+        assertArrayEquals(new double[]{2.0, Double.NaN, 3.5},
+                target.readDoubles(new long[]{0}, new int[]{3}), 0.0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void readInts_Float() throws Exception {
+        byte[] tile = gzip(new byte[4]);
+        CompressedImage target = open(file(Arrays.asList(tile), null,
+                "TFIELDS =                    1",
+                "TTYPE1  = 'COMPRESSED_DATA'",
+                "TFORM1  = '1PB(4)  '",
+                "ZIMAGE  =                    T",
+                "ZCMPTYPE= 'GZIP_1  '",
+                "ZBITPIX =                  -32",
+                "ZNAXIS  =                    1",
+                "ZNAXIS1 =                    1"), THROW_ALWAYS);
+        target.readInts(new long[]{0}, new int[]{1});
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void readInts_OutOfRange() throws Exception {
+        CompressedImage target = open(image("GZIP_1", false), THROW_ALWAYS);
+        target.readInts(new long[]{1, 1}, new int[]{5, 1});
+    }
+
+    @Test
+    public void readInts_Corrupt() throws Exception {
+        List<byte[]> tiles = tiles(false);
+        tiles.set(1, new byte[]{1, 2, 3});
+        ErrorHandler handler = mock(ErrorHandler.class);
+        CompressedImage target = open(file(tiles, null,
+                "TFIELDS =                    1",
+                "TTYPE1  = 'COMPRESSED_DATA'",
+                "TFORM1  = '1PB(16) '",
+                "ZIMAGE  =                    T",
+                "ZCMPTYPE= 'GZIP_1  '",
+                "ZBITPIX =                   16",
+                "ZNAXIS  =                    2",
+                "ZNAXIS1 =                    5",
+                "ZNAXIS2 =                    3",
+                "ZTILE1  =                    2",
+                "ZTILE2  =                    2"), handler);
+        FitsFormatException expected = new FitsFormatException(5760 + 8,
+                "CompressedImage_CorruptTile", 2L);
+        try {
+            target.readInts(new long[]{0, 0}, new int[]{5, 1});
+            fail();
+        } catch (FitsFormatException e) {
+            assertEquals(expected, e);
+        }
+        verify(handler).fatal(expected);
+    }
+
+    @Test
+    public void ctr_NotCompressed() throws IOException {
+        ErrorHandler handler = mock(ErrorHandler.class);
+        FitsFormatException expected = new FitsFormatException(5760,
+                "CompressedImage_NotCompressed");
+        try {
+            open(file(Arrays.asList(new byte[0]), null,
+                    "TFIELDS =                    1",
+                    "TFORM1  = '1PB(1)  '"), handler);
+            fail();
+        } catch (FitsFormatException e) {
+            assertEquals(expected, e);
+        }
+        verify(handler).fatal(expected);
+    }
+
+    @Test
+    public void ctr_UnknownCompression() throws IOException {
+        ErrorHandler handler = mock(ErrorHandler.class);
+        FitsFormatException expected = new FitsFormatException(5760,
+                "CompressedImage_UnknownCompression", "HCOMPRESS_1");
+        try {
+            open(image("HCOMPRESS_1", false), handler);
+            fail();
+        } catch (FitsFormatException e) {
+            assertEquals(expected, e);
+        }
+        verify(handler).fatal(expected);
+    }
+
+    @Test
+    public void ctr_MissingColumn() throws IOException {
+        ErrorHandler handler = mock(ErrorHandler.class);
+        FitsFormatException expected = new FitsFormatException(5760,
+                "CompressedImage_MissingColumn", "COMPRESSED_DATA");
+        try {
+            open(file(Arrays.asList(new byte[0]), null,
+                    "TFIELDS =                    1",
+                    "TFORM1  = '1PB(1)  '",
+                    "ZIMAGE  =                    T",
+                    "ZCMPTYPE= 'RICE_1  '",
+                    "ZBITPIX =                   16",
+                    "ZNAXIS  =                    1",
+                    "ZNAXIS1 =                    1"), handler);
+            fail();
+        } catch (FitsFormatException e) {
+            assertEquals(expected, e);
+        }
+        verify(handler).fatal(expected);
+    }
+
+    @Test
+    public void ctr_MissingKeyword() throws IOException {
+        ErrorHandler handler = mock(ErrorHandler.class);
+        FitsFormatException expected = new FitsFormatException(5760,
+                "CompressedImage_MissingKeyword", "ZNAXIS1");
+        try {
+            open(file(Arrays.asList(new byte[0]), null,
+                    "TFIELDS =                    1",
+                    "TTYPE1  = 'COMPRESSED_DATA'",
+                    "TFORM1  = '1PB(1)  '",
+                    "ZIMAGE  =                    T",
+                    "ZCMPTYPE= 'RICE_1  '",
+                    "ZBITPIX =                   16",
+                    "ZNAXIS  =                    1"), handler);
+            fail();
+        } catch (FitsFormatException e) {
+            assertEquals(expected, e);
+        }
+        verify(handler).fatal(expected);
+    }
+
+    @Test
+    public void ctr_TileCountOverflow() throws IOException {
+        ErrorHandler handler = mock(ErrorHandler.class);
+        FitsFormatException expected = new FitsFormatException(5760,
+                "CompressedImage_InvalidValue", "ZNAXIS",
+                BigDecimal.valueOf(2));
+        try {
+            open(file(Arrays.asList(new byte[0]), null,
+                    "TFIELDS =                    1",
+                    "TTYPE1  = 'COMPRESSED_DATA'",
+                    "TFORM1  = '1PB(1)  '",
+                    "ZIMAGE  =                    T",
+                    "ZCMPTYPE= 'RICE_1  '",
+                    "ZBITPIX =                   16",
+                    "ZNAXIS  =                    2",
+                    "ZNAXIS1 =           4294967296",
+                    "ZNAXIS2 =           4294967296",
+                    "ZTILE1  =                    1"), handler);
+            fail();
+        } catch (FitsFormatException e) {
+            assertEquals(expected, e);
+        }
+        verify(handler).fatal(expected);
+    }
+
+    @Test
+    public void ctr_TileCountRounding() throws IOException {
+        ErrorHandler handler = mock(ErrorHandler.class);
+        FitsFormatException expected = new FitsFormatException(5760,
+                "CompressedImage_InvalidValue", "ZNAXIS",
+                BigDecimal.valueOf(1));
+        try {
+            open(file(Arrays.asList(new byte[0]), null,
+                    "TFIELDS =                    1",
+                    "TTYPE1  = 'COMPRESSED_DATA'",
+                    "TFORM1  = '1PB(1)  '",
+                    "ZIMAGE  =                    T",
+                    "ZCMPTYPE= 'RICE_1  '",
+                    "ZBITPIX =                   16",
+                    "ZNAXIS  =                    1",
+                    "ZNAXIS1 =  9223372036854775807",
+                    "ZTILE1  =                    2"), handler);
+            fail();
+        } catch (FitsFormatException e) {
+            assertEquals(expected, e);
+        }
+        verify(handler).fatal(expected);
+    }
+
+    @Test
+    public void readInts_Rice() throws Exception {
+        CompressedImage target = open(file(
+                Arrays.asList(new byte[]{0x05, 0x52, 0x60}), null,
+                "TFIELDS =                    1",
+                "TTYPE1  = 'COMPRESSED_DATA'",
+                "TFORM1  = '1PB(3)  '",
+                "ZIMAGE  =                    T",
+                "ZCMPTYPE= 'RICE_1  '",
+                "ZBITPIX =                    8",
+                "ZNAXIS  =                    1",
+                "ZNAXIS1 =                    3",
+                "ZNAME1  = 'BLOCKSIZE'",
+                "ZVAL1   =                   32",
+                "ZNAME2  = 'BYTEPIX '",
+                "ZVAL2   =                    1"), THROW_ALWAYS);
+        assertArrayEquals(new int[]{5, 6, 4},
+                target.readInts(new long[]{0}, new int[]{3}));
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.smurn.fitzer.TestUtils.*;
+
+/**
+ * Unit tests for {@link CompressedImageWriter}.
+ */
+public class CompressedImageWriterTest {
+
+    private static final long[] AXES = {37, 11};
+    private static final long[] ORIGIN = {0, 0};
+    private static final int[] SHAPE = {37, 11};
+    private static final int[] TILE = {16, 4};
+
+    private static byte[] write(CompressedImageWriter writer, int bitpix,
+            Object pixels) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long length = pixels instanceof int[]
+                ? writer.write(Channels.newChannel(out), bitpix, AXES,
+                (int[]) pixels)
+                : writer.write(Channels.newChannel(out), bitpix, AXES,
+                (double[]) pixels);
+        assertEquals(out.size(), length);
+        assertEquals(0, length % 2880);
+        return out.toByteArray();
+    }
+
+    private static CompressedImage read(byte[] hdu) throws IOException {
+        BinaryTable table = new BinaryTable(file(header(
+                "SIMPLE  =                    T",
+                "BITPIX  =                    8",
+                "NAXIS   =                    0",
+                "END"), hdu), 2880, THROW_ALWAYS);
+        return new CompressedImage(table, THROW_ALWAYS);
+    }
+
+    private static int[] ints(int min, int max) {
+        Random random = new Random(42);
+        int[] pixels = new int[37 * 11];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = min + (int) (random.nextDouble() * (max - min));
+        }
+        return pixels;
+    }
+
+    private static double[] doubles() {
+        Random random = new Random(42);
+        double[] pixels = new double[37 * 11];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 1000 + i + 10 * random.nextGaussian();
+        }
+        return pixels;
+    }
+
+    @Test
+    public void write_Rice() throws Exception {
+        int[] pixels = ints(-30000, 30000);
+        CompressedImage image = read(write(new CompressedImageWriter(
+                "RICE_1", TILE, 4, 1, null, THROW_ALWAYS), 16, pixels));
+        assertEquals("RICE_1", image.getCompression());
+        assertEquals(16, image.getBitpix());
+        assertEquals(3 * 3, image.getTileCount());
+        assertArrayEquals(pixels, image.readInts(ORIGIN, SHAPE));
+    }
+
+    @Test
+    public void write_RiceBytes() throws Exception {
+        int[] pixels = ints(0, 256);
+        CompressedImage image = read(write(new CompressedImageWriter(
+                "RICE_1", THROW_ALWAYS), 8, pixels));
+        assertEquals(11, image.getTileCount());
+        assertArrayEquals(pixels, image.readInts(ORIGIN, SHAPE));
+    }
+
+    @Test
+    public void write_RiceInts() throws Exception {
+        int[] pixels = ints(Integer.MIN_VALUE / 2, Integer.MAX_VALUE / 2);
+        CompressedImage image = read(write(new CompressedImageWriter(
+                "RICE_1", TILE, 4, 1, null, THROW_ALWAYS), 32, pixels));
+        assertArrayEquals(pixels, image.readInts(ORIGIN, SHAPE));
+    }
+
+    @Test
+    public void write_Gzip2() throws Exception {
+        int[] pixels = ints(-1000, 1000);
+        CompressedImage image = read(write(new CompressedImageWriter(
+                "GZIP_2", TILE, 4, 1, null, THROW_ALWAYS), 32, pixels));
+        assertArrayEquals(pixels, image.readInts(ORIGIN, SHAPE));
+    }
+
+    @Test
+    public void write_Quantized() throws Exception {
+        double[] pixels = doubles();
+        pixels[5] = Double.NaN;
+        CompressedImage image = read(write(new CompressedImageWriter(
+                "RICE_1", TILE, -0.5, 7, null, THROW_ALWAYS), -32, pixels));
+        double[] actual = image.readDoubles(ORIGIN, SHAPE);
+        assertTrue(Double.isNaN(actual[5]));
+        for (int i = 0; i < pixels.length; i++) {
+            if (i != 5) {
+                assertEquals(pixels[i], actual[i], 0.25 + 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void write_QuantizedNoise() throws Exception {
+        double[] pixels = doubles();
+        CompressedImage image = read(write(new CompressedImageWriter(
+                "GZIP_1", THROW_ALWAYS), -64, pixels));
+        double[] actual = image.readDoubles(ORIGIN, SHAPE);
+        for (int i = 0; i < pixels.length; i++) {
+            assertEquals(pixels[i], actual[i], 5.0);
+        }
+    }
+
+    @Test
+    public void write_Constant() throws Exception {
+        double[] pixels = new double[37 * 11];
+        Arrays.fill(pixels, 2.5);
+        CompressedImage image = read(write(new CompressedImageWriter(
+                "RICE_1", THROW_ALWAYS), -32, pixels));
+        assertArrayEquals(pixels, image.readDoubles(ORIGIN, SHAPE), 0.0);
+    }
+
+    @Test
+    public void write_Lossless() throws Exception {
+        double[] pixels = doubles();
+        CompressedImage image = read(write(new CompressedImageWriter(
+                "GZIP_2", TILE, 0, 1, null, THROW_ALWAYS), -64, pixels));
+        assertArrayEquals(pixels, image.readDoubles(ORIGIN, SHAPE), 0.0);
+    }
+
+    @Test
+    public void write_Deterministic() throws Exception {
+        double[] pixels = doubles();
+        int[] tile = {2, 1};
+        byte[] expected = write(new CompressedImageWriter("RICE_1", tile, 4,
+                1, null, THROW_ALWAYS), -32, pixels);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            byte[] actual = write(new CompressedImageWriter("RICE_1", tile,
+                    4, 1, executor, THROW_ALWAYS), -32, pixels);
+            assertArrayEquals(expected, actual);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void write_Checksum() throws Exception {
+        byte[] hdu = write(new CompressedImageWriter("RICE_1", TILE, 4, 1,
+                null, THROW_ALWAYS), -32, doubles());
+        HeaderReader reader = new HeaderReader(channel(hdu), THROW_ALWAYS);
+        Header header = reader.readHeader();
+        long dataSum = Checksum.compute(file(hdu), reader.getOffset(),
+                hdu.length - reader.getOffset(), null);
+        assertNotNull(header.get("CHECKSUM"));
+        assertTrue(Checksum.verify(header, reader.getChecksum(), dataSum, 0,
+                THROW_ALWAYS));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void write_PixelCount() throws Exception {
+        new CompressedImageWriter("RICE_1", THROW_ALWAYS).write(
+                Channels.newChannel(new ByteArrayOutputStream()), 16, AXES,
+                new int[10]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void write_LosslessRice() throws Exception {
+        new CompressedImageWriter("RICE_1", null, 0, 1, null, THROW_ALWAYS)
+                .write(Channels.newChannel(new ByteArrayOutputStream()), -32,
+                AXES, doubles());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ctr_UnknownCompression() {
+        new CompressedImageWriter("PLIO_1", THROW_ALWAYS);
+    }
+}
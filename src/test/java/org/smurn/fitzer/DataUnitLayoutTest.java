@@ -0,0 +1,140 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.io.IOException;
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for {@link DataUnitLayout}.
+ */
+public class DataUnitLayoutTest {
+
+    private static Header header(Property... properties) {
+        return new Header(Arrays.asList(properties));
+    }
+
+    @Test
+    public void fromHeader_Image() throws IOException {
+        DataUnitLayout target = DataUnitLayout.fromHeader(header(
+                new Property("SIMPLE", "T"),
+                new Property("BITPIX", -32),
+                new Property("NAXIS", 2),
+                new Property("NAXIS1", 100),
+                new Property("NAXIS2", 30)), 2880, TestUtils.THROW_ALWAYS);
+        assertEquals(-32, target.getBitpix());
+        assertEquals(4, target.getBytesPerElement());
+        assertEquals(2, target.getAxisCount());
+        assertEquals(30, target.getAxisLength(1));
+        assertEquals(3000, target.getElementCount());
+        assertEquals(0, target.getPcount());
+        assertEquals(1, target.getGcount());
+        assertEquals(12000, target.getDataLength());
+        assertEquals(5 * 2880, target.getPaddedLength());
+    }
+
+    @Test
+    public void fromHeader_NoAxes() throws IOException {
+        DataUnitLayout target = DataUnitLayout.fromHeader(header(
+                new Property("BITPIX", 8),
+                new Property("NAXIS", 0)), 2880, TestUtils.THROW_ALWAYS);
+        assertEquals(0, target.getDataLength());
+        assertEquals(0, target.getPaddedLength());
+    }
+
+    @Test
+    public void fromHeader_Table() throws IOException {
+        DataUnitLayout target = DataUnitLayout.fromHeader(header(
+                new Property("BITPIX", 8),
+                new Property("NAXIS", 2),
+                new Property("NAXIS1", 12),
+                new Property("NAXIS2", 10),
+                new Property("PCOUNT", 100),
+                new Property("GCOUNT", 1)), 2880, TestUtils.THROW_ALWAYS);
+        assertEquals(220, target.getDataLength());
+    }
+
+    @Test
+    public void fromHeader_RandomGroups() throws IOException {
+        DataUnitLayout target = DataUnitLayout.fromHeader(header(
+                new Property("BITPIX", 16),
+                new Property("NAXIS", 3),
+                new Property("NAXIS1", 0),
+                new Property("NAXIS2", 3),
+                new Property("NAXIS3", 4),
+                new Property("GROUPS", Boolean.TRUE),
+                new Property("PCOUNT", 2),
+                new Property("GCOUNT", 5)), 2880, TestUtils.THROW_ALWAYS);
+        assertEquals(2 * 5 * (2 + 12), target.getDataLength());
+    }
+
+    @Test
+    public void fromHeader_MissingNaxisn() throws IOException {
+        ErrorHandler handler = mock(ErrorHandler.class);
+        FitsFormatException expected = new FitsFormatException(2880,
+                "DataUnitLayout_MissingKeyword", "NAXIS2");
+        try {
+            DataUnitLayout.fromHeader(header(
+                    new Property("BITPIX", 16),
+                    new Property("NAXIS", 2),
+                    new Property("NAXIS1", 10)), 2880, handler);
+            fail("Fatal exception not thrown.");
+        } catch (FitsFormatException e) {
+            assertEquals(expected, e);
+        }
+        verify(handler).fatal(expected);
+    }
+
+    @Test
+    public void fromHeader_InvalidBitpix() throws IOException {
+        ErrorHandler handler = mock(ErrorHandler.class);
+        FitsFormatException expected = new FitsFormatException(2880,
+                "DataUnitLayout_InvalidValue", "BITPIX", 12L);
+        try {
+            DataUnitLayout.fromHeader(header(
+                    new Property("BITPIX", 12),
+                    new Property("NAXIS", 0)), 2880, handler);
+            fail("Fatal exception not thrown.");
+        } catch (FitsFormatException e) {
+            assertEquals(expected, e);
+        }
+        verify(handler).fatal(expected);
+    }
+
+    @Test(expected = FitsFormatException.class)
+    public void fromHeader_NotANumber() throws IOException {
+        DataUnitLayout.fromHeader(header(
+                new Property("BITPIX", "16"),
+                new Property("NAXIS", 0)), 2880, TestUtils.THROW_ALWAYS);
+    }
+
+    @Test(expected = FitsFormatException.class)
+    public void fromHeader_TooLarge() throws IOException {
+        DataUnitLayout.fromHeader(header(
+                new Property("BITPIX", 64),
+                new Property("NAXIS", 2),
+                new Property("NAXIS1", Long.MAX_VALUE / 2),
+                new Property("NAXIS2", 3)), 2880, TestUtils.THROW_ALWAYS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ctr_InvalidBitpix() {
+        new DataUnitLayout(24, new long[0], 0, 1, false);
+    }
+}
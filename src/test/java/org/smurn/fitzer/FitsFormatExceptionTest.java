@@ -15,6 +15,10 @@
  */
 package org.smurn.fitzer;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.IllegalFormatException;
 import java.util.Locale;
 import java.util.MissingResourceException;
@@ -37,13 +41,41 @@ public class FitsFormatExceptionTest {
     }
 
     @Test(expected = MissingResourceException.class)
-    public void ctr_NonExistentKey() {
-        new FitsFormatException(0, "does_not_exist", 0, 0);
+    public void getMessage_NonExistentKey() {
+        new FitsFormatException(0, "does_not_exist", 0, 0).getMessage();
     }
 
     @Test(expected = IllegalFormatException.class)
-    public void ctr_MissingParameter() {
-        new FitsFormatException(0, "FitsFormatExceptionTest", 0);
+    public void getMessage_MissingParameter() {
+        new FitsFormatException(0, "FitsFormatExceptionTest", 0).getMessage();
+    }
+
+    @Test
+    public void ctr_DoesNotFormat() {
+        new FitsFormatException(0, "does_not_exist", 0, 0);
+    }
+
+    @Test
+    public void ctr_StackTrace() {
+        FitsFormatException target = new FitsFormatException(0,
+                "FitsFormatExceptionTest", 0, 0);
+        assertEquals("ctr_StackTrace",
+                target.getStackTrace()[0].getMethodName());
+    }
+
+    @Test
+    public void ctr_NoStackTrace() {
+        FitsFormatException target = new FitsFormatException(false, 0,
+                "FitsFormatExceptionTest", 0, 0);
+        assertEquals(0, target.getStackTrace().length);
+    }
+
+    @Test
+    public void equals_IgnoresStackTrace() {
+        assertEquals(
+                new FitsFormatException(0, "FitsFormatExceptionTest", 1, 2),
+                new FitsFormatException(false, 0, "FitsFormatExceptionTest",
+                1, 2));
     }
 
     @Test
@@ -72,6 +104,15 @@ public class FitsFormatExceptionTest {
         assertEquals(expected, actual);
     }
 
+    @Test
+    public void getMessage_Cached() {
+        FitsFormatException target = new FitsFormatException(100,
+                "FitsFormatExceptionTest", 1, 2);
+        String first = target.getMessage();
+        target.getLocalizedMessage(Locale.GERMAN);
+        assertSame(first, target.getMessage());
+    }
+
     @Test
     public void getLocalizedMessage_GERMAN() {
         FitsFormatException target = new FitsFormatException(100,
@@ -80,4 +121,21 @@ public class FitsFormatExceptionTest {
         String expected = "Nahe Byte 100: Nachricht mit zwei Parametern 1 2.";
         assertEquals(expected, actual);
     }
+
+    @Test
+    public void serialize() throws Exception {
+        FitsFormatException target = new FitsFormatException(100,
+                "FitsFormatExceptionTest", 1, 2);
+        String message = target.getMessage();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(target);
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(
+                new ByteArrayInputStream(bytes.toByteArray()));
+        FitsFormatException copy = (FitsFormatException) in.readObject();
+        assertEquals(target, copy);
+        assertEquals(100, copy.getOffset());
+        assertEquals(message, copy.getMessage());
+    }
 }
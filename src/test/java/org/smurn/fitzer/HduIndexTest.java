@@ -0,0 +1,184 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+import static org.smurn.fitzer.TestUtils.*;
+
+/**
+ * Unit tests for {@link HduIndex}.
+ */
+public class HduIndexTest {
+
+    private static byte[] primary() {
+        return header(
+                "SIMPLE  =                    T",
+                "BITPIX  =                   16",
+                "NAXIS   =                    2",
+                "NAXIS1  =                   10",
+                "NAXIS2  =                    3",
+                "END");
+    }
+
+    private static byte[] image() {
+        return header(
+                "XTENSION= 'IMAGE   '",
+                "BITPIX  =                  -64",
+                "NAXIS   =                    1",
+                "NAXIS1  =                  400",
+                "PCOUNT  =                    0",
+                "GCOUNT  =                    1",
+                "EXTNAME = 'SCI     '",
+                "EXTVER  =                    2",
+                "END");
+    }
+
+    private static byte[] table() {
+        String[] cards = new String[45];
+        cards[0] = "XTENSION= 'BINTABLE'";
+        cards[1] = "BITPIX  =                    8";
+        cards[2] = "NAXIS   =                    2";
+        cards[3] = "NAXIS1  =                    8";
+        cards[4] = "NAXIS2  =                    2";
+        cards[5] = "PCOUNT  =                   10";
+        cards[6] = "GCOUNT  =                    1";
+        cards[7] = "TFIELDS =                    1";
+        cards[8] = "TFORM1  = '1PB     '";
+        for (int i = 9; i < 42; i++) {
+            cards[i] = "COMMENT filler";
+        }
+        cards[42] = "EXTNAME = 'cat     '";
+        cards[43] = "ZIMAGE  =                    T";
+        cards[44] = "END";
+        return header(cards);
+    }
+
+    private static FileChannel fits() throws IOException {
+        return file(primary(), new byte[2880], image(), new byte[2 * 2880],
+                table(), new byte[2880]);
+    }
+
+    @Test
+    public void scan() throws IOException {
+        HduIndex target = HduIndex.scan(fits(), THROW_ALWAYS);
+        assertEquals(3, target.size());
+        assertEquals(0, target.getHeaderOffset(0));
+        assertEquals(2880, target.getDataOffset(0));
+        assertEquals(60, target.getDataLength(0));
+        assertNull(target.getType(0));
+        assertNull(target.getName(0));
+        assertEquals(5760, target.getHeaderOffset(1));
+        assertEquals(8640, target.getDataOffset(1));
+        assertEquals(3200, target.getDataLength(1));
+        assertEquals("IMAGE", target.getType(1));
+        assertEquals("SCI", target.getName(1));
+        assertEquals(2, target.getVersion(1));
+        assertEquals(14400, target.getHeaderOffset(2));
+        assertEquals(20160, target.getDataOffset(2));
+        assertEquals(26, target.getDataLength(2));
+        assertEquals("BINTABLE", target.getType(2));
+        assertEquals(1, target.getVersion(2));
+        assertTrue(target.isCompressedImage(2));
+        assertFalse(target.isCompressedImage(1));
+    }
+
+    @Test
+    public void scan_PositionUnchanged() throws IOException {
+        FileChannel channel = fits();
+        channel.position(100);
+        HduIndex.scan(channel, THROW_ALWAYS);
+        assertEquals(100, channel.position());
+    }
+
+    @Test
+    public void find() throws IOException {
+        HduIndex target = HduIndex.scan(fits(), THROW_ALWAYS);
+        assertEquals(1, target.find("sci"));
+        assertEquals(2, target.find("CAT"));
+        assertEquals(1, target.find("SCI", 2));
+        assertEquals(-1, target.find("SCI", 1));
+        assertEquals(-1, target.find("NONE"));
+    }
+
+    @Test
+    public void scan_OpenTable() throws IOException {
+        FileChannel channel = fits();
+        HduIndex target = HduIndex.scan(channel, THROW_ALWAYS);
+        BinaryTable table = new BinaryTable(channel,
+                target.getHeaderOffset(target.find("CAT")), THROW_ALWAYS);
+        assertEquals(target.getDataOffset(2), table.getDataOffset());
+    }
+
+    @Test
+    public void scan_Cache() throws IOException {
+        FileChannel channel = fits();
+        BlockCache cache = new BlockCache(16 * 2880);
+        long fileId = BlockCache.newFileId();
+        HduIndex target = HduIndex.scan(cache, fileId, channel,
+                THROW_ALWAYS);
+        assertEquals(3, target.size());
+        long misses = cache.getMissCount();
+        BinaryTable table = new BinaryTable(cache, fileId, channel,
+                target.getHeaderOffset(2), THROW_ALWAYS);
+        assertEquals(target.getDataOffset(2), table.getDataOffset());
+        assertEquals(misses, cache.getMissCount());
+        assertTrue(cache.getHitCount() > 0);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void scan_NullCache() throws IOException {
+        HduIndex.scan(null, 0, fits(), THROW_ALWAYS);
+    }
+
+    @Test
+    public void scan_TrailingData() throws IOException {
+        ErrorHandler handler = mock(ErrorHandler.class);
+        HduIndex target = HduIndex.scan(file(primary(), new byte[2880],
+                new byte[2880]), handler);
+        assertEquals(1, target.size());
+        verify(handler).error(new FitsFormatException(false, 5760,
+                "HduIndex_TrailingData", 2880L));
+    }
+
+    @Test
+    public void scan_Truncated() throws IOException {
+        ErrorHandler handler = mock(ErrorHandler.class);
+        HduIndex target = HduIndex.scan(file(primary(), new byte[40]),
+                handler);
+        assertEquals(1, target.size());
+        verify(handler).error(new FitsFormatException(false, 2880,
+                "HduIndex_Truncated", 2940L, 2920L));
+    }
+
+    @Test
+    public void scan_MissingEnd() throws IOException {
+        ErrorHandler handler = mock(ErrorHandler.class);
+        FitsFormatException expected = new FitsFormatException(2880,
+                "HeaderReader_MissingEnd");
+        try {
+            HduIndex.scan(file(header("SIMPLE  =                    T")),
+                    handler);
+            fail();
+        } catch (FitsFormatException e) {
+            assertEquals(expected, e);
+        }
+        verify(handler).fatal(expected);
+    }
+}
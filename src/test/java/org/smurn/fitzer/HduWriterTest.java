@@ -0,0 +1,186 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+import static org.smurn.fitzer.TestUtils.*;
+
+/**
+ * Unit tests for {@link HduWriter}.
+ */
+public class HduWriterTest {
+
+    private RandomAccessFile file;
+    private FileChannel channel;
+
+    @Before
+    public void setUp() throws IOException {
+        File temp = File.createTempFile("fitzer", ".fits");
+        temp.deleteOnExit();
+        file = new RandomAccessFile(temp, "rw");
+        channel = file.getChannel();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        file.close();
+    }
+
+    private static Header header(long... axes) {
+        List<Property> properties = new ArrayList<Property>();
+        properties.add(new Property("SIMPLE", Boolean.TRUE));
+        properties.add(new Property("BITPIX", 8));
+        properties.add(new Property("NAXIS", axes.length));
+        for (int i = 0; i < axes.length; i++) {
+            properties.add(new Property("NAXIS" + (i + 1), axes[i]));
+        }
+        properties.add(new Property("COMMENT", null, "written", true));
+        return new Header(properties);
+    }
+
+    private byte[] content() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+        channel.read(buffer, 0);
+        return buffer.array();
+    }
+
+    private static byte[] bytes(int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (i + 1);
+        }
+        return bytes;
+    }
+
+    @Test
+    public void write_Buffer() throws IOException {
+        HduWriter target = new HduWriter(channel, THROW_ALWAYS);
+        ByteBuffer data = ByteBuffer.wrap(bytes(100));
+        assertEquals(2 * 2880, target.write(header(100), data));
+        assertFalse(data.hasRemaining());
+        assertEquals(2 * 2880, target.getOffset());
+
+        byte[] content = content();
+        assertEquals(2 * 2880, content.length);
+        HeaderReader reader = new HeaderReader(channel(content),
+                THROW_ALWAYS);
+        assertEquals(header(100), reader.readHeader());
+        assertEquals(2880, reader.getOffset());
+        assertArrayEquals(bytes(100), Arrays.copyOfRange(content, 2880,
+                2980));
+        assertArrayEquals(new byte[2880 - 100], Arrays.copyOfRange(content,
+                2980, 2 * 2880));
+    }
+
+    @Test
+    public void write_HeaderOnly() throws IOException {
+        HduWriter target = new HduWriter(channel, THROW_ALWAYS);
+        assertEquals(2880, target.write(header()));
+        assertEquals(header(), new HeaderReader(channel(content()),
+                THROW_ALWAYS).readHeader());
+    }
+
+    @Test
+    public void write_LargeHeader() throws IOException {
+        List<Property> properties = new ArrayList<Property>(
+                header().getProperties());
+        for (int i = 0; i < 40; i++) {
+            properties.add(new Property("KEY" + i, i));
+        }
+        Header header = new Header(properties);
+        HduWriter target = new HduWriter(channel, THROW_ALWAYS);
+        assertEquals(2 * 2880, target.write(header));
+        assertEquals(header, new HeaderReader(channel(content()),
+                THROW_ALWAYS).readHeader());
+    }
+
+    @Test
+    public void write_Sequence() throws IOException {
+        HduWriter target = new HduWriter(channel, THROW_ALWAYS);
+        target.write(header());
+        target.write(header(2880), ByteBuffer.wrap(bytes(2880)));
+        target.write(header(3), ByteBuffer.wrap(bytes(3)));
+        assertEquals(5 * 2880, target.getOffset());
+        assertEquals(5 * 2880, channel.size());
+    }
+
+    @Test
+    public void write_Transfer() throws IOException {
+        FileChannel source = file(new byte[17], bytes(3000));
+        HduWriter target = new HduWriter(channel, THROW_ALWAYS);
+        assertEquals(3 * 2880, target.write(header(3000), source, 17, 3000));
+        byte[] content = content();
+        assertArrayEquals(bytes(3000), Arrays.copyOfRange(content, 2880,
+                2880 + 3000));
+        assertArrayEquals(new byte[3 * 2880 - 2880 - 3000],
+                Arrays.copyOfRange(content, 2880 + 3000, 3 * 2880));
+        assertEquals(0, source.position());
+    }
+
+    @Test(expected = EOFException.class)
+    public void write_TransferTruncated() throws IOException {
+        new HduWriter(channel, THROW_ALWAYS).write(header(3000),
+                file(bytes(100)), 0, 3000);
+    }
+
+    @Test
+    public void write_DataLength() throws IOException {
+        ErrorHandler handler = mock(ErrorHandler.class);
+        HduWriter target = new HduWriter(channel, handler);
+        try {
+            target.write(header(10), ByteBuffer.wrap(bytes(11)));
+            fail("Exception not thrown.");
+        } catch (FitsDataException e) {
+            // expected
+        }
+        verify(handler).fatal(new FitsDataException("HduWriter_DataLength",
+                10L, 11L));
+        assertEquals(0, channel.size());
+    }
+
+    @Test
+    public void write_ReleasesBlocks() throws IOException {
+        BlockPool pool = new BlockPool(4);
+        HduWriter target = new HduWriter(channel, 0, pool, THROW_ALWAYS);
+        target.write(header());
+        assertEquals(1, pool.getFreeCount());
+        target.write(header());
+        assertEquals(1, pool.getFreeCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ctor_UnalignedOffset() {
+        new HduWriter(channel, 100, THROW_ALWAYS);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void ctor_NullChannel() {
+        new HduWriter(null, THROW_ALWAYS);
+    }
+}
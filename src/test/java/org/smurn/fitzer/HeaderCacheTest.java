@@ -0,0 +1,172 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+import static org.smurn.fitzer.TestUtils.*;
+
+/**
+ * Unit tests for {@link HeaderCache}.
+ */
+public class HeaderCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private File fits;
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        fits = folder.newFile("test.fits");
+        directory = new File(folder.getRoot(), "cache");
+        write(fits, header(
+                "SIMPLE  =                    T / standard",
+                "BITPIX  =                   16",
+                "NAXIS   =                    1",
+                "NAXIS1  =                   10",
+                "BSCALE  =      1.2345678901234567890123",
+                "COMMENT some text",
+                "LONGKEYWORD",
+                "END"), new byte[2880], header(
+                "XTENSION= 'IMAGE   '",
+                "BITPIX  =                  -32",
+                "NAXIS   =                    0",
+                "PCOUNT  =                    0",
+                "GCOUNT  =                    1",
+                "EXTNAME = 'SCI     '",
+                "INHERIT =                    F",
+                "BLANK   =",
+                "END"));
+    }
+
+    private static void write(File file, byte[]... parts) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            for (byte[] part : parts) {
+                out.write(part);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    @Test
+    public void load_Miss() throws IOException {
+        HeaderCache target = new HeaderCache(directory, THROW_ALWAYS);
+        CachedHeaders actual = target.load(fits);
+        assertFalse(actual.isHit());
+        assertEquals(2, actual.getIndex().size());
+        assertEquals("SCI", actual.getIndex().getName(1));
+        assertEquals(new BigDecimal(10),
+                actual.getHeader(0).get("NAXIS1").get());
+        assertTrue(target.getCacheFile(fits).isFile());
+    }
+
+    @Test
+    public void load_Hit() throws IOException {
+        HeaderCache target = new HeaderCache(directory, THROW_ALWAYS);
+        CachedHeaders expected = target.load(fits);
+        CachedHeaders actual = target.load(fits);
+        assertTrue(actual.isHit());
+        assertEquals(expected.getHeaders(), actual.getHeaders());
+        for (int i = 0; i < 2; i++) {
+            assertEquals(expected.getIndex().getHeaderOffset(i),
+                    actual.getIndex().getHeaderOffset(i));
+            assertEquals(expected.getIndex().getDataOffset(i),
+                    actual.getIndex().getDataOffset(i));
+            assertEquals(expected.getIndex().getDataLength(i),
+                    actual.getIndex().getDataLength(i));
+            assertEquals(expected.getIndex().getType(i),
+                    actual.getIndex().getType(i));
+            assertEquals(expected.getIndex().getName(i),
+                    actual.getIndex().getName(i));
+        }
+    }
+
+    @Test
+    public void load_HitNewInstance() throws IOException {
+        new HeaderCache(directory, THROW_ALWAYS).load(fits);
+        CachedHeaders actual =
+                new HeaderCache(directory, THROW_ALWAYS).load(fits);
+        assertTrue(actual.isHit());
+        assertEquals("standard",
+                actual.getHeader(0).get("SIMPLE").getComment());
+    }
+
+    @Test
+    public void load_Modified() throws IOException {
+        HeaderCache target = new HeaderCache(directory, THROW_ALWAYS);
+        target.load(fits);
+        long modified = fits.lastModified();
+        RandomAccessFile raf = new RandomAccessFile(fits, "rw");
+        try {
+            raf.seek(3 * 80 + 10);
+            raf.write(toByte("                  20"));
+        } finally {
+            raf.close();
+        }
+        fits.setLastModified(modified);
+        CachedHeaders actual = target.load(fits);
+        assertFalse(actual.isHit());
+        assertEquals(new BigDecimal(20),
+                actual.getHeader(0).get("NAXIS1").get());
+    }
+
+    @Test
+    public void load_Corrupt() throws IOException {
+        HeaderCache target = new HeaderCache(directory, THROW_ALWAYS);
+        target.load(fits);
+        File cacheFile = target.getCacheFile(fits);
+        RandomAccessFile raf = new RandomAccessFile(cacheFile, "rw");
+        try {
+            raf.setLength(raf.length() / 2);
+        } finally {
+            raf.close();
+        }
+        CachedHeaders actual = target.load(fits);
+        assertFalse(actual.isHit());
+        assertTrue(target.load(fits).isHit());
+    }
+
+    @Test
+    public void getCacheFile() {
+        HeaderCache target = new HeaderCache(directory, THROW_ALWAYS);
+        File actual = target.getCacheFile(fits);
+        assertEquals(directory, actual.getParentFile());
+        assertTrue(actual.getName().endsWith(".fzc"));
+        assertFalse(actual.equals(target.getCacheFile(
+                new File(folder.getRoot(), "other.fits"))));
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void ctor_NullDirectory() {
+        new HeaderCache(null, THROW_ALWAYS);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void load_Null() throws IOException {
+        new HeaderCache(directory, THROW_ALWAYS).load(null);
+    }
+}
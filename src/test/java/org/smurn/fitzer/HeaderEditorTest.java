@@ -0,0 +1,205 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.smurn.fitzer.TestUtils.*;
+
+/**
+ * Unit tests for {@link HeaderEditor}.
+ */
+public class HeaderEditorTest {
+
+    private FileChannel channel;
+
+    @After
+    public void tearDown() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    private static byte[] primary() {
+        return header(
+                "SIMPLE  =                    T",
+                "BITPIX  =                    8",
+                "NAXIS   =                    1",
+                "NAXIS1  =                  100",
+                "ORIGIN  = 'here    '           / free format",
+                "END");
+    }
+
+    private static byte[] data(int value) {
+        byte[] data = new byte[2880];
+        Arrays.fill(data, 0, 100, (byte) value);
+        return data;
+    }
+
+    private static byte[] extension() {
+        return header(
+                "XTENSION= 'IMAGE   '",
+                "BITPIX  =                    8",
+                "NAXIS   =                    0",
+                "PCOUNT  =                    0",
+                "GCOUNT  =                    1",
+                "END");
+    }
+
+    private byte[] read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        channel.read(buffer, position);
+        return buffer.array();
+    }
+
+    private Header readHeader(long position) throws IOException {
+        channel.position(position);
+        return new HeaderReader(channel, position, THROW_ALWAYS)
+                .readHeader();
+    }
+
+    @Test
+    public void commit_Set() throws IOException {
+        channel = rwFile(primary(), data(7));
+        HeaderEditor target = new HeaderEditor(channel, 0, THROW_ALWAYS);
+        target.set(new Property("ORIGIN", "there"));
+        assertEquals(2880, target.commit());
+        assertEquals(2 * 2880, channel.size());
+        Header header = readHeader(0);
+        assertEquals("there",
+                BinaryTable.trim(header.get("ORIGIN").get()));
+        assertEquals(new BigDecimal(100), header.get("NAXIS1").get());
+        assertArrayEquals(data(7), read(2880, 2880));
+    }
+
+    @Test
+    public void commit_KeepsOtherRecords() throws IOException {
+        channel = rwFile(primary(), data(7));
+        byte[] before = read(0, 4 * 80);
+        HeaderEditor target = new HeaderEditor(channel, 0, THROW_ALWAYS);
+        target.set(new Property("NAXIS1", 100));
+        target.add(new Property("HISTORY", null, "edited", true));
+        target.commit();
+        assertArrayEquals(before, read(0, 4 * 80));
+        assertEquals("edited",
+                readHeader(0).getAll("HISTORY").get(0).getComment());
+    }
+
+    @Test
+    public void commit_Unchanged() throws IOException {
+        channel = rwFile(primary(), data(7));
+        HeaderEditor target = new HeaderEditor(channel, 0, THROW_ALWAYS);
+        target.set(new Property("NAXIS1", 100));
+        assertEquals(0, target.commit());
+    }
+
+    @Test
+    public void commit_BlankRecords() throws IOException {
+        String[] cards = new String[36];
+        Arrays.fill(cards, "");
+        cards[0] = "SIMPLE  =                    T";
+        cards[1] = "BITPIX  =                    8";
+        cards[2] = "NAXIS   =                    0";
+        cards[35] = "END";
+        channel = rwFile(header(cards));
+        HeaderEditor target = new HeaderEditor(channel, 0, THROW_ALWAYS);
+        assertEquals(3, target.getHeader().size());
+        for (int i = 0; i < 32; i++) {
+            target.add(new Property("KEY" + i, i));
+        }
+        assertEquals(2880, target.commit());
+        assertEquals(1, target.getBlockCount());
+        assertEquals(2880, channel.size());
+        assertEquals(35, readHeader(0).size());
+    }
+
+    @Test
+    public void commit_Grow() throws IOException {
+        channel = rwFile(primary(), data(7), extension());
+        HeaderEditor target = new HeaderEditor(channel, 0, THROW_ALWAYS);
+        for (int i = 0; i < 40; i++) {
+            target.add(new Property("HISTORY", null, "step " + i, true));
+        }
+        target.commit();
+        assertEquals(2, target.getBlockCount());
+        assertEquals(4 * 2880, channel.size());
+        assertEquals(40, readHeader(0).getAll("HISTORY").size());
+        assertArrayEquals(data(7), read(2 * 2880, 2880));
+        assertArrayEquals(extension(), read(3 * 2880, 2880));
+    }
+
+    @Test
+    public void commit_Remove() throws IOException {
+        String[] cards = new String[40];
+        for (int i = 0; i < 39; i++) {
+            cards[i] = String.format("%-8s= %d", "KEY" + i, i);
+        }
+        cards[0] = "SIMPLE  =                    T";
+        cards[1] = "BITPIX  =                    8";
+        cards[2] = "NAXIS   =                    0";
+        cards[39] = "END";
+        channel = rwFile(header(cards), extension());
+        HeaderEditor target = new HeaderEditor(channel, 0, THROW_ALWAYS);
+        for (int i = 3; i < 39; i++) {
+            assertTrue(target.remove("KEY" + i));
+        }
+        assertFalse(target.remove("KEY3"));
+        target.commit();
+        assertEquals(2, target.getBlockCount());
+        assertEquals(3 * 2880, channel.size());
+        assertEquals(36, readHeader(0).size());
+        assertEquals(3, new HeaderEditor(channel, 0, THROW_ALWAYS)
+                .getHeader().size());
+        assertArrayEquals(extension(), read(2 * 2880, 2880));
+    }
+
+    @Test
+    public void commit_Extension() throws IOException {
+        channel = rwFile(primary(), data(7), extension());
+        HeaderEditor target = new HeaderEditor(channel, 2 * 2880,
+                THROW_ALWAYS);
+        target.set(new Property("EXTNAME", "SCI"));
+        assertEquals(2880, target.commit());
+        assertEquals("SCI", BinaryTable.trim(
+                readHeader(2 * 2880).get("EXTNAME").get()));
+        assertArrayEquals(primary(), read(0, 2880));
+    }
+
+    @Test
+    public void commit_Twice() throws IOException {
+        channel = rwFile(primary(), data(7));
+        HeaderEditor target = new HeaderEditor(channel, 0, THROW_ALWAYS);
+        target.set(new Property("ORIGIN", "a"));
+        target.commit();
+        target.set(new Property("ORIGIN", "b"));
+        assertEquals(2880, target.commit());
+        assertEquals("b",
+                BinaryTable.trim(readHeader(0).get("ORIGIN").get()));
+        assertEquals(0, target.commit());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ctor_UnalignedOffset() throws IOException {
+        channel = rwFile(primary());
+        new HeaderEditor(channel, 10, THROW_ALWAYS);
+    }
+}
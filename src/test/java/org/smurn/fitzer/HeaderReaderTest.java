@@ -0,0 +1,387 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashSet;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+import static org.smurn.fitzer.TestUtils.*;
+
+/**
+ * Unit tests for {@link HeaderReader}.
+ */
+public class HeaderReaderTest {
+
+    @Test(expected = NullPointerException.class)
+    public void ctr_NullChannel() {
+        new HeaderReader(null, THROW_ALWAYS);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void ctr_NullHandler() {
+        new HeaderReader(channel(new byte[0]), null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ctr_NegativeOffset() {
+        new HeaderReader(channel(new byte[0]), -1, THROW_ALWAYS);
+    }
+
+    @Test
+    public void readProperty_String() throws IOException {
+        HeaderReader target = new HeaderReader(channel(header(
+                "XTENSION= 'IMAGE'              / extension type",
+                "END")), THROW_ALWAYS);
+
+        assertEquals(new Property("XTENSION", "IMAGE", "extension type"),
+                target.readProperty());
+        assertNull(target.readProperty());
+    }
+
+    @Test
+    public void readProperty_Number() throws IOException {
+        HeaderReader target = new HeaderReader(channel(header(
+                "NAXIS1  =                 2048 / length of axis 1",
+                "BSCALE  =              1.5D-01",
+                "END")), THROW_ALWAYS);
+
+        assertEquals(new Property("NAXIS1", new BigDecimal(2048),
+                "length of axis 1"), target.readProperty());
+        assertEquals(new Property("BSCALE", new BigDecimal("0.15")),
+                target.readProperty());
+    }
+
+    @Test
+    public void readProperty_Undefined() throws IOException {
+        HeaderReader target = new HeaderReader(channel(header(
+                "UNDEF   =                      / nothing here",
+                "END")), THROW_ALWAYS);
+
+        assertEquals(new Property("UNDEF", null, "nothing here"),
+                target.readProperty());
+    }
+
+    @Test
+    public void readProperty_Commentary() throws IOException {
+        HeaderReader target = new HeaderReader(channel(header(
+                "COMMENT   some text",
+                "HISTORY = not a value",
+                "        blank keyword",
+                "END")), THROW_ALWAYS);
+
+        assertEquals(new Property("COMMENT", null, "  some text", true),
+                target.readProperty());
+        assertEquals(new Property("HISTORY", null, "= not a value", true),
+                target.readProperty());
+        assertEquals(new Property("", null, "blank keyword", true),
+                target.readProperty());
+        assertNull(target.readProperty());
+    }
+
+    @Test
+    public void readProperty_MultipleBlocks() throws IOException {
+        String[] cards = new String[100];
+        for (int i = 0; i < 99; i++) {
+            cards[i] = "KEY" + i + repeat(" ", 5 - ("" + i).length())
+                    + "= 'v" + i + "'";
+        }
+        cards[99] = "END";
+        byte[] bytes = header(cards);
+        HeaderReader target = new HeaderReader(channel(bytes), THROW_ALWAYS);
+
+        for (int i = 0; i < 99; i++) {
+            assertEquals(new Property("KEY" + i, "v" + i),
+                    target.readProperty());
+        }
+        assertNull(target.readProperty());
+        assertNull(target.readProperty());
+        assertEquals(3 * 2880, target.getOffset());
+    }
+
+    @Test
+    public void readHeader() throws IOException {
+        HeaderReader target = new HeaderReader(channel(header(
+                "SIMPLE  = 'T'",
+                "NAXIS   =                    0",
+                "HISTORY created",
+                "END")), THROW_ALWAYS);
+
+        Header header = target.readHeader();
+        assertEquals(3, header.size());
+        assertEquals(0, header.get("NAXIS").getInt());
+        assertEquals(1, header.getAll("HISTORY").size());
+        assertEquals(2880, target.getOffset());
+    }
+
+    @Test
+    public void getOffset_StopsAfterHeader() throws IOException {
+        byte[] header = header("END");
+        byte[] file = new byte[header.length + 2880];
+        System.arraycopy(header, 0, file, 0, header.length);
+        HeaderReader target = new HeaderReader(channel(file), 5760,
+                THROW_ALWAYS);
+
+        assertNull(target.readProperty());
+        assertEquals(5760 + 2880, target.getOffset());
+    }
+
+    @Test
+    public void readProperty_MissingEnd() throws IOException {
+        ErrorHandler handler = mock(ErrorHandler.class);
+        String[] cards = new String[36];
+        for (int i = 0; i < cards.length; i++) {
+            cards[i] = "KEY     = 'a'";
+        }
+        HeaderReader target = new HeaderReader(channel(header(cards)),
+                handler);
+        FitsFormatException expected = new FitsFormatException(2880,
+                "HeaderReader_MissingEnd");
+
+        for (int i = 0; i < cards.length; i++) {
+            assertEquals(new Property("KEY", "a"), target.readProperty());
+        }
+        try {
+            target.readProperty();
+            fail("Fatal exception not thrown.");
+        } catch (FitsFormatException e) {
+            assertEquals(expected, e);
+        }
+        verify(handler).fatal(expected);
+    }
+
+    @Test
+    public void readProperty_Truncated() throws IOException {
+        ErrorHandler handler = mock(ErrorHandler.class);
+        HeaderReader target = new HeaderReader(channel(
+                toByte(repeat(" ", 100))), handler);
+        FitsFormatException expected = new FitsFormatException(100,
+                "HeaderReader_TruncatedBlock", 100);
+
+        try {
+            target.readProperty();
+            fail("Fatal exception not thrown.");
+        } catch (FitsFormatException e) {
+            assertEquals(expected, e);
+        }
+        verify(handler).fatal(expected);
+    }
+
+    @Test
+    public void readProperty_KeywordCharacter() throws IOException {
+        ErrorHandler handler = mock(ErrorHandler.class);
+        HeaderReader target = new HeaderReader(channel(header(
+                "KEY     = 'a'",
+                "kEY     = 'b'",
+                "END")), 2880, handler);
+
+        assertEquals(new Property("KEY", "a"), target.readProperty());
+        assertEquals(new Property("kEY", "b"), target.readProperty());
+        verify(handler).error(new FitsFormatException(2960,
+                "HeaderReader_KeywordCharacter", (int) 'k'));
+    }
+
+    @Test
+    public void readProperty_ErrorStackTrace() throws IOException {
+        ErrorHandler handler = mock(ErrorHandler.class);
+        HeaderReader target = new HeaderReader(channel(header(
+                "kEY     = 'b'",
+                "END")), handler);
+
+        target.readProperty();
+        ArgumentCaptor<FitsException> captor =
+                ArgumentCaptor.forClass(FitsException.class);
+        verify(handler).error(captor.capture());
+        assertTrue(captor.getValue().getStackTrace().length > 0);
+    }
+
+    @Test
+    public void readProperty_ReportingErrorHandler() throws IOException {
+        ErrorHandler handler = mock(ReportingErrorHandler.class);
+        HeaderReader target = new HeaderReader(channel(header(
+                "kEY     = 'b'",
+                "END")), handler);
+
+        target.readProperty();
+        ArgumentCaptor<FitsException> captor =
+                ArgumentCaptor.forClass(FitsException.class);
+        verify(handler).error(captor.capture());
+        assertEquals(0, captor.getValue().getStackTrace().length);
+    }
+
+    @Test
+    public void readProperty_CommentSeparator() throws IOException {
+        ErrorHandler handler = mock(ErrorHandler.class);
+        HeaderReader target = new HeaderReader(channel(header(
+                "KEY     = 'a' comment",
+                "END")), handler);
+
+        assertEquals(new Property("KEY", "a", "comment"),
+                target.readProperty());
+        verify(handler).error(new FitsFormatException(14,
+                "HeaderReader_CommentSeparator", "KEY"));
+    }
+
+    @Test
+    public void readProperty_UnknownValue() throws IOException {
+        ErrorHandler handler = mock(ErrorHandler.class);
+        HeaderReader target = new HeaderReader(channel(header(
+                "KEY     = ?",
+                "END")), handler);
+
+        assertEquals(new Property("KEY", null), target.readProperty());
+        verify(handler).error(new FitsFormatException(10,
+                "HeaderReader_UnknownValue", "KEY"));
+    }
+
+    @Test
+    public void readProperty_ValueErrorOffset() throws IOException {
+        ErrorHandler handler = mock(ErrorHandler.class);
+        HeaderReader target = new HeaderReader(channel(header(
+                "KEY     = 'a",
+                "END")), 2880, handler);
+        FitsFormatException expected = new FitsFormatException(2959,
+                "StringHeaderValueConverter_DecodeOpen");
+
+        try {
+            target.readProperty();
+            fail("Fatal exception not thrown.");
+        } catch (FitsFormatException e) {
+            assertEquals(expected, e);
+        }
+        verify(handler).fatal(expected);
+    }
+
+    @Test
+    public void readProperty_LazyValue() throws IOException {
+        HeaderReader target = new HeaderReader(channel(header(
+                "NAXIS1  =                 1024 / length",
+                "KEY     = 'a'",
+                "END")), 0, THROW_ALWAYS, true);
+
+        assertEquals(new Property("NAXIS1", 1024, "length"),
+                target.readProperty());
+        assertEquals(new Property("KEY", "a"), target.readProperty());
+        assertNull(target.readProperty());
+    }
+
+    @Test
+    public void readProperty_LazyCommentary() throws IOException {
+        HeaderReader target = new HeaderReader(channel(header(
+                "COMMENT text",
+                "END")), 0, THROW_ALWAYS, true);
+
+        assertEquals(new Property("COMMENT", null, "text", true),
+                target.readProperty());
+    }
+
+    @Test
+    public void readProperty_LazyErrorOnAccess() throws IOException {
+        ErrorHandler handler = mock(ErrorHandler.class);
+        HeaderReader target = new HeaderReader(channel(header(
+                "KEY     = 'a",
+                "END")), 2880, handler, true);
+        FitsFormatException expected = new FitsFormatException(2959,
+                "StringHeaderValueConverter_DecodeOpen");
+
+        Property property = target.readProperty();
+        assertNull(target.readProperty());
+        verifyZeroInteractions(handler);
+        try {
+            property.get();
+            fail("Exception not thrown.");
+        } catch (DeferredDecodingException e) {
+            assertEquals(expected, e.getCause());
+        }
+        verify(handler).fatal(expected);
+    }
+
+    @Test
+    public void readProperty_LazyDecodedOnce() throws IOException {
+        ErrorHandler handler = mock(ErrorHandler.class);
+        HeaderReader target = new HeaderReader(channel(header(
+                "KEY     = 'a' comment",
+                "END")), 0, handler, true);
+
+        Property property = target.readProperty();
+        assertEquals("a", property.get());
+        assertEquals("comment", property.getComment());
+        verify(handler, times(1)).error(new FitsFormatException(14,
+                "HeaderReader_CommentSeparator", "KEY"));
+    }
+
+    @Test
+    public void readProperty_LazyFailureMemoized() throws IOException {
+        ErrorHandler handler = mock(ErrorHandler.class);
+        HeaderReader target = new HeaderReader(channel(header(
+                "KEY     = 'a",
+                "END")), 0, handler, true);
+        Property property = target.readProperty();
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                property.getComment();
+                fail("Exception not thrown.");
+            } catch (DeferredDecodingException e) {
+                assertTrue(e.getCause() instanceof FitsFormatException);
+            }
+        }
+        verify(handler, times(1)).fatal(any(FitsException.class));
+    }
+
+    @Test
+    public void readProperty_LazyFailureEquality() throws IOException {
+        ErrorHandler handler = mock(ErrorHandler.class);
+        byte[] bytes = header(
+                "KEY     = 'a",
+                "KEY     = 'b",
+                "END");
+        HeaderReader first = new HeaderReader(channel(bytes), 0, handler,
+                true);
+        HeaderReader second = new HeaderReader(channel(bytes), 0, handler,
+                true);
+        Property a = first.readProperty();
+        Property b = first.readProperty();
+        Property copy = second.readProperty();
+
+        assertEquals(a, copy);
+        assertEquals(a.hashCode(), copy.hashCode());
+        assertFalse(a.equals(b));
+        assertFalse(a.equals(new Property("KEY", "a")));
+        assertEquals(2, new HashSet<Property>(Arrays.asList(a, b, copy))
+                .size());
+    }
+
+    @Test
+    public void getChecksum() throws IOException {
+        String[] cards = new String[40];
+        for (int i = 0; i < cards.length - 1; i++) {
+            cards[i] = "KEY" + i + "    = " + i;
+        }
+        cards[cards.length - 1] = "END";
+        byte[] bytes = header(cards);
+        HeaderReader target = new HeaderReader(channel(bytes), THROW_ALWAYS);
+        target.readHeader();
+        Checksum expected = new Checksum();
+        expected.update(ByteBuffer.wrap(bytes));
+        assertEquals(expected.getValue(), target.getChecksum());
+    }
+}
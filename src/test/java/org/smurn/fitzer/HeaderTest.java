@@ -0,0 +1,150 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link Header}.
+ */
+public class HeaderTest {
+
+    @Test(expected = NullPointerException.class)
+    public void ctr_Null() {
+        new Header(null);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void ctr_NullElement() {
+        new Header(Arrays.asList(new Property("A", 1), null));
+    }
+
+    @Test
+    public void get_Empty() {
+        Header target = new Header(Collections.<Property>emptyList());
+        assertEquals(0, target.size());
+        assertNull(target.get("NAXIS"));
+        assertTrue(target.getAll("NAXIS").isEmpty());
+    }
+
+    @Test
+    public void get_Keyword() {
+        Property naxis = new Property("NAXIS", 2);
+        Property naxis1 = new Property("NAXIS1", 100);
+        Property naxis2 = new Property("NAXIS2", 200);
+        Header target = new Header(Arrays.asList(naxis, naxis1, naxis2));
+
+        assertSame(naxis1, target.get("NAXIS1"));
+        assertSame(naxis2, target.get("NAXIS2"));
+        assertSame(naxis, target.get("NAXIS"));
+        assertNull(target.get("NAXIS3"));
+        assertTrue(target.contains("NAXIS1"));
+        assertFalse(target.contains("NAXIS3"));
+    }
+
+    @Test
+    public void get_Index() {
+        Property a = new Property("A", 1);
+        Property b = new Property("B", 2);
+        Header target = new Header(Arrays.asList(a, b));
+        assertEquals(2, target.size());
+        assertSame(a, target.get(0));
+        assertSame(b, target.get(1));
+        assertEquals(Arrays.asList(a, b), target.getProperties());
+    }
+
+    @Test
+    public void get_Duplicate() {
+        Property first = new Property("KEY", 1);
+        Property second = new Property("KEY", 2);
+        Header target = new Header(Arrays.asList(first, second));
+        assertSame(first, target.get("KEY"));
+        assertEquals(Arrays.asList(first, second), target.getAll("KEY"));
+    }
+
+    @Test
+    public void get_Commentary() {
+        Property history1 = new Property("HISTORY", null, "one", true);
+        Property history2 = new Property("HISTORY", null, "two", true);
+        Property blank = new Property("", null, "blank", true);
+        Property other = new Property("OTHER", "x");
+        Header target = new Header(Arrays.asList(history1, other, history2,
+                blank));
+
+        assertNull(target.get("HISTORY"));
+        assertEquals(Arrays.asList(history1, history2),
+                target.getAll("HISTORY"));
+        assertEquals(Arrays.asList(blank), target.getAll(""));
+    }
+
+    @Test
+    public void get_CommentaryBeforeValue() {
+        Property commentary = new Property("KEY", null, "text", true);
+        Property value = new Property("KEY", 5);
+        Header target = new Header(Arrays.asList(commentary, value));
+        assertSame(value, target.get("KEY"));
+    }
+
+    @Test
+    public void get_LongKeyword() {
+        Property hierarch = new Property("HIERARCH ESO DET", "x");
+        Header target = new Header(Arrays.asList(new Property("A", 1),
+                hierarch));
+        assertSame(hierarch, target.get("HIERARCH ESO DET"));
+        assertNull(target.get("HIERARCH"));
+    }
+
+    @Test
+    public void get_Many() {
+        List<Property> properties = new ArrayList<Property>();
+        for (int i = 0; i < 1000; i++) {
+            properties.add(new Property("K" + i, i));
+        }
+        Header target = new Header(properties);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, target.get("K" + i).getLong());
+        }
+        assertNull(target.get("K1000"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void getProperties_Unmodifiable() {
+        new Header(Arrays.asList(new Property("A", 1))).getProperties().
+                clear();
+    }
+
+    @Test
+    public void packKeyword() {
+        assertEquals(0x4E41584953312020L, Header.packKeyword("NAXIS1"));
+        assertEquals(0x2020202020202020L, Header.packKeyword(""));
+        assertEquals(Header.NOT_PACKED, Header.packKeyword("TOOLONGKEY"));
+    }
+
+    @Test
+    public void equals() {
+        Header a = new Header(Arrays.asList(new Property("A", 1)));
+        Header b = new Header(Arrays.asList(new Property("A", 1)));
+        Header c = new Header(Arrays.asList(new Property("A", 2)));
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+        assertFalse(a.equals(c));
+    }
+}
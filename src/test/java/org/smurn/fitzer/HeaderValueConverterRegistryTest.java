@@ -0,0 +1,100 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.nio.ByteBuffer;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+import static org.smurn.fitzer.TestUtils.*;
+
+/**
+ * Unit tests for {@link HeaderValueConverterRegistry}.
+ */
+public class HeaderValueConverterRegistryTest {
+
+    private static HeaderValueConverter lookup(
+            HeaderValueConverterRegistry target, String field) {
+        return target.lookup(ByteBuffer.wrap(toBytePad(field, 70)), 0);
+    }
+
+    @Test
+    public void lookup_Default() {
+        HeaderValueConverterRegistry target =
+                HeaderValueConverterRegistry.createDefault();
+
+        assertTrue(lookup(target, "   'abc'")
+                instanceof StringHeaderValueConverter);
+        assertTrue(lookup(target, "  42")
+                instanceof NumericHeaderValueConverter);
+        assertTrue(lookup(target, "-1.5")
+                instanceof NumericHeaderValueConverter);
+        assertTrue(lookup(target, ".5") instanceof NumericHeaderValueConverter);
+        assertTrue(lookup(target, "") instanceof NullHeaderValueConverter);
+        assertTrue(lookup(target, "   / comment")
+                instanceof NullHeaderValueConverter);
+        assertTrue(lookup(target, "  T")
+                instanceof LogicalHeaderValueConverter);
+        assertNull(lookup(target, "  X"));
+        assertNull(lookup(target, "?"));
+    }
+
+    @Test
+    public void lookup_HighBit() {
+        HeaderValueConverterRegistry target =
+                HeaderValueConverterRegistry.createDefault();
+        byte[] field = toBytePad("", 70);
+        field[3] = (byte) 0xE4;
+        assertNull(target.lookup(ByteBuffer.wrap(field), 0));
+    }
+
+    @Test
+    public void lookup_Position() {
+        HeaderValueConverterRegistry target =
+                HeaderValueConverterRegistry.createDefault();
+        ByteBuffer buffer = ByteBuffer.wrap(toBytePad("KEYWORD = 'a'", 80));
+        assertTrue(target.lookup(buffer, 10)
+                instanceof StringHeaderValueConverter);
+    }
+
+    @Test
+    public void register() {
+        HeaderValueConverterRegistry target =
+                new HeaderValueConverterRegistry();
+        HeaderValueConverter converter = mock(HeaderValueConverter.class);
+        target.register((byte) 'T', converter);
+        assertSame(converter, lookup(target, "   T"));
+        assertNull(lookup(target, "   F"));
+        assertNull(lookup(target, ""));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void register_Space() {
+        new HeaderValueConverterRegistry().register((byte) ' ',
+                mock(HeaderValueConverter.class));
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void register_Null() {
+        new HeaderValueConverterRegistry().register((byte) 'T', null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void lookup_TooShort() {
+        HeaderValueConverterRegistry.createDefault().lookup(
+                ByteBuffer.wrap(toBytePad("", 80)), 11);
+    }
+}
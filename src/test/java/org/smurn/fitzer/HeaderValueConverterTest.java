@@ -16,6 +16,7 @@
 package org.smurn.fitzer;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import org.junit.Test;
 import static org.smurn.fitzer.TestUtils.*;
 
@@ -68,6 +69,47 @@ public abstract class HeaderValueConverterTest {
         target.decode(toByte(repeat(" ", 71)), 1000, THROW_ALWAYS);
     }
 
+    @Test(expected = NullPointerException.class)
+    public void compatibleEncodingCheckBuffer_Null() {
+        HeaderValueConverter target = createTarget();
+        target.compatibleEncodingCheck(null, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void compatibleEncodingCheckBuffer_NegativePosition() {
+        HeaderValueConverter target = createTarget();
+        target.compatibleEncodingCheck(
+                ByteBuffer.wrap(toByte(repeat(" ", 80))), -1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void compatibleEncodingCheckBuffer_TooShort() {
+        HeaderValueConverter target = createTarget();
+        target.compatibleEncodingCheck(
+                ByteBuffer.wrap(toByte(repeat(" ", 80))), 11);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void decodeBuffer_Null() throws IOException {
+        HeaderValueConverter target = createTarget();
+        target.decode(null, 10, 1000, THROW_ALWAYS);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void decodeBuffer_NullHandler() throws IOException {
+        HeaderValueConverter target = createTarget();
+        target.decode(ByteBuffer.wrap(toByte(repeat(" ", 80))), 10, 1000,
+                null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decodeBuffer_TooShort() throws IOException {
+        HeaderValueConverter target = createTarget();
+        ByteBuffer buffer = ByteBuffer.wrap(toByte(repeat(" ", 80)));
+        buffer.limit(79);
+        target.decode(buffer, 10, 1000, THROW_ALWAYS);
+    }
+
     @Test(expected = NullPointerException.class)
     public void encode_Null() throws IOException {
         HeaderValueConverter target = createTarget();
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+import static org.smurn.fitzer.TestUtils.*;
+
+/**
+ * Unit tests for {@link LogicalHeaderValueConverter}.
+ */
+public class LogicalHeaderValueConverterTest extends HeaderValueConverterTest {
+
+    @Override
+    HeaderValueConverter createTarget() {
+        return new LogicalHeaderValueConverter();
+    }
+
+    @Test
+    public void compatibleTypeCheck() {
+        LogicalHeaderValueConverter target = new LogicalHeaderValueConverter();
+        assertTrue(target.compatibleTypeCheck(Boolean.FALSE));
+        assertFalse(target.compatibleTypeCheck("T"));
+    }
+
+    @Test
+    public void compatibleEncodingCheck() {
+        LogicalHeaderValueConverter target = new LogicalHeaderValueConverter();
+        assertTrue(target.compatibleEncodingCheck(
+                toBytePad(repeat(" ", 19) + "T", 70)));
+        assertFalse(target.compatibleEncodingCheck(toBytePad("'T'", 70)));
+        assertFalse(target.compatibleEncodingCheck(toBytePad("", 70)));
+    }
+
+    @Test
+    public void decode_Fixed() throws IOException {
+        LogicalHeaderValueConverter target = new LogicalHeaderValueConverter();
+        HeaderValueConverter.ParsingResult actual = target.decode(
+                toBytePad(repeat(" ", 19) + "T / comment", 70), 10,
+                THROW_ALWAYS);
+        assertEquals(new HeaderValueConverter.ParsingResult(true, 20,
+                Boolean.TRUE), actual);
+    }
+
+    @Test
+    public void decode_Free() throws IOException {
+        LogicalHeaderValueConverter target = new LogicalHeaderValueConverter();
+        HeaderValueConverter.ParsingResult actual = target.decode(
+                toBytePad("F/", 70), 10, THROW_ALWAYS);
+        assertEquals(new HeaderValueConverter.ParsingResult(false, 1,
+                Boolean.FALSE), actual);
+    }
+
+    @Test
+    public void decode_Malformed() throws IOException {
+        ErrorHandler handler = mock(ErrorHandler.class);
+        LogicalHeaderValueConverter target = new LogicalHeaderValueConverter();
+        FitsFormatException expected = new FitsFormatException(13,
+                "LogicalHeaderValueConverter_DecodeMalformed");
+        try {
+            target.decode(toBytePad("  TRUE", 70), 10, handler);
+            fail("Fatal exception not thrown.");
+        } catch (FitsFormatException e) {
+            assertEquals(expected, e);
+        }
+        verify(handler).fatal(expected);
+    }
+
+    @Test
+    public void encode_Fixed() throws IOException {
+        LogicalHeaderValueConverter target = new LogicalHeaderValueConverter();
+        assertArrayEquals(toByte(repeat(" ", 19) + "T"),
+                target.encode(Boolean.TRUE, true, THROW_ALWAYS));
+    }
+
+    @Test
+    public void encodeBuffer_Free() throws IOException {
+        LogicalHeaderValueConverter target = new LogicalHeaderValueConverter();
+        ByteBuffer buffer = ByteBuffer.allocate(80);
+        buffer.position(10);
+        assertEquals(1, target.encode(Boolean.FALSE, false, buffer,
+                THROW_ALWAYS));
+        assertEquals(11, buffer.position());
+        assertEquals('F', buffer.get(10));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void encode_String() throws IOException {
+        new LogicalHeaderValueConverter().encode("T", false, THROW_ALWAYS);
+    }
+}
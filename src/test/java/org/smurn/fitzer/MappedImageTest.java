@@ -0,0 +1,239 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+import static org.smurn.fitzer.TestUtils.*;
+
+/**
+ * Unit tests for {@link MappedImage}.
+ */
+public class MappedImageTest {
+
+    private static FileChannel image16() throws IOException {
+        return file(header(
+                "SIMPLE  =                    T",
+                "BITPIX  =                   16",
+                "NAXIS   =                    2",
+                "NAXIS1  =                    3",
+                "NAXIS2  =                    2",
+                "END"),
+                shorts(1, 2, 3, 4, 5, -6),
+                new byte[2868]);
+    }
+
+    @Test
+    public void ctr_Header() throws IOException {
+        MappedImage target = new MappedImage(image16(), THROW_ALWAYS);
+        assertEquals(16, target.getBitpix());
+        assertEquals(2, target.getAxisCount());
+        assertEquals(3, target.getAxisLength(0));
+        assertEquals(2, target.getAxisLength(1));
+        assertEquals(6, target.getPixelCount());
+        assertEquals(2880, target.getDataOffset());
+        assertEquals(5, target.getHeader().size());
+    }
+
+    @Test
+    public void ctr_Offset() throws IOException {
+        FileChannel channel = file(header(
+                "SIMPLE  =                    T",
+                "BITPIX  =                    8",
+                "NAXIS   =                    0",
+                "END"),
+                header(
+                "XTENSION= 'IMAGE   '",
+                "BITPIX  =                    8",
+                "NAXIS   =                    1",
+                "NAXIS1  =                    2",
+                "PCOUNT  =                    0",
+                "GCOUNT  =                    1",
+                "END"),
+                new byte[]{7, 8});
+        MappedImage target = new MappedImage(channel, 2880, THROW_ALWAYS);
+        assertEquals(5760, target.getDataOffset());
+        assertEquals(8, target.getByte(1));
+    }
+
+    @Test
+    public void ctr_Cache() throws IOException {
+        FileChannel channel = image16();
+        BlockCache cache = new BlockCache(16 * 2880);
+        long fileId = BlockCache.newFileId();
+        new MappedImage(cache, fileId, channel, 0, THROW_ALWAYS);
+        MappedImage target = new MappedImage(cache, fileId, channel, 0,
+                THROW_ALWAYS);
+        assertEquals(-6, target.getShort(5));
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void getShort() throws IOException {
+        MappedImage target = new MappedImage(image16(), THROW_ALWAYS);
+        assertEquals(2, target.getShort(1));
+        assertEquals(-6, target.getShort(target.index(2, 1)));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void getShort_OutOfRange() throws IOException {
+        new MappedImage(image16(), THROW_ALWAYS).getShort(6);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void getInt_WrongBitpix() throws IOException {
+        new MappedImage(image16(), THROW_ALWAYS).getInt(0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void getFloatBuffer_WrongBitpix() throws IOException {
+        new MappedImage(image16(), THROW_ALWAYS).getFloatBuffer(0);
+    }
+
+    @Test
+    public void getShortBuffer() throws IOException {
+        MappedImage target = new MappedImage(image16(), THROW_ALWAYS);
+        assertEquals(1, target.getSegmentCount());
+        ShortBuffer buffer = target.getShortBuffer(0);
+        assertEquals(6, buffer.remaining());
+        assertEquals(4, buffer.get(3));
+    }
+
+    @Test
+    public void getShortBuffer_Segments() throws IOException {
+        FileChannel channel = image16();
+        Header header = new HeaderReader(channel, THROW_ALWAYS).readHeader();
+        MappedImage target = new MappedImage(channel, header, 2880,
+                THROW_ALWAYS, 3);
+        assertEquals(2, target.getSegmentCount());
+        assertEquals(4, target.getSegmentStart(1));
+        ShortBuffer buffer = target.getShortBuffer(1);
+        assertEquals(2, buffer.remaining());
+        assertEquals(5, buffer.get(0));
+        assertEquals(-6, target.getShort(5));
+    }
+
+    @Test
+    public void getFloatBuffer() throws IOException {
+        ByteBuffer data = ByteBuffer.allocate(8);
+        data.putFloat(1.5f).putFloat(-2f);
+        MappedImage target = new MappedImage(file(header(
+                "SIMPLE  =                    T",
+                "BITPIX  =                  -32",
+                "NAXIS   =                    1",
+                "NAXIS1  =                    2",
+                "END"), data.array()), THROW_ALWAYS);
+        FloatBuffer buffer = target.getFloatBuffer(0);
+        assertEquals(-2f, buffer.get(1), 0f);
+        assertEquals(1.5f, target.getFloat(0), 0f);
+    }
+
+    @Test
+    public void index() throws IOException {
+        MappedImage target = new MappedImage(image16(), THROW_ALWAYS);
+        assertEquals(0, target.index(0, 0));
+        assertEquals(2, target.index(2, 0));
+        assertEquals(4, target.index(1, 1));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void index_OutOfRange() throws IOException {
+        new MappedImage(image16(), THROW_ALWAYS).index(3, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void index_WrongDimension() throws IOException {
+        new MappedImage(image16(), THROW_ALWAYS).index(1);
+    }
+
+    @Test
+    public void coordinates() throws IOException {
+        MappedImage target = new MappedImage(image16(), THROW_ALWAYS);
+        long[] coordinates = new long[2];
+        target.coordinates(5, coordinates);
+        assertArrayEquals(new long[]{2, 1}, coordinates);
+    }
+
+    @Test
+    public void ctr_Truncated() throws IOException {
+        ErrorHandler handler = mock(ErrorHandler.class);
+        FileChannel channel = file(header(
+                "SIMPLE  =                    T",
+                "BITPIX  =                   16",
+                "NAXIS   =                    1",
+                "NAXIS1  =                    4",
+                "END"), shorts(1, 2, 3));
+        FitsFormatException expected = new FitsFormatException(2886,
+                "MappedImage_Truncated", 2888L, 2886L);
+        try {
+            new MappedImage(channel, handler);
+            fail("Fatal exception not thrown.");
+        } catch (FitsFormatException e) {
+            assertEquals(expected, e);
+        }
+        verify(handler).fatal(expected);
+    }
+
+    @Test(expected = FitsFormatException.class)
+    public void ctr_Table() throws IOException {
+        new MappedImage(file(header(
+                "XTENSION= 'BINTABLE'",
+                "BITPIX  =                    8",
+                "NAXIS   =                    2",
+                "NAXIS1  =                    1",
+                "NAXIS2  =                    1",
+                "PCOUNT  =                    4",
+                "GCOUNT  =                    1",
+                "END"), new byte[5]), THROW_ALWAYS);
+    }
+
+    @Test
+    public void ctr_BinaryTableWithoutHeap() throws IOException {
+        ErrorHandler handler = mock(ErrorHandler.class);
+        FileChannel channel = file(header(
+                "SIMPLE  =                    T",
+                "BITPIX  =                    8",
+                "NAXIS   =                    0",
+                "END"),
+                header(
+                "XTENSION= 'BINTABLE'",
+                "BITPIX  =                    8",
+                "NAXIS   =                    2",
+                "NAXIS1  =                    4",
+                "NAXIS2  =                    1",
+                "PCOUNT  =                    0",
+                "GCOUNT  =                    1",
+                "TFIELDS =                    1",
+                "TFORM1  = '1J      '",
+                "END"), new byte[4]);
+        FitsFormatException expected = new FitsFormatException(5760,
+                "MappedImage_NotAnImage");
+        try {
+            new MappedImage(channel, 2880, handler);
+            fail("Fatal exception not thrown.");
+        } catch (FitsFormatException e) {
+            assertEquals(expected, e);
+        }
+        verify(handler).fatal(expected);
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.smurn.fitzer.TestUtils.*;
+
+/**
+ * Unit tests for {@link MappedRegion}.
+ */
+public class MappedRegionTest {
+
+    private static byte[] sequence(int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) i;
+        }
+        return bytes;
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void ctr_NullChannel() throws IOException {
+        new MappedRegion(null, 0, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ctr_SegmentShiftTooSmall() throws IOException {
+        new MappedRegion(file(sequence(10)), 0, 10, 2);
+    }
+
+    @Test
+    public void getSegmentCount() throws IOException {
+        MappedRegion target = new MappedRegion(file(sequence(100)), 4, 33, 3);
+        assertEquals(5, target.getSegmentCount());
+        assertEquals(32, target.getSegmentStart(4));
+    }
+
+    @Test
+    public void getSegmentCount_Empty() throws IOException {
+        MappedRegion target = new MappedRegion(file(sequence(10)), 10, 0);
+        assertEquals(0, target.getSegmentCount());
+    }
+
+    @Test
+    public void getByte() throws IOException {
+        MappedRegion target = new MappedRegion(file(sequence(100)), 4, 33, 3);
+        assertEquals(4, target.getByte(0));
+        assertEquals(36, target.getByte(32));
+    }
+
+    @Test
+    public void getInt_AcrossSegments() throws IOException {
+        MappedRegion target = new MappedRegion(file(sequence(100)), 0, 100,
+                3);
+        assertEquals(0x06070809, target.getInt(6));
+    }
+
+    @Test
+    public void getLong_AcrossSegments() throws IOException {
+        MappedRegion target = new MappedRegion(file(sequence(100)), 0, 100,
+                3);
+        assertEquals(0x0708090A0B0C0D0EL, target.getLong(7));
+    }
+
+    @Test
+    public void getDouble() throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(24);
+        bytes.putDouble(8, 1.5);
+        MappedRegion target = new MappedRegion(file(bytes.array()), 0, 24);
+        assertEquals(1.5, target.getDouble(8), 0.0);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void getInt_BeyondEnd() throws IOException {
+        MappedRegion target = new MappedRegion(file(sequence(100)), 0, 10);
+        target.getInt(7);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void getByte_Negative() throws IOException {
+        MappedRegion target = new MappedRegion(file(sequence(100)), 0, 10);
+        target.getByte(-1);
+    }
+
+    @Test
+    public void getSegment() throws IOException {
+        FileChannel channel = file(sequence(100));
+        MappedRegion target = new MappedRegion(channel, 2, 20, 3);
+        ByteBuffer first = target.getSegment(0);
+        ByteBuffer last = target.getSegment(2);
+        assertEquals(8, first.capacity());
+        assertEquals(2, first.get(0));
+        assertEquals(4, last.capacity());
+        assertEquals(18, last.get(0));
+    }
+
+    @Test
+    public void slice_WithinSegment() throws IOException {
+        MappedRegion target = new MappedRegion(file(sequence(100)), 4, 64, 4);
+        ByteBuffer slice = target.slice(17, 5);
+        assertEquals(0, slice.position());
+        assertEquals(5, slice.limit());
+        assertEquals(21, slice.get(0));
+        assertEquals(25, slice.get(4));
+        assertTrue(slice.isReadOnly());
+    }
+
+    @Test
+    public void slice_AcrossSegments() throws IOException {
+        MappedRegion target = new MappedRegion(file(sequence(100)), 0, 100, 3);
+        ByteBuffer slice = target.slice(5, 30);
+        assertEquals(30, slice.remaining());
+        for (int i = 0; i < 30; i++) {
+            assertEquals(5 + i, slice.get(i));
+        }
+        assertEquals(0x05060708, slice.getInt(0));
+    }
+
+    @Test
+    public void slice_Empty() throws IOException {
+        MappedRegion target = new MappedRegion(file(sequence(10)), 0, 10, 3);
+        assertEquals(0, target.slice(10, 0).remaining());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void slice_OutOfRange() throws IOException {
+        MappedRegion target = new MappedRegion(file(sequence(100)), 0, 20, 3);
+        target.slice(15, 6);
+    }
+
+    @Test
+    public void getMappedSegment() throws IOException {
+        MappedRegion target = new MappedRegion(file(sequence(100)), 0, 100, 3);
+        ByteBuffer segment = target.getMappedSegment(13, 8);
+        assertNotNull(segment);
+        assertEquals(5, target.getSegmentIndex(13));
+        assertEquals(13, segment.get(target.getSegmentIndex(13)));
+        assertNull(target.getMappedSegment(13, 12));
+    }
+}
@@ -16,6 +16,7 @@
 package org.smurn.fitzer;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import org.junit.Test;
 import static org.junit.Assert.*;
 import static org.smurn.fitzer.TestUtils.*;
@@ -130,4 +131,38 @@ public class NullHeaderValueConverterTest extends HeaderValueConverterTest {
 
         assertEquals(expected, actual);
     }
+
+    @Test
+    public void compatibleEncodingCheckBuffer_SpacesComment() {
+        NullHeaderValueConverter target = new NullHeaderValueConverter();
+        ByteBuffer buffer = ByteBuffer.wrap(
+                toByte("KEYWORD = " + repeat(" ", 20) + "/" + repeat(" ", 49)));
+        assertTrue(target.compatibleEncodingCheck(buffer, 10));
+    }
+
+    @Test
+    public void parseBuffer_SpacesComment() throws IOException {
+        NullHeaderValueConverter target = new NullHeaderValueConverter();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(80);
+        buffer.put(toByte("KEYWORD = " + repeat(" ", 20) + "/"
+                + repeat(" ", 49)));
+
+        HeaderValueConverter.ParsingResult actual =
+                target.decode(buffer, 10, 10, THROW_ALWAYS);
+
+        HeaderValueConverter.ParsingResult expected =
+                new HeaderValueConverter.ParsingResult(true, 20, null);
+
+        assertEquals(expected, actual);
+        assertEquals(80, buffer.position());
+    }
+
+    @Test
+    public void encodeBuffer() throws IOException {
+        NullHeaderValueConverter target = new NullHeaderValueConverter();
+        ByteBuffer buffer = ByteBuffer.allocate(80);
+        buffer.position(10);
+        assertEquals(0, target.encode(null, false, buffer, THROW_ALWAYS));
+        assertEquals(10, buffer.position());
+    }
 }
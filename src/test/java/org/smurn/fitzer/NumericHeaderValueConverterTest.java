@@ -0,0 +1,224 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+import static org.smurn.fitzer.TestUtils.*;
+
+/**
+ * Unit tests for {@link NumericHeaderValueConverter}.
+ */
+public class NumericHeaderValueConverterTest extends HeaderValueConverterTest {
+
+    @Override
+    HeaderValueConverter createTarget() {
+        return new NumericHeaderValueConverter();
+    }
+
+    private HeaderValueConverter.ParsingResult decode(String field)
+            throws IOException {
+        return new NumericHeaderValueConverter().decode(
+                toBytePad(field, 70), 1000, THROW_ALWAYS);
+    }
+
+    @Test
+    public void compatibleTypeCheck() {
+        NumericHeaderValueConverter target = new NumericHeaderValueConverter();
+        assertTrue(target.compatibleTypeCheck(BigDecimal.ONE));
+        assertFalse(target.compatibleTypeCheck("1"));
+        assertFalse(target.compatibleTypeCheck(null));
+    }
+
+    @Test
+    public void compatibleEncodingCheck() {
+        NumericHeaderValueConverter target = new NumericHeaderValueConverter();
+        assertTrue(target.compatibleEncodingCheck(toBytePad("   42", 70)));
+        assertTrue(target.compatibleEncodingCheck(toBytePad("-1", 70)));
+        assertTrue(target.compatibleEncodingCheck(toBytePad("+1", 70)));
+        assertTrue(target.compatibleEncodingCheck(toBytePad(".5", 70)));
+        assertFalse(target.compatibleEncodingCheck(toBytePad("'1'", 70)));
+        assertFalse(target.compatibleEncodingCheck(toBytePad(" / 1", 70)));
+        assertFalse(target.compatibleEncodingCheck(toBytePad("", 70)));
+    }
+
+    @Test
+    public void decode_FixedInteger() throws IOException {
+        HeaderValueConverter.ParsingResult actual =
+                decode(repeat(" ", 16) + "4096 / comment");
+
+        assertTrue(actual.isCompact());
+        assertEquals(4096, actual.getUnscaledValue());
+        assertEquals(0, actual.getScale());
+        assertEquals(new HeaderValueConverter.ParsingResult(true, 20,
+                new BigDecimal(4096)), actual);
+    }
+
+    @Test
+    public void decode_FreeNegative() throws IOException {
+        assertEquals(new HeaderValueConverter.ParsingResult(false, 3,
+                new BigDecimal(-32)), decode("-32"));
+    }
+
+    @Test
+    public void decode_Decimal() throws IOException {
+        HeaderValueConverter.ParsingResult actual = decode("  1.50/");
+        assertEquals(150, actual.getUnscaledValue());
+        assertEquals(2, actual.getScale());
+        assertEquals(new BigDecimal("1.50"), actual.getValue());
+        assertEquals(6, actual.getBytesConsumed());
+    }
+
+    @Test
+    public void decode_Exponent() throws IOException {
+        assertEquals(new BigDecimal("1.5E3"), decode("1.5E3").getValue());
+        assertEquals(new BigDecimal("-2.5E-7"), decode("-2.5E-7").getValue());
+        assertEquals(new BigDecimal("1E+10"), decode("1E+10").getValue());
+    }
+
+    @Test
+    public void decode_DoubleExponent() throws IOException {
+        assertEquals(new BigDecimal("6.02214E23"),
+                decode("6.02214D23").getValue());
+    }
+
+    @Test
+    public void decode_LeadingZeros() throws IOException {
+        assertEquals(new BigDecimal("0.000125"),
+                decode("0.000125").getValue());
+        assertEquals(new BigDecimal("7"), decode("+007").getValue());
+    }
+
+    @Test
+    public void decode_LongNumber() throws IOException {
+        String number = "123456789012345678901234567890.0123456789";
+        HeaderValueConverter.ParsingResult actual = decode(number);
+        assertFalse(actual.isCompact());
+        assertEquals(new BigDecimal(number), actual.getValue());
+    }
+
+    @Test
+    public void decode_EighteenDigits() throws IOException {
+        HeaderValueConverter.ParsingResult actual =
+                decode("-999999999999999999");
+        assertTrue(actual.isCompact());
+        assertEquals(-999999999999999999L, actual.getUnscaledValue());
+    }
+
+    @Test
+    public void decode_Buffer() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(80);
+        buffer.put(toBytePad("NAXIS1  =                 2048", 80));
+        HeaderValueConverter.ParsingResult actual =
+                new NumericHeaderValueConverter().decode(buffer, 10, 10,
+                THROW_ALWAYS);
+        assertEquals(new HeaderValueConverter.ParsingResult(true, 20,
+                new BigDecimal(2048)), actual);
+    }
+
+    @Test
+    public void decode_Malformed() throws IOException {
+        ErrorHandler handler = mock(ErrorHandler.class);
+        FitsFormatException expected = new FitsFormatException(1003,
+                "NumericHeaderValueConverter_DecodeMalformed");
+        try {
+            new NumericHeaderValueConverter().decode(toBytePad("1.2x", 70),
+                    1000, handler);
+            fail("Fatal exception not thrown.");
+        } catch (FitsFormatException e) {
+            assertEquals(expected, e);
+        }
+        verify(handler).fatal(expected);
+    }
+
+    @Test
+    public void decode_MissingExponentDigits() throws IOException {
+        ErrorHandler handler = mock(ErrorHandler.class);
+        FitsFormatException expected = new FitsFormatException(1004,
+                "NumericHeaderValueConverter_DecodeMalformed");
+        try {
+            new NumericHeaderValueConverter().decode(toBytePad("1.5E", 70),
+                    1000, handler);
+            fail("Fatal exception not thrown.");
+        } catch (FitsFormatException e) {
+            assertEquals(expected, e);
+        }
+        verify(handler).fatal(expected);
+    }
+
+    @Test
+    public void decode_OnlySign() throws IOException {
+        ErrorHandler handler = mock(ErrorHandler.class);
+        FitsFormatException expected = new FitsFormatException(1001,
+                "NumericHeaderValueConverter_DecodeMalformed");
+        try {
+            new NumericHeaderValueConverter().decode(toBytePad("-", 70),
+                    1000, handler);
+            fail("Fatal exception not thrown.");
+        } catch (FitsFormatException e) {
+            assertEquals(expected, e);
+        }
+        verify(handler).fatal(expected);
+    }
+
+    @Test
+    public void encode_Free() throws IOException {
+        byte[] actual = new NumericHeaderValueConverter().encode(
+                new BigDecimal("-1.25"), false, THROW_ALWAYS);
+        assertArrayEquals(toByte("-1.25"), actual);
+    }
+
+    @Test
+    public void encode_Fixed() throws IOException {
+        byte[] actual = new NumericHeaderValueConverter().encode(
+                new BigDecimal(16), true, THROW_ALWAYS);
+        assertArrayEquals(toBytePad(repeat(" ", 18) + "16", 20), actual);
+    }
+
+    @Test
+    public void encode_FixedTooLong() throws IOException {
+        ErrorHandler handler = mock(ErrorHandler.class);
+        String number = "1234567890.1234567890";
+        byte[] actual = new NumericHeaderValueConverter().encode(
+                new BigDecimal(number), true, handler);
+        assertArrayEquals(toByte(number), actual);
+        verify(handler).error(new FitsDataException(
+                "NumericHeaderValueConverter_EncodeFixedLength", number, 21));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void encode_String() throws IOException {
+        new NumericHeaderValueConverter().encode("1", false, THROW_ALWAYS);
+    }
+
+    @Test
+    public void encodeBuffer_Fixed() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(80);
+        buffer.position(10);
+        int actual = new NumericHeaderValueConverter().encode(
+                new BigDecimal(16), true, buffer, THROW_ALWAYS);
+        assertEquals(20, actual);
+        assertEquals(30, buffer.position());
+        byte[] bytes = new byte[20];
+        buffer.position(10);
+        buffer.get(bytes);
+        assertArrayEquals(toBytePad(repeat(" ", 18) + "16", 20), bytes);
+    }
+}
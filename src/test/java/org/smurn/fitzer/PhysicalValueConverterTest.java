@@ -0,0 +1,218 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+import static org.smurn.fitzer.TestUtils.*;
+
+/**
+ * Unit tests for {@link PhysicalValueConverter}.
+ */
+public class PhysicalValueConverterTest {
+
+    private static Header properties(Property... properties) {
+        return new Header(Arrays.asList(properties));
+    }
+
+    @Test
+    public void fromHeader_Defaults() throws IOException {
+        PhysicalValueConverter target = PhysicalValueConverter.fromHeader(
+                properties(new Property("BITPIX", 16),
+                new Property("NAXIS", 0)), 0, THROW_ALWAYS);
+        assertEquals(16, target.getBitpix());
+        assertEquals(1.0, target.getScale(), 0.0);
+        assertEquals(0.0, target.getZero(), 0.0);
+    }
+
+    @Test
+    public void fromHeader_Keywords() throws IOException {
+        PhysicalValueConverter target = PhysicalValueConverter.fromHeader(
+                properties(new Property("BITPIX", 16),
+                new Property("NAXIS", 0),
+                new Property("BSCALE", 5, 1, ""),
+                new Property("BZERO", 32768),
+                new Property("BLANK", -1)), 0, THROW_ALWAYS);
+        assertEquals(0.5, target.getScale(), 0.0);
+        assertEquals(32768.0, target.getZero(), 0.0);
+        float[] actual = new float[2];
+        target.toFloat(ByteBuffer.wrap(shorts(-1, 2)), actual, 0);
+        assertTrue(Float.isNaN(actual[0]));
+        assertEquals(32769f, actual[1], 0f);
+    }
+
+    @Test
+    public void fromHeader_InvalidScale() throws IOException {
+        ErrorHandler handler = mock(ErrorHandler.class);
+        FitsFormatException expected = new FitsFormatException(0,
+                "PhysicalValueConverter_InvalidValue", "BSCALE", "x");
+        try {
+            PhysicalValueConverter.fromHeader(properties(
+                    new Property("BITPIX", 16), new Property("NAXIS", 0),
+                    new Property("BSCALE", "x")), 0, handler);
+            fail("Fatal exception not thrown.");
+        } catch (FitsFormatException e) {
+            assertEquals(expected, e);
+        }
+        verify(handler).fatal(expected);
+    }
+
+    @Test
+    public void toFloat_Short() {
+        PhysicalValueConverter target = new PhysicalValueConverter(16, 2, 1,
+                null);
+        ByteBuffer raw = ByteBuffer.wrap(shorts(0, 1, -2, 3));
+        raw.position(2);
+        float[] actual = new float[4];
+        assertEquals(3, target.toFloat(raw, actual, 1));
+        assertArrayEquals(new float[]{0, 3, -3, 7}, actual, 0f);
+        assertEquals(2, raw.position());
+    }
+
+    @Test
+    public void toDouble_Int() {
+        PhysicalValueConverter target = new PhysicalValueConverter(32, 1,
+                0.5, 7L);
+        ByteBuffer raw = ByteBuffer.allocate(8);
+        raw.putInt(7).putInt(-100000).flip();
+        double[] actual = new double[2];
+        target.toDouble(raw, actual, 0);
+        assertTrue(Double.isNaN(actual[0]));
+        assertEquals(-99999.5, actual[1], 0.0);
+    }
+
+    @Test
+    public void toDouble_UnsignedByte() {
+        PhysicalValueConverter target = new PhysicalValueConverter(8, 1, 0,
+                null);
+        double[] actual = new double[1];
+        target.toDouble(ByteBuffer.wrap(new byte[]{(byte) 200}), actual, 0);
+        assertEquals(200.0, actual[0], 0.0);
+    }
+
+    @Test
+    public void toFloat_UnsignedByteBlank() {
+        PhysicalValueConverter target = new PhysicalValueConverter(8, 2, 1,
+                200L);
+        float[] actual = new float[2];
+        target.toFloat(ByteBuffer.wrap(new byte[]{(byte) 200, (byte) 201}),
+                actual, 0);
+        assertTrue(Float.isNaN(actual[0]));
+        assertEquals(403f, actual[1], 0f);
+    }
+
+    @Test
+    public void toDouble_Long() {
+        ByteBuffer raw = ByteBuffer.allocate(16);
+        raw.putLong(-1).putLong(1L << 40).flip();
+        double[] actual = new double[2];
+        new PhysicalValueConverter(64, 2, 0, null).toDouble(raw, actual, 0);
+        assertArrayEquals(new double[]{-2, 1L << 41}, actual, 0.0);
+        new PhysicalValueConverter(64, 2, 0, -1L).toDouble(raw, actual, 0);
+        assertTrue(Double.isNaN(actual[0]));
+        assertEquals(1L << 41, actual[1], 0.0);
+    }
+
+    @Test
+    public void toFloat_FloatUnscaled() {
+        PhysicalValueConverter target = new PhysicalValueConverter(-32, 1, 0,
+                5L);
+        ByteBuffer raw = ByteBuffer.allocate(8);
+        raw.putFloat(5f).putFloat(Float.NaN).flip();
+        float[] actual = new float[2];
+        target.toFloat(raw, actual, 0);
+        assertEquals(5f, actual[0], 0f);
+        assertTrue(Float.isNaN(actual[1]));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void toFloat_TargetTooSmall() {
+        PhysicalValueConverter target = new PhysicalValueConverter(16, 1, 0,
+                null);
+        target.toFloat(ByteBuffer.wrap(shorts(1, 2)), new float[2], 1);
+    }
+
+    private static FileChannel image16(int[] pixels) throws IOException {
+        return file(header(
+                "SIMPLE  =                    T",
+                "BITPIX  =                   16",
+                "NAXIS   =                    1",
+                "NAXIS1  = " + repeat(" ", 20 - ("" + pixels.length).length())
+                + pixels.length,
+                "BSCALE  =                  2.0",
+                "END"),
+                shorts(pixels));
+    }
+
+    @Test
+    public void toFloat_ImageSegments() throws IOException {
+        int[] pixels = {1, 2, 3, 4, 5, 6, 7};
+        FileChannel channel = image16(pixels);
+        Header header = new HeaderReader(channel, THROW_ALWAYS).readHeader();
+        MappedImage image = new MappedImage(channel, header, 2880,
+                THROW_ALWAYS, 3);
+        PhysicalValueConverter target = PhysicalValueConverter.fromHeader(
+                header, 0, THROW_ALWAYS);
+        float[] actual = new float[5];
+        target.toFloat(image, 1, actual, 0, 5);
+        assertArrayEquals(new float[]{4, 6, 8, 10, 12}, actual, 0f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void toFloat_ImageWrongBitpix() throws IOException {
+        MappedImage image = new MappedImage(image16(new int[]{1}),
+                THROW_ALWAYS);
+        new PhysicalValueConverter(32, 1, 0, null).toFloat(image, 0,
+                new float[1], 0, 1);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void toFloat_ImageOutOfRange() throws IOException {
+        MappedImage image = new MappedImage(image16(new int[]{1, 2}),
+                THROW_ALWAYS);
+        new PhysicalValueConverter(16, 1, 0, null).toFloat(image, 1,
+                new float[2], 0, 2);
+    }
+
+    @Test
+    public void toDouble_Parallel() throws Exception {
+        int count = PhysicalValueConverter.CHUNK_SIZE * 2 + 3;
+        int[] pixels = new int[count];
+        for (int i = 0; i < count; i++) {
+            pixels[i] = (short) i;
+        }
+        MappedImage image = new MappedImage(image16(pixels), THROW_ALWAYS);
+        PhysicalValueConverter target = PhysicalValueConverter.fromHeader(
+                image.getHeader(), 0, THROW_ALWAYS);
+        double[] actual = new double[count];
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            target.toDouble(image, 0, actual, 0, count, executor);
+        } finally {
+            executor.shutdown();
+        }
+        for (int i = 0; i < count; i++) {
+            assertEquals(2.0 * (short) i, actual[i], 0.0);
+        }
+    }
+}
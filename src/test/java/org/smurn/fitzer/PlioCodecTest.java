@@ -0,0 +1,78 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.nio.ShortBuffer;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link PlioCodec}.
+ */
+public class PlioCodecTest {
+
+    private static final int[] EXPECTED = {0, 0, 3, 3, 3, 0, 3, 4, 0, 0};
+
+    private static ShortBuffer words(int... values) {
+        short[] array = new short[values.length];
+        for (int i = 0; i < values.length; i++) {
+            array[i] = (short) values[i];
+        }
+        return ShortBuffer.wrap(array);
+    }
+
+    @Test
+    public void decompress() {
+        int[] out = new int[10];
+        PlioCodec.decompress(words(0, 7, -100, 13, 0, 0, 0,
+                0x1003, 0x0000, 0x0002, 0x4003, 0x5002, 0x6001), out, 10);
+        assertArrayEquals(EXPECTED, out);
+    }
+
+    @Test
+    public void decompress_ShortHeader() {
+        int[] out = new int[10];
+        PlioCodec.decompress(words(0, 0, 9,
+                0x1003, 0x0000, 0x0002, 0x4003, 0x5002, 0x6001), out, 10);
+        assertArrayEquals(EXPECTED, out);
+    }
+
+    @Test
+    public void decompress_Position() {
+        int[] out = new int[10];
+        ShortBuffer in = words(-1, 0, 0, 9,
+                0x1003, 0x0000, 0x0002, 0x4003, 0x5002, 0x6001);
+        in.position(1);
+        PlioCodec.decompress(in, out, 10);
+        assertArrayEquals(EXPECTED, out);
+    }
+
+    @Test
+    public void decompress_Truncate() {
+        int[] out = new int[4];
+        PlioCodec.decompress(words(0, 0, 9,
+                0x1003, 0x0000, 0x0002, 0x4003, 0x5002, 0x6001), out, 4);
+        assertArrayEquals(new int[]{0, 0, 3, 3}, out);
+    }
+
+    @Test
+    public void decompress_Relative() {
+        int[] out = new int[3];
+        PlioCodec.decompress(words(0, 0, 7, 0x2005, 0x4002, 0x3002, 0x4001),
+                out, 3);
+        assertArrayEquals(new int[]{6, 6, 4}, out);
+    }
+}
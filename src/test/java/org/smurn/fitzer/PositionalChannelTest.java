@@ -0,0 +1,131 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.smurn.fitzer.TestUtils.*;
+
+/**
+ * Unit tests for {@link PositionalChannel}.
+ */
+public class PositionalChannelTest {
+
+    private static byte[] bytes(int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) i;
+        }
+        return bytes;
+    }
+
+    @Test
+    public void read() throws IOException {
+        FileChannel file = file(bytes(100));
+        PositionalChannel target = new PositionalChannel(file, 10);
+        ByteBuffer buffer = ByteBuffer.allocate(5);
+        assertEquals(5, target.read(buffer));
+        assertArrayEquals(new byte[]{10, 11, 12, 13, 14}, buffer.array());
+        assertEquals(15, target.position());
+        assertEquals(0, file.position());
+    }
+
+    @Test
+    public void read_End() throws IOException {
+        PositionalChannel target = new PositionalChannel(file(bytes(10)), 8);
+        ByteBuffer buffer = ByteBuffer.allocate(5);
+        assertEquals(2, target.read(buffer));
+        assertEquals(-1, target.read(buffer));
+        assertEquals(10, target.position());
+    }
+
+    @Test
+    public void read_Independent() throws IOException {
+        FileChannel file = file(bytes(100));
+        PositionalChannel first = new PositionalChannel(file, 0);
+        PositionalChannel second = new PositionalChannel(file, 50);
+        ByteBuffer buffer = ByteBuffer.allocate(1);
+        first.read(buffer);
+        buffer.clear();
+        second.read(buffer);
+        assertEquals(50, buffer.get(0));
+        buffer.clear();
+        first.read(buffer);
+        assertEquals(1, buffer.get(0));
+    }
+
+    @Test
+    public void readHeader_Concurrent() throws Exception {
+        final FileChannel file = file(header(
+                "SIMPLE  =                    T",
+                "BITPIX  =                    8",
+                "NAXIS   =                    0",
+                "END"), header(
+                "XTENSION= 'IMAGE   '",
+                "BITPIX  =                    8",
+                "NAXIS   =                    0",
+                "PCOUNT  =                    0",
+                "GCOUNT  =                    1",
+                "END"));
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Callable<Header>> tasks = new ArrayList<Callable<Header>>();
+            for (int i = 0; i < 200; i++) {
+                final long offset = (i % 2) * 2880;
+                tasks.add(new Callable<Header>() {
+
+                    @Override
+                    public Header call() throws IOException {
+                        return new HeaderReader(new PositionalChannel(file,
+                                offset), offset, THROW_ALWAYS).readHeader();
+                    }
+                });
+            }
+            List<Future<Header>> futures = executor.invokeAll(tasks);
+            for (int i = 0; i < futures.size(); i++) {
+                Header header = futures.get(i).get();
+                assertEquals(i % 2 == 0 ? 3 : 5, header.size());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected = ClosedChannelException.class)
+    public void read_Closed() throws IOException {
+        FileChannel file = file(bytes(10));
+        PositionalChannel target = new PositionalChannel(file, 0);
+        target.close();
+        assertFalse(target.isOpen());
+        assertTrue(file.isOpen());
+        target.read(ByteBuffer.allocate(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ctor_NegativePosition() throws IOException {
+        new PositionalChannel(file(bytes(10)), -1);
+    }
+}
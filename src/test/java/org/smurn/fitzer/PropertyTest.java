@@ -0,0 +1,167 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.math.BigDecimal;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link Property}.
+ */
+public class PropertyTest {
+
+    @Test(expected = NullPointerException.class)
+    public void ctr_NullKeyword() {
+        new Property(null, "a");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ctr_WrongType() {
+        new Property("KEY", new Object());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ctr_CommentaryWithValue() {
+        new Property("COMMENT", "a", "", true);
+    }
+
+    @Test
+    public void getLong_FromLong() {
+        Property target = new Property("NAXIS1", 4096);
+        assertEquals(4096, target.getLong());
+        assertEquals(new BigDecimal(4096), target.getNumber());
+    }
+
+    @Test
+    public void getLong_FromCompact() {
+        Property target = new Property("NAXIS1", 102400, 2, "");
+        assertEquals(1024, target.getLong());
+    }
+
+    @Test
+    public void getLong_FromBigDecimal() {
+        Property target = new Property("NAXIS1", new BigDecimal("1024.000"));
+        assertEquals(1024, target.getLong());
+    }
+
+    @Test
+    public void getLong_Exponent() {
+        Property target = new Property("BIG", new BigDecimal("5E+17"));
+        assertEquals(500000000000000000L, target.getLong());
+    }
+
+    @Test
+    public void getLong_LongBigDecimal() {
+        Property target = new Property("BIG",
+                new BigDecimal("9223372036854775807"));
+        assertEquals(Long.MAX_VALUE, target.getLong());
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void getLong_Fraction() {
+        new Property("KEY", new BigDecimal("1.5")).getLong();
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void getLong_Overflow() {
+        new Property("KEY", new BigDecimal("1E+19")).getLong();
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void getLong_OverflowLarge() {
+        new Property("KEY", new BigDecimal("9223372036854775808")).getLong();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void getLong_String() {
+        new Property("KEY", "1").getLong();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void getLong_Null() {
+        new Property("KEY", null).getLong();
+    }
+
+    @Test
+    public void getInt() {
+        assertEquals(-32, new Property("BITPIX", -32).getInt());
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void getInt_Overflow() {
+        new Property("KEY", 1L << 31).getInt();
+    }
+
+    @Test
+    public void getDouble_Compact() {
+        assertEquals(0.15, new Property("BSCALE", 15, 2, "").getDouble(), 0);
+        assertEquals(1.5e25, new Property("KEY", 15, -24, "").getDouble(), 0);
+    }
+
+    @Test
+    public void getDouble_BigDecimal() {
+        BigDecimal value = new BigDecimal("1.2345678901234567890123E-300");
+        assertEquals(value.doubleValue(),
+                new Property("KEY", value).getDouble(), 0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void getString_Number() {
+        new Property("KEY", 5).getString();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void getComplex_Number() {
+        new Property("KEY", 5).getComplex();
+    }
+
+    @Test
+    public void getComplex() {
+        Complex value = new Complex(BigDecimal.ONE, BigDecimal.TEN);
+        assertEquals(value, new Property("KEY", value).getComplex());
+    }
+
+    @Test
+    public void getBoolean() {
+        assertEquals(Boolean.TRUE,
+                new Property("SIMPLE", Boolean.TRUE).getBoolean());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void getBoolean_String() {
+        new Property("SIMPLE", "T").getBoolean();
+    }
+
+    @Test
+    public void equals_SameNumber() {
+        Property a = new Property("KEY", 150, 2, "c");
+        Property b = new Property("KEY", new BigDecimal("1.50"), "c");
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+    }
+
+    @Test
+    public void equals_DifferentScale() {
+        assertFalse(new Property("KEY", 15, 1, "").equals(
+                new Property("KEY", 150, 2, "")));
+    }
+
+    @Test
+    public void equals_DifferentType() {
+        assertFalse(new Property("KEY", 1).equals(new Property("KEY", "1")));
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link Quantizer}.
+ */
+public class QuantizerTest {
+
+    @Test
+    public void random() {
+        assertEquals((float) (16807.0 / 2147483647.0), Quantizer.random(0),
+                0f);
+        assertEquals((float) (1043618065.0 / 2147483647.0),
+                Quantizer.random(Quantizer.RANDOM_COUNT - 1), 0f);
+    }
+
+    @Test
+    public void parseMethod() {
+        assertEquals(Quantizer.NO_DITHER, Quantizer.parseMethod(null));
+        assertEquals(Quantizer.NO_DITHER, Quantizer.parseMethod("NO_DITHER"));
+        assertEquals(Quantizer.SUBTRACTIVE_DITHER_1,
+                Quantizer.parseMethod("SUBTRACTIVE_DITHER_1"));
+        assertEquals(Quantizer.SUBTRACTIVE_DITHER_2,
+                Quantizer.parseMethod("SUBTRACTIVE_DITHER_2"));
+        assertEquals(-1, Quantizer.parseMethod("DITHER"));
+    }
+
+    @Test
+    public void firstSeed() {
+        assertEquals(0, Quantizer.firstSeed(0, 1));
+        assertEquals(12, Quantizer.firstSeed(3, 10));
+        assertEquals(1, Quantizer.firstSeed(10000, 2));
+    }
+
+    @Test
+    public void dequantize_NoDither() {
+        double[] out = new double[3];
+        Quantizer.dequantize(new int[]{2, -7, 5}, 3, 0.5, 1.0,
+                Quantizer.NO_DITHER, 0, 1, -7, out);
+        assertArrayEquals(new double[]{2.0, Double.NaN, 3.5}, out, 0.0);
+    }
+
+    @Test
+    public void dequantize_Dither() {
+        double[] out = new double[3];
+        Quantizer.dequantize(new int[]{2, Quantizer.ZERO_VALUE, 5}, 3, 0.5,
+                1.0, Quantizer.SUBTRACTIVE_DITHER_2, 4, 3, 0, out);
+        int next = (int) (Quantizer.random(6) * 500);
+        assertEquals((2 - Quantizer.random(next) + 0.5) * 0.5 + 1.0, out[0],
+                0.0);
+        assertEquals(0.0, out[1], 0.0);
+        assertEquals((5 - Quantizer.random(next + 2) + 0.5) * 0.5 + 1.0,
+                out[2], 0.0);
+    }
+
+    @Test
+    public void quantize_RoundTrip() {
+        double[] in = {1.0, 2.5, Double.NaN, -3.75, 8.0};
+        int[] quantized = new int[5];
+        double[] scaling = Quantizer.quantize(in, 5, 5, -0.25, 3, 2,
+                quantized);
+        assertEquals(0.25, scaling[0], 0.0);
+        assertEquals(Quantizer.NULL_VALUE, quantized[2]);
+        double[] out = new double[5];
+        Quantizer.dequantize(quantized, 5, scaling[0], scaling[1],
+                Quantizer.SUBTRACTIVE_DITHER_1, 3, 2, Quantizer.NULL_VALUE,
+                out);
+        assertTrue(Double.isNaN(out[2]));
+        for (int i : new int[]{0, 1, 3, 4}) {
+            assertEquals(in[i], out[i], 0.125);
+        }
+    }
+
+    @Test
+    public void quantize_NoNoise() {
+        double[] in = {1.0, 1.0, 1.0, 1.0, 1.0, 1.0};
+        assertNull(Quantizer.quantize(in, 6, 6, 4, 0, 1, new int[6]));
+    }
+
+    @Test
+    public void quantize_Infinite() {
+        double[] in = {1.0, Double.POSITIVE_INFINITY};
+        assertNull(Quantizer.quantize(in, 2, 2, -1, 0, 1, new int[2]));
+    }
+
+    @Test
+    public void noise() {
+        double[] in = {0, 0, 2, 0, 0, 0, 0};
+        assertEquals(0.6052697 * 2, Quantizer.noise(in, 7, 7), 1e-12);
+        double[] ramp = {0, 1, 2, 3, 4, 5, 6};
+        assertEquals(0.0, Quantizer.noise(ramp, 7, 7), 0.0);
+        double[] alternating = {1, 1, -1, -1, 1, 1, -1, -1};
+        assertEquals(0.6052697 * 4, Quantizer.noise(alternating, 8, 8),
+                1e-12);
+    }
+}
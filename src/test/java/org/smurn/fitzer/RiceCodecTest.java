@@ -0,0 +1,119 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link RiceCodec}.
+ */
+public class RiceCodecTest {
+
+    private static ByteBuffer bytes(int... values) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length + 2);
+        buffer.put((byte) 0x77);
+        for (int value : values) {
+            buffer.put((byte) value);
+        }
+        buffer.put((byte) 0x77);
+        buffer.position(1);
+        return buffer;
+    }
+
+    @Test
+    public void decompress_ZeroBlock() {
+        int[] out = new int[4];
+        RiceCodec.decompress(bytes(0x05, 0x00), out, 4, 32, 1);
+        assertArrayEquals(new int[]{5, 5, 5, 5}, out);
+    }
+
+    @Test
+    public void decompress_Coded() {
+        int[] out = new int[3];
+        RiceCodec.decompress(bytes(0x05, 0x52, 0x60), out, 3, 32, 1);
+        assertArrayEquals(new int[]{5, 6, 4}, out);
+    }
+
+    @Test
+    public void decompress_HighEntropy() {
+        int[] out = new int[2];
+        RiceCodec.decompress(bytes(0x05, 0xE0, 0x0F, 0x20), out, 2, 32, 1);
+        assertArrayEquals(new int[]{5, 200}, out);
+    }
+
+    @Test
+    public void decompress_Blocks() {
+        int[] out = new int[5];
+        RiceCodec.decompress(bytes(0x05, 0x00, 0x00), out, 5, 2, 1);
+        assertArrayEquals(new int[]{5, 5, 5, 5, 5}, out);
+    }
+
+    @Test
+    public void decompress_Int() {
+        int[] out = new int[3];
+        RiceCodec.decompress(bytes(0xFF, 0xFF, 0xFF, 0xFE, 0x00), out, 3, 32,
+                4);
+        assertArrayEquals(new int[]{-2, -2, -2}, out);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void decompress_Truncated() {
+        int[] out = new int[3];
+        ByteBuffer in = ByteBuffer.wrap(new byte[]{0x05, 0x52});
+        RiceCodec.decompress(in, out, 3, 32, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decompress_InvalidBytePix() {
+        RiceCodec.decompress(bytes(0, 0, 0), new int[1], 1, 32, 3);
+    }
+
+    @Test
+    public void compress_ZeroBlock() {
+        assertArrayEquals(new byte[]{0x05, 0x00},
+                RiceCodec.compress(new int[]{5, 5, 5, 5}, 0, 4, 32, 1));
+    }
+
+    @Test
+    public void compress_Coded() {
+        assertArrayEquals(new byte[]{0x05, 0x32, 0x20},
+                RiceCodec.compress(new int[]{9, 5, 6, 4}, 1, 3, 32, 1));
+    }
+
+    @Test
+    public void compress_RoundTrip() {
+        Random random = new Random(7);
+        int[] sizes = {1, 2, 4};
+        for (int bytePix : sizes) {
+            int[] pixels = new int[1000];
+            for (int i = 0; i < pixels.length; i++) {
+                int value = i < 500 ? (int) (random.nextGaussian() * 20)
+                        : random.nextInt();
+                pixels[i] = bytePix == 1 ? value & 0xFF
+                        : bytePix == 2 ? (short) value : value;
+            }
+            byte[] compressed = RiceCodec.compress(pixels, 0, 1000, 32,
+                    bytePix);
+            int[] out = new int[1000];
+            RiceCodec.decompress(ByteBuffer.wrap(compressed), out, 1000, 32,
+                    bytePix);
+            assertArrayEquals(pixels, out);
+        }
+    }
+}
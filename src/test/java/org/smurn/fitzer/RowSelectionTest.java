@@ -0,0 +1,68 @@
+/*
+ * Copyright 2012 Stefan C. Mueller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smurn.fitzer;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link RowSelection}.
+ */
+public class RowSelectionTest {
+
+    @Test
+    public void all() {
+        RowSelection target = RowSelection.all(10, 70);
+        assertEquals(10, target.getFirstRow());
+        assertEquals(70, target.getRowCount());
+        assertEquals(70, target.count());
+        assertFalse(target.isSelected(9));
+        assertTrue(target.isSelected(10));
+        assertTrue(target.isSelected(79));
+        assertFalse(target.isSelected(80));
+    }
+
+    @Test
+    public void all_Empty() {
+        RowSelection target = RowSelection.all(0, 0);
+        assertEquals(0, target.count());
+        assertEquals(-1, target.nextSelected(0));
+        assertEquals(0, target.toRows().length);
+    }
+
+    @Test
+    public void nextSelected() {
+        RowSelection target = RowSelection.all(100, 130);
+        long[] words = target.getWords();
+        words[0] = 1L << 3;
+        words[1] = 0;
+        words[2] = 1L << 1;
+        assertEquals(103, target.nextSelected(0));
+        assertEquals(103, target.nextSelected(103));
+        assertEquals(229, target.nextSelected(104));
+        assertEquals(-1, target.nextSelected(230));
+    }
+
+    @Test
+    public void toRows() {
+        RowSelection target = RowSelection.all(5, 128);
+        long[] words = target.getWords();
+        words[0] = 0x5L;
+        words[1] = 1L << 63;
+        assertArrayEquals(new long[]{5, 7, 132}, target.toRows());
+        assertEquals(3, target.count());
+    }
+}
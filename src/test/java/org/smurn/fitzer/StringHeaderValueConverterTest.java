@@ -20,6 +20,8 @@
 package org.smurn.fitzer;
 
 import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import org.junit.Test;
 import static org.junit.Assert.*;
 import static org.smurn.fitzer.TestUtils.*;
@@ -227,6 +229,51 @@ public class StringHeaderValueConverterTest extends HeaderValueConverterTest {
         verify(handler).fatal(expected);
     }
 
+    @Test
+    public void compatibleEncodingCheckBuffer_SingleQuoteString() {
+        StringHeaderValueConverter target = new StringHeaderValueConverter();
+        ByteBuffer buffer = ByteBuffer.wrap(toBytePad("KEYWORD = 'ab'", 80));
+        assertTrue(target.compatibleEncodingCheck(buffer, 10));
+    }
+
+    @Test
+    public void decodeBuffer_direct() throws IOException {
+        StringHeaderValueConverter target = new StringHeaderValueConverter();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(160);
+        buffer.put(toBytePad("KEYWORD = 'xy'", 80));
+        buffer.put(toBytePad("KEYWORD = 'a''b' / comment", 80));
+        buffer.flip();
+
+        StringHeaderValueConverter.ParsingResult actual =
+                target.decode(buffer, 90, 1090, THROW_ALWAYS);
+
+        StringHeaderValueConverter.ParsingResult expected =
+                new HeaderValueConverter.ParsingResult(true, 6, "a'b");
+
+        assertEquals(expected, actual);
+        assertEquals(0, buffer.position());
+        assertEquals(160, buffer.limit());
+    }
+
+    @Test
+    public void decodeBuffer_open() throws IOException {
+        ErrorHandler handler = mock(ErrorHandler.class);
+        StringHeaderValueConverter target = new StringHeaderValueConverter();
+        ByteBuffer buffer = ByteBuffer.wrap(toBytePad("KEYWORD = 'ab", 80));
+
+        FitsFormatException expected = new FitsFormatException(1079,
+                "StringHeaderValueConverter_DecodeOpen");
+
+        try {
+            target.decode(buffer, 10, 1010, handler);
+            fail("Fatal exception not thrown.");
+        } catch (IOException e) {
+            assertEquals(expected, e);
+        }
+
+        verify(handler).fatal(expected);
+    }
+
     @Test
     public void encode_fixed() throws IOException {
         StringHeaderValueConverter target = new StringHeaderValueConverter();
@@ -287,4 +334,68 @@ public class StringHeaderValueConverterTest extends HeaderValueConverterTest {
         }
         verify(handler).fatal(expected);
     }
+
+    @Test
+    public void encode_quote() throws IOException {
+        StringHeaderValueConverter target = new StringHeaderValueConverter();
+        byte[] actual = target.encode("it's", false, THROW_ALWAYS);
+        byte[] expected = toBytePad("'it''s'", 70);
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void encode_lengthEscaped() throws IOException {
+        ErrorHandler handler = mock(ErrorHandler.class);
+        StringHeaderValueConverter target = new StringHeaderValueConverter();
+
+        FitsDataException expected = new FitsDataException(
+                "StringHeaderValueConverter_EncodeLength",
+                repeat("'", 35), 70);
+        try {
+            target.encode(repeat("'", 35), false, handler);
+            fail("Fatal exception not thrown.");
+        } catch (FitsDataException ex) {
+            assertEquals(expected, ex);
+        }
+
+        verify(handler).fatal(expected);
+    }
+
+    @Test
+    public void encodeBuffer() throws IOException {
+        StringHeaderValueConverter target = new StringHeaderValueConverter();
+        ByteBuffer buffer = ByteBuffer.allocate(80);
+        buffer.position(10);
+
+        int actual = target.encode("it's", false, buffer, THROW_ALWAYS);
+
+        assertEquals(7, actual);
+        assertEquals(17, buffer.position());
+        byte[] bytes = new byte[7];
+        buffer.position(10);
+        buffer.get(bytes);
+        assertArrayEquals(toByte("'it''s'"), bytes);
+    }
+
+    @Test
+    public void encodeBuffer_Overflow() throws IOException {
+        StringHeaderValueConverter target = new StringHeaderValueConverter();
+        ByteBuffer buffer = ByteBuffer.allocate(80);
+        buffer.position(75);
+
+        try {
+            target.encode("abcd", false, buffer, THROW_ALWAYS);
+            fail("BufferOverflowException not thrown.");
+        } catch (BufferOverflowException ex) {
+            // expected
+        }
+        assertEquals(75, buffer.position());
+        assertArrayEquals(new byte[80], buffer.array());
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void encodeBuffer_NullTarget() throws IOException {
+        new StringHeaderValueConverter().encode("a", false, null,
+                THROW_ALWAYS);
+    }
 }
@@ -15,8 +15,16 @@
  */
 package org.smurn.fitzer;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 
 /**
  * Utility methods for unit tests.
@@ -83,4 +91,84 @@ public final class TestUtils {
     public static byte[] toBytePad(String string, int length) {
         return toByte(string + repeat(" ", length - string.length()));
     }
+
+    /**
+     * Builds FITS header blocks from header records.
+     * @param cards Header records, each padded with spaces to 80 bytes.
+     * @return Header records padded with spaces to a multiple of 2880 bytes.
+     */
+    public static byte[] header(String... cards) {
+        StringBuilder str = new StringBuilder();
+        for (String card : cards) {
+            str.append(card);
+            str.append(repeat(" ", 80 - card.length()));
+        }
+        int padding = (2880 - str.length() % 2880) % 2880;
+        str.append(repeat(" ", padding));
+        return toByte(str.toString());
+    }
+
+    /**
+     * Creates a channel reading from a byte array.
+     * @param bytes Bytes to read.
+     * @return Channel reading the bytes.
+     */
+    public static ReadableByteChannel channel(byte[] bytes) {
+        return Channels.newChannel(new ByteArrayInputStream(bytes));
+    }
+
+    /**
+     * Writes bytes into a temporary file that is deleted when the VM exits.
+     * @param parts Bytes to write, concatenated in the given order.
+     * @return Read-only channel of the file.
+     * @throws IOException if writing fails.
+     */
+    public static FileChannel file(byte[]... parts) throws IOException {
+        return file("r", parts);
+    }
+
+    /**
+     * Writes bytes into a temporary file that is deleted when the VM exits.
+     * @param parts Bytes to write, concatenated in the given order.
+     * @return Readable and writable channel of the file.
+     * @throws IOException if writing fails.
+     */
+    public static FileChannel rwFile(byte[]... parts) throws IOException {
+        return file("rw", parts);
+    }
+
+    /**
+     * Writes bytes into a temporary file that is deleted when the VM exits.
+     * @param mode Access mode as accepted by {@link RandomAccessFile}.
+     * @param parts Bytes to write, concatenated in the given order.
+     * @return Channel of the file.
+     * @throws IOException if writing fails.
+     */
+    private static FileChannel file(String mode, byte[]... parts)
+            throws IOException {
+        File file = File.createTempFile("fitzer", ".fits");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            for (byte[] part : parts) {
+                out.write(part);
+            }
+        } finally {
+            out.close();
+        }
+        return new RandomAccessFile(file, mode).getChannel();
+    }
+
+    /**
+     * Encodes numbers as big-endian 16 bit integers.
+     * @param values Numbers to encode.
+     * @return Encoded numbers.
+     */
+    public static byte[] shorts(int... values) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * 2);
+        for (int value : values) {
+            buffer.putShort((short) value);
+        }
+        return buffer.array();
+    }
 }